@@ -543,7 +543,7 @@ public class Disambiguator {
 				String ngram = s.substring(startIndex, currIndex) ;
 
 				if (! (ngram.length()==1 && s.substring(startIndex-1, startIndex).equals("'"))&& !ngram.trim().equals("")) {
-					Anchor anchor = new Anchor(wikipedia.getDatabase().addEscapes(ngram), tp, wikipedia.getDatabase()) ;
+					Anchor anchor = new Anchor(ngram, tp, wikipedia.getDatabase()) ;
 
 
 					if (anchor.getLinkProbability() > minLinkProbability)
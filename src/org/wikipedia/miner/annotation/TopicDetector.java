@@ -180,7 +180,7 @@ public class TopicDetector {
 					String ngram = s.substring(startIndex, currIndex) ;
 
 					if (! (ngram.length()==1 && s.substring(startIndex-1, startIndex).equals("'"))&& !ngram.trim().equals("") && !stopwords.contains(ngram.toLowerCase())) {
-						Anchor anchor = new Anchor(wikipedia.getDatabase().addEscapes(ngram), disambiguator.getTextProcessor(), wikipedia.getDatabase()) ;
+						Anchor anchor = new Anchor(ngram, disambiguator.getTextProcessor(), wikipedia.getDatabase()) ;
 
 						if (anchor.getLinkProbability() >= disambiguator.getMinLinkProbability()) {
 							Position pos = new Position(startIndex-2, currIndex-2) ;
@@ -0,0 +1,214 @@
+/*
+ *    AncestorIndex.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import gnu.trove.*;
+
+import java.util.Arrays;
+
+import org.wikipedia.miner.util.*;
+
+/**
+ * A precomputed closure of the category graph, which records every ancestor category of every page (up to a fixed
+ * depth), so that questions such as "is this article filed under category X?" can be answered without walking the
+ * graph.
+ * <p>
+ * The ancestors of each page are held as a sorted list of category ids, alongside the length of the shortest path
+ * (in category links) from the page to each one. All lists are packed into a single {@link LinkStore}, where
+ * the count of each link is the distance to the ancestor, so lookups are a binary search within a contiguous slice.
+ *
+ * @author David Milne
+ */
+public class AncestorIndex {
+
+	private LinkStore ancestors ;
+	private int maxDepth ;
+
+	/**
+	 * Creates an index over an existing store. This is used to wrap stores that have been memory-mapped from a file,
+	 * and is not needed otherwise; use {@link #build(LinkStore, int, ProgressNotifier)} instead.
+	 *
+	 * @param ancestors the ancestors of every page, with the distance to each ancestor held as its count
+	 * @param maxDepth the maximum distance of any ancestor that was indexed
+	 */
+	public AncestorIndex(LinkStore ancestors, int maxDepth) {
+		this.ancestors = ancestors ;
+		this.maxDepth = maxDepth ;
+	}
+
+	/**
+	 * Builds an index by walking up the category graph from every page, to the given depth.
+	 *
+	 * @param parentIds the ids of the parent categories of each page
+	 * @param maxDepth the maximum number of category links to follow from each page (1 will index parents only, 2 will add grandparents, etc.)
+	 * @param pn an optional progress notifier
+	 * @return the index
+	 */
+	protected static AncestorIndex build(LinkStore parentIds, int maxDepth, ProgressNotifier pn) {
+
+		int[] ids = new int[parentIds.getPageCount()] ;
+		for (int row=0 ; row<ids.length ; row++)
+			ids[row] = parentIds.getIdForRow(row) ;
+		Arrays.sort(ids) ;
+
+		if (pn == null) pn = new ProgressNotifier(1) ;
+		pn.startTask(ids.length, "indexing ancestor categories") ;
+
+		LinkStore.Builder builder = new LinkStore.Builder(true, ids.length, (int)Math.min((long)ids.length * Math.max(1, maxDepth), Integer.MAX_VALUE/4)) ;
+
+		TIntIntHashMap distances = new TIntIntHashMap() ;
+		TIntArrayList frontier = new TIntArrayList() ;
+		TIntArrayList nextFrontier = new TIntArrayList() ;
+
+		for (int id:ids) {
+
+			// breadth first, so that each ancestor is first reached by its shortest path
+			distances.clear() ;
+			frontier.resetQuick() ;
+			frontier.add(id) ;
+
+			for (int depth=1 ; depth<=maxDepth && frontier.size() > 0 ; depth++) {
+				nextFrontier.resetQuick() ;
+
+				for (int f=0 ; f<frontier.size() ; f++) {
+					LinkList parents = parentIds.getLinks(frontier.get(f)) ;
+					if (parents == null)
+						continue ;
+
+					for (int p=0 ; p<parents.size() ; p++) {
+						int parent = parents.getId(p) ;
+						if (parent == id || distances.containsKey(parent))
+							continue ;
+
+						distances.put(parent, depth) ;
+						nextFrontier.add(parent) ;
+					}
+				}
+
+				TIntArrayList temp = frontier ;
+				frontier = nextFrontier ;
+				nextFrontier = temp ;
+			}
+
+			int[] ancestorIds = distances.keys() ;
+			Arrays.sort(ancestorIds) ;
+
+			int[] ancestorDistances = new int[ancestorIds.length] ;
+			for (int i=0 ; i<ancestorIds.length ; i++)
+				ancestorDistances[i] = distances.get(ancestorIds[i]) ;
+
+			builder.add(id, ancestorIds, ancestorDistances, ancestorIds.length) ;
+			pn.update() ;
+		}
+
+		return new AncestorIndex(builder.build(), maxDepth) ;
+	}
+
+	/**
+	 * @return the maximum distance of any ancestor in this index. Ancestors that are further away than this are not indexed.
+	 */
+	public int getMaxDepth() {
+		return maxDepth ;
+	}
+
+	/**
+	 * @return the number of pages whose ancestors are indexed
+	 */
+	public int getPageCount() {
+		return ancestors.getPageCount() ;
+	}
+
+	/**
+	 * @param pageId the id of a page
+	 * @param categoryId the id of a category
+	 * @return true if the given category is an ancestor of the given page (within getMaxDepth() category links), otherwise false.
+	 */
+	public boolean isDescendantOf(int pageId, int categoryId) {
+		return getDistance(pageId, categoryId) > 0 ;
+	}
+
+	/**
+	 * @param pageId the id of a page
+	 * @param categoryId the id of a category
+	 * @param depth the maximum number of category links between the page and the category
+	 * @return true if the given category is an ancestor of the given page, within the given depth, otherwise false.
+	 */
+	public boolean isDescendantOf(int pageId, int categoryId, int depth) {
+		int distance = getDistance(pageId, categoryId) ;
+		return distance > 0 && distance <= depth ;
+	}
+
+	/**
+	 * @param pageId the id of a page
+	 * @param categoryId the id of a category
+	 * @return the length of the shortest path (in category links) from the given page up to the given category, or -1 if the category is not an indexed ancestor of the page.
+	 */
+	public int getDistance(int pageId, int categoryId) {
+
+		LinkList l = ancestors.getLinks(pageId) ;
+		if (l == null)
+			return -1 ;
+
+		int index = l.indexOf(categoryId) ;
+		if (index < 0)
+			return -1 ;
+
+		return l.getCount(index) ;
+	}
+
+	/**
+	 * @param pageId the id of a page
+	 * @param depth the maximum number of category links between the page and each ancestor (depths beyond getMaxDepth() are not indexed)
+	 * @return the ids of all ancestor categories of the given page within the given depth, in ascending order.
+	 */
+	public int[] getAncestorIds(int pageId, int depth) {
+
+		LinkList l = ancestors.getLinks(pageId) ;
+		if (l == null)
+			return new int[0] ;
+
+		if (depth >= maxDepth)
+			return l.getIds() ;
+
+		TIntArrayList ancestorIds = new TIntArrayList() ;
+		for (int i=0 ; i<l.size() ; i++) {
+			if (l.getCount(i) <= depth)
+				ancestorIds.add(l.getId(i)) ;
+		}
+
+		return ancestorIds.toNativeArray() ;
+	}
+
+	/**
+	 * Indexes the pages of this index by the given ordinals, so that they can be found without hashing.
+	 *
+	 * @param ordinals the ordinals of (typically) all pages whose ancestors are indexed
+	 */
+	public void setOrdinals(PageOrdinals ordinals) {
+		ancestors.setOrdinals(ordinals) ;
+	}
+
+	/**
+	 * @return the store that holds the ancestors of every page
+	 */
+	protected LinkStore getStore() {
+		return ancestors ;
+	}
+}
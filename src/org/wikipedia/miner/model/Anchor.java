@@ -23,7 +23,6 @@ package org.wikipedia.miner.model;
 import gnu.trove.* ;
 import org.wikipedia.miner.util.text.*;
 import org.wikipedia.miner.util.*;
-import org.wikipedia.miner.model.WikipediaDatabase.CachedAnchor ;
 
 import java.text.DecimalFormat;
 import java.sql.*;
@@ -76,11 +75,12 @@ public class Anchor implements Comparable<Anchor>{
 		if (tp != null)
 			t = tp.processText(t) ;
 		
-		CachedAnchor ca = database.cachedAnchors.get(t) ;
+		AnchorLexicon lexicon = database.getCaches().cachedAnchors ;
+		int index = lexicon.indexOf(t) ;
 		
-		if (ca != null) {
-			linkCount = ca.linkCount ;
-			occCount = ca.occCount ;
+		if (index >= 0) {
+			linkCount = lexicon.getLinkCount(index) ;
+			occCount = lexicon.getOccCount(index) ;
 			// no need to setup senses. They are sitting in memory already, so getSenses() can look them up efficiently  
 		} else {
 			//given text was never used as an anchor.
@@ -91,22 +91,20 @@ public class Anchor implements Comparable<Anchor>{
 	
 	private void initializeFromDatabase() throws SQLException{
 		
-		Statement stmt = database.createStatement() ;
-		ResultSet rs ;
+		String processedText = text ;
+		if (tp != null) 
+			processedText = tp.processText(text) ;
 		
 		if (database.areAnchorOccurancesSummarized()) {
 			occCount = 0 ;
 			linkCount = 0 ;
 			//	will leave loading of senses for when getSenses() is called
 
-			if (tp==null) 
-				rs = stmt.executeQuery("SELECT ao_linkCount, ao_occCount FROM anchor_occurance WHERE ao_text=\"" + database.addEscapes(text) + "\"") ;
-			else 
-				rs = stmt.executeQuery("SELECT ao_linkCount, ao_occCount FROM anchor_occurance_" + tp.getName() + " WHERE ao_text=\"" + database.addEscapes(tp.processText(text)) + "\"") ;
+			int[] counts = database.getStore().getAnchorOccurrences(processedText, tp) ;
 			
-			if (rs.first()) {
-				linkCount = rs.getInt(1) ;
-				occCount = rs.getInt(2) ;
+			if (counts != null) {
+				linkCount = counts[0] ;
+				occCount = counts[1] ;
 			}
 		} else {
 			linkCount = 0 ;
@@ -115,27 +113,15 @@ public class Anchor implements Comparable<Anchor>{
 			//we have to iterate though all senses to get link count, so lets load them up now
 			senses = new SortedVector<Sense>() ;
 			
-			if (tp==null)
-				rs = stmt.executeQuery("SELECT an_to, an_count, an_type FROM anchor WHERE an_text=\"" + text + "\" ORDER BY an_count DESC, an_to") ;
-			else 
-				rs = stmt.executeQuery("SELECT an_to, an_count, an_type FROM anchor_" + tp.getName() + " WHERE an_text=\"" + tp.processText(text) + "\" ORDER BY an_count DESC, an_to") ;
-			
-			while (rs.next()) {
-				int an_to = rs.getInt(1) ;
-				int an_count = rs.getInt(2) ;
-				int an_type = rs.getInt(3) ;
-
-				linkCount = linkCount + an_count ;
+			for (WikipediaStore.AnchorRecord r:database.getStore().getAnchorSenses(processedText, tp)) {
+				linkCount = linkCount + r.count ;
 
 				try{
-					Sense sense = new Sense(an_to, an_count, an_type, database) ;
+					Sense sense = new Sense(r.id, r.count, r.type, database) ;
 					senses.add(sense, true) ;
 				} catch (Exception e) { };
 			}
 		}
-		
-		rs.close();
-		stmt.close();
 	}
 	
 	/**
@@ -215,14 +201,16 @@ public class Anchor implements Comparable<Anchor>{
 			if (tp != null)
 				t = tp.processText(t) ;
 			
-			CachedAnchor ca = database.cachedAnchors.get(t) ;
+			AnchorLexicon lexicon = database.getCaches().cachedAnchors ;
+			int index = lexicon.indexOf(t) ;
 			
-			if (ca == null)
+			if (index < 0)
 				return senses ;
 			
-			for (int[] s:ca.senses) {
+			int senseCount = lexicon.getSenseCount(index) ;
+			for (int s=0 ; s<senseCount ; s++) {
 				try{
-					Sense sense = new Sense(s[0], s[1], s[2], database) ;
+					Sense sense = new Sense(lexicon.getSenseId(index, s), lexicon.getSenseLinkCount(index, s), lexicon.getSenseType(index, s), database) ;
 					senses.add(sense, false) ;
 				} catch (Exception e) {} ;		
 			}
@@ -232,26 +220,16 @@ public class Anchor implements Comparable<Anchor>{
 			
 			this.senses = new SortedVector<Sense>() ;
 			
-			Statement stmt = database.createStatement() ;
-			ResultSet rs ;
-			
-			if (tp == null)
-				rs = stmt.executeQuery("SELECT an_to, an_count, an_type FROM anchor WHERE an_text=\"" + database.addEscapes(text) + "\" ORDER BY an_count DESC") ;
-			else
-				rs = stmt.executeQuery("SELECT an_to, an_count, an_type FROM anchor_" + tp.getName() + " WHERE an_text=\"" + database.addEscapes(tp.processText(text)) + "\" ORDER BY an_count DESC") ;
+			String t = text ;
+			if (tp != null)
+				t = tp.processText(t) ;
 			
-			while (rs.next()) {
-				int an_to = rs.getInt(1) ;
-				int an_count = rs.getInt(2) ;
-				int an_type = rs.getInt(3) ;
-				
+			for (WikipediaStore.AnchorRecord r:database.getStore().getAnchorSenses(t, tp)) {
 				try{
-					Sense sense = new Sense(an_to, an_count, an_type, database) ;
+					Sense sense = new Sense(r.id, r.count, r.type, database) ;
 					this.senses.add(sense, false) ;
 				} catch (Exception e) {} ;
 			}
-			rs.close();
-			stmt.close();
 			
 			return senses ;
 		}
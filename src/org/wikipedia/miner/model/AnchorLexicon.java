@@ -0,0 +1,242 @@
+/*
+ *    AnchorLexicon.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import gnu.trove.THashMap;
+
+import org.wikipedia.miner.model.WikipediaDatabase.CachedAnchor;
+import org.wikipedia.miner.util.*;
+
+/**
+ * A compact, read-only dictionary of cached anchors. Rather than keeping a String, a CachedAnchor and an array
+ * of senses for every anchor, all of the anchor texts are stored (UTF-8 encoded) in a single arena that is indexed
+ * by a {@link MinimalPerfectHash}. The slot that the hash returns for an anchor is an index into flat arrays of link
+ * counts, occurrence counts and senses.
+ * <p>
+ * A lexicon can either be built from the anchors gathered by WikipediaDatabase.cacheAnchors(), or be memory-mapped
+ * from a {@link CacheSnapshot}.
+ *
+ * @author David Milne
+ */
+public class AnchorLexicon {
+
+	private MinimalPerfectHash hash ;
+
+	private IntBuffer linkCounts ;
+	private IntBuffer occCounts ;
+
+	private IntBuffer senseOffsets ;
+	private IntBuffer senseIds ;
+	private IntBuffer senseCounts ;
+	private ByteBuffer senseTypes ;
+
+	/**
+	 * Creates a lexicon over existing buffers, all of which are indexed by the slots of the given hash.
+	 *
+	 * @param hash a minimal perfect hash over the (processed) anchor texts
+	 * @param linkCounts the number of times each anchor is used as a link
+	 * @param occCounts the number of times each anchor occurs in total (or -1, if this is unknown)
+	 * @param senseOffsets size()+1 offsets, such that the senses of slot s are found from senseOffsets[s] (inclusive) to senseOffsets[s+1] (exclusive)
+	 * @param senseIds the destination of each sense
+	 * @param senseCounts the number of times the anchor links to each sense
+	 * @param senseTypes the type of each sense (whether it is mirrored by a title or redirect)
+	 */
+	public AnchorLexicon(MinimalPerfectHash hash, IntBuffer linkCounts, IntBuffer occCounts, IntBuffer senseOffsets, IntBuffer senseIds, IntBuffer senseCounts, ByteBuffer senseTypes) {
+		this.hash = hash ;
+		this.linkCounts = linkCounts ;
+		this.occCounts = occCounts ;
+		this.senseOffsets = senseOffsets ;
+		this.senseIds = senseIds ;
+		this.senseCounts = senseCounts ;
+		this.senseTypes = senseTypes ;
+	}
+
+	/**
+	 * Builds a lexicon from the given anchors.
+	 *
+	 * @param anchors a map of (processed) anchor texts to cached anchors
+	 * @return an equivalent lexicon
+	 */
+	protected static AnchorLexicon build(THashMap<String,CachedAnchor> anchors) {
+
+		int count = anchors.size() ;
+
+		String[] texts = anchors.keySet().toArray(new String[count]) ;
+		byte[][] keys = new byte[count][] ;
+
+		long senseCount = 0 ;
+		for (int i=0 ; i<count ; i++) {
+			keys[i] = encode(texts[i]) ;
+			senseCount = senseCount + anchors.get(texts[i]).getSenseCount() ;
+		}
+
+		if (senseCount > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("too many senses to store in a single lexicon") ;
+
+		MinimalPerfectHash hash = MinimalPerfectHash.build(keys) ;
+
+		CachedAnchor[] anchorsBySlot = new CachedAnchor[count] ;
+		for (int i=0 ; i<count ; i++)
+			anchorsBySlot[hash.lookup(keys[i])] = anchors.get(texts[i]) ;
+
+		texts = null ;
+		keys = null ;
+
+		int[] linkCounts = new int[count] ;
+		int[] occCounts = new int[count] ;
+		int[] senseOffsets = new int[count+1] ;
+		int[] senseIds = new int[(int)senseCount] ;
+		int[] senseCounts = new int[(int)senseCount] ;
+		byte[] senseTypes = new byte[(int)senseCount] ;
+
+		int index = 0 ;
+		for (int slot=0 ; slot<count ; slot++) {
+			CachedAnchor ca = anchorsBySlot[slot] ;
+
+			linkCounts[slot] = ca.linkCount ;
+			occCounts[slot] = ca.occCount ;
+			senseOffsets[slot] = index ;
+
+			int length = ca.getSenseCount() ;
+
+			System.arraycopy(ca.senseIds, 0, senseIds, index, length) ;
+			System.arraycopy(ca.senseCounts, 0, senseCounts, index, length) ;
+			for (int s=0 ; s<length ; s++)
+				senseTypes[index+s] = (byte)ca.senseTypes[s] ;
+
+			index = index + length ;
+		}
+		senseOffsets[count] = index ;
+
+		return new AnchorLexicon(hash, IntBuffer.wrap(linkCounts), IntBuffer.wrap(occCounts), IntBuffer.wrap(senseOffsets), IntBuffer.wrap(senseIds), IntBuffer.wrap(senseCounts), ByteBuffer.wrap(senseTypes)) ;
+	}
+
+	/**
+	 * @return the number of anchors in this lexicon
+	 */
+	public int size() {
+		return hash.size() ;
+	}
+
+	/**
+	 * @param text the (processed) text of an anchor
+	 * @return the index of the given anchor, or -1 if it is not in this lexicon.
+	 */
+	public int indexOf(String text) {
+		return hash.lookup(encode(text)) ;
+	}
+
+	/**
+	 * @param text the (processed) text of an anchor
+	 * @return true if the given anchor is in this lexicon, otherwise false.
+	 */
+	public boolean contains(String text) {
+		return indexOf(text) >= 0 ;
+	}
+
+	/**
+	 * @param index the index of an anchor
+	 * @return the (processed) text of the anchor
+	 */
+	public String getText(int index) {
+		try {
+			return new String(hash.getKey(index), "UTF-8") ;
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e) ;
+		}
+	}
+
+	/**
+	 * @param index the index of an anchor
+	 * @return the number of times the anchor is used as a link
+	 */
+	public int getLinkCount(int index) {
+		return linkCounts.get(index) ;
+	}
+
+	/**
+	 * @param index the index of an anchor
+	 * @return the number of times the anchor occurs, whether as a link or not (or -1 if this is unknown)
+	 */
+	public int getOccCount(int index) {
+		return occCounts.get(index) ;
+	}
+
+	/**
+	 * @param index the index of an anchor
+	 * @return the number of distinct destinations the anchor links to
+	 */
+	public int getSenseCount(int index) {
+		return senseOffsets.get(index+1) - senseOffsets.get(index) ;
+	}
+
+	/**
+	 * @param index the index of an anchor
+	 * @param sense the index of a sense, between 0 and getSenseCount(index)
+	 * @return the id of the page that the sense refers to
+	 */
+	public int getSenseId(int index, int sense) {
+		return senseIds.get(senseOffsets.get(index) + sense) ;
+	}
+
+	/**
+	 * @param index the index of an anchor
+	 * @param sense the index of a sense, between 0 and getSenseCount(index)
+	 * @return the number of times the anchor links to the sense
+	 */
+	public int getSenseLinkCount(int index, int sense) {
+		return senseCounts.get(senseOffsets.get(index) + sense) ;
+	}
+
+	/**
+	 * @param index the index of an anchor
+	 * @param sense the index of a sense, between 0 and getSenseCount(index)
+	 * @return the type of the sense (whether the anchor is mirrored by the title or a redirect of the page)
+	 */
+	public int getSenseType(int index, int sense) {
+		return senseTypes.get(senseOffsets.get(index) + sense) ;
+	}
+
+	/**
+	 * @return the hash that indexes this lexicon
+	 */
+	protected MinimalPerfectHash getHash() {
+		return hash ;
+	}
+
+	/**
+	 * @return the total number of senses (of all anchors) in this lexicon
+	 */
+	protected int getTotalSenseCount() {
+		return senseOffsets.get(size()) ;
+	}
+
+	private static byte[] encode(String text) {
+		try {
+			return text.getBytes("UTF-8") ;
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e) ;
+		}
+	}
+}
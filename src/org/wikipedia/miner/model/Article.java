@@ -20,6 +20,7 @@
 package org.wikipedia.miner.model;
 
 import java.io.*;
+import java.sql.PreparedStatement ;
 import java.sql.ResultSet ;
 import java.sql.Statement ;
 import java.sql.SQLException ;
@@ -40,12 +41,16 @@ public class Article extends Page {
 	/**
 	 * ids of incoming links - needed every time we calculate sr, so lets cache it
 	 */
-	private int inLinkIds[] ;
+	private LinkList inLinks ;
 
 	/**
 	 * ids and counts of outgoing links - needed every time we calculate sr, so lets cache it
 	 */
-	private int outLinkIdsAndCounts[][] ;
+	private LinkList outLinks ;
+	
+	// counts that have already been retrieved in bulk (see prefetchLinkCounts())
+	private int prefetchedLinksInCount = -1 ;
+	private int prefetchedLinksOutCount = -1 ;
 
 
 	/**
@@ -99,18 +104,8 @@ public class Article extends Page {
 	public SortedVector<Redirect> getRedirects() throws SQLException{
 		SortedVector<Redirect> redirects = new SortedVector<Redirect>() ;
 
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id, page_title, page_type FROM redirect, page WHERE page_id=rd_from AND rd_to=" + id) ;
-
-		while(rs.next()) {
-			try {
-				Redirect wr = new Redirect(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
-				redirects.add(wr, true) ;
-			} catch (Exception e) {} ;	
-		}
-
-		rs.close() ;
-		stmt.close() ;
+		for (WikipediaStore.PageRecord r:database.getStore().getRedirectsTo(id)) 
+			redirects.add(new Redirect(database, r.id, r.title), true) ;
 
 		return redirects ;	
 	}
@@ -120,15 +115,15 @@ public class Article extends Page {
 	 */
 	public int[] getParentCategoryIds() {
 		
-		int[] parentIds = null;
+		LinkList parentIds = null;
 		
 		if (database.areParentIdsCached())
-			parentIds = database.cachedParentIds.get(id) ;
+			parentIds = database.getCaches().cachedParentIds.getLinks(id) ;
 		
 		if (parentIds == null)
-			parentIds = new int[0] ;
+			return new int[0] ;
 		
-		return parentIds ;
+		return parentIds.getIds() ;
 	}
 
 	/**
@@ -144,19 +139,8 @@ public class Article extends Page {
 		
 		SortedVector<Category> parentCategories = new SortedVector<Category>() ;
 
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id, page_title, page_type FROM categorylink, page WHERE cl_parent=page_id AND cl_child=" + id + " ORDER BY page_id") ;
-
-		while(rs.next()) {
-
-			try {
-				Category wc = new Category(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
-				parentCategories.add(wc, true) ;
-			} catch (Exception e) {} ;	
-		}
-
-		rs.close() ;
-		stmt.close() ;
+		for (WikipediaStore.PageRecord r:database.getStore().getParentCategories(id)) 
+			parentCategories.add(new Category(database, r.id, r.title), true) ;
 
 		return parentCategories ;
 	}
@@ -176,8 +160,9 @@ public class Article extends Page {
 
 		Category equivalentCategory = null ;
 
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id, page_title FROM equivalence, page WHERE page_id=eq_cat AND eq_art=" + id) ;
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("equivalent_category") ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
 
 		if (rs.first()) {
 			try {
@@ -200,36 +185,7 @@ public class Article extends Page {
 	 * @throws SQLException if there is a problem with the wikipedia database
 	 */
 	public SortedVector<Article> getLinksIn() throws SQLException{
-
-		SortedVector<Article> articles = new SortedVector<Article>() ;	
-
-		String query = "" ;
-
-		for (int linkIn: getLinksInIds()) {
-			query = query + linkIn + "," ;
-		}
-
-		if (query.length() > 0) {
-			query = query.substring(0, query.length()-1) ;
-
-			Statement stmt = getWikipediaDatabase().createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id, page_title, page_type FROM page WHERE page_id IN (" + query + ") ORDER BY page_id") ;
-
-			while(rs.next()) {
-				int type = rs.getInt(3) ;
-				try {
-					if (type == Page.ARTICLE) 
-						articles.add(new Article(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")), true) ;
-
-					if (type == Page.DISAMBIGUATION) 
-						articles.add(new Disambiguation(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")), true) ;
-				} catch (Exception e) {} ;	
-			}
-			rs.close() ;
-			stmt.close() ;
-		}
-
-		return articles ;
+		return getArticles(getLinksInList()) ;
 	}
 
 	/**
@@ -241,35 +197,22 @@ public class Article extends Page {
 	 * @throws SQLException if there is a problem with the wikipedia database
 	 */
 	public SortedVector<Article> getLinksOut() throws SQLException{
-
+		return getArticles(getLinksOutList()) ;
+	}
+	
+	private SortedVector<Article> getArticles(LinkList links) throws SQLException {
+		
 		SortedVector<Article> articles = new SortedVector<Article>() ;	
-
-		String query = "" ;
-
-		for (int linksOut[]: getLinksOutIdsAndCounts()) {
-			query = query + linksOut[0] + "," ;
-		}
-
-		if (query.length() > 0) {
-			query = query.substring(0, query.length()-1) ;
-
-			Statement stmt = getWikipediaDatabase().createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id, page_title, page_type FROM page WHERE page_id IN (" + query + ") ORDER BY page_id") ;
-
-			while(rs.next()) {
-				int type = rs.getInt(3) ;
-				try {
-					if (type == Page.ARTICLE) 
-						articles.add(new Article(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")), true) ;
-
-					if (type == Page.DISAMBIGUATION) 
-						articles.add(new Disambiguation(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")), true) ;
-				} catch (Exception e) {} ;	
-			}
-			rs.close() ;
-			stmt.close() ;
+		
+		// ids are in ascending order, and so are the pages retrieved for them
+		for (Page p:database.getPages(links.getIds())) {
+			if (p == null)
+				continue ;
+			
+			if (p.getType() == Page.ARTICLE || p.getType() == Page.DISAMBIGUATION) 
+				articles.add((Article)p, true) ;
 		}
-
+		
 		return articles ;
 	}
 
@@ -282,8 +225,9 @@ public class Article extends Page {
 	public Vector<String> getAvaliableLanguages() throws SQLException {
 		Vector<String> languages = new Vector<String>() ; 
 
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT tl_lang FROM translation WHERE tl_id=" + id) ; 
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("translation_languages") ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
 
 		while(rs.next())
 			languages.add(rs.getString(1)) ;
@@ -305,8 +249,10 @@ public class Article extends Page {
 	public String getTranslation(String languageCode) throws SQLException {
 		String translation = null ;
 
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT tl_text FROM translation WHERE tl_id=" + id + " AND tl_lang=\"" + languageCode + "\"") ; 
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("translation") ;
+		stmt.setInt(1, id) ;
+		stmt.setString(2, languageCode) ;
+		ResultSet rs = stmt.executeQuery() ;
 
 		try {
 			if(rs.first())
@@ -328,8 +274,9 @@ public class Article extends Page {
 	public HashMap<String,String> getTranslations() throws SQLException{
 		HashMap<String,String> translations = new HashMap<String,String>() ;
 
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT tl_lang, tl_text FROM translation WHERE tl_id=" + id) ; 
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("translations") ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
 
 		try {
 			while(rs.next())
@@ -391,42 +338,90 @@ public class Article extends Page {
 	 * @throws SQLException if there is a problem with the Wikipedia database.
 	 */
 	public int[] getLinksInIds() throws SQLException{
+		return getLinksInList().getIds() ;
+	}
+	
+	/**
+	 * Returns the ids of articles that link to this page (with redirects resolved), as an ordered list. 
+	 * If links are cached, then this is a view directly into the cache, so nothing is copied.  
+	 * 
+	 * @return an ordered list of article ids that link to this page 
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	public LinkList getLinksInList() throws SQLException{
 
-		if (inLinkIds != null)
-			return inLinkIds ;
+		if (inLinks != null)
+			return inLinks ;
 
 		if (database.areInLinksCached()){
-			//if this stuff is cached then we just want to grab it. Dont save it to this.inLinkIds, otherwise we would have duplicate copies in memory
-
-			if (database.cachedInLinks.containsKey(id))
-				return database.cachedInLinks.get(id) ;
+			//if this stuff is cached then we just want to grab it. Dont save it to this.inLinks, otherwise we would hold on to views of the cache
+			if (database.areInLinksCompressed()) {
+				CompressedLinkList links = database.getCaches().cachedCompressedInLinks.getLinks(id) ;
+				
+				if (links != null)
+					return new LinkList(links.getIds()) ;
+				else
+					return new LinkList(new int[0]) ; 
+			}
+			
+			LinkList links = database.getCaches().cachedInLinks.getLinks(id) ;
+			
+			if (links != null)
+				return links ;
 			else
-				return new int[0] ; 
+				return new LinkList(new int[0]) ; 
 		}
 
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT li_data FROM pagelink_in WHERE li_id=" + id) ;
-
-		inLinkIds = new int[0] ;
+		inLinks = database.getStore().getLinksIn(id) ;
+		return inLinks ;
+	}
+	
+	/**
+	 * Sets the links into this article, after they have been retrieved in bulk (see WikipediaDatabase.loadLinks()).
+	 * 
+	 * @param links an ordered list of article ids that link to this page
+	 */
+	protected void setLinksInList(LinkList links) {
+		inLinks = links ;
+	}
+	
+	/**
+	 * @return true if the links into this article have already been retrieved, otherwise false.
+	 */
+	protected boolean isLinksInListLoaded() {
+		return inLinks != null ;
+	}
+	
+	/**
+	 * Parses links in, as they are stored in the pagelink_in table (a colon separated list of ids)
+	 * 
+	 * @param data the stored links
+	 * @return the parsed links
+	 */
+	protected static LinkList parseLinksIn(String data) {
 		
+		int[] inLinkIds = new int[0] ;
 		
-
-		if (rs.first()) {
-			String data = rs.getString(1) ;
-			if (!data.equals("")) {
-				String[] l = data.split(":") ;
-				inLinkIds = new int[l.length] ;
-				for (int i=0 ; i<l.length ; i++) 
-					inLinkIds[i] = new Integer(l[i]).intValue() ;
-			}
+		if (data != null && !data.equals("")) {
+			String[] l = data.split(":") ;
+			inLinkIds = new int[l.length] ;
+			for (int i=0 ; i<l.length ; i++) 
+				inLinkIds[i] = new Integer(l[i]).intValue() ;
 		}
 		
-		
-
-		rs.close() ;
-		stmt.close() ;
-
-		return inLinkIds ;
+		return new LinkList(inLinkIds) ;
+	}
+	
+	/**
+	 * Supplies the number of links in to and out from this article, when they have already been retrieved along with 
+	 * many others (e.g. by a PageIterator that joins in link counts), so that they do not need to be queried again.
+	 * 
+	 * @param linksInCount the number of articles that link to this one
+	 * @param linksOutCount the number of articles that this one links to
+	 */
+	public void prefetchLinkCounts(int linksInCount, int linksOutCount) {
+		this.prefetchedLinksInCount = linksInCount ;
+		this.prefetchedLinksOutCount = linksOutCount ;
 	}
 	
 	/**
@@ -435,18 +430,10 @@ public class Article extends Page {
 	 */
 	public int getLinksInCount() throws SQLException {
 		
-		int linkCount = 0 ;
-		
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT lc_in FROM linkcount WHERE lc_id=" + id) ;
-		
-		if (rs.first())
-			linkCount = rs.getInt(1) ;
-		
-		rs.close() ;
-		stmt.close() ;
+		if (prefetchedLinksInCount >= 0)
+			return prefetchedLinksInCount ;
 		
-		return linkCount ;
+		return database.getStore().getLinkCount(id, true) ;
 	}
 	
 	/**
@@ -455,18 +442,10 @@ public class Article extends Page {
 	 */
 	public int getLinksOutCount() throws SQLException {
 		
-		int linkCount = 0 ;
+		if (prefetchedLinksOutCount >= 0)
+			return prefetchedLinksOutCount ;
 		
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT lc_out FROM linkcount WHERE lc_id=" + id) ;
-		
-		if (rs.first())
-			linkCount = rs.getInt(1) ;
-		
-		rs.close() ;
-		stmt.close() ;
-		
-		return linkCount ;
+		return database.getStore().getLinkCount(id, false) ;
 	}
 	
 	/**
@@ -474,57 +453,85 @@ public class Article extends Page {
 	 * @throws SQLException
 	 */
 	public int[] getLinksOutIds() throws SQLException {
-		
-		int[][] idsAndCounts = getLinksOutIdsAndCounts() ;
-		
-		int[] idsOnly = new int[idsAndCounts.length] ;
-		
-		for (int i=0 ; i<idsAndCounts.length ; i++)
-			idsOnly[i] = idsAndCounts[i][0] ;
-
-		return idsOnly ;		
+		return getLinksOutList().getIds() ;		
 	}
 
-	private int[][] getLinksOutIdsAndCounts() throws SQLException {
+	/**
+	 * Returns the ids of articles that this page links to (with redirects resolved), as an ordered list. 
+	 * Each id is accompanied by a count of the number of articles that link to it. 
+	 * If links are cached, then this is a view directly into the cache, so nothing is copied.  
+	 * 
+	 * @return an ordered list of article ids (and counts) that this page links to 
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	public LinkList getLinksOutList() throws SQLException {
 
-		if (outLinkIdsAndCounts != null)
-			return outLinkIdsAndCounts ;
+		if (outLinks != null)
+			return outLinks ;
 
 		if (database.areOutLinksCached()) {
-			//if this stuff is cached then we just want to grab it. Dont save it to this.inLinkIds, otherwise we would have duplicate copies in memory
-			if (database.cachedOutLinks.containsKey(id))
-				return database.cachedOutLinks.get(id) ;
+			//if this stuff is cached then we just want to grab it. Dont save it to this.outLinks, otherwise we would hold on to views of the cache
+			LinkList links = database.getCaches().cachedOutLinks.getLinks(id) ;
+			
+			if (links != null)
+				return links ;
 			else
-				return new int[0][2] ; 
+				return new LinkList(new int[0], new int[0]) ; 
 		}
 
-		String data = "" ;
-
-		Statement stmt = database.createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT lo_data FROM pagelink_out WHERE lo_id = " + id) ;
-
-		if (rs.first()) 
-			data = rs.getString(1) ;
-
-		stmt.close() ;
-		rs.close();
+		outLinks = database.getStore().getLinksOut(id) ;
+		return outLinks ;
+	}
+	
+	/**
+	 * Sets the links out from this article, after they have been retrieved in bulk (see WikipediaDatabase.loadLinks()).
+	 * 
+	 * @param links an ordered list of article ids (and counts) that this page links to
+	 */
+	protected void setLinksOutList(LinkList links) {
+		outLinks = links ;
+	}
+	
+	/**
+	 * @return true if the links out from this article have already been retrieved, otherwise false.
+	 */
+	protected boolean isLinksOutListLoaded() {
+		return outLinks != null ;
+	}
+	
+	/**
+	 * Parses links out, as they are stored in the pagelink_out table (a semicolon separated list of id:count pairs)
+	 * 
+	 * @param data the stored links
+	 * @return the parsed links
+	 */
+	protected static LinkList parseLinksOut(String data) {
+		
+		if (data == null)
+			data = "" ;
 
 		String[] values = data.split(";") ;
 
-		outLinkIdsAndCounts = new int[values.length][2] ;
+		int[] outLinkIds = new int[values.length] ;
+		int[] outLinkCounts = new int[values.length] ;
 
 		int index = 0 ;
 		for (String value:values) {
 			String values2[] = value.split(":") ;
 			
 			if (values2.length == 2) {
-				outLinkIdsAndCounts[index][0] = Integer.parseInt(values2[0]) ;
-				outLinkIdsAndCounts[index][1] = Integer.parseInt(values2[1]) ;
+				outLinkIds[index] = Integer.parseInt(values2[0]) ;
+				outLinkCounts[index] = Integer.parseInt(values2[1]) ;
+				index ++ ;
 			}
-			index ++ ;
+		}
+		
+		if (index < values.length) {
+			outLinkIds = Arrays.copyOf(outLinkIds, index) ;
+			outLinkCounts = Arrays.copyOf(outLinkCounts, index) ;
 		}
 
-		return outLinkIdsAndCounts ;
+		return new LinkList(outLinkIds, outLinkCounts) ;
 	}
 
 	private double getRelatednessFromOutLinks(Article article) throws SQLException{
@@ -533,10 +540,10 @@ public class Article extends Page {
 			return 1 ;
 
 		int totalArticles = database.getArticleCount() ;
-		int[][] dataA = getLinksOutIdsAndCounts() ;
-		int[][] dataB = article.getLinksOutIdsAndCounts() ;
+		LinkList dataA = getLinksOutList() ;
+		LinkList dataB = article.getLinksOutList() ;
 
-		if (dataA.length == 0 || dataB.length == 0)
+		if (dataA.size() == 0 || dataB.size() == 0)
 			return 0 ;
 
 		int indexA = 0 ;
@@ -545,19 +552,19 @@ public class Article extends Page {
 		Vector<Double> vectA = new Vector<Double>() ;
 		Vector<Double> vectB = new Vector<Double>() ;
 
-		while (indexA < dataA.length || indexB < dataB.length) {
+		while (indexA < dataA.size() || indexB < dataB.size()) {
 
 			int idA = -1 ;
 			int idB = -1 ;
 
-			if (indexA < dataA.length)
-				idA = dataA[indexA][0] ;
+			if (indexA < dataA.size())
+				idA = dataA.getId(indexA) ;
 
-			if (indexB < dataB.length)
-				idB = dataB[indexB][0] ;
+			if (indexB < dataB.size())
+				idB = dataB.getId(indexB) ;
 
 			if (idA == idB) {
-				double probability = Math.log((double)totalArticles/dataA[indexA][1]) ;
+				double probability = Math.log((double)totalArticles/dataA.getCount(indexA)) ;
 				vectA.add(probability) ;
 				vectB.add(probability) ;
 
@@ -567,7 +574,7 @@ public class Article extends Page {
 
 				if ((idA < idB && idA > 0)|| idB < 0) {
 					
-					double probability = Math.log((double)totalArticles/dataA[indexA][1]) ;
+					double probability = Math.log((double)totalArticles/dataA.getCount(indexA)) ;
 					vectA.add(probability) ;
 					if (idA == article.getId())
 						vectB.add(probability) ;
@@ -577,7 +584,7 @@ public class Article extends Page {
 					indexA ++ ;
 				} else {
 					
-					double probability = Math.log((double)totalArticles/dataB[indexB][1]) ;
+					double probability = Math.log((double)totalArticles/dataB.getCount(indexB)) ;
 					vectB.add(new Double(probability)) ;
 					if (idB == id)
 						vectA.add(probability) ;
@@ -619,18 +626,21 @@ public class Article extends Page {
 		if (getId() == article.getId()) 
 			return 1 ;
 		
-		int[] linksA = this.getLinksInIds() ; 
-		int[] linksB = article.getLinksInIds() ; 
+		if (database.areInLinksCompressed()) 
+			return getRelatednessFromCompressedInLinks(article) ;
+		
+		LinkList linksA = this.getLinksInList() ; 
+		LinkList linksB = article.getLinksInList() ; 
 
 		int linksBoth = 0 ;
 
 		int indexA = 0 ;
 		int indexB = 0 ;
 
-		while (indexA < linksA.length && indexB < linksB.length) {
+		while (indexA < linksA.size() && indexB < linksB.size()) {
 
-			long idA = linksA[indexA] ;
-			long idB = linksB[indexB] ;
+			long idA = linksA.getId(indexA) ;
+			long idB = linksB.getId(indexB) ;
 
 			if (idA == idB) {
 				linksBoth ++ ;
@@ -654,8 +664,35 @@ public class Article extends Page {
 			}
 		}
 
-		double a = Math.log(linksA.length) ;
-		double b = Math.log(linksB.length) ;
+		return getRelatednessFromInLinkCounts(linksA.size(), linksB.size(), linksBoth) ;
+	}
+	
+	private double getRelatednessFromCompressedInLinks(Article article) {
+		
+		CompressedLinkStore links = database.getCaches().cachedCompressedInLinks ;
+		
+		CompressedLinkList linksA = links.getLinks(id) ;
+		CompressedLinkList linksB = links.getLinks(article.getId()) ;
+		
+		if (linksA == null || linksB == null)
+			return getRelatednessFromInLinkCounts(linksA == null ? 0 : linksA.size(), linksB == null ? 0 : linksB.size(), 0) ;
+		
+		int linksBoth = linksA.countCommon(linksB) ;
+		
+		//direct links between the two articles count as if they were shared
+		if (linksA.contains(article.getId()) && !linksB.contains(article.getId()))
+			linksBoth ++ ;
+		
+		if (linksB.contains(id) && !linksA.contains(id))
+			linksBoth ++ ;
+		
+		return getRelatednessFromInLinkCounts(linksA.size(), linksB.size(), linksBoth) ;
+	}
+	
+	private double getRelatednessFromInLinkCounts(int linksA, int linksB, int linksBoth) {
+
+		double a = Math.log(linksA) ;
+		double b = Math.log(linksB) ;
 		double ab = Math.log(linksBoth) ;
 		double m = Math.log(database.getArticleCount()) ;
 
@@ -681,15 +718,8 @@ public class Article extends Page {
 
 		SortedVector<AnchorText> anchors = new SortedVector<AnchorText>() ;
 
-		Statement stmt = database.createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT an_text, an_count FROM anchor WHERE an_to = " + id + " ORDER BY an_count DESC") ;
-
-		while (rs.next()) {
-			try {
-				AnchorText at = new AnchorText(new String(rs.getBytes(1), "UTF-8"), this, rs.getInt(2)) ;
-				anchors.add(at, true) ;
-			} catch (Exception e) {} ;	
-		}
+		for (WikipediaStore.AnchorRecord r:database.getStore().getAnchorsTo(id)) 
+			anchors.add(new AnchorText(r.text, this, r.count), true) ;
 
 		return anchors ;
 	}
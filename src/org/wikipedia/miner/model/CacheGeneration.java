@@ -0,0 +1,104 @@
+/*
+ *    CacheGeneration.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import gnu.trove.*;
+
+import java.nio.IntBuffer;
+
+import org.wikipedia.miner.util.*;
+import org.wikipedia.miner.util.text.*;
+
+/**
+ * A complete set of the caches held by a {@link WikipediaDatabase}.
+ * <p>
+ * A database holds a single live generation, which is what pages, articles and anchors consult. A new generation (from
+ * a new dump, for example) can be built in the background and then swapped in atomically, without disturbing the live
+ * one until it is replaced. Requests that have pinned the old generation (see WikipediaDatabase.pinCaches()) finish
+ * with it, and it is released once the last of them unpins it.
+ *
+ * @author David Milne
+ */
+public class CacheGeneration {
+
+	private static int lastNumber = 0 ;
+
+	private int number ;
+	private long created ;
+
+	protected AnchorLexicon cachedAnchors = null ;
+	protected PageTable cachedPages = null ;
+	protected TieredPageCache tieredPages = null ;
+	protected TitleIndex cachedTitles = null ;
+	protected LinkStore cachedInLinks = null ;
+	protected CompressedLinkStore cachedCompressedInLinks = null ;
+	protected LinkStore cachedOutLinks = null ;
+	protected TIntIntHashMap cachedGenerality = null ;
+	protected LinkStore cachedParentIds = null ;
+	protected AncestorIndex cachedAncestors = null ;
+	protected LinkStore cachedChildCategoryIds = null ;
+	protected LinkStore cachedChildArticleIds = null ;
+	protected LinkStore cachedChildOtherIds = null ;
+
+	// if ordinals are cached, then generality is held in this array (indexed by ordinal) instead
+	protected PageOrdinals cachedOrdinals = null ;
+	protected IntBuffer cachedOrdinalGenerality = null ;
+
+	// the greatest depth of any page whose generality is cached, against which generality is normalised
+	protected int maxPageDepth = 0 ;
+
+	protected TextProcessor cachedProcessor = null ;
+
+	protected CacheGeneration() {
+		synchronized(CacheGeneration.class) {
+			number = ++lastNumber ;
+		}
+		created = System.currentTimeMillis() ;
+	}
+
+	/**
+	 * @return a number that identifies this generation. Generations that were created later have higher numbers.
+	 */
+	public int getNumber() {
+		return number ;
+	}
+
+	/**
+	 * @return the time (in milliseconds) at which this generation was created
+	 */
+	public long getCreated() {
+		return created ;
+	}
+
+	/**
+	 * @return true if no caches have been populated in this generation, otherwise false.
+	 */
+	public boolean isEmpty() {
+		return cachedAnchors == null && cachedPages == null && tieredPages == null && cachedTitles == null
+			&& cachedInLinks == null && cachedCompressedInLinks == null && cachedOutLinks == null
+			&& cachedGenerality == null && cachedParentIds == null && cachedAncestors == null
+			&& cachedChildCategoryIds == null && cachedChildArticleIds == null && cachedChildOtherIds == null && cachedOrdinals == null
+			&& cachedOrdinalGenerality == null ;
+	}
+
+	public String toString() {
+		return "cache generation " + number ;
+	}
+}
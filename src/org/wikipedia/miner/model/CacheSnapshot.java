@@ -0,0 +1,805 @@
+/*
+ *    CacheSnapshot.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import gnu.trove.*;
+
+import org.wikipedia.miner.util.*;
+import org.wikipedia.miner.util.text.*;
+
+/**
+ * This class writes the caches of a WikipediaDatabase to a single binary snapshot file, and loads them back again.
+ * <p>
+ * Parsing the csv files extracted from a Wikipedia dump takes several minutes. A snapshot only needs to be compiled
+ * once (see main()), and can then be memory-mapped and loaded in a fraction of that time. Because the file is mapped
+ * rather than read, several JVMs on the same machine will share the pages the operating system has already cached.
+ * The bulk of every section (links, parents, ancestors, titles, and generality by ordinal) is read straight from the
+ * mapped file; only the row ids of link stores, and generality that was not cached by ordinal, are copied onto the heap.
+ * <p>
+ * A snapshot starts with a header (magic number, format version and a directory of sections), followed by one section
+ * for each cache that was populated when the snapshot was written. Sections that are keyed by page id are sorted, so that
+ * individual entries can be located without reading the whole section.
+ *
+ * @author David Milne
+ */
+public class CacheSnapshot {
+
+	/**
+	 * The version of the snapshot format written by this class. Snapshots of any other version must be recompiled.
+	 */
+	public static final int VERSION = 4 ;
+
+	private static final long MAGIC = 0x574d434143484553L ; // "WMCACHES"
+
+	static final int SECTION_PAGES = 1 ;
+	static final int SECTION_ANCHORS = 2 ;
+	static final int SECTION_IN_LINKS = 3 ;
+	static final int SECTION_OUT_LINKS = 4 ;
+	static final int SECTION_GENERALITY = 5 ;
+	static final int SECTION_PARENT_IDS = 6 ;
+	static final int SECTION_COMPRESSED_IN_LINKS = 7 ;
+	static final int SECTION_TITLES = 8 ;
+	static final int SECTION_ORDINALS = 9 ;
+	static final int SECTION_ANCESTORS = 10 ;
+	static final int SECTION_CHILD_IDS = 11 ;
+
+	private static final int MAX_SECTIONS = 16 ;
+
+	// the layouts of the generality section
+	private static final int GENERALITY_BY_ID = 0 ;
+	private static final int GENERALITY_BY_ORDINAL = 1 ;
+
+	/**
+	 * Writes all caches that are currently populated in the given generation to the given file.
+	 * Any existing file will be overwritten.
+	 *
+	 * @param caches the caches to be saved
+	 * @param file the file to save the snapshot to
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the file cannot be written
+	 */
+	static void write(CacheGeneration caches, File file, ProgressNotifier pn) throws IOException {
+
+		Vector<Integer> types = new Vector<Integer>() ;
+		// ordinals come first, so that they are available when the sections that use them are read
+		if (caches.cachedOrdinals != null) types.add(SECTION_ORDINALS) ;
+		if (caches.cachedPages != null) types.add(SECTION_PAGES) ;
+		if (caches.cachedAnchors != null) types.add(SECTION_ANCHORS) ;
+		if (caches.cachedInLinks != null) types.add(SECTION_IN_LINKS) ;
+		if (caches.cachedOutLinks != null) types.add(SECTION_OUT_LINKS) ;
+		if (caches.cachedGenerality != null || caches.cachedOrdinalGenerality != null) types.add(SECTION_GENERALITY) ;
+		if (caches.cachedParentIds != null) types.add(SECTION_PARENT_IDS) ;
+		if (caches.cachedAncestors != null) types.add(SECTION_ANCESTORS) ;
+		if (caches.cachedChildCategoryIds != null && caches.cachedChildArticleIds != null && caches.cachedChildOtherIds != null) types.add(SECTION_CHILD_IDS) ;
+		if (caches.cachedCompressedInLinks != null) types.add(SECTION_COMPRESSED_IN_LINKS) ;
+		if (caches.cachedTitles != null) types.add(SECTION_TITLES) ;
+
+		if (pn == null) pn = new ProgressNotifier(1) ;
+		pn.startTask(types.size(), "saving cache snapshot") ;
+
+		SnapshotOutput out = new SnapshotOutput(new BufferedOutputStream(new FileOutputStream(file), 1 << 20)) ;
+
+		// header, with space for a directory that is filled in once we know where each section ends up.
+		out.writeLong(MAGIC) ;
+		out.writeInt(VERSION) ;
+		out.writeInt(types.size()) ;
+		for (int i=0 ; i<MAX_SECTIONS ; i++) {
+			out.writeInt(0) ;
+			out.writeLong(0) ;
+			out.writeLong(0) ;
+		}
+
+		long[] offsets = new long[types.size()] ;
+		long[] lengths = new long[types.size()] ;
+
+		int done = 0 ;
+		for (int type:types) {
+			align(out) ;
+			offsets[done] = out.getPosition() ;
+
+			switch (type) {
+			case SECTION_PAGES :
+				writePages(caches, out) ;
+				break ;
+			case SECTION_ANCHORS :
+				writeAnchors(caches, out) ;
+				break ;
+			case SECTION_IN_LINKS :
+				writeLinkStore(caches.cachedInLinks, out) ;
+				break ;
+			case SECTION_OUT_LINKS :
+				writeLinkStore(caches.cachedOutLinks, out) ;
+				break ;
+			case SECTION_GENERALITY :
+				writeGenerality(caches, out) ;
+				break ;
+			case SECTION_PARENT_IDS :
+				writeLinkStore(caches.cachedParentIds, out) ;
+				break ;
+			case SECTION_COMPRESSED_IN_LINKS :
+				writeCompressedLinkStore(caches.cachedCompressedInLinks, out) ;
+				break ;
+			case SECTION_TITLES :
+				writeTitles(caches, out) ;
+				break ;
+			case SECTION_ORDINALS :
+				writeOrdinals(caches.cachedOrdinals, out) ;
+				break ;
+			case SECTION_ANCESTORS :
+				out.writeInt(caches.cachedAncestors.getMaxDepth()) ;
+				writeLinkStore(caches.cachedAncestors.getStore(), out) ;
+				break ;
+			case SECTION_CHILD_IDS :
+				writeLinkStore(caches.cachedChildCategoryIds, out) ;
+				writeLinkStore(caches.cachedChildArticleIds, out) ;
+				writeLinkStore(caches.cachedChildOtherIds, out) ;
+				break ;
+			}
+
+			lengths[done] = out.getPosition() - offsets[done] ;
+
+			done++ ;
+			pn.update(done) ;
+		}
+		out.close() ;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw") ;
+		raf.seek(16) ;
+		for (int i=0 ; i<types.size() ; i++) {
+			raf.writeInt(types.get(i)) ;
+			raf.writeLong(offsets[i]) ;
+			raf.writeLong(lengths[i]) ;
+		}
+		raf.close() ;
+	}
+
+	/**
+	 * Memory-maps the given snapshot file, and populates the given caches with its contents.
+	 * Any caches which are not contained in the snapshot are left untouched.
+	 *
+	 * @param caches the caches to be populated
+	 * @param file the snapshot file
+	 * @param tp the text processor that anchors were cached with when the snapshot was compiled (may be null)
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the file cannot be read, is not a snapshot, or was written by an incompatible version
+	 */
+	static void read(CacheGeneration caches, File file, TextProcessor tp, ProgressNotifier pn) throws IOException {
+		read(caches, file, tp, -1, pn) ;
+	}
+
+	/**
+	 * Memory-maps the given snapshot file, and populates the given caches with its contents.
+	 * Any caches which are not contained in the snapshot are left untouched.
+	 *
+	 * @param caches the caches to be populated
+	 * @param file the snapshot file
+	 * @param tp the text processor that anchors were cached with when the snapshot was compiled (may be null)
+	 * @param pageHeapCapacity if this is negative, every page is loaded onto the heap. Otherwise pages are left in the mapped file, and at most this many are held on the heap by a {@link TieredPageCache}.
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the file cannot be read, is not a snapshot, or was written by an incompatible version
+	 */
+	static void read(CacheGeneration caches, File file, TextProcessor tp, int pageHeapCapacity, ProgressNotifier pn) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r") ;
+		FileChannel channel = raf.getChannel() ;
+
+		try {
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 16 + (MAX_SECTIONS*20)) ;
+
+			if (header.getLong() != MAGIC)
+				throw new IOException(file.getPath() + " is not a cache snapshot") ;
+
+			int version = header.getInt() ;
+			if (version != VERSION)
+				throw new IOException(file.getPath() + " was written with snapshot format " + version + ", but format " + VERSION + " is required. Please compile it again.") ;
+
+			int sectionCount = header.getInt() ;
+			int[] types = new int[sectionCount] ;
+			long[] offsets = new long[sectionCount] ;
+			long[] lengths = new long[sectionCount] ;
+
+			long totalLength = 0 ;
+			for (int i=0 ; i<sectionCount ; i++) {
+				types[i] = header.getInt() ;
+				offsets[i] = header.getLong() ;
+				lengths[i] = header.getLong() ;
+				totalLength = totalLength + lengths[i] ;
+			}
+
+			if (pn == null) pn = new ProgressNotifier(1) ;
+			pn.startTask(totalLength, "loading cache snapshot") ;
+
+			// only ordinals from this snapshot can be used to read the sections within it 
+			PageOrdinals ordinals = null ;
+
+			long bytesRead = 0 ;
+			for (int i=0 ; i<sectionCount ; i++) {
+
+				if (lengths[i] > Integer.MAX_VALUE)
+					throw new IOException("section " + types[i] + " of " + file.getPath() + " is too large to be mapped") ;
+
+				ByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, offsets[i], lengths[i]) ;
+
+				switch (types[i]) {
+				case SECTION_PAGES :
+					PageTable pages = readPages(section) ;
+					pages.setOrdinals(ordinals) ;
+
+					if (pageHeapCapacity < 0) {
+						caches.cachedPages = pages ;
+						caches.tieredPages = null ;
+					} else {
+						caches.cachedPages = null ;
+						caches.tieredPages = new TieredPageCache(pages, pageHeapCapacity) ;
+					}
+					break ;
+				case SECTION_ANCHORS :
+					readAnchors(caches, section, tp) ;
+					break ;
+				case SECTION_IN_LINKS :
+					caches.cachedInLinks = readLinkStore(section, false) ;
+					caches.cachedInLinks.setOrdinals(ordinals) ;
+					break ;
+				case SECTION_OUT_LINKS :
+					caches.cachedOutLinks = readLinkStore(section, true) ;
+					caches.cachedOutLinks.setOrdinals(ordinals) ;
+					break ;
+				case SECTION_GENERALITY :
+					caches.cachedGenerality = null ;
+					caches.cachedOrdinalGenerality = null ;
+
+					readGenerality(section, ordinals, caches) ;
+					break ;
+				case SECTION_PARENT_IDS :
+					caches.cachedParentIds = readLinkStore(section, false) ;
+					caches.cachedParentIds.setOrdinals(ordinals) ;
+					break ;
+				case SECTION_COMPRESSED_IN_LINKS :
+					caches.cachedCompressedInLinks = readCompressedLinkStore(section) ;
+					caches.cachedCompressedInLinks.setOrdinals(ordinals) ;
+					break ;
+				case SECTION_TITLES :
+					caches.cachedTitles = readTitles(section) ;
+					break ;
+				case SECTION_ORDINALS :
+					ordinals = readOrdinals(section) ;
+					caches.cachedOrdinals = ordinals ;
+					break ;
+				case SECTION_ANCESTORS :
+					int maxDepth = section.getInt() ;
+					caches.cachedAncestors = new AncestorIndex(readLinkStore(section, true), maxDepth) ;
+					caches.cachedAncestors.setOrdinals(ordinals) ;
+					break ;
+				case SECTION_CHILD_IDS :
+					caches.cachedChildCategoryIds = readLinkStore(section, false) ;
+					caches.cachedChildCategoryIds.setOrdinals(ordinals) ;
+					caches.cachedChildArticleIds = readLinkStore(section, false) ;
+					caches.cachedChildArticleIds.setOrdinals(ordinals) ;
+					caches.cachedChildOtherIds = readLinkStore(section, false) ;
+					caches.cachedChildOtherIds.setOrdinals(ordinals) ;
+					break ;
+				}
+
+				bytesRead = bytesRead + lengths[i] ;
+				pn.update(bytesRead) ;
+			}
+		} finally {
+			raf.close() ;
+		}
+	}
+
+
+	private static void writePages(CacheGeneration caches, SnapshotOutput out) throws IOException {
+
+		// the table is already laid out as it is saved
+		PageTable pages = caches.cachedPages ;
+		int count = pages.size() ;
+
+		out.writeInt(count) ;
+		for (int row=0 ; row<count ; row++)
+			out.writeInt(pages.getIdAt(row)) ;
+
+		writeBytes(pages.getTypes(), out) ;
+		align(out) ;
+
+		IntBuffer titleOffsets = pages.getTitleOffsets() ;
+		while (titleOffsets.hasRemaining())
+			out.writeInt(titleOffsets.get()) ;
+
+		writeBytes(pages.getTitles(), out) ;
+	}
+
+	private static PageTable readPages(ByteBuffer in) throws IOException {
+
+		int count = in.getInt() ;
+
+		//nothing is copied; titles are decoded straight from the mapped file when they are asked for.
+		IntBuffer ids = sliceInts(in, count) ;
+
+		ByteBuffer types = sliceBytes(in, count) ;
+		align(in) ;
+
+		IntBuffer offsets = sliceInts(in, count+1) ;
+		ByteBuffer titles = sliceBytes(in, offsets.get(count)) ;
+
+		return new PageTable(ids, types, offsets, titles) ;
+	}
+
+	private static void writeAnchors(CacheGeneration caches, SnapshotOutput out) throws IOException {
+
+		String processorName = "" ;
+		if (caches.cachedProcessor != null)
+			processorName = caches.cachedProcessor.getName() ;
+
+		writeString(processorName, out) ;
+		align(out) ;
+
+		AnchorLexicon lexicon = caches.cachedAnchors ;
+		MinimalPerfectHash hash = lexicon.getHash() ;
+
+		int count = lexicon.size() ;
+
+		writeHashHeader(hash, out) ;
+
+		for (int i=0 ; i<count ; i++)
+			out.writeInt(lexicon.getLinkCount(i)) ;
+
+		for (int i=0 ; i<count ; i++)
+			out.writeInt(lexicon.getOccCount(i)) ;
+
+		int offset = 0 ;
+		for (int i=0 ; i<count ; i++) {
+			out.writeInt(offset) ;
+			offset = offset + lexicon.getSenseCount(i) ;
+		}
+		out.writeInt(offset) ;
+
+		for (int i=0 ; i<count ; i++) {
+			for (int s=0 ; s<lexicon.getSenseCount(i) ; s++)
+				out.writeInt(lexicon.getSenseId(i, s)) ;
+		}
+
+		for (int i=0 ; i<count ; i++) {
+			for (int s=0 ; s<lexicon.getSenseCount(i) ; s++)
+				out.writeInt(lexicon.getSenseLinkCount(i, s)) ;
+		}
+
+		for (int i=0 ; i<count ; i++) {
+			for (int s=0 ; s<lexicon.getSenseCount(i) ; s++)
+				out.writeByte(lexicon.getSenseType(i, s)) ;
+		}
+		align(out) ;
+
+		writeHashKeys(hash, out) ;
+	}
+
+	private static void readAnchors(CacheGeneration caches, ByteBuffer in, TextProcessor tp) throws IOException {
+
+		String processorName = readString(in) ;
+		align(in) ;
+
+		String expectedName = "" ;
+		if (tp != null)
+			expectedName = tp.getName() ;
+
+		if (!processorName.equals(expectedName))
+			throw new IOException("anchors in snapshot were cached with text processor \"" + processorName + "\", not \"" + expectedName + "\"") ;
+
+		long seed = in.getLong() ;
+		int count = in.getInt() ;
+		int bucketCount = in.getInt() ;
+
+		//nothing is copied; the lexicon reads straight from the mapped file.
+		LongBuffer displacements = sliceLongs(in, bucketCount) ;
+
+		IntBuffer linkCounts = sliceInts(in, count) ;
+		IntBuffer occCounts = sliceInts(in, count) ;
+		IntBuffer senseOffsets = sliceInts(in, count+1) ;
+
+		int senseCount = senseOffsets.get(count) ;
+		IntBuffer senseIds = sliceInts(in, senseCount) ;
+		IntBuffer senseCounts = sliceInts(in, senseCount) ;
+
+		ByteBuffer senseTypes = sliceBytes(in, senseCount) ;
+		align(in) ;
+
+		IntBuffer keyOffsets = sliceInts(in, count+1) ;
+		ByteBuffer keys = sliceBytes(in, keyOffsets.get(count)) ;
+
+		MinimalPerfectHash hash = new MinimalPerfectHash(seed, displacements, keyOffsets, keys) ;
+
+		caches.cachedAnchors = new AnchorLexicon(hash, linkCounts, occCounts, senseOffsets, senseIds, senseCounts, senseTypes) ;
+		caches.cachedProcessor = tp ;
+	}
+
+	private static void writeTitles(CacheGeneration caches, SnapshotOutput out) throws IOException {
+
+		TitleIndex titles = caches.cachedTitles ;
+		MinimalPerfectHash hash = titles.getHash() ;
+
+		int count = titles.size() ;
+
+		writeHashHeader(hash, out) ;
+		out.writeInt(titles.isComplete() ? 1 : 0) ;
+
+		for (int i=0 ; i<count ; i++)
+			out.writeInt(titles.getIdForSlot(i)) ;
+
+		for (int i=0 ; i<count ; i++)
+			out.writeInt(titles.getTargetForSlot(i)) ;
+
+		writeHashKeys(hash, out) ;
+	}
+
+	private static TitleIndex readTitles(ByteBuffer in) throws IOException {
+
+		long seed = in.getLong() ;
+		int count = in.getInt() ;
+		int bucketCount = in.getInt() ;
+
+		//nothing is copied; the index reads straight from the mapped file.
+		LongBuffer displacements = sliceLongs(in, bucketCount) ;
+		boolean complete = in.getInt() == 1 ;
+
+		IntBuffer ids = sliceInts(in, count) ;
+		IntBuffer targets = sliceInts(in, count) ;
+
+		IntBuffer keyOffsets = sliceInts(in, count+1) ;
+		ByteBuffer keys = sliceBytes(in, keyOffsets.get(count)) ;
+
+		return new TitleIndex(new MinimalPerfectHash(seed, displacements, keyOffsets, keys), ids, targets, complete) ;
+	}
+
+	private static void writeHashHeader(MinimalPerfectHash hash, SnapshotOutput out) throws IOException {
+
+		out.writeLong(hash.getSeed()) ;
+		out.writeInt(hash.size()) ;
+		out.writeInt(hash.getBucketCount()) ;
+
+		for (int b=0 ; b<hash.getBucketCount() ; b++)
+			out.writeLong(hash.getDisplacement(b)) ;
+	}
+
+	private static void writeHashKeys(MinimalPerfectHash hash, SnapshotOutput out) throws IOException {
+
+		for (int i=0 ; i<=hash.size() ; i++)
+			out.writeInt(hash.getKeyOffset(i)) ;
+
+		ByteBuffer keys = hash.getKeys() ;
+		keys.limit(hash.getKeyOffset(hash.size())) ;
+		writeBytes(keys, out) ;
+	}
+
+	private static void writeLinkStore(LinkStore links, SnapshotOutput out) throws IOException {
+
+		int[] ids = new int[links.getPageCount()] ;
+		for (int row=0 ; row<ids.length ; row++)
+			ids[row] = links.getIdForRow(row) ;
+		Arrays.sort(ids) ;
+
+		out.writeInt(ids.length) ;
+		writeInts(ids, out) ;
+
+		int offset = 0 ;
+		for (int id:ids) {
+			out.writeInt(offset) ;
+			offset = offset + links.getLinks(id).size() ;
+		}
+		out.writeInt(offset) ;
+
+		for (int id:ids) {
+			LinkList l = links.getLinks(id) ;
+			for (int i=0 ; i<l.size() ; i++)
+				out.writeInt(l.getId(i)) ;
+		}
+
+		if (links.hasCounts()) {
+			for (int id:ids) {
+				LinkList l = links.getLinks(id) ;
+				for (int i=0 ; i<l.size() ; i++)
+					out.writeInt(l.getCount(i)) ;
+			}
+		}
+	}
+
+	private static LinkStore readLinkStore(ByteBuffer in, boolean withCounts) throws IOException {
+
+		int count = in.getInt() ;
+		int[] ids = readInts(in, count) ;
+
+		//the offsets, targets and counts are not copied; the store reads them straight from the mapped file.
+		IntBuffer offsets = sliceInts(in, count+1) ;
+
+		int linkCount = offsets.get(count) ;
+		IntBuffer targets = sliceInts(in, linkCount) ;
+
+		IntBuffer counts = null ;
+		if (withCounts)
+			counts = sliceInts(in, linkCount) ;
+
+		return new LinkStore(ids, offsets, targets, counts) ;
+	}
+
+	private static void writeCompressedLinkStore(CompressedLinkStore links, SnapshotOutput out) throws IOException {
+
+		int count = links.getPageCount() ;
+
+		//rows of a compressed store are already sorted by id
+		out.writeInt(count) ;
+		for (int row=0 ; row<count ; row++)
+			out.writeInt(links.getIdForRow(row)) ;
+
+		for (int row=0 ; row<=count ; row++)
+			out.writeInt(links.getOffsetForRow(row)) ;
+
+		ByteBuffer data = links.getData() ;
+		data.limit(links.getByteCount()) ;
+		writeBytes(data, out) ;
+	}
+
+	private static CompressedLinkStore readCompressedLinkStore(ByteBuffer in) throws IOException {
+
+		int count = in.getInt() ;
+		int[] ids = readInts(in, count) ;
+
+		//the offsets and compressed lists are not copied; the store reads them straight from the mapped file.
+		IntBuffer offsets = sliceInts(in, count+1) ;
+
+		ByteBuffer data = sliceBytes(in, offsets.get(count)) ;
+
+		return new CompressedLinkStore(ids, offsets, data) ;
+	}
+
+	private static void writeGenerality(CacheGeneration caches, SnapshotOutput out) throws IOException {
+
+		if (caches.cachedOrdinalGenerality != null) {
+			// depths are written as they are held, so that they can be read straight from the mapped file
+			IntBuffer depths = caches.cachedOrdinalGenerality.duplicate() ;
+			depths.rewind() ;
+
+			out.writeInt(GENERALITY_BY_ORDINAL) ;
+			out.writeInt(caches.maxPageDepth) ;
+			out.writeInt(depths.remaining()) ;
+
+			while (depths.hasRemaining())
+				out.writeInt(depths.get()) ;
+			return ;
+		}
+
+		int[] ids = caches.cachedGenerality.keys() ;
+		Arrays.sort(ids) ;
+
+		out.writeInt(GENERALITY_BY_ID) ;
+		out.writeInt(caches.maxPageDepth) ;
+		out.writeInt(ids.length) ;
+		writeInts(ids, out) ;
+
+		for (int id:ids)
+			out.writeInt(caches.cachedGenerality.get(id)) ;
+	}
+
+	private static void readGenerality(ByteBuffer in, PageOrdinals ordinals, CacheGeneration caches) throws IOException {
+
+		int layout = in.getInt() ;
+		caches.maxPageDepth = in.getInt() ;
+		int count = in.getInt() ;
+
+		if (layout == GENERALITY_BY_ORDINAL) {
+			if (ordinals == null || ordinals.size() != count)
+				throw new IOException("generality does not match the ordinals of this snapshot") ;
+
+			//nothing is copied; depths are read straight from the mapped file.
+			caches.cachedOrdinalGenerality = sliceInts(in, count) ;
+			return ;
+		}
+
+		int[] ids = readInts(in, count) ;
+		int[] depths = readInts(in, count) ;
+
+		if (ordinals != null) {
+			int[] generality = new int[ordinals.size()] ;
+			Arrays.fill(generality, -1) ;
+
+			for (int i=0 ; i<count ; i++) {
+				int ordinal = ordinals.getOrdinal(ids[i]) ;
+				if (ordinal >= 0)
+					generality[ordinal] = depths[i] ;
+			}
+
+			caches.cachedOrdinalGenerality = IntBuffer.wrap(generality) ;
+			return ;
+		}
+
+		TIntIntHashMap generality = new TIntIntHashMap(count, 1) ;
+		for (int i=0 ; i<count ; i++)
+			generality.put(ids[i], depths[i]) ;
+
+		caches.cachedGenerality = generality ;
+	}
+
+	private static void writeOrdinals(PageOrdinals ordinals, SnapshotOutput out) throws IOException {
+
+		LongBuffer bits = ordinals.getBits() ;
+		IntBuffer ranks = ordinals.getRanks() ;
+		IntBuffer ids = ordinals.getIds() ;
+
+		out.writeInt(bits.limit()) ;
+		out.writeInt(ranks.limit()) ;
+		out.writeInt(ids.limit()) ;
+		out.writeInt(0) ;
+
+		while (bits.hasRemaining())
+			out.writeLong(bits.get()) ;
+
+		while (ranks.hasRemaining())
+			out.writeInt(ranks.get()) ;
+
+		while (ids.hasRemaining())
+			out.writeInt(ids.get()) ;
+	}
+
+	private static PageOrdinals readOrdinals(ByteBuffer in) throws IOException {
+
+		int wordCount = in.getInt() ;
+		int rankCount = in.getInt() ;
+		int idCount = in.getInt() ;
+		in.getInt() ;
+
+		//nothing is copied; the ordinals are read straight from the mapped file.
+		LongBuffer bits = sliceLongs(in, wordCount) ;
+		IntBuffer ranks = sliceInts(in, rankCount) ;
+		IntBuffer ids = sliceInts(in, idCount) ;
+
+		return new PageOrdinals(bits, ranks, ids) ;
+	}
+
+	private static void writeInts(int[] values, SnapshotOutput out) throws IOException {
+		for (int value:values)
+			out.writeInt(value) ;
+	}
+
+	private static int[] readInts(ByteBuffer in, int count) {
+		int[] values = new int[count] ;
+		in.asIntBuffer().get(values) ;
+		in.position(in.position() + (count*4)) ;
+		return values ;
+	}
+
+	private static IntBuffer sliceInts(ByteBuffer in, int count) {
+		IntBuffer values = in.asIntBuffer() ;
+		values.limit(count) ;
+		in.position(in.position() + (count*4)) ;
+		return values.slice() ;
+	}
+
+	private static LongBuffer sliceLongs(ByteBuffer in, int count) {
+		LongBuffer values = in.asLongBuffer() ;
+		values.limit(count) ;
+		in.position(in.position() + (count*8)) ;
+		return values.slice() ;
+	}
+
+	private static ByteBuffer sliceBytes(ByteBuffer in, int count) {
+		ByteBuffer values = in.slice() ;
+		values.limit(count) ;
+		in.position(in.position() + count) ;
+		return values.slice() ;
+	}
+
+	private static void writeBytes(ByteBuffer values, SnapshotOutput out) throws IOException {
+		byte[] chunk = new byte[1 << 16] ;
+		while (values.hasRemaining()) {
+			int length = Math.min(chunk.length, values.remaining()) ;
+			values.get(chunk, 0, length) ;
+			out.write(chunk, 0, length) ;
+		}
+	}
+
+	private static void writeString(String value, SnapshotOutput out) throws IOException {
+		byte[] bytes = value.getBytes("UTF-8") ;
+		out.writeInt(bytes.length) ;
+		out.write(bytes) ;
+	}
+
+	private static String readString(ByteBuffer in) throws IOException {
+		byte[] bytes = new byte[in.getInt()] ;
+		in.get(bytes) ;
+		return new String(bytes, "UTF-8") ;
+	}
+
+	private static void align(SnapshotOutput out) throws IOException {
+		while (out.getPosition() % 8 != 0)
+			out.writeByte(0) ;
+	}
+
+	private static void align(ByteBuffer in) {
+		while (in.position() % 8 != 0)
+			in.get() ;
+	}
+
+	/**
+	 * Compiles a snapshot from the csv files extracted from a Wikipedia dump. The snapshot contains the same 
+	 * caches (built with the same parameters) as those loaded by the WikipediaMinerServlet, so it can be 
+	 * given to the servlet via the <em>cache_snapshot</em> parameter. 
+	 * 
+	 * @param args the directory containing csv files, the snapshot file to write, and then the arguments for connecting to a wikipedia database: server and database names at a minimum, and optionally a username and password
+	 * @throws Exception if there is a problem with the csv files, the snapshot file or the wikipedia caches.
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		if (args.length < 4)
+			throw new Exception("You must specify a data directory, a snapshot file, and at least a server and database. Username and password are optional") ;
+		
+		File dataDirectory = new File(args[0]) ;
+		File snapshotFile = new File(args[1]) ;
+		
+		Wikipedia wikipedia = Wikipedia.getInstanceFromArguments(Arrays.copyOfRange(args, 2, args.length)) ;
+		WikipediaDatabase database = wikipedia.getDatabase() ;
+		
+		ProgressNotifier pn = new ProgressNotifier(7) ;
+		TIntHashSet ids = database.getValidPageIds(dataDirectory, 3, pn) ;
+		database.cacheOrdinals(dataDirectory, ids, pn) ;
+		database.cacheParentIds(dataDirectory, pn) ;
+		database.cacheGenerality(dataDirectory, ids, pn) ;
+		database.cachePages(dataDirectory, ids, pn) ;
+		database.cacheAnchors(dataDirectory, new CaseFolder(), ids, 3, pn) ;
+		database.cacheInLinks(dataDirectory, ids, pn) ;
+		
+		database.saveCacheSnapshot(snapshotFile, null) ;
+	}
+
+	/**
+	 * A DataOutputStream that keeps track of how many bytes have been written, as size() overflows for files larger than 2GB.
+	 */
+	private static class SnapshotOutput extends DataOutputStream {
+
+		SnapshotOutput(OutputStream out) {
+			super(new PositionTrackingStream(out)) ;
+		}
+
+		long getPosition() {
+			return ((PositionTrackingStream)out).position ;
+		}
+	}
+
+	private static class PositionTrackingStream extends FilterOutputStream {
+
+		private long position = 0 ;
+
+		PositionTrackingStream(OutputStream out) {
+			super(out) ;
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b) ;
+			position++ ;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len) ;
+			position = position + len ;
+		}
+	}
+}
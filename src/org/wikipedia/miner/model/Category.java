@@ -85,8 +85,9 @@ public class Category extends Page {
 	public Article getEquivalentArticle() throws SQLException {
 		Article equivalentArticle = null ;
 
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id, page_title FROM equivalence, page WHERE page_id=eq_art AND eq_cat=" + id) ;
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("equivalent_article") ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
 
 		if (rs.first()) {
 			try {
@@ -110,18 +111,9 @@ public class Category extends Page {
 	public SortedVector<Category> getParentCategories() throws SQLException {
 		SortedVector<Category> parentCategories = new SortedVector<Category>() ;
 
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id, page_title, page_type FROM categorylink, page WHERE cl_parent=page_id AND cl_child=" + id + " ORDER BY page_id") ;
+		for (WikipediaStore.PageRecord r:database.getStore().getParentCategories(id)) 
+			parentCategories.add(new Category(database, r.id, r.title), true) ;
 
-		while(rs.next()) {
-			try {
-				Category wc = new Category(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
-				parentCategories.add(wc, true) ;
-			} catch (Exception e) {} ;
-		}
-
-		rs.close() ;
-		stmt.close() ;
 		return parentCategories ;
 	}
 	
@@ -131,30 +123,13 @@ public class Category extends Page {
 	 */
 	public int[] getParentCategoryIds() throws SQLException {
 		
-		if (database.areParentIdsCached())
-			return database.cachedParentIds.get(id) ;
-		
-		
-		Vector<Integer> parentCategories = new Vector<Integer>() ;
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id FROM categorylink, page WHERE cl_parent=page_id AND cl_child=" + id + " ORDER BY page_id") ;
-
-		while(rs.next()) 
-			parentCategories.add(rs.getInt(1)) ; 
-
-		rs.close() ;
-		stmt.close() ;
-		
-		int[] ids = new int[parentCategories.size()] ;
-		
-		int c=0 ;
-		for (Integer catId:parentCategories) {
-			ids[c] = catId ;
-			c++ ;
+		if (database.areParentIdsCached()) {
+			LinkList parentIds = database.getCaches().cachedParentIds.getLinks(id) ;
+			return (parentIds == null) ? null : parentIds.getIds() ;
 		}
 		
-		return ids ;
+		
+		return database.getStore().getParentCategoryIds(id) ;
 	}
 
 	/**
@@ -166,49 +141,33 @@ public class Category extends Page {
 	 */
 	public SortedVector<Category> getChildCategories() throws SQLException{
 		SortedVector<Category> childCategories = new SortedVector<Category>() ;
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id, page_title, page_type FROM categorylink, page WHERE cl_child=page_id AND page_type=" + CATEGORY + " AND cl_parent=" + id) ;
-
-		while(rs.next()) {
-			try {
-				Category wc = new Category(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
-				childCategories.add(wc, true) ;
-			} catch (Exception e) {} ;
+		
+		if (database.areChildIdsCached() && database.arePagesCached()) {
+			for (int childId:getChildCategoryIds()) {
+				try {
+					childCategories.add(new Category(database, childId), true) ;
+				} catch (Exception e) {} ;
+			}
+			return childCategories ;
 		}
 
-		rs.close() ;
-		stmt.close() ;
+		for (WikipediaStore.PageRecord r:database.getStore().getChildCategories(id)) 
+			childCategories.add(new Category(database, r.id, r.title), true) ;
 
 		return childCategories ;	
 	}
 	
 	
 	/**
-	 * @return a sorted array of category ids that this category belongs to. 
+	 * @return a sorted array of the ids of categories that this category contains. 
 	 * @throws SQLException if there is a problem with the Wikipedia database.
 	 */
 	public int[] getChildCategoryIds() throws SQLException {
-		Vector<Integer> childCategories = new Vector<Integer>() ;
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id FROM categorylink, page WHERE cl_child=page_id AND page_type=" + CATEGORY + " AND cl_parent=" + id + " ORDER BY cl_child") ;
-
-		while(rs.next()) 
-			childCategories.add(rs.getInt(1)) ; 
-
-		rs.close() ;
-		stmt.close() ;
 		
-		int[] ids = new int[childCategories.size()] ;
+		if (database.areChildIdsCached())
+			return getCachedChildIds(database.getCaches().cachedChildCategoryIds) ;
 		
-		int c=0 ;
-		for (Integer catId:childCategories) {
-			ids[c] = catId ;
-			c++ ;
-		}
-		
-		return ids ;
+		return database.getStore().getChildCategoryIds(id) ;
 	}
 
 	/**
@@ -219,17 +178,17 @@ public class Category extends Page {
 	 * @throws SQLException if there is a problem with the Wikipedia database
 	 */
 	public boolean contains(Article article) throws SQLException {
-		boolean isChild = false ;
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT * FROM categorylink WHERE cl_parent=" + id + " AND cl_child=" + article.getId()) ;
-
-		if (rs.first()) 
-			isChild = true ;
-
-		rs.close() ;
-		stmt.close() ;
-		return isChild ;
+		
+		if (database.areChildIdsCached()) {
+			CacheGeneration caches = database.getCaches() ;
+			
+			// disambiguation pages are not child articles, but are still members of the category
+			LinkList children = caches.cachedChildArticleIds.getLinks(id) ;
+			LinkList others = caches.cachedChildOtherIds.getLinks(id) ;
+			return (children != null && children.contains(article.getId())) || (others != null && others.contains(article.getId())) ;
+		}
+		
+		return database.getStore().isCategoryMember(id, article.getId()) ;
 	}
 
 	/**
@@ -241,25 +200,18 @@ public class Category extends Page {
 	public SortedVector<Article> getChildArticles() throws SQLException {
 
 		SortedVector<Article> childArticles = new SortedVector<Article>() ;
-		Vector<Redirect> redirects = new Vector<Redirect>() ;
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id, page_title, page_type FROM categorylink, page WHERE cl_child=page_id AND page_type=" + ARTICLE + " AND cl_parent=" + id + " ORDER BY page_id") ;
-
-		while(rs.next()) {
-			try {
-				childArticles.add(new Article(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")), true) ;
-			} catch (Exception e) {} ;
+		
+		if (database.areChildIdsCached() && database.arePagesCached()) {
+			for (int childId:getChildArticleIds()) {
+				try {
+					childArticles.add(new Article(database, childId), true) ;
+				} catch (Exception e) {} ;
+			}
+			return childArticles ;
 		}
 
-		rs.close() ;
-		stmt.close() ;
-
-		for(Redirect r: redirects) {
-			Page target = r.getTarget() ;
-			if (target != null && target.getType() == ARTICLE)
-				childArticles.add((Article)target, false) ;
-		}
+		for (WikipediaStore.PageRecord r:database.getStore().getChildArticles(id)) 
+			childArticles.add(new Article(database, r.id, r.title), true) ;
 
 		return childArticles ;		
 	}
@@ -269,26 +221,20 @@ public class Category extends Page {
 	 * @throws SQLException if there is a problem with the Wikipedia database.
 	 */
 	public int[] getChildArticleIds() throws SQLException {
-		Vector<Integer> childArticles = new Vector<Integer>() ;
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id FROM categorylink, page WHERE cl_child=page_id AND page_type=" + ARTICLE + " AND cl_parent=" + id + " ORDER BY page_id") ;
-
-		while(rs.next()) 
-			childArticles.add(rs.getInt(1)) ; 
-
-		rs.close() ;
-		stmt.close() ;	
 		
-		int[] ids = new int[childArticles.size()] ;
+		if (database.areChildIdsCached())
+			return getCachedChildIds(database.getCaches().cachedChildArticleIds) ;
 		
-		int c=0 ;
-		for (Integer catId:childArticles) {
-			ids[c] = catId ;
-			c++ ;
-		}
+		return database.getStore().getChildArticleIds(id) ;
+	}
+	
+	private int[] getCachedChildIds(LinkStore children) {
+		LinkList l = children.getLinks(id) ;
+		
+		if (l == null)
+			return new int[0] ;
 		
-		return ids ;
+		return l.getIds() ;
 	}
 	
 	/**
@@ -0,0 +1,171 @@
+/*
+ *    ContentFile.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import gnu.trove.TIntLongHashMap;
+
+import org.wikipedia.miner.util.ProgressNotifier;
+
+/**
+ * Random access to the content.csv file extracted from a Wikipedia dump. Only an index of where each page's content
+ * starts is held in memory, and content is read one page at a time as it is needed.
+ *
+ * @author David Milne
+ */
+class ContentFile {
+
+	private File file ;
+	private FileChannel channel ;
+	private TIntLongHashMap offsets ;
+
+	/**
+	 * Records where the content of each page starts, without holding any of the content itself.
+	 *
+	 * @param file a content.csv file
+	 * @param pn a progress notifier
+	 * @throws IOException if the file cannot be read
+	 */
+	ContentFile(File file, ProgressNotifier pn) throws IOException {
+
+		this.file = file ;
+
+		pn.startTask(file.length(), "indexing content") ;
+
+		offsets = new TIntLongHashMap() ;
+
+		InputStream input = new BufferedInputStream(new FileInputStream(file), 65536) ;
+		try {
+			long offset = 0 ;
+			long lineStart = 0 ;
+			int id = 0 ;
+			boolean readingId = true ;
+
+			int b ;
+			while ((b = input.read()) >= 0) {
+				if (b == '\n') {
+					lineStart = offset + 1 ;
+					readingId = true ;
+					id = 0 ;
+				} else if (readingId) {
+					if (b >= '0' && b <= '9') {
+						id = (id * 10) + (b - '0') ;
+					} else {
+						offsets.put(id, lineStart) ;
+						readingId = false ;
+					}
+				}
+
+				offset++ ;
+				if (offset % 1048576 == 0)
+					pn.update(offset) ;
+			}
+		} finally {
+			input.close() ;
+		}
+
+		channel = new FileInputStream(file).getChannel() ;
+	}
+
+	File getFile() {
+		return file ;
+	}
+
+	/**
+	 * @return the ids of all pages that have content, in ascending order
+	 */
+	int[] getIds() {
+		int[] ids = offsets.keys() ;
+		Arrays.sort(ids) ;
+		return ids ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the content of the page, or null if it has none.
+	 * @throws IOException if the file cannot be read
+	 */
+	String read(int id) throws IOException {
+		if (!offsets.containsKey(id))
+			return null ;
+
+		return readLine(offsets.get(id)) ;
+	}
+
+	void close() throws IOException {
+		channel.close() ;
+	}
+
+	/**
+	 * Reads the content from the line starting at the given offset. Positional reads are used, so that many threads can
+	 * read from the file at once.
+	 */
+	private String readLine(long offset) throws IOException {
+
+		ByteArrayOutputStream line = new ByteArrayOutputStream() ;
+		ByteBuffer buffer = ByteBuffer.allocate(65536) ;
+
+		boolean done = false ;
+		while (!done) {
+			buffer.clear() ;
+			int read = channel.read(buffer, offset) ;
+			if (read <= 0)
+				break ;
+
+			byte[] bytes = buffer.array() ;
+			int end = 0 ;
+			while (end < read && bytes[end] != '\n')
+				end++ ;
+
+			line.write(bytes, 0, end) ;
+			done = end < read ;
+			offset = offset + read ;
+		}
+
+		// lines are given as id,"escaped content"
+		byte[] bytes = line.toByteArray() ;
+
+		int start = 0 ;
+		while (start < bytes.length && bytes[start] != '"')
+			start++ ;
+
+		int length = 0 ;
+		for (int i=start+1 ; i<bytes.length ; i++) {
+			byte b = bytes[i] ;
+
+			if (b == '"')
+				break ;
+
+			if (b == '\\' && i+1 < bytes.length) {
+				i++ ;
+				b = bytes[i] ;
+				if (b == 'n')
+					b = '\n' ;
+			}
+			bytes[length++] = b ;
+		}
+
+		return new String(bytes, 0, length, "UTF-8") ;
+	}
+}
@@ -88,8 +88,9 @@ public class Disambiguation extends Article{
 	public SensePage getMostObviousSense() throws SQLException{
 		SensePage sense = null ;
 		
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id, page_title, page_type, da_index, da_scope FROM disambiguation, page WHERE da_to=page_id AND da_from=" + id + " AND da_index=1") ;
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("disambiguation_first_sense") ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
 
 		if (rs.first()) {
 			try {
@@ -111,8 +112,9 @@ public class Disambiguation extends Article{
 		
 		SortedVector<SensePage> senses = new SortedVector<SensePage>() ;
 		
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id, page_title, page_type, da_index, da_scope FROM disambiguation, page WHERE da_to=page_id AND da_from=" + id + " ORDER BY page_id") ;
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("disambiguation_senses_by_id") ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
 
 		while (rs.next()) {
 			try {
@@ -138,8 +140,9 @@ public class Disambiguation extends Article{
 		
 		Vector<SensePage> senses = new Vector<SensePage>() ;
 		
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id, page_title, page_type, da_index, da_scope FROM disambiguation, page WHERE da_to=page_id AND da_from=" + id + " ORDER BY da_index") ;
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("disambiguation_senses") ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
 
 		while (rs.next()) {
 			try {
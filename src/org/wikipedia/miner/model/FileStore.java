@@ -0,0 +1,901 @@
+/*
+ *    FileStore.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import java.io.*;
+import java.sql.SQLException;
+import java.util.*;
+
+import gnu.trove.*;
+
+import org.wikipedia.miner.util.*;
+import org.wikipedia.miner.util.text.TextProcessor;
+
+/**
+ * A read-only {@link WikipediaStore} that is served straight from the csv files extracted from a Wikipedia dump
+ * (the same files that WikipediaDatabase.loadData() imports), so that no database server is needed.
+ * <p>
+ * Pages, titles, links, category links and anchors are read into memory when the store is opened. Content is
+ * left on disk, and only an index of where each page's content starts is held, so that content is read one page
+ * at a time as it is needed. Definitions are summarized from content as they are asked for.
+ * <p>
+ * Anchors that are processed by a text processor, and the anchors used to link to each page, are only gathered
+ * the first time they are needed.
+ *
+ * @author David Milne
+ */
+public class FileStore implements WikipediaStore {
+
+	private PageTable pages ;
+	private TitleIndex titles ;
+	private TIntIntHashMap redirects ;
+	private TIntObjectHashMap<TIntArrayList> redirectsTo ;
+	private int[] pageCounts = new int[16] ;
+
+	private LinkStore linksIn ;
+	private LinkStore linksOut ;
+
+	private LinkStore parentCategories ;
+	private LinkStore childCategories ;
+	private LinkStore childArticles ;
+
+	// depths are only known if generality.csv is present
+	private TIntIntHashMap depths ;
+	private int maxDepth = 0 ;
+
+	// senses are packed as (id, count, type) triples, in descending order of count. Maps for processed text are gathered from the raw ones
+	private HashMap<String,int[]> rawAnchors ;
+	private HashMap<String,HashMap<String,int[]>> processedAnchors = new HashMap<String,HashMap<String,int[]>>() ;
+	private TIntObjectHashMap<Vector<AnchorRecord>> anchorsTo ;
+
+	// occurrences are (linkCount, occCount) pairs
+	private HashMap<String,int[]> rawOccurrences ;
+	private HashMap<String,HashMap<String,int[]>> processedOccurrences = new HashMap<String,HashMap<String,int[]>>() ;
+
+	private ContentFile content ;
+
+	/**
+	 * Opens a store over the csv files in the given directory. page.csv, pagelink_in.csv, pagelink_out.csv,
+	 * categorylink.csv and anchor.csv are required, while redirect.csv, generality.csv, anchor_occurance.csv and 
+	 * content.csv are used if they are present.
+	 *
+	 * @param dir the directory containing csv files extracted from a Wikipedia dump.
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the required files cannot be read.
+	 */
+	public FileStore(File dir, ProgressNotifier pn) throws IOException {
+
+		File pageFile = getFile(dir, "page.csv", true) ;
+		File redirectFile = getFile(dir, "redirect.csv", false) ;
+		File linkInFile = getFile(dir, "pagelink_in.csv", true) ;
+		File linkOutFile = getFile(dir, "pagelink_out.csv", true) ;
+		File categoryFile = getFile(dir, "categorylink.csv", true) ;
+		File generalityFile = getFile(dir, "generality.csv", false) ;
+		File anchorFile = getFile(dir, "anchor.csv", true) ;
+		File occurrenceFile = getFile(dir, "anchor_occurance.csv", false) ;
+		File contentFile = getFile(dir, "content.csv", false) ;
+
+		if (pn == null) pn = new ProgressNotifier(9) ;
+
+		readPages(pageFile, pn) ;
+		readRedirects(redirectFile, pn) ;
+		linksIn = readLinks(linkInFile, false, pn) ;
+		linksOut = readLinks(linkOutFile, true, pn) ;
+		readCategoryLinks(categoryFile, pn) ;
+		readGenerality(generalityFile, pn) ;
+		rawAnchors = readAnchors(anchorFile, pn) ;
+		rawOccurrences = readOccurrences(occurrenceFile, pn) ;
+		
+		if (contentFile != null) 
+			content = new ContentFile(contentFile, pn) ;
+		else
+			pn.startTask(1, "indexing content") ;
+	}
+
+	private File getFile(File dir, String name, boolean required) throws IOException {
+		File file = new File(dir.getPath() + File.separatorChar + name) ;
+
+		if (file.canRead())
+			return file ;
+
+		if (required)
+			throw new IOException(file.getPath() + " cannot be read") ;
+
+		return null ;
+	}
+
+	public PageRecord getPage(int id) {
+
+		int row = pages.indexOf(id) ;
+		if (row < 0)
+			return null ;
+
+		return new PageRecord(id, pages.getTitleAt(row), pages.getTypeAt(row)) ;
+	}
+
+	public PageRecord[] getPages(int[] ids) {
+
+		PageRecord[] records = new PageRecord[ids.length] ;
+		for (int i=0 ; i<ids.length ; i++)
+			records[i] = getPage(ids[i]) ;
+
+		return records ;
+	}
+
+	public int getPageId(String title, int type) {
+		return titles.getId(title, type) ;
+	}
+
+	public PageRecord getRedirectTarget(int id) {
+
+		if (!redirects.containsKey(id))
+			return null ;
+
+		return getPage(redirects.get(id)) ;
+	}
+
+	public synchronized Vector<PageRecord> getRedirectsTo(int id) {
+
+		if (redirectsTo == null) {
+			redirectsTo = new TIntObjectHashMap<TIntArrayList>() ;
+
+			for (int from:redirects.keys()) {
+				TIntArrayList r = redirectsTo.get(redirects.get(from)) ;
+				if (r == null) {
+					r = new TIntArrayList() ;
+					redirectsTo.put(redirects.get(from), r) ;
+				}
+				r.add(from) ;
+			}
+		}
+
+		TIntArrayList r = redirectsTo.get(id) ;
+		if (r == null)
+			return new Vector<PageRecord>() ;
+
+		return getPageRecords(r.toNativeArray()) ;
+	}
+
+	public LinkList getLinksIn(int id) {
+		LinkList links = linksIn.getLinks(id) ;
+
+		if (links == null)
+			return new LinkList(new int[0]) ;
+
+		return links ;
+	}
+
+	public LinkList getLinksOut(int id) {
+		LinkList links = linksOut.getLinks(id) ;
+
+		if (links == null)
+			return new LinkList(new int[0], new int[0]) ;
+
+		return links ;
+	}
+
+	public LinkList[] getLinksIn(int[] ids) {
+
+		LinkList[] links = new LinkList[ids.length] ;
+		for (int i=0 ; i<ids.length ; i++)
+			links[i] = getLinksIn(ids[i]) ;
+
+		return links ;
+	}
+
+	public LinkList[] getLinksOut(int[] ids) {
+
+		LinkList[] links = new LinkList[ids.length] ;
+		for (int i=0 ; i<ids.length ; i++)
+			links[i] = getLinksOut(ids[i]) ;
+
+		return links ;
+	}
+
+	public int getLinkCount(int id, boolean in) {
+		LinkList links = in ? linksIn.getLinks(id) : linksOut.getLinks(id) ;
+
+		if (links == null)
+			return 0 ;
+
+		return links.size() ;
+	}
+
+	public int[] getLinkCounts(int[] ids, boolean linksIn) {
+
+		int[] counts = new int[ids.length] ;
+		for (int i=0 ; i<ids.length ; i++)
+			counts[i] = getLinkCount(ids[i], linksIn) ;
+
+		return counts ;
+	}
+
+	public int[] getParentCategoryIds(int id) {
+		return getIds(parentCategories, id) ;
+	}
+
+	public int[] getChildCategoryIds(int id) {
+		return getIds(childCategories, id) ;
+	}
+
+	public int[] getChildArticleIds(int id) {
+		return getIds(childArticles, id) ;
+	}
+
+	public Vector<PageRecord> getParentCategories(int id) {
+		return getPageRecords(getIds(parentCategories, id)) ;
+	}
+
+	public Vector<PageRecord> getChildCategories(int id) {
+		return getPageRecords(getIds(childCategories, id)) ;
+	}
+
+	public Vector<PageRecord> getChildArticles(int id) {
+		return getPageRecords(getIds(childArticles, id)) ;
+	}
+
+	public boolean isCategoryMember(int categoryId, int id) {
+		LinkList parents = parentCategories.getLinks(id) ;
+
+		return parents != null && parents.contains(categoryId) ;
+	}
+
+	public int getDepth(int id) {
+
+		if (depths == null || !depths.containsKey(id))
+			return -1 ;
+
+		return depths.get(id) ;
+	}
+
+	public int[] getDepths(int[] ids) {
+
+		int[] d = new int[ids.length] ;
+		for (int i=0 ; i<ids.length ; i++)
+			d[i] = getDepth(ids[i]) ;
+
+		return d ;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth ;
+	}
+
+	private Vector<PageRecord> getPageRecords(int[] ids) {
+
+		Vector<PageRecord> records = new Vector<PageRecord>() ;
+
+		for (int id:ids) {
+			PageRecord r = getPage(id) ;
+			if (r != null)
+				records.add(r) ;
+		}
+
+		return records ;
+	}
+
+	private int[] getIds(LinkStore store, int id) {
+		LinkList links = store.getLinks(id) ;
+
+		if (links == null)
+			return new int[0] ;
+
+		int[] ids = new int[links.size()] ;
+		for (int i=0 ; i<ids.length ; i++)
+			ids[i] = links.getId(i) ;
+
+		return ids ;
+	}
+
+	public Vector<AnchorRecord> getAnchorSenses(String text, TextProcessor tp) {
+
+		Vector<AnchorRecord> senses = new Vector<AnchorRecord>() ;
+
+		int[] s = getAnchors(tp).get(text) ;
+		if (s == null)
+			return senses ;
+
+		for (int i=0 ; i<s.length ; i+=3)
+			senses.add(new AnchorRecord(text, s[i], s[i+1], s[i+2])) ;
+
+		return senses ;
+	}
+
+	public int[] getAnchorOccurrences(String text, TextProcessor tp) throws SQLException {
+
+		if (rawOccurrences == null)
+			throw new SQLException("anchor occurrences are not available") ;
+
+		int[] counts = getOccurrences(tp).get(text) ;
+
+		if (counts == null)
+			return null ;
+
+		return new int[] {counts[0], counts[1]} ;
+	}
+
+	public synchronized Vector<AnchorRecord> getAnchorsTo(int id) {
+
+		if (anchorsTo == null)
+			anchorsTo = gatherAnchorsTo() ;
+
+		Vector<AnchorRecord> anchors = anchorsTo.get(id) ;
+
+		if (anchors == null)
+			return new Vector<AnchorRecord>() ;
+
+		return new Vector<AnchorRecord>(anchors) ;
+	}
+
+	public String getContent(int id) throws SQLException {
+
+		if (content == null)
+			throw new SQLException("content is not available") ;
+
+		try {
+			return content.read(id) ;
+		} catch (IOException e) {
+			SQLException sqle = new SQLException("could not read content of page " + id + " from " + content.getFile().getPath()) ;
+			sqle.initCause(e) ;
+			throw sqle ;
+		}
+	}
+
+	public String getContentPrefix(int id, int length) throws SQLException {
+		// content is read a line at a time, so there is nothing to be saved by reading less of it
+		return getContent(id) ;
+	}
+
+	public String getFirstSentence(int id) throws SQLException {
+
+		String paragraph = getFirstParagraph(id) ;
+		if (paragraph == null)
+			return null ;
+
+		try {
+			return Page.extractFirstSentence(paragraph, null) ;
+		} catch (Exception e) {
+			SQLException sqle = new SQLException("could not summarize page " + id) ;
+			sqle.initCause(e) ;
+			throw sqle ;
+		}
+	}
+
+	public String getFirstParagraph(int id) throws SQLException {
+
+		String markup = getContent(id) ;
+		if (markup == null)
+			return null ;
+
+		return Page.extractFirstParagraph(markup) ;
+	}
+
+	public int getPageCount(int type) {
+		if (type < 0 || type >= pageCounts.length)
+			return 0 ;
+
+		return pageCounts[type] ;
+	}
+
+	public boolean isContentAvailable() {
+		return content != null ;
+	}
+
+	public boolean areDefinitionsAvailable() {
+		// definitions are summarized from content whenever they are asked for
+		return content != null ;
+	}
+
+	public boolean areAnchorOccurrencesAvailable() {
+		return rawOccurrences != null ;
+	}
+
+	public void close() {
+		if (content != null) {
+			try {
+				content.close() ;
+			} catch (IOException e) {} ;
+			content = null ;
+		}
+	}
+
+	private void readPages(File file, ProgressNotifier pn) throws IOException {
+
+		final PageTable.Builder builder = new PageTable.Builder(new ChunkedCsvReader(file).estimateLineCount(), null) ;
+
+		pn.startTask(file.length(), "reading pages") ;
+
+		new ChunkedCsvReader(file).read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+
+					TIntArrayList ids = new TIntArrayList() ;
+					Vector<String> titles = new Vector<String>() ;
+					TIntArrayList types = new TIntArrayList() ;
+
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						ids.add(row.readInt()) ;
+						row.expect(',') ;
+						titles.add(row.readString()) ;
+						row.expect(',') ;
+						types.add(row.readInt()) ;
+					}
+
+					public void merge() {
+						for (int i=0 ; i<ids.size() ; i++) {
+							builder.add(ids.get(i), titles.get(i), types.get(i)) ;
+
+							int type = types.get(i) ;
+							if (type >= 0 && type < pageCounts.length)
+								pageCounts[type]++ ;
+						}
+					}
+				} ;
+			}
+		}, pn, 0) ;
+
+		pages = builder.build() ;
+
+		// every page is held, so any title that is not indexed does not exist
+		titles = TitleIndex.build(pages, new TIntObjectHashMap<String>(), new TIntIntHashMap(), true) ;
+	}
+
+	private void readRedirects(File file, ProgressNotifier pn) throws IOException {
+
+		redirects = new TIntIntHashMap() ;
+
+		if (file == null) {
+			pn.startTask(1, "reading redirects") ;
+			return ;
+		}
+
+		pn.startTask(file.length(), "reading redirects") ;
+
+		new ChunkedCsvReader(file).read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+
+					TIntArrayList from = new TIntArrayList() ;
+					TIntArrayList to = new TIntArrayList() ;
+
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						from.add(row.readInt()) ;
+						row.expect(',') ;
+						to.add(row.readInt()) ;
+					}
+
+					public void merge() {
+						for (int i=0 ; i<from.size() ; i++)
+							redirects.put(from.get(i), to.get(i)) ;
+					}
+				} ;
+			}
+		}, pn, 0) ;
+	}
+
+	private LinkStore readLinks(File file, final boolean withCounts, ProgressNotifier pn) throws IOException {
+
+		//assume each link takes up about 8 characters. This is just an initial capacity, so it doesn't need to be exact.
+		final LinkStore.Builder builder = new LinkStore.Builder(withCounts, new ChunkedCsvReader(file).estimateLineCount(), (int)Math.min(file.length()/8, Integer.MAX_VALUE/4)) ;
+
+		pn.startTask(file.length(), withCounts ? "reading links out" : "reading links in") ;
+
+		new ChunkedCsvReader(file).read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+
+					TIntArrayList ids = new TIntArrayList() ;
+					TIntArrayList offsets = new TIntArrayList() ;
+					TIntArrayList links = new TIntArrayList() ;
+					TIntArrayList counts = new TIntArrayList() ;
+
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						ids.add(row.readInt()) ;
+						row.expect(',') ;
+						row.expect('"') ;
+
+						offsets.add(links.size()) ;
+						while (!row.skip('"')) {
+							if (withCounts) {
+								// links out are given as id:count;id:count
+								links.add(row.readInt()) ;
+								row.expect(':') ;
+								counts.add(row.readInt()) ;
+								row.skip(';') ;
+							} else {
+								// links in are given as id:id:id
+								if (!row.skip(':'))
+									links.add(row.readInt()) ;
+							}
+						}
+					}
+
+					public void merge() {
+						int[] l = links.toNativeArray() ;
+						int[] c = withCounts ? counts.toNativeArray() : null ;
+
+						for (int r=0 ; r<ids.size() ; r++) {
+							int start = offsets.get(r) ;
+							int end = (r+1 < offsets.size()) ? offsets.get(r+1) : l.length ;
+
+							builder.add(ids.get(r), l, c, start, end-start) ;
+						}
+					}
+				} ;
+			}
+		}, pn, 0) ;
+
+		return builder.build() ;
+	}
+
+	private void readCategoryLinks(File file, ProgressNotifier pn) throws IOException {
+
+		// links are packed as (parent << 32 | child), and again as (child << 32 | parent), so that sorting groups them by either end
+		final TLongArrayList byParent = new TLongArrayList() ;
+		final TLongArrayList byChild = new TLongArrayList() ;
+
+		pn.startTask(file.length(), "reading category links") ;
+
+		new ChunkedCsvReader(file).read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+
+					TLongArrayList chunkLinks = new TLongArrayList() ;
+
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						long parentId = row.readInt() ;
+						row.expect(',') ;
+						long childId = row.readInt() ;
+
+						chunkLinks.add((parentId << 32) | childId) ;
+					}
+
+					public void merge() {
+						for (int i=0 ; i<chunkLinks.size() ; i++) {
+							long link = chunkLinks.get(i) ;
+							byParent.add(link) ;
+							byChild.add((link << 32) | (link >>> 32)) ;
+						}
+					}
+				} ;
+			}
+		}, pn, 0) ;
+
+		LinkStore.Builder categories = new LinkStore.Builder(false, 0, 0) ;
+		LinkStore.Builder articles = new LinkStore.Builder(false, 0, 0) ;
+
+		long[] links = byParent.toNativeArray() ;
+		byParent.clear() ;
+		Arrays.sort(links) ;
+
+		TIntArrayList childCats = new TIntArrayList() ;
+		TIntArrayList childArts = new TIntArrayList() ;
+
+		int i = 0 ;
+		while (i < links.length) {
+			int parentId = (int)(links[i] >>> 32) ;
+			childCats.clear() ;
+			childArts.clear() ;
+
+			int lastChild = -1 ;
+			for ( ; i < links.length && (int)(links[i] >>> 32) == parentId ; i++) {
+				int childId = (int)links[i] ;
+				if (childId == lastChild)
+					continue ;
+				lastChild = childId ;
+
+				int type = pages.getType(childId) ;
+				if (type == Page.CATEGORY)
+					childCats.add(childId) ;
+				else if (type == Page.ARTICLE)
+					childArts.add(childId) ;
+			}
+
+			if (childCats.size() > 0)
+				categories.add(parentId, childCats.toNativeArray()) ;
+			if (childArts.size() > 0)
+				articles.add(parentId, childArts.toNativeArray()) ;
+		}
+
+		childCategories = categories.build() ;
+		childArticles = articles.build() ;
+
+		links = byChild.toNativeArray() ;
+		byChild.clear() ;
+		Arrays.sort(links) ;
+
+		LinkStore.Builder parents = new LinkStore.Builder(false, 0, links.length) ;
+		TIntArrayList parentIds = new TIntArrayList() ;
+
+		i = 0 ;
+		while (i < links.length) {
+			int childId = (int)(links[i] >>> 32) ;
+			parentIds.clear() ;
+
+			for ( ; i < links.length && (int)(links[i] >>> 32) == childId ; i++) {
+				int parentId = (int)links[i] ;
+				if (parentIds.size() == 0 || parentIds.get(parentIds.size()-1) != parentId)
+					parentIds.add(parentId) ;
+			}
+			parents.add(childId, parentIds.toNativeArray()) ;
+		}
+
+		parentCategories = parents.build() ;
+	}
+
+	private void readGenerality(File file, ProgressNotifier pn) throws IOException {
+
+		if (file == null) {
+			pn.startTask(1, "reading generality") ;
+			return ;
+		}
+
+		depths = new TIntIntHashMap() ;
+
+		pn.startTask(file.length(), "reading generality") ;
+
+		new ChunkedCsvReader(file).read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+
+					TIntArrayList ids = new TIntArrayList() ;
+					TIntArrayList d = new TIntArrayList() ;
+
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						ids.add(row.readInt()) ;
+						row.expect(',') ;
+						d.add(row.readInt()) ;
+					}
+
+					public void merge() {
+						for (int i=0 ; i<ids.size() ; i++) {
+							depths.put(ids.get(i), d.get(i)) ;
+
+							if (d.get(i) > maxDepth)
+								maxDepth = d.get(i) ;
+						}
+					}
+				} ;
+			}
+		}, pn, 0) ;
+	}
+
+	private HashMap<String,int[]> readAnchors(File file, ProgressNotifier pn) throws IOException {
+
+		final HashMap<String,int[]> anchors = new HashMap<String,int[]>() ;
+
+		pn.startTask(file.length(), "reading anchors") ;
+
+		new ChunkedCsvReader(file).read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+
+					Vector<String> texts = new Vector<String>() ;
+					Vector<int[]> senses = new Vector<int[]>() ;
+
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						String text = row.readString() ;
+						row.expect(',') ;
+						row.expect('"') ;
+
+						TIntArrayList s = new TIntArrayList() ;
+						while (!row.skip('"')) {
+							s.add(row.readInt()) ;
+							row.expect(':') ;
+							s.add(row.readInt()) ;
+							row.expect(':') ;
+							s.add(row.readInt()) ;
+							row.skip(';') ;
+						}
+
+						texts.add(text) ;
+						senses.add(s.toNativeArray()) ;
+					}
+
+					public void merge() {
+						for (int i=0 ; i<texts.size() ; i++)
+							anchors.put(texts.get(i), sortSenses(senses.get(i))) ;
+					}
+				} ;
+			}
+		}, pn, 0) ;
+
+		return anchors ;
+	}
+
+	private HashMap<String,int[]> readOccurrences(File file, ProgressNotifier pn) throws IOException {
+
+		if (file == null) {
+			pn.startTask(1, "reading anchor occurrences") ;
+			return null ;
+		}
+
+		final HashMap<String,int[]> occurrences = new HashMap<String,int[]>() ;
+
+		pn.startTask(file.length(), "reading anchor occurrences") ;
+
+		new ChunkedCsvReader(file).read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+
+					Vector<String> texts = new Vector<String>() ;
+					TIntArrayList counts = new TIntArrayList() ;
+
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						texts.add(row.readString()) ;
+						row.expect(',') ;
+						counts.add(row.readInt()) ;
+						row.expect(',') ;
+						counts.add(row.readInt()) ;
+					}
+
+					public void merge() {
+						for (int i=0 ; i<texts.size() ; i++)
+							occurrences.put(texts.get(i), new int[] {counts.get(i*2), counts.get(i*2+1)}) ;
+					}
+				} ;
+			}
+		}, pn, 0) ;
+
+		return occurrences ;
+	}
+
+	/**
+	 * @return anchors keyed by text that has been processed by the given text processor (which are gathered the first time they are asked for)
+	 */
+	private synchronized HashMap<String,int[]> getAnchors(TextProcessor tp) {
+
+		if (tp == null)
+			return rawAnchors ;
+
+		HashMap<String,int[]> anchors = processedAnchors.get(tp.getName()) ;
+
+		if (anchors == null) {
+			// texts that are processed into the same thing have their senses merged
+			HashMap<String,TIntIntHashMap> counts = new HashMap<String,TIntIntHashMap>() ;
+			HashMap<String,TIntIntHashMap> types = new HashMap<String,TIntIntHashMap>() ;
+
+			for (Map.Entry<String,int[]> e:rawAnchors.entrySet()) {
+				String text = tp.processText(e.getKey()) ;
+
+				TIntIntHashMap c = counts.get(text) ;
+				TIntIntHashMap t = types.get(text) ;
+				if (c == null) {
+					c = new TIntIntHashMap() ;
+					t = new TIntIntHashMap() ;
+					counts.put(text, c) ;
+					types.put(text, t) ;
+				}
+
+				int[] s = e.getValue() ;
+				for (int i=0 ; i<s.length ; i+=3) {
+					c.adjustOrPutValue(s[i], s[i+1], s[i+1]) ;
+					t.put(s[i], Math.max(t.get(s[i]), s[i+2])) ;
+				}
+			}
+
+			anchors = new HashMap<String,int[]>() ;
+			for (Map.Entry<String,TIntIntHashMap> e:counts.entrySet()) {
+				TIntIntHashMap c = e.getValue() ;
+				TIntIntHashMap t = types.get(e.getKey()) ;
+
+				int[] s = new int[c.size()*3] ;
+				int i = 0 ;
+				for (int id:c.keys()) {
+					s[i++] = id ;
+					s[i++] = c.get(id) ;
+					s[i++] = t.get(id) ;
+				}
+				anchors.put(e.getKey(), sortSenses(s)) ;
+			}
+
+			processedAnchors.put(tp.getName(), anchors) ;
+		}
+
+		return anchors ;
+	}
+
+	/**
+	 * @return anchor occurrences keyed by text that has been processed by the given text processor (which are gathered the first time they are asked for)
+	 */
+	private synchronized HashMap<String,int[]> getOccurrences(TextProcessor tp) {
+
+		if (tp == null)
+			return rawOccurrences ;
+
+		HashMap<String,int[]> occurrences = processedOccurrences.get(tp.getName()) ;
+
+		if (occurrences == null) {
+			occurrences = new HashMap<String,int[]>() ;
+
+			for (Map.Entry<String,int[]> e:rawOccurrences.entrySet()) {
+				String text = tp.processText(e.getKey()) ;
+
+				int[] counts = occurrences.get(text) ;
+				if (counts == null) {
+					counts = new int[2] ;
+					occurrences.put(text, counts) ;
+				}
+				counts[0] += e.getValue()[0] ;
+				counts[1] += e.getValue()[1] ;
+			}
+
+			processedOccurrences.put(tp.getName(), occurrences) ;
+		}
+
+		return occurrences ;
+	}
+
+	private TIntObjectHashMap<Vector<AnchorRecord>> gatherAnchorsTo() {
+
+		TIntObjectHashMap<Vector<AnchorRecord>> anchors = new TIntObjectHashMap<Vector<AnchorRecord>>() ;
+
+		for (Map.Entry<String,int[]> e:rawAnchors.entrySet()) {
+			int[] s = e.getValue() ;
+
+			for (int i=0 ; i<s.length ; i+=3) {
+				Vector<AnchorRecord> a = anchors.get(s[i]) ;
+				if (a == null) {
+					a = new Vector<AnchorRecord>() ;
+					anchors.put(s[i], a) ;
+				}
+				a.add(new AnchorRecord(e.getKey(), s[i], s[i+1], s[i+2])) ;
+			}
+		}
+
+		Comparator<AnchorRecord> byCount = new Comparator<AnchorRecord>() {
+			public int compare(AnchorRecord a, AnchorRecord b) {
+				if (a.count != b.count)
+					return b.count - a.count ;
+				return a.text.compareTo(b.text) ;
+			}
+		} ;
+
+		for (int id:anchors.keys())
+			Collections.sort(anchors.get(id), byCount) ;
+
+		return anchors ;
+	}
+
+	/**
+	 * Orders packed (id, count, type) triples by descending count, and then by id
+	 */
+	private static int[] sortSenses(int[] senses) {
+
+		Integer[] order = new Integer[senses.length/3] ;
+		for (int i=0 ; i<order.length ; i++)
+			order[i] = i*3 ;
+
+		final int[] s = senses ;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (s[a+1] != s[b+1])
+					return s[b+1] - s[a+1] ;
+				return s[a] - s[b] ;
+			}
+		}) ;
+
+		int[] sorted = new int[senses.length] ;
+		for (int i=0 ; i<order.length ; i++)
+			System.arraycopy(senses, order[i], sorted, i*3, 3) ;
+
+		return sorted ;
+	}
+}
@@ -0,0 +1,527 @@
+/*
+ *    MySqlStore.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.sql.*;
+import java.util.Vector;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TIntObjectHashMap;
+
+import org.wikipedia.miner.util.LinkList;
+import org.wikipedia.miner.util.text.TextProcessor;
+
+/**
+ * A {@link WikipediaStore} that answers lookups from the tables of a mysql Wikipedia database, using the
+ * statements that the database has registered (see MySqlDatabase.registerStatement()). This is the store that
+ * every WikipediaDatabase that is connected to a server uses by default.
+ * <p>
+ * Lookups of many ids at once are made in batches of up to WikipediaDatabase.MAX_IN_LIST_SIZE ids, rather than 
+ * with one query per id.
+ *
+ * @author David Milne
+ */
+public class MySqlStore implements WikipediaStore {
+
+	private WikipediaDatabase database ;
+
+	/**
+	 * @param database an active (connected) Wikipedia database
+	 */
+	public MySqlStore(WikipediaDatabase database) {
+		this.database = database ;
+	}
+
+	public PageRecord getPage(int id) throws SQLException {
+
+		PageRecord page = null ;
+
+		PreparedStatement stmt = database.prepareStatement("page_by_id") ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
+
+		if (rs.first())
+			page = new PageRecord(id, decode(rs.getBytes(1)), rs.getInt(2)) ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return page ;
+	}
+
+	public PageRecord[] getPages(int[] ids) throws SQLException {
+
+		final TIntObjectHashMap<PageRecord> fetchedPages = new TIntObjectHashMap<PageRecord>() ;
+
+		queryInBatches("SELECT page_id, page_title, page_type FROM page WHERE page_id IN ", ids, new RowHandler() {
+			public void handleRow(ResultSet rs) throws SQLException {
+				fetchedPages.put(rs.getInt(1), new PageRecord(rs.getInt(1), decode(rs.getBytes(2)), rs.getInt(3))) ;
+			}
+		}) ;
+
+		PageRecord[] pages = new PageRecord[ids.length] ;
+		for (int i=0 ; i<ids.length ; i++)
+			pages[i] = fetchedPages.get(ids[i]) ;
+
+		return pages ;
+	}
+
+	public int getPageId(String title, int type) throws SQLException {
+
+		int id = -1 ;
+
+		PreparedStatement stmt = database.prepareStatement("page_by_title") ;
+		stmt.setString(1, title) ;
+		stmt.setInt(2, type) ;
+		ResultSet rs = stmt.executeQuery() ;
+
+		if (rs.first())
+			id = rs.getInt(1) ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return id ;
+	}
+
+	public PageRecord getRedirectTarget(int id) throws SQLException {
+
+		PageRecord target = null ;
+
+		PreparedStatement stmt = database.prepareStatement("redirect_target") ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
+
+		if (rs.first())
+			target = new PageRecord(rs.getInt(1), decode(rs.getBytes(2)), rs.getInt(3)) ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return target ;
+	}
+
+	public Vector<PageRecord> getRedirectsTo(int id) throws SQLException {
+		return getPageRecords(id, "redirects_to") ;
+	}
+
+	public LinkList getLinksIn(int id) throws SQLException {
+		return getLinks(id, database.areLinksPacked() ? "packed_links_in" : "links_in", false) ;
+	}
+
+	public LinkList getLinksOut(int id) throws SQLException {
+		return getLinks(id, database.areLinksPacked() ? "packed_links_out" : "links_out", true) ;
+	}
+
+	public LinkList[] getLinksIn(int[] ids) throws SQLException {
+		String table = database.areLinksPacked() ? "pagelink_in_packed" : "pagelink_in" ;
+		return getLinks(ids, "SELECT li_id, li_data FROM " + table + " WHERE li_id IN ", false) ;
+	}
+
+	public LinkList[] getLinksOut(int[] ids) throws SQLException {
+		String table = database.areLinksPacked() ? "pagelink_out_packed" : "pagelink_out" ;
+		return getLinks(ids, "SELECT lo_id, lo_data FROM " + table + " WHERE lo_id IN ", true) ;
+	}
+
+	private LinkList[] getLinks(int[] ids, String query, final boolean linksOut) throws SQLException {
+
+		final TIntObjectHashMap<LinkList> fetchedLinks = new TIntObjectHashMap<LinkList>() ;
+
+		queryInBatches(query, ids, new RowHandler() {
+			public void handleRow(ResultSet rs) throws SQLException {
+				fetchedLinks.put(rs.getInt(1), database.readLinks(rs, 2, linksOut)) ;
+			}
+		}) ;
+
+		// articles that have no links are not listed
+		LinkList[] links = new LinkList[ids.length] ;
+		for (int i=0 ; i<ids.length ; i++) {
+			links[i] = fetchedLinks.get(ids[i]) ;
+
+			if (links[i] == null)
+				links[i] = linksOut ? Article.parseLinksOut(null) : Article.parseLinksIn(null) ;
+		}
+
+		return links ;
+	}
+
+	private LinkList getLinks(int id, String statementName, boolean linksOut) throws SQLException {
+
+		LinkList links ;
+
+		PreparedStatement stmt = database.prepareStatement(statementName) ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
+
+		if (rs.first())
+			links = database.readLinks(rs, 1, linksOut) ;
+		else if (linksOut)
+			links = Article.parseLinksOut(null) ;
+		else
+			links = Article.parseLinksIn(null) ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return links ;
+	}
+
+	public int getLinkCount(int id, boolean linksIn) throws SQLException {
+
+		int count = 0 ;
+
+		PreparedStatement stmt = database.prepareStatement(linksIn ? "link_count_in" : "link_count_out") ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
+
+		if (rs.first())
+			count = rs.getInt(1) ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return count ;
+	}
+
+	public int[] getLinkCounts(int[] ids, boolean linksIn) throws SQLException {
+
+		final TIntIntHashMap fetchedCounts = new TIntIntHashMap() ;
+
+		queryInBatches("SELECT lc_id, " + (linksIn ? "lc_in" : "lc_out") + " FROM linkcount WHERE lc_id IN ", ids, new RowHandler() {
+			public void handleRow(ResultSet rs) throws SQLException {
+				fetchedCounts.put(rs.getInt(1), rs.getInt(2)) ;
+			}
+		}) ;
+
+		int[] counts = new int[ids.length] ;
+		for (int i=0 ; i<ids.length ; i++)
+			counts[i] = fetchedCounts.get(ids[i]) ;
+
+		return counts ;
+	}
+
+	public int[] getParentCategoryIds(int id) throws SQLException {
+		return getIds(id, "parent_category_ids") ;
+	}
+
+	public int[] getChildCategoryIds(int id) throws SQLException {
+		return getIds(id, "child_category_ids") ;
+	}
+
+	public int[] getChildArticleIds(int id) throws SQLException {
+		return getIds(id, "child_article_ids") ;
+	}
+
+	public Vector<PageRecord> getParentCategories(int id) throws SQLException {
+		return getPageRecords(id, "parent_categories") ;
+	}
+
+	public Vector<PageRecord> getChildCategories(int id) throws SQLException {
+		return getPageRecords(id, "child_categories") ;
+	}
+
+	public Vector<PageRecord> getChildArticles(int id) throws SQLException {
+		return getPageRecords(id, "child_articles") ;
+	}
+
+	public boolean isCategoryMember(int categoryId, int id) throws SQLException {
+
+		PreparedStatement stmt = database.prepareStatement("category_link") ;
+		stmt.setInt(1, categoryId) ;
+		stmt.setInt(2, id) ;
+		ResultSet rs = stmt.executeQuery() ;
+
+		boolean isMember = rs.first() ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return isMember ;
+	}
+
+	public int getDepth(int id) throws SQLException {
+
+		int depth = -1 ;
+
+		PreparedStatement stmt = database.prepareStatement("generality_by_id") ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
+
+		if (rs.first())
+			depth = rs.getInt(1) ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return depth ;
+	}
+
+	public int[] getDepths(int[] ids) throws SQLException {
+
+		final TIntIntHashMap fetchedDepths = new TIntIntHashMap() ;
+
+		queryInBatches("SELECT gn_id, gn_depth FROM generality WHERE gn_id IN ", ids, new RowHandler() {
+			public void handleRow(ResultSet rs) throws SQLException {
+				fetchedDepths.put(rs.getInt(1), rs.getInt(2)) ;
+			}
+		}) ;
+
+		int[] depths = new int[ids.length] ;
+		for (int i=0 ; i<ids.length ; i++)
+			depths[i] = fetchedDepths.containsKey(ids[i]) ? fetchedDepths.get(ids[i]) : -1 ;
+
+		return depths ;
+	}
+
+	public int getMaxDepth() throws SQLException {
+
+		int maxDepth = 0 ;
+
+		Statement stmt = database.createStatement() ;
+		ResultSet rs = stmt.executeQuery("SELECT MAX(gn_depth) FROM generality") ;
+
+		if (rs.first())
+			maxDepth = rs.getInt(1) ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return maxDepth ;
+	}
+
+	private Vector<PageRecord> getPageRecords(int id, String statementName) throws SQLException {
+
+		Vector<PageRecord> pages = new Vector<PageRecord>() ;
+
+		PreparedStatement stmt = database.prepareStatement(statementName) ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
+
+		while (rs.next())
+			pages.add(new PageRecord(rs.getInt(1), decode(rs.getBytes(2)), rs.getInt(3))) ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return pages ;
+	}
+
+	private int[] getIds(int id, String statementName) throws SQLException {
+
+		TIntArrayList ids = new TIntArrayList() ;
+
+		PreparedStatement stmt = database.prepareStatement(statementName) ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
+
+		while (rs.next())
+			ids.add(rs.getInt(1)) ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return ids.toNativeArray() ;
+	}
+
+	public Vector<AnchorRecord> getAnchorSenses(String text, TextProcessor tp) throws SQLException {
+
+		Vector<AnchorRecord> senses = new Vector<AnchorRecord>() ;
+
+		PreparedStatement stmt = database.prepareAnchorStatement("anchor_senses", tp) ;
+		stmt.setString(1, text) ;
+		ResultSet rs = stmt.executeQuery() ;
+
+		while (rs.next())
+			senses.add(new AnchorRecord(text, rs.getInt(1), rs.getInt(2), rs.getInt(3))) ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return senses ;
+	}
+
+	public int[] getAnchorOccurrences(String text, TextProcessor tp) throws SQLException {
+
+		int[] counts = null ;
+
+		PreparedStatement stmt = database.prepareAnchorStatement("anchor_occurance", tp) ;
+		stmt.setString(1, text) ;
+		ResultSet rs = stmt.executeQuery() ;
+
+		if (rs.first())
+			counts = new int[] {rs.getInt(1), rs.getInt(2)} ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return counts ;
+	}
+
+	public Vector<AnchorRecord> getAnchorsTo(int id) throws SQLException {
+
+		Vector<AnchorRecord> anchors = new Vector<AnchorRecord>() ;
+
+		PreparedStatement stmt = database.prepareStatement("anchors_to") ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
+
+		while (rs.next())
+			anchors.add(new AnchorRecord(decode(rs.getBytes(1)), id, rs.getInt(2), 0)) ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return anchors ;
+	}
+
+	public String getContent(int id) throws SQLException {
+		return getContentPrefix(id, Integer.MAX_VALUE) ;
+	}
+
+	public String getContentPrefix(int id, int length) throws SQLException {
+
+		byte[] data = null ;
+
+		PreparedStatement stmt = database.prepareStatement("content_by_id") ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
+
+		if (rs.first())
+			data = rs.getBytes(1) ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		// content may have been compressed when it was imported, in which case only as much as is needed is decompressed
+		try {
+			return database.getContentCodec().decompress(data, length) ;
+		} catch (IOException e) {
+			SQLException sqle = new SQLException("could not decompress content of page " + id) ;
+			sqle.initCause(e) ;
+			throw sqle ;
+		}
+	}
+
+	public String getFirstSentence(int id) throws SQLException {
+		return getText(id, "first_sentence_by_id") ;
+	}
+
+	public String getFirstParagraph(int id) throws SQLException {
+		return getText(id, "first_paragraph_by_id") ;
+	}
+
+	private String getText(int id, String statementName) throws SQLException {
+
+		String text = null ;
+
+		PreparedStatement stmt = database.prepareStatement(statementName) ;
+		stmt.setInt(1, id) ;
+		ResultSet rs = stmt.executeQuery() ;
+
+		if (rs.first())
+			text = decode(rs.getBytes(1)) ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return text ;
+	}
+
+	public int getPageCount(int type) throws SQLException {
+
+		int count = 0 ;
+
+		Statement stmt = database.createStatement() ;
+		ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM page WHERE page_type=" + type) ;
+
+		if (rs.first())
+			count = rs.getInt(1) ;
+
+		rs.close() ;
+		stmt.close() ;
+
+		return count ;
+	}
+
+	public boolean isContentAvailable() {
+		return database.isContentImported() ;
+	}
+
+	public boolean areDefinitionsAvailable() {
+		return database.areDefinitionsSummarized() ;
+	}
+
+	public boolean areAnchorOccurrencesAvailable() {
+		return database.areAnchorOccurancesSummarized() ;
+	}
+
+	public void close() {
+		// connections belong to the database, and are closed with it
+	}
+
+	/**
+	 * Issues the given query once for every MAX_IN_LIST_SIZE ids, with the ids appended as a parenthesized list.
+	 */
+	private void queryInBatches(String query, int[] ids, RowHandler handler) throws SQLException {
+
+		for (int start=0 ; start<ids.length ; start+=WikipediaDatabase.MAX_IN_LIST_SIZE) {
+			int end = Math.min(ids.length, start+WikipediaDatabase.MAX_IN_LIST_SIZE) ;
+
+			StringBuffer sql = new StringBuffer(query) ;
+			sql.append('(') ;
+			for (int i=start ; i<end ; i++) {
+				if (i > start)
+					sql.append(',') ;
+				sql.append(ids[i]) ;
+			}
+			sql.append(')') ;
+
+			Statement stmt = database.createStatement() ;
+			try {
+				ResultSet rs = stmt.executeQuery(sql.toString()) ;
+
+				while (rs.next())
+					handler.handleRow(rs) ;
+
+				rs.close() ;
+			} finally {
+				stmt.close() ;
+			}
+		}
+	}
+
+	private interface RowHandler {
+		public void handleRow(ResultSet rs) throws SQLException ;
+	}
+
+	private static String decode(byte[] bytes) {
+		if (bytes == null)
+			return null ;
+
+		try {
+			return new String(bytes, "UTF-8") ;
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e) ;
+		}
+	}
+}
@@ -19,7 +19,10 @@
 
 package org.wikipedia.miner.model;
 
+import gnu.trove.TIntIntHashMap;
+
 import java.io.*;
+import java.nio.IntBuffer;
 import java.sql.*;
 import java.util.Vector;
 
@@ -48,6 +51,12 @@ public abstract class Page implements Comparable<Page>{
 	protected String scope ;
 
 	protected double weight = -1 ;
+	
+	// details that have already been retrieved in bulk (see prefetchContent() and prefetchDefinition())
+	protected String prefetchedContent ;
+	protected byte[] prefetchedContentData ;
+	protected String prefetchedFirstSentence ;
+	protected String prefetchedFirstParagraph ;
 
 	/**
 	 * the page type corresponding to Articles
@@ -99,30 +108,41 @@ public abstract class Page implements Comparable<Page>{
 
 		boolean detailsSet = false ;
 
-		if (database.arePagesCached()) {
-			CachedPage p = database.cachedPages.get(id) ;
+		CacheGeneration caches = database.getCaches() ;
+
+		if (caches.cachedPages != null) {
+			// the title is not decoded until it is asked for (see getTitle())
+			int cachedType = caches.cachedPages.getType(id) ;
+
+			if (cachedType > 0) {
+				this.type = cachedType ;
+				detailsSet = true ;
+			}
+		} else if (caches.tieredPages != null) {
+			CachedPage p = caches.tieredPages.get(id) ;
 
 			if (p != null) {
 				this.title = p.title ;
 				this.type = p.type ;
 				detailsSet = true ;
 			}
-		} else {
-			Statement stmt = database.createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT page_title, page_type FROM page WHERE page_id=" + id) ;
-
-			if (rs.first()) {
-				try {
-					title = new String(rs.getBytes(1), "UTF-8") ;
-				} catch (Exception e) {} ;	
-
-				type = rs.getInt(2) ;
+		}
+		
+		// the database is only a last resort if pages are cached in tiers
+		if (!detailsSet && caches.cachedPages == null) {
+			WikipediaStore.PageRecord r = database.getStore().getPage(id) ;
 
+			if (r != null) {
+				title = r.title ;
+				type = r.type ;
 				detailsSet = true ;
 			}
-
-			rs.close() ;
-			stmt.close();
+			
+			if (caches.tieredPages != null) {
+				caches.tieredPages.recordDatabaseLookup(detailsSet) ;
+				if (detailsSet)
+					caches.tieredPages.put(id, new CachedPage(title, type)) ;
+			}
 		}
 
 		if (!detailsSet)
@@ -143,17 +163,27 @@ public abstract class Page implements Comparable<Page>{
 		this.type = type ;
 
 		boolean detailsSet = false ;
-
-		Statement stmt = database.createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id FROM page WHERE page_title=\"" + title + "\" AND page_type=" + type) ;
-
-		if (rs.first()) {
-			id = rs.getInt(1) ;
-			detailsSet = true ;
+		
+		if (database.areTitlesCached()) {
+			TitleIndex titles = database.getCaches().cachedTitles ;
+			int cachedId = titles.getId(title, type) ;
+			
+			if (cachedId >= 0) {
+				id = cachedId ;
+				detailsSet = true ;
+			} else if (titles.isComplete()) {
+				throw new SQLException("No page defined for title:" + title + " and type:" + type) ;
+			}
+		}
+		
+		if (!detailsSet) {
+			int storedId = database.getStore().getPageId(title, type) ;
+	
+			if (storedId >= 0) {
+				id = storedId ;
+				detailsSet = true ;
+			}
 		}
-
-		rs.close() ;
-		stmt.close();
 
 		if (!detailsSet)
 			throw new SQLException("No page defined for title:" + title + " and type:" + type) ;
@@ -168,6 +198,39 @@ public abstract class Page implements Comparable<Page>{
 		this.weight = weight ;
 	}
 
+	/**
+	 * Supplies the content of this page, when it has already been retrieved along with many others (e.g. by a 
+	 * PageIterator that joins in content), so that getContent() does not need to query for it again.
+	 * 
+	 * @param content the content of this page, in raw media wiki format
+	 */
+	public void prefetchContent(String content) {
+		this.prefetchedContent = content ;
+	}
+	
+	/**
+	 * Supplies the content of this page as it is stored, which may be compressed (see WikipediaDatabase.loadData()). 
+	 * It is only decompressed if getContent() is called.
+	 * 
+	 * @param data the content of this page, either compressed or as UTF-8 encoded markup
+	 */
+	public void prefetchContent(byte[] data) {
+		this.prefetchedContentData = data ;
+	}
+	
+	/**
+	 * Supplies the summarized definition of this page, when it has already been retrieved along with many others 
+	 * (e.g. by a PageIterator that joins in definitions), so that getFirstSentence() and getFirstParagraph() do not 
+	 * need to query for it again.
+	 * 
+	 * @param firstSentence the first sentence of this page
+	 * @param firstParagraph the first paragraph of this page
+	 */
+	public void prefetchDefinition(String firstSentence, String firstParagraph) {
+		this.prefetchedFirstSentence = firstSentence ;
+		this.prefetchedFirstParagraph = firstParagraph ;
+	}
+
 	/**
 	 * Gets the weight by which this page is compared to others.
 	 * 
@@ -206,7 +269,7 @@ public abstract class Page implements Comparable<Page>{
 	 * @return a string representation of the page
 	 */
 	public String toString() {
-		String s = id + ": " + title ;
+		String s = id + ": " + getTitle() ;
 		return s ;
 	}
 
@@ -234,6 +297,9 @@ public abstract class Page implements Comparable<Page>{
 	 * @return the title
 	 */
 	public String getTitle() {
+		if (title == null)
+			title = database.getCachedTitle(id) ;
+
 		return title;
 	}
 
@@ -256,27 +322,25 @@ public abstract class Page implements Comparable<Page>{
 
 		int depth = -1 ;
 
-		if (database.cachedGenerality != null) {
-			if (database.cachedGenerality.containsKey(id))
-				depth = database.cachedGenerality.get(id) ;
+		CacheGeneration caches = database.getCaches() ;
+		TIntIntHashMap generality = caches.cachedGenerality ;
+		IntBuffer generalityByOrdinal = caches.cachedOrdinalGenerality ;
+
+		if (generalityByOrdinal != null) {
+			int ordinal = caches.cachedOrdinals.getOrdinal(id) ;
+			if (ordinal >= 0)
+				depth = generalityByOrdinal.get(ordinal) ;
+		} else if (generality != null) {
+			if (generality.containsKey(id))
+				depth = generality.get(id) ;
 		} else {
-			Statement stmt = database.createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT gn_depth FROM generality WHERE gn_id=" + id) ;
-
-			if (rs.first()) {
-				try {
-					depth = rs.getInt(1) ; 
-				} catch (Exception e) {} ;
-			}
-
-			rs.close() ;
-			stmt.close() ;
+			depth = database.getStore().getDepth(id) ;
 		}
 
 		if (depth < 0) {
 			return -1 ;
 		} else {
-			return 1-((double)depth/database.getMaxPageDepth()) ; 
+			return 1-((double)depth/database.getMaxPageDepth(caches)) ; 
 		}
 	}
 
@@ -292,19 +356,21 @@ public abstract class Page implements Comparable<Page>{
 		if (!database.isContentImported()) {
 			throw new SQLException("Page content has not been imported") ;
 		} else {
-			String content = null ;
-
-			Statement stmt = database.createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT co_content FROM content WHERE co_id=" + id) ;
-
-			if (rs.first()) {
+			if (prefetchedContent == null && prefetchedContentData != null) {
 				try {
-					content = new String(rs.getBytes(1), "UTF-8") ;
-				} catch (Exception e) {} ;
+					prefetchedContent = database.getContentCodec().decompress(prefetchedContentData) ;
+					prefetchedContentData = null ;
+				} catch (IOException e) {
+					SQLException sqle = new SQLException("could not decompress content of page " + id) ;
+					sqle.initCause(e) ;
+					throw sqle ;
+				}
 			}
-
-			rs.close() ;
-			stmt.close() ;
+			
+			if (prefetchedContent != null)
+				return prefetchedContent ;
+			
+			String content = database.getStore().getContent(id) ;
 
 			if (content != null) {
 				//content.replaceAll("\\{","{") ;
@@ -330,20 +396,14 @@ public abstract class Page implements Comparable<Page>{
 		if (!database.isContentImported()) 
 			throw new SQLException("Page content has not been imported") ;
 
-		if (database.areDefinitionsSummarized()) {
-			String fs = "" ;
-			
-			Statement stmt = database.createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT df_firstSentence FROM definition WHERE df_id=" + id) ;
+		if (prefetchedFirstSentence != null)
+			return prefetchedFirstSentence ;
 
-			if (rs.first()) {
-				try {
-					fs = new String(rs.getBytes(1), "UTF-8") ;
-				} catch (Exception e) {} ;	
-			}
+		if (database.areDefinitionsSummarized()) {
+			String fs = database.getStore().getFirstSentence(id) ;
 
-			rs.close() ;
-			stmt.close() ;
+			if (fs == null)
+				return "" ;
 
 			return fs ;	
 		}
@@ -351,6 +411,20 @@ public abstract class Page implements Comparable<Page>{
 		if (paragraph==null)
 			paragraph = getFirstParagraph() ;
 
+		return extractFirstSentence(paragraph, ss) ;
+	}
+	
+	/**
+	 * Returns the first sentence of the given paragraph. This is what getFirstSentence() does when definitions 
+	 * have not been summarized, and needs no access to the database. 
+	 * 
+	 * @param paragraph a paragraph that has already been cleaned of markup (see extractFirstParagraph())
+	 * @param ss this is more efficient if you have already constructed a sentence splitter. If not, just use null.
+	 * @return the first sentence of the paragraph
+	 * @throws Exception if there is a problem splitting the text into sentences.
+	 */
+	public static String extractFirstSentence(String paragraph, SentenceSplitter ss) throws Exception {
+
 		if (paragraph.equals(""))
 			return "" ;
 
@@ -385,56 +459,155 @@ public abstract class Page implements Comparable<Page>{
 		if (!database.isContentImported()) 
 			throw new SQLException("Page content has not been imported") ;
 
-		String fp = null ;
+		String fp = prefetchedFirstParagraph ;
 		
-		if (database.areDefinitionsSummarized()) {
-			
-			Statement stmt = database.createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT df_firstParagraph FROM definition WHERE df_id=" + id) ;
+		if (fp == null && database.areDefinitionsSummarized()) 
+			fp = database.getStore().getFirstParagraph(id) ;
 
-			if (rs.first()) {
-				try {
-					fp = new String(rs.getBytes(1), "UTF-8") ;
-				} catch (Exception e) {} ;	
+		if (fp == null && database.getDefinitionPrefixLength() > 0 && prefetchedContent == null && prefetchedContentData == null) {
+			// try to find the paragraph without retrieving (or decompressing) all of the content
+			int length = database.getDefinitionPrefixLength() ;
+			String prefix = database.getStore().getContentPrefix(id, length) ;
+			
+			if (prefix != null) {
+				if (utf8Length(prefix) < length) {
+					// the prefix is all there is
+					fp = extractFirstParagraph(prefix) ;
+				} else {
+					prefix = trimToParagraphs(prefix) ;
+					if (prefix != null)
+						fp = extractFirstParagraph(prefix, true) ;
+				}
 			}
-
-			rs.close() ;
-			stmt.close() ;
 		}
 
-		if (fp == null) {
+		if (fp == null) 
+			fp = extractFirstParagraph(getContent()) ;
 		
-			String content = getContent() ;
-
-			content = content.replaceAll("={2,}(.+)={2,}", "\n") ; //clear section headings completely - not just formating, but content as well.			
-			content = MarkupStripper.stripTemplates(content) ;
-			content = MarkupStripper.stripImages(content) ;
-			content = MarkupStripper.stripExternalLinks(content) ;
-			content = MarkupStripper.stripIsolatedLinks(content) ;
-			content = MarkupStripper.stripTables(content) ;
-			content = MarkupStripper.stripHTML(content) ;
-			content = MarkupStripper.stripMagicWords(content) ;
-			content = MarkupStripper.stripListItems(content) ;
-			content = MarkupStripper.stripOrphanedBrackets(content) ;
-			content = MarkupStripper.stripIndentedStart(content) ;
-			content = MarkupStripper.stripExcessNewlines(content) ;
+		return fp ;
+	}
 	
-			fp = "" ;
-			int pos = content.indexOf("\n\n") ;
+	/**
+	 * Cuts the given start of some content back to the last blank line that is not inside a template, table or 
+	 * comment, so that extractFirstParagraph() will find the same paragraphs in it as it would in the full content.
+	 * Returns null if there is no such line. 
+	 */
+	private static String trimToParagraphs(String prefix) {
+		
+		if (prefix == null)
+			return null ;
+		
+		int templateDepth = 0 ;
+		int tableDepth = 0 ;
+		boolean inComment = false ;
+		
+		int lastBreak = -1 ;
+		
+		// tokens are matched without overlapping, as they are by MarkupStripper
+		int i = 0 ;
+		while (i < prefix.length()-1) {
+			
+			if (inComment) {
+				if (prefix.startsWith("-->", i)) {
+					inComment = false ;
+					i = i + 3 ;
+				} else {
+					i++ ;
+				}
+				continue ;
+			}
+			
+			if (prefix.startsWith("<!--", i)) {
+				inComment = true ;
+				i = i + 4 ;
+				continue ;
+			}
+			
+			if (prefix.startsWith("{{", i)) 
+				templateDepth++ ;
+			else if (prefix.startsWith("}}", i) && templateDepth > 0) 
+				templateDepth-- ;
+			else if (prefix.startsWith("{|", i)) 
+				tableDepth++ ;
+			else if (prefix.startsWith("|}", i) && tableDepth > 0) 
+				tableDepth-- ;
+			else if (prefix.startsWith("\n\n", i) && templateDepth == 0 && tableDepth == 0) 
+				lastBreak = i ;
+			else {
+				i++ ;
+				continue ;
+			}
+			
+			i = i + 2 ;
+		}
+		
+		if (lastBreak < 0)
+			return null ;
+		
+		return prefix.substring(0, lastBreak+2) ;
+	}
 	
-			while (pos>=0) {
-				fp = content.substring(0, pos) ;
+	private static int utf8Length(String s) {
+		try {
+			return s.getBytes("UTF-8").length ;
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e) ;
+		}
+	}
 	
-				if (pos > 150) 
-					break ;
+	/**
+	 * Returns the first paragraph of the given markup, cleaned of all markup except links and basic formating. 
+	 * This is what getFirstParagraph() does when definitions have not been summarized, and needs no access 
+	 * to the database.  
+	 * 
+	 * @param content the content of a page, in raw media wiki format
+	 * @return the first paragraph of the content
+	 */
+	public static String extractFirstParagraph(String content) {
+		return extractFirstParagraph(content, false) ;
+	}
 	
-				pos = content.indexOf("\n\n", pos+2) ;
+	/**
+	 * Returns the first paragraph of the given markup, as above. If the markup is only the start of some content, 
+	 * then the paragraph is only known to be the same as it would be in the full content if it ends at a blank line 
+	 * more than 150 characters in; otherwise null is returned.
+	 */
+	private static String extractFirstParagraph(String content, boolean isPrefix) {
+		
+		content = content.replaceAll("={2,}(.+)={2,}", "\n") ; //clear section headings completely - not just formating, but content as well.			
+		content = MarkupStripper.stripTemplates(content) ;
+		content = MarkupStripper.stripImages(content) ;
+		content = MarkupStripper.stripExternalLinks(content) ;
+		content = MarkupStripper.stripIsolatedLinks(content) ;
+		content = MarkupStripper.stripTables(content) ;
+		content = MarkupStripper.stripHTML(content) ;
+		content = MarkupStripper.stripMagicWords(content) ;
+		content = MarkupStripper.stripListItems(content) ;
+		content = MarkupStripper.stripOrphanedBrackets(content) ;
+		content = MarkupStripper.stripIndentedStart(content) ;
+		content = MarkupStripper.stripExcessNewlines(content) ;
+	
+		String fp = "" ;
+		boolean complete = false ;
+		int pos = content.indexOf("\n\n") ;
+	
+		while (pos>=0) {
+			fp = content.substring(0, pos) ;
+	
+			if (pos > 150) {
+				complete = true ;
+				break ;
 			}
 	
-			fp = fp.replaceAll("\n", " ") ;
-			fp = fp.replaceAll("\\s+", " ") ;  //turn all whitespace into spaces, and collapse them.
-			fp = fp.trim();
+			pos = content.indexOf("\n\n", pos+2) ;
 		}
+		
+		if (isPrefix && !complete)
+			return null ;
+	
+		fp = fp.replaceAll("\n", " ") ;
+		fp = fp.replaceAll("\\s+", " ") ;  //turn all whitespace into spaces, and collapse them.
+		fp = fp.trim();
 		return fp ;
 	}
 
@@ -468,6 +641,8 @@ public abstract class Page implements Comparable<Page>{
 
 	private void setTitleParts() {
 
+		String title = getTitle() ;
+
 		int pos1 = title.lastIndexOf('(') ;
 		int pos2 = title.lastIndexOf(')') ;
 
@@ -547,4 +722,33 @@ public abstract class Page implements Comparable<Page>{
 
 		return p ;
 	}
+
+	/**
+	 * Instantiates the appropriate subclass of Page for the given id, using the details held in the page cache.
+	 * The title of the page is not decoded until it is asked for.
+	 * 
+	 * @param database an active Wikipedia database, with pages cached
+	 * @param id the id of the page
+	 * @return the instantiated page, or null if the page is not cached
+	 */
+	protected static Page createCachedPage(WikipediaDatabase database, int id) {
+		
+		PageTable pages = database.getCaches().cachedPages ;
+		
+		if (pages != null) {
+			int type = pages.getType(id) ;
+			
+			if (type < 0)
+				return null ;
+			
+			return createPage(database, id, null, type) ;
+		}
+		
+		CachedPage p = database.getCachedPage(id) ;
+		
+		if (p == null)
+			return null ;
+		
+		return createPage(database, id, p.title, p.type) ;
+	}
 }
@@ -0,0 +1,400 @@
+/*
+ *    PageTable.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import gnu.trove.TIntArrayList;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import org.wikipedia.miner.util.PageOrdinals;
+
+/**
+ * A compact, read-only table of the titles and types of cached pages. Rather than holding a String (and its
+ * UTF-16 character array) for every page, all titles are concatenated into a single arena of UTF-8 bytes, and an
+ * offset table records where each title begins and ends. Types are held in a parallel array of bytes.
+ * <p>
+ * Rows are ordered by page id, so pages are located by binary search or (if the rows correspond exactly to a set of
+ * {@link PageOrdinals}) directly by ordinal. Titles are only decoded into Strings when they are asked for.
+ * <p>
+ * The same layout is used by the pages section of a {@link CacheSnapshot}, so a table can either be held on the heap
+ * or wrap buffers that have been memory-mapped from a snapshot.
+ *
+ * @author David Milne
+ */
+public class PageTable {
+
+	private IntBuffer ids ;
+	private ByteBuffer types ;
+	private IntBuffer titleOffsets ;
+	private ByteBuffer titles ;
+
+	private PageOrdinals ordinals ;
+
+	/**
+	 * Creates a table over existing buffers. This is used to wrap buffers that have been memory-mapped from a file,
+	 * and is not needed otherwise; use a {@link Builder} instead.
+	 *
+	 * @param ids the ids of all pages, in ascending order
+	 * @param types the type of each page. Rows with a type of 0 are placeholders for pages that are not in the table.
+	 * @param titleOffsets ids.length+1 offsets, such that the title of row r is found from titleOffsets[r] (inclusive) to titleOffsets[r+1] (exclusive)
+	 * @param titles the UTF-8 encoded titles of all pages
+	 */
+	public PageTable(IntBuffer ids, ByteBuffer types, IntBuffer titleOffsets, ByteBuffer titles) {
+		this.ids = ids ;
+		this.types = types ;
+		this.titleOffsets = titleOffsets ;
+		this.titles = titles ;
+	}
+
+	/**
+	 * Locates rows by the given ordinals rather than by binary search, if the rows of this table correspond exactly
+	 * to them (i.e. the id of row r is the id with ordinal r).
+	 *
+	 * @param ordinals the ordinals to locate rows by
+	 * @return true if the ordinals will be used, otherwise false.
+	 */
+	public boolean setOrdinals(PageOrdinals ordinals) {
+
+		if (ordinals == null || ordinals.size() != ids.limit()) {
+			this.ordinals = null ;
+			return false ;
+		}
+
+		for (int row=0 ; row<ids.limit() ; row++) {
+			if (ordinals.getId(row) != ids.get(row)) {
+				this.ordinals = null ;
+				return false ;
+			}
+		}
+
+		this.ordinals = ordinals ;
+		return true ;
+	}
+
+	/**
+	 * @return the number of rows in this table (including any placeholders)
+	 */
+	public int size() {
+		return ids.limit() ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the row in which the given page is stored, or -1 if it is not in this table.
+	 */
+	public int indexOf(int id) {
+
+		int row ;
+		if (ordinals != null)
+			row = ordinals.getOrdinal(id) ;
+		else
+			row = binarySearch(id) ;
+
+		if (row < 0 || types.get(row) == 0)
+			return -1 ;
+
+		return row ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return true if the given page is in this table, otherwise false.
+	 */
+	public boolean contains(int id) {
+		return indexOf(id) >= 0 ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the type of the given page, or -1 if it is not in this table.
+	 */
+	public int getType(int id) {
+		int row = indexOf(id) ;
+
+		if (row < 0)
+			return -1 ;
+
+		return types.get(row) ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the title of the given page, or null if it is not in this table.
+	 */
+	public String getTitle(int id) {
+		int row = indexOf(id) ;
+
+		if (row < 0)
+			return null ;
+
+		return getTitleAt(row) ;
+	}
+
+	/**
+	 * @param row the index of a row, between 0 and size()
+	 * @return the id of the page in the given row
+	 */
+	public int getIdAt(int row) {
+		return ids.get(row) ;
+	}
+
+	/**
+	 * @param row the index of a row, between 0 and size()
+	 * @return the type of the page in the given row, or 0 if the row is a placeholder
+	 */
+	public int getTypeAt(int row) {
+		return types.get(row) ;
+	}
+
+	/**
+	 * @param row the index of a row, between 0 and size()
+	 * @return the title of the page in the given row, decoded from the arena.
+	 */
+	public String getTitleAt(int row) {
+		int start = titleOffsets.get(row) ;
+		int end = titleOffsets.get(row+1) ;
+
+		try {
+			if (titles.hasArray())
+				return new String(titles.array(), titles.arrayOffset() + start, end-start, "UTF-8") ;
+
+			byte[] bytes = new byte[end-start] ;
+			for (int i=start ; i<end ; i++)
+				bytes[i-start] = titles.get(i) ;
+
+			return new String(bytes, "UTF-8") ;
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e) ;
+		}
+	}
+
+	/**
+	 * @return a read-only view of the ids of all rows
+	 */
+	protected IntBuffer getIds() {
+		IntBuffer view = ids.asReadOnlyBuffer() ;
+		view.clear() ;
+		return view ;
+	}
+
+	/**
+	 * @return a read-only view of the types of all rows
+	 */
+	protected ByteBuffer getTypes() {
+		ByteBuffer view = types.asReadOnlyBuffer() ;
+		view.clear() ;
+		return view ;
+	}
+
+	/**
+	 * @return a read-only view of the title offsets of all rows
+	 */
+	protected IntBuffer getTitleOffsets() {
+		IntBuffer view = titleOffsets.asReadOnlyBuffer() ;
+		view.clear() ;
+		return view ;
+	}
+
+	/**
+	 * @return a read-only view of the arena of titles
+	 */
+	protected ByteBuffer getTitles() {
+		ByteBuffer view = titles.asReadOnlyBuffer() ;
+		view.clear() ;
+		view.limit(titleOffsets.get(ids.limit())) ;
+		return view ;
+	}
+
+	private int binarySearch(int id) {
+		int low = 0 ;
+		int high = ids.limit() - 1 ;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1 ;
+			int midId = ids.get(mid) ;
+
+			if (midId < id)
+				low = mid + 1 ;
+			else if (midId > id)
+				high = mid - 1 ;
+			else
+				return mid ;
+		}
+		return -1 ;
+	}
+
+	/**
+	 * Incrementally builds a {@link PageTable}, one page at a time. Titles are encoded straight into the arena as
+	 * they are added, so no String needs to be retained for any page.
+	 */
+	public static class Builder {
+
+		private PageOrdinals ordinals ;
+
+		private TIntArrayList ids ;
+		private TIntArrayList titleOffsets ;
+		private byte[] types ;
+		private byte[] titles ;
+
+		private int titleLength = 0 ;
+
+		/**
+		 * @param expectedPages an estimate of the number of pages that will be added
+		 * @param ordinals optional ordinals. If these are given, pages that do not have an ordinal are ignored, and the table
+		 * will contain a row (or a placeholder) for every ordinal, so that rows can be located by ordinal.
+		 */
+		public Builder(int expectedPages, PageOrdinals ordinals) {
+			this.ordinals = ordinals ;
+
+			if (ordinals != null)
+				expectedPages = ordinals.size() ;
+
+			expectedPages = Math.max(16, expectedPages) ;
+
+			ids = new TIntArrayList(expectedPages) ;
+			titleOffsets = new TIntArrayList(expectedPages+1) ;
+			types = new byte[expectedPages] ;
+
+			//assume titles take up about 16 bytes each. This is just an initial capacity, so it doesn't need to be exact.
+			titles = new byte[expectedPages*16] ;
+		}
+
+		/**
+		 * Adds a page to the table. Pages must not be added more than once.
+		 *
+		 * @param id the id of the page
+		 * @param title the title of the page
+		 * @param type the type of the page
+		 */
+		public void add(int id, String title, int type) {
+
+			if (ordinals != null && !ordinals.contains(id))
+				return ;
+
+			byte[] bytes ;
+			try {
+				bytes = title.getBytes("UTF-8") ;
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e) ;
+			}
+
+			if (ids.size() == types.length)
+				types = grow(types, types.length+1) ;
+
+			types[ids.size()] = (byte)type ;
+			ids.add(id) ;
+
+			titles = grow(titles, titleLength + bytes.length) ;
+			System.arraycopy(bytes, 0, titles, titleLength, bytes.length) ;
+
+			titleOffsets.add(titleLength) ;
+			titleLength += bytes.length ;
+		}
+
+		/**
+		 * @return the completed table. The builder should not be used after this is called.
+		 */
+		public PageTable build() {
+
+			int count = ids.size() ;
+			titleOffsets.add(titleLength) ;
+
+			// order rows by id (there is usually nothing to do, as pages are typically added in order)
+			boolean sorted = true ;
+			for (int i=1 ; i<count && sorted ; i++)
+				sorted = ids.get(i-1) < ids.get(i) ;
+
+			int[] rowsInOrder = new int[count] ;
+			if (sorted) {
+				for (int i=0 ; i<count ; i++)
+					rowsInOrder[i] = i ;
+			} else {
+				long[] idsAndRows = new long[count] ;
+				for (int i=0 ; i<count ; i++)
+					idsAndRows[i] = ((long)ids.get(i) << 32) | i ;
+				Arrays.sort(idsAndRows) ;
+
+				for (int i=0 ; i<count ; i++)
+					rowsInOrder[i] = (int)idsAndRows[i] ;
+			}
+
+			int rowCount = count ;
+			if (ordinals != null)
+				rowCount = ordinals.size() ;
+
+			int[] newIds = new int[rowCount] ;
+			byte[] newTypes = new byte[rowCount] ;
+			int[] newOffsets = new int[rowCount+1] ;
+			byte[] newTitles ;
+
+			if (sorted && rowCount == count) {
+				// titles are already in order, so the arena only needs to be trimmed
+				newTitles = new byte[titleLength] ;
+				System.arraycopy(titles, 0, newTitles, 0, titleLength) ;
+			} else {
+				newTitles = new byte[titleLength] ;
+			}
+
+			int position = 0 ;
+			int next = 0 ;
+			for (int row=0 ; row<rowCount ; row++) {
+				newOffsets[row] = position ;
+
+				int id = (ordinals != null) ? ordinals.getId(row) : ids.get(rowsInOrder[row]) ;
+				newIds[row] = id ;
+
+				if (next < count && ids.get(rowsInOrder[next]) == id) {
+					int r = rowsInOrder[next++] ;
+					int start = titleOffsets.get(r) ;
+					int length = titleOffsets.get(r+1) - start ;
+
+					newTypes[row] = types[r] ;
+
+					if (!(sorted && rowCount == count))
+						System.arraycopy(titles, start, newTitles, position, length) ;
+
+					position += length ;
+				}
+			}
+			newOffsets[rowCount] = position ;
+
+			PageTable table = new PageTable(IntBuffer.wrap(newIds), ByteBuffer.wrap(newTypes), IntBuffer.wrap(newOffsets), ByteBuffer.wrap(newTitles)) ;
+			table.setOrdinals(ordinals) ;
+
+			return table ;
+		}
+
+		private static byte[] grow(byte[] bytes, int required) {
+			if (bytes.length >= required)
+				return bytes ;
+
+			long newLength = Math.max((long)bytes.length * 2, required) ;
+			if (newLength > Integer.MAX_VALUE)
+				throw new IllegalStateException("too many titles to store in a single arena") ;
+
+			byte[] grown = new byte[(int)newLength] ;
+			System.arraycopy(bytes, 0, grown, 0, bytes.length) ;
+			return grown ;
+		}
+	}
+}
@@ -79,6 +79,17 @@ public class Redirect extends Page {
 		
 		Article target = null;
 		
+		if (database.areTitlesCached() && database.arePagesCached()) {
+			TitleIndex titles = database.getCaches().cachedTitles ;
+			int targetId = titles.getRedirectTarget(getTitle()) ;
+			
+			if (targetId >= 0) 
+				return (Article)Page.createCachedPage(database, targetId) ;
+			
+			if (titles.isComplete())
+				return null ;
+		}
+		
 		int currId = id ;
 		
 		HashSet<Integer> redirectsFollowed = new HashSet<Integer>() ;
@@ -86,28 +97,23 @@ public class Redirect extends Page {
 		while (target == null && !redirectsFollowed.contains(currId)) {
 			redirectsFollowed.add(currId) ;
 			
-			Statement stmt = getWikipediaDatabase().createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT page_id, page_title, page_type FROM redirect, page WHERE rd_to=page_id AND rd_from=" + id) ;
-		
-			if (rs.first()) {
-				try {
-					switch(rs.getInt(3)) {
-				
-					case ARTICLE: 
-						target = new Article(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
-						break ;
-					case REDIRECT:
-						currId = rs.getInt(1) ; 
-						break ;
-					case DISAMBIGUATION:
-						target = new Disambiguation(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
-						break ;		
-					}
-				} catch (Exception e) {} ;
+			WikipediaStore.PageRecord r = database.getStore().getRedirectTarget(currId) ;
+			
+			if (r == null) 
+				break ;
+			
+			switch(r.type) {
+			
+			case ARTICLE: 
+				target = new Article(database, r.id, r.title) ;
+				break ;
+			case REDIRECT:
+				currId = r.id ; 
+				break ;
+			case DISAMBIGUATION:
+				target = new Disambiguation(database, r.id, r.title) ;
+				break ;		
 			}
-		
-			rs.close() ;
-			stmt.close() ;
 		}
 		
 		return target ;		
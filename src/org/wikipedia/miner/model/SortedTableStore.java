@@ -0,0 +1,547 @@
+/*
+ *    SortedTableStore.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+import org.wikipedia.miner.util.*;
+import org.wikipedia.miner.util.text.TextProcessor;
+
+/**
+ * A {@link WikipediaStore} that serves page content and definitions from {@link SortedTable}s on local disk, and
+ * passes every other lookup on to another store (usually a {@link MySqlStore} or {@link FileStore}). This means
+ * content and definitions can be retrieved with predictable latency, and without the content and definition tables
+ * (by far the largest in the database) being imported at all.
+ * <p>
+ * A directory of tables is built once (see build() and main()), either from the tables of an existing database or
+ * from the content.csv file extracted from a dump. It contains a content table, keyed by page id, and a definition
+ * table holding the first sentence and first paragraph of each page. Definitions are kept apart from content
+ * so that retrieving one does not mean decompressing the other.
+ * <p>
+ * By default the content table is compressed a block at a time, like any other SortedTable. It can instead be built
+ * with the content of each page compressed separately by a {@link ContentCodec}, which compresses a little less well
+ * but means that the start of a page can be retrieved without decompressing the whole of it (see getContentPrefix()).
+ *
+ * @author David Milne
+ */
+public class SortedTableStore implements WikipediaStore {
+
+	/**
+	 * The name of the table (within a directory of tables) that holds the content of each page.
+	 */
+	public static final String CONTENT_TABLE = "content.table" ;
+
+	/**
+	 * The name of the table (within a directory of tables) that holds the first sentence and paragraph of each page.
+	 */
+	public static final String DEFINITION_TABLE = "definition.table" ;
+
+	private WikipediaStore delegate ;
+
+	private SortedTable content ;
+	private SortedTable definitions ;
+
+	private ContentCodec codec ;
+
+	/**
+	 * Opens the tables within the given directory. Either table may be missing, in which case content or definitions
+	 * are retrieved from the given store instead (or, if there is a content table, definitions are summarized from it
+	 * as they are asked for).
+	 *
+	 * @param delegate the store that answers all lookups other than content and definitions
+	 * @param dir a directory of tables, as written by build()
+	 * @param cachedBlocks the maximum number of decompressed blocks to hold in memory for each table, or 0 if blocks should not be cached
+	 * @throws IOException if neither table is present, or if they cannot be read.
+	 */
+	public SortedTableStore(WikipediaStore delegate, File dir, int cachedBlocks) throws IOException {
+		this(delegate, dir, cachedBlocks, new ContentCodec()) ;
+	}
+
+	/**
+	 * Opens the tables within the given directory, as above.
+	 *
+	 * @param delegate the store that answers all lookups other than content and definitions
+	 * @param dir a directory of tables, as written by build()
+	 * @param cachedBlocks the maximum number of decompressed blocks to hold in memory for each table, or 0 if blocks should not be cached
+	 * @param codec the codec that content was compressed with, if the content table was built with one
+	 * @throws IOException if neither table is present, or if they cannot be read.
+	 */
+	public SortedTableStore(WikipediaStore delegate, File dir, int cachedBlocks, ContentCodec codec) throws IOException {
+
+		this.delegate = delegate ;
+		this.codec = codec ;
+
+		File contentFile = new File(dir, CONTENT_TABLE) ;
+		File definitionFile = new File(dir, DEFINITION_TABLE) ;
+
+		if (!contentFile.canRead() && !definitionFile.canRead())
+			throw new IOException(dir.getPath() + " does not contain a " + CONTENT_TABLE + " or " + DEFINITION_TABLE) ;
+
+		if (contentFile.canRead())
+			content = new SortedTable(contentFile, cachedBlocks) ;
+
+		if (definitionFile.canRead())
+			definitions = new SortedTable(definitionFile, cachedBlocks) ;
+	}
+
+	/**
+	 * @return the store that answers all lookups other than content and definitions
+	 */
+	public WikipediaStore getDelegate() {
+		return delegate ;
+	}
+
+	public String getContent(int id) throws SQLException {
+
+		if (content == null)
+			return delegate.getContent(id) ;
+
+		return getContentPrefix(id, Integer.MAX_VALUE) ;
+	}
+
+	public String getContentPrefix(int id, int length) throws SQLException {
+
+		if (content == null)
+			return delegate.getContentPrefix(id, length) ;
+
+		try {
+			return codec.decompress(get(content, id), length) ;
+		} catch (IOException e) {
+			SQLException sqle = new SQLException("could not decompress content of page " + id) ;
+			sqle.initCause(e) ;
+			throw sqle ;
+		}
+	}
+
+	public String getFirstSentence(int id) throws SQLException {
+
+		if (definitions == null) {
+			if (content == null)
+				return delegate.getFirstSentence(id) ;
+
+			String paragraph = getFirstParagraph(id) ;
+			if (paragraph == null)
+				return null ;
+
+			try {
+				return Page.extractFirstSentence(paragraph, null) ;
+			} catch (Exception e) {
+				SQLException sqle = new SQLException("could not summarize page " + id) ;
+				sqle.initCause(e) ;
+				throw sqle ;
+			}
+		}
+
+		return getDefinition(id, 0) ;
+	}
+
+	public String getFirstParagraph(int id) throws SQLException {
+
+		if (definitions == null) {
+			if (content == null)
+				return delegate.getFirstParagraph(id) ;
+
+			String markup = getContent(id) ;
+			if (markup == null)
+				return null ;
+
+			return Page.extractFirstParagraph(markup) ;
+		}
+
+		return getDefinition(id, 1) ;
+	}
+
+	public boolean isContentAvailable() {
+		return content != null || delegate.isContentAvailable() ;
+	}
+
+	public boolean areDefinitionsAvailable() {
+		return definitions != null || content != null || delegate.areDefinitionsAvailable() ;
+	}
+
+	public PageRecord getPage(int id) throws SQLException {
+		return delegate.getPage(id) ;
+	}
+
+	public PageRecord[] getPages(int[] ids) throws SQLException {
+		return delegate.getPages(ids) ;
+	}
+
+	public int getPageId(String title, int type) throws SQLException {
+		return delegate.getPageId(title, type) ;
+	}
+
+	public PageRecord getRedirectTarget(int id) throws SQLException {
+		return delegate.getRedirectTarget(id) ;
+	}
+
+	public Vector<PageRecord> getRedirectsTo(int id) throws SQLException {
+		return delegate.getRedirectsTo(id) ;
+	}
+
+	public LinkList getLinksIn(int id) throws SQLException {
+		return delegate.getLinksIn(id) ;
+	}
+
+	public LinkList getLinksOut(int id) throws SQLException {
+		return delegate.getLinksOut(id) ;
+	}
+
+	public LinkList[] getLinksIn(int[] ids) throws SQLException {
+		return delegate.getLinksIn(ids) ;
+	}
+
+	public LinkList[] getLinksOut(int[] ids) throws SQLException {
+		return delegate.getLinksOut(ids) ;
+	}
+
+	public int getLinkCount(int id, boolean linksIn) throws SQLException {
+		return delegate.getLinkCount(id, linksIn) ;
+	}
+
+	public int[] getLinkCounts(int[] ids, boolean linksIn) throws SQLException {
+		return delegate.getLinkCounts(ids, linksIn) ;
+	}
+
+	public int[] getParentCategoryIds(int id) throws SQLException {
+		return delegate.getParentCategoryIds(id) ;
+	}
+
+	public int[] getChildCategoryIds(int id) throws SQLException {
+		return delegate.getChildCategoryIds(id) ;
+	}
+
+	public int[] getChildArticleIds(int id) throws SQLException {
+		return delegate.getChildArticleIds(id) ;
+	}
+
+	public Vector<PageRecord> getParentCategories(int id) throws SQLException {
+		return delegate.getParentCategories(id) ;
+	}
+
+	public Vector<PageRecord> getChildCategories(int id) throws SQLException {
+		return delegate.getChildCategories(id) ;
+	}
+
+	public Vector<PageRecord> getChildArticles(int id) throws SQLException {
+		return delegate.getChildArticles(id) ;
+	}
+
+	public boolean isCategoryMember(int categoryId, int id) throws SQLException {
+		return delegate.isCategoryMember(categoryId, id) ;
+	}
+
+	public int getDepth(int id) throws SQLException {
+		return delegate.getDepth(id) ;
+	}
+
+	public int[] getDepths(int[] ids) throws SQLException {
+		return delegate.getDepths(ids) ;
+	}
+
+	public int getMaxDepth() throws SQLException {
+		return delegate.getMaxDepth() ;
+	}
+
+	public Vector<AnchorRecord> getAnchorSenses(String text, TextProcessor tp) throws SQLException {
+		return delegate.getAnchorSenses(text, tp) ;
+	}
+
+	public int[] getAnchorOccurrences(String text, TextProcessor tp) throws SQLException {
+		return delegate.getAnchorOccurrences(text, tp) ;
+	}
+
+	public Vector<AnchorRecord> getAnchorsTo(int id) throws SQLException {
+		return delegate.getAnchorsTo(id) ;
+	}
+
+	public int getPageCount(int type) throws SQLException {
+		return delegate.getPageCount(type) ;
+	}
+
+	public boolean areAnchorOccurrencesAvailable() {
+		return delegate.areAnchorOccurrencesAvailable() ;
+	}
+
+	public void close() {
+		try {
+			if (content != null)
+				content.close() ;
+			if (definitions != null)
+				definitions.close() ;
+		} catch (IOException e) {} ;
+
+		delegate.close() ;
+	}
+
+	/**
+	 * Returns the first sentence (field 0) or first paragraph (field 1) of the given page.
+	 */
+	private String getDefinition(int id, int field) throws SQLException {
+
+		byte[] value = get(definitions, id) ;
+		if (value == null)
+			return null ;
+
+		// definitions are stored as two length-prefixed strings
+		int sentenceLength = readInt(value, 0) ;
+		if (field == 0)
+			return decode(value, 4, sentenceLength) ;
+
+		int paragraphStart = 4 + sentenceLength ;
+		return decode(value, paragraphStart + 4, readInt(value, paragraphStart)) ;
+	}
+
+	private byte[] get(SortedTable table, int id) throws SQLException {
+		try {
+			return table.get(id) ;
+		} catch (IOException e) {
+			SQLException sqle = new SQLException("could not read page " + id + " from " + table) ;
+			sqle.initCause(e) ;
+			throw sqle ;
+		}
+	}
+
+	private static int readInt(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xff) << 24) | ((bytes[offset+1] & 0xff) << 16) | ((bytes[offset+2] & 0xff) << 8) | (bytes[offset+3] & 0xff) ;
+	}
+
+	private static String decode(byte[] bytes, int offset, int length) {
+		try {
+			return new String(bytes, offset, length, "UTF-8") ;
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e) ;
+		}
+	}
+
+	/**
+	 * Builds a directory of tables from the content (and, if they have been summarized, definitions) of the given
+	 * database. Definitions that have not been summarized are summarized as they are written. Any existing tables
+	 * in the directory will be overwritten.
+	 *
+	 * @param database an active (connected) Wikipedia database, with content imported
+	 * @param dir the directory to write tables to
+	 * @param blockSize the number of (uncompressed) bytes to gather into each block of the tables
+	 * @param pn an optional progress notifier
+	 * @throws SQLException if there is a problem with the Wikipedia database
+	 * @throws IOException if the tables cannot be written
+	 */
+	public static void build(WikipediaDatabase database, File dir, int blockSize, ProgressNotifier pn) throws SQLException, IOException {
+		build(database, dir, blockSize, null, pn) ;
+	}
+
+	/**
+	 * Builds a directory of tables from the content and definitions of the given database, as above.
+	 *
+	 * @param database an active (connected) Wikipedia database, with content imported
+	 * @param dir the directory to write tables to
+	 * @param blockSize the number of (uncompressed) bytes to gather into each block of the tables
+	 * @param codec the codec to compress the content of each page with, or null if content should be compressed a block at a time
+	 * @param pn an optional progress notifier
+	 * @throws SQLException if there is a problem with the Wikipedia database
+	 * @throws IOException if the tables cannot be written
+	 */
+	public static void build(WikipediaDatabase database, File dir, int blockSize, ContentCodec codec, ProgressNotifier pn) throws SQLException, IOException {
+
+		if (!database.isContentImported())
+			throw new SQLException("Page content has not been imported") ;
+
+		boolean summarized = database.areDefinitionsSummarized() ;
+
+		if (pn == null) pn = new ProgressNotifier(1) ;
+
+		int total = 0 ;
+		Statement stmt = database.createStatement() ;
+		ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM content") ;
+		if (rs.first())
+			total = rs.getInt(1) ;
+		rs.close() ;
+		stmt.close() ;
+
+		pn.startTask(total, "building content and definition tables") ;
+
+		TableWriter writer = new TableWriter(dir, blockSize, codec) ;
+		ContentCodec databaseCodec = database.getContentCodec() ;
+
+		String query = "SELECT co_id, co_content FROM content ORDER BY co_id" ;
+		if (summarized)
+			query = "SELECT co_id, co_content, df_firstSentence, df_firstParagraph FROM content LEFT JOIN definition ON df_id=co_id ORDER BY co_id" ;
+
+		stmt = database.createStreamingStatement() ;
+		try {
+			rs = stmt.executeQuery(query) ;
+
+			int done = 0 ;
+			while (rs.next()) {
+				int id = rs.getInt(1) ;
+				String markup = databaseCodec.decompress(rs.getBytes(2)) ;
+
+				if (markup != null) {
+					if (summarized && rs.getBytes(3) != null && rs.getBytes(4) != null)
+						writer.add(id, markup, rs.getBytes(3), rs.getBytes(4)) ;
+					else
+						writer.add(id, markup) ;
+				}
+
+				done++ ;
+				pn.update(done) ;
+			}
+
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+			writer.close() ;
+		}
+	}
+
+	/**
+	 * Builds a directory of tables from a content.csv file extracted from a Wikipedia dump. Definitions are summarized
+	 * as they are written. Any existing tables in the directory will be overwritten.
+	 *
+	 * @param contentFile a content.csv file
+	 * @param dir the directory to write tables to
+	 * @param blockSize the number of (uncompressed) bytes to gather into each block of the tables
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the content file cannot be read, or the tables cannot be written
+	 */
+	public static void build(File contentFile, File dir, int blockSize, ProgressNotifier pn) throws IOException {
+		build(contentFile, dir, blockSize, null, pn) ;
+	}
+
+	/**
+	 * Builds a directory of tables from a content.csv file, as above.
+	 *
+	 * @param contentFile a content.csv file
+	 * @param dir the directory to write tables to
+	 * @param blockSize the number of (uncompressed) bytes to gather into each block of the tables
+	 * @param codec the codec to compress the content of each page with, or null if content should be compressed a block at a time
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the content file cannot be read, or the tables cannot be written
+	 */
+	public static void build(File contentFile, File dir, int blockSize, ContentCodec codec, ProgressNotifier pn) throws IOException {
+
+		if (pn == null) pn = new ProgressNotifier(2) ;
+
+		// the file is not necessarily in order of page id, so it is indexed first and then read in order
+		ContentFile content = new ContentFile(contentFile, pn) ;
+		int[] ids = content.getIds() ;
+
+		pn.startTask(ids.length, "building content and definition tables") ;
+
+		TableWriter writer = new TableWriter(dir, blockSize, codec) ;
+		try {
+			for (int i=0 ; i<ids.length ; i++) {
+				writer.add(ids[i], content.read(ids[i])) ;
+				pn.update(i+1) ;
+			}
+		} finally {
+			writer.close() ;
+			content.close() ;
+		}
+	}
+
+	/**
+	 * Writes the content and definition tables side by side.
+	 */
+	private static class TableWriter {
+
+		private SortedTable.Builder content ;
+		private SortedTable.Builder definitions ;
+
+		private ContentCodec codec ;
+
+		private SentenceSplitter splitter = new SentenceSplitter() ;
+		private ByteArrayOutputStream definition = new ByteArrayOutputStream() ;
+
+		TableWriter(File dir, int blockSize, ContentCodec codec) throws IOException {
+			if (!dir.exists())
+				dir.mkdirs() ;
+
+			this.codec = codec ;
+
+			// there is no point compressing blocks of content that has already been compressed page by page
+			content = new SortedTable.Builder(new File(dir, CONTENT_TABLE), blockSize, codec == null) ;
+			definitions = new SortedTable.Builder(new File(dir, DEFINITION_TABLE), blockSize, true) ;
+		}
+
+		/**
+		 * Adds the given content, along with a definition that is summarized from it.
+		 */
+		void add(int id, String markup) throws IOException {
+
+			String firstParagraph = Page.extractFirstParagraph(markup) ;
+
+			String firstSentence ;
+			try {
+				firstSentence = Page.extractFirstSentence(firstParagraph, splitter) ;
+			} catch (Exception e) {
+				firstSentence = "" ;
+			}
+
+			add(id, markup, firstSentence.getBytes("UTF-8"), firstParagraph.getBytes("UTF-8")) ;
+		}
+
+		void add(int id, String markup, byte[] firstSentence, byte[] firstParagraph) throws IOException {
+
+			if (codec != null)
+				content.add(id, codec.compress(markup)) ;
+			else
+				content.add(id, markup.getBytes("UTF-8")) ;
+
+			definition.reset() ;
+			DataOutputStream out = new DataOutputStream(definition) ;
+			out.writeInt(firstSentence.length) ;
+			out.write(firstSentence) ;
+			out.writeInt(firstParagraph.length) ;
+			out.write(firstParagraph) ;
+
+			definitions.add(id, definition.toByteArray()) ;
+		}
+
+		void close() throws IOException {
+			content.close() ;
+			definitions.close() ;
+		}
+	}
+
+	/**
+	 * Builds a directory of tables. The first argument is the directory to write tables to. If the only other
+	 * argument is a data directory, tables are built from the content.csv file within it. Otherwise the remaining
+	 * arguments identify a database (a server and database name, and optionally a username and password), and tables
+	 * are built from its content and definitions.
+	 */
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 2)
+			throw new Exception("You must specify a table directory, and either a data directory or at least a server and database. Username and password are optional") ;
+
+		File tableDirectory = new File(args[0]) ;
+
+		if (args.length == 2) {
+			build(new File(new File(args[1]), "content.csv"), tableDirectory, SortedTable.DEFAULT_BLOCK_SIZE, null) ;
+			return ;
+		}
+
+		Wikipedia wikipedia = Wikipedia.getInstanceFromArguments(Arrays.copyOfRange(args, 1, args.length)) ;
+		build(wikipedia.getDatabase(), tableDirectory, SortedTable.DEFAULT_BLOCK_SIZE, null) ;
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ *    TieredPageCache.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.wikipedia.miner.model.WikipediaDatabase.CachedPage;
+
+/**
+ * A page cache for deployments that cannot afford to hold every page on the heap. Pages are looked up in
+ * three tiers:
+ * <ol>
+ * <li>a bounded, least-recently-used set of pages held on the heap</li>
+ * <li>the pages section of a {@link CacheSnapshot}, which is memory-mapped rather than loaded, so that it
+ *     is paged in by the operating system as it is needed</li>
+ * <li>the database itself, which is only consulted (by {@link Page}) when the other tiers miss</li>
+ * </ol>
+ * Hits and misses are counted separately for each tier, so that the heap tier can be sized to the
+ * working set that is actually used.
+ *
+ * @author David Milne
+ */
+public class TieredPageCache {
+
+	private Map<Integer,CachedPage> heap ;
+	private int heapCapacity ;
+
+	private PageTable mapped ;
+
+	private Stats heapStats = new Stats("heap") ;
+	private Stats mappedStats = new Stats("mapped") ;
+	private Stats databaseStats = new Stats("database") ;
+
+	/**
+	 * Creates a cache over a mapped table of pages, as saved in a {@link CacheSnapshot}.
+	 *
+	 * @param mapped a table of pages that wraps the pages section of a memory-mapped snapshot
+	 * @param heapCapacity the maximum number of pages to hold on the heap
+	 */
+	public TieredPageCache(PageTable mapped, int heapCapacity) {
+		this.mapped = mapped ;
+
+		this.heapCapacity = Math.max(0, heapCapacity) ;
+		this.heap = new LinkedHashMap<Integer,CachedPage>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Integer,CachedPage> eldest) {
+				return size() > TieredPageCache.this.heapCapacity ;
+			}
+		} ;
+	}
+
+	/**
+	 * Retrieves a page from the heap tier, or (failing that) from the mapped tier. Pages that are found in the
+	 * mapped tier are promoted to the heap tier.
+	 *
+	 * @param id the id of a page
+	 * @return the page, or null if it is not found in either tier (in which case the database must be consulted).
+	 */
+	protected CachedPage get(int id) {
+
+		synchronized(heap) {
+			CachedPage p = heap.get(id) ;
+			if (p != null) {
+				heapStats.hit() ;
+				return p ;
+			}
+		}
+		heapStats.miss() ;
+
+		int row = mapped.indexOf(id) ;
+		if (row < 0) {
+			mappedStats.miss() ;
+			return null ;
+		}
+		mappedStats.hit() ;
+
+		CachedPage p = new CachedPage(mapped.getTitleAt(row), mapped.getTypeAt(row)) ;
+		put(id, p) ;
+
+		return p ;
+	}
+
+	/**
+	 * Adds a page to the heap tier, typically after it has been retrieved from the database.
+	 *
+	 * @param id the id of the page
+	 * @param p the page
+	 */
+	protected void put(int id, CachedPage p) {
+		if (heapCapacity == 0)
+			return ;
+
+		synchronized(heap) {
+			heap.put(id, p) ;
+		}
+	}
+
+	/**
+	 * Records the outcome of consulting the database, after a page was not found in either of the other tiers.
+	 *
+	 * @param found true if the page was found in the database, otherwise false.
+	 */
+	protected void recordDatabaseLookup(boolean found) {
+		if (found)
+			databaseStats.hit() ;
+		else
+			databaseStats.miss() ;
+	}
+
+	/**
+	 * @return the number of pages in the mapped tier
+	 */
+	public int getMappedSize() {
+		return mapped.size() ;
+	}
+
+	/**
+	 * @return the number of pages currently held in the heap tier
+	 */
+	public int getHeapSize() {
+		synchronized(heap) {
+			return heap.size() ;
+		}
+	}
+
+	/**
+	 * @return the maximum number of pages that will be held in the heap tier
+	 */
+	public int getHeapCapacity() {
+		return heapCapacity ;
+	}
+
+	/**
+	 * @return hit and miss counts for the heap tier
+	 */
+	public Stats getHeapStats() {
+		return heapStats ;
+	}
+
+	/**
+	 * @return hit and miss counts for the mapped tier
+	 */
+	public Stats getMappedStats() {
+		return mappedStats ;
+	}
+
+	/**
+	 * @return hit and miss counts for the database tier
+	 */
+	public Stats getDatabaseStats() {
+		return databaseStats ;
+	}
+
+	/**
+	 * Resets the hit and miss counts of every tier.
+	 */
+	public void resetStats() {
+		heapStats.reset() ;
+		mappedStats.reset() ;
+		databaseStats.reset() ;
+	}
+
+	public String toString() {
+		return heapStats + ", " + mappedStats + ", " + databaseStats ;
+	}
+
+	/**
+	 * Hit and miss counts for a single tier of a {@link TieredPageCache}.
+	 */
+	public static class Stats {
+
+		private String tier ;
+		private AtomicLong hits = new AtomicLong() ;
+		private AtomicLong misses = new AtomicLong() ;
+
+		private Stats(String tier) {
+			this.tier = tier ;
+		}
+
+		private void hit() {
+			hits.incrementAndGet() ;
+		}
+
+		private void miss() {
+			misses.incrementAndGet() ;
+		}
+
+		private void reset() {
+			hits.set(0) ;
+			misses.set(0) ;
+		}
+
+		/**
+		 * @return the name of the tier
+		 */
+		public String getTier() {
+			return tier ;
+		}
+
+		/**
+		 * @return the number of lookups that were answered by this tier
+		 */
+		public long getHits() {
+			return hits.get() ;
+		}
+
+		/**
+		 * @return the number of lookups that reached this tier, but could not be answered by it
+		 */
+		public long getMisses() {
+			return misses.get() ;
+		}
+
+		/**
+		 * @return the proportion of lookups reaching this tier that were answered by it (or 0, if there have been none)
+		 */
+		public double getHitRatio() {
+			long h = hits.get() ;
+			long total = h + misses.get() ;
+
+			if (total == 0)
+				return 0 ;
+
+			return (double)h / total ;
+		}
+
+		public String toString() {
+			return tier + ": " + getHits() + " hits, " + getMisses() + " misses" ;
+		}
+	}
+}
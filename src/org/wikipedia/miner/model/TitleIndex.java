@@ -0,0 +1,201 @@
+/*
+ *    TitleIndex.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.IntBuffer;
+
+import gnu.trove.*;
+
+import org.wikipedia.miner.util.*;
+
+/**
+ * A compact, read-only index from page titles (and types) to page ids, built when pages are cached so that
+ * pages can be located by title without consulting the database. The target of each redirect is resolved in
+ * advance, so redirects can also be followed without consulting the database.
+ * <p>
+ * Keys are the page type (as a single byte) followed by the UTF-8 encoded title, and are indexed by a
+ * {@link MinimalPerfectHash}. The slot that the hash returns for a key is an index into flat arrays of page ids
+ * and redirect targets.
+ *
+ * @author David Milne
+ */
+public class TitleIndex {
+
+	private MinimalPerfectHash hash ;
+
+	private IntBuffer ids ;
+	private IntBuffer targets ;
+
+	private boolean complete ;
+
+	/**
+	 * Creates an index over existing buffers, both of which are indexed by the slots of the given hash.
+	 *
+	 * @param hash a minimal perfect hash over the keys (type and title) of all indexed pages
+	 * @param ids the id of each page
+	 * @param targets the resolved target of each redirect (or -1, if the page is not a redirect or its target could not be resolved)
+	 * @param complete true if every page in the database is indexed, otherwise false.
+	 */
+	public TitleIndex(MinimalPerfectHash hash, IntBuffer ids, IntBuffer targets, boolean complete) {
+		this.hash = hash ;
+		this.ids = ids ;
+		this.targets = targets ;
+		this.complete = complete ;
+	}
+
+	/**
+	 * Builds an index from cached pages and redirects.
+	 *
+	 * @param pages the cached pages
+	 * @param redirectTitles the titles of redirects that should be indexed, indexed by id. Redirects that are also in <em>pages</em> do not need to be repeated here.
+	 * @param redirectTargets the resolved target of each redirect (if it could be resolved), indexed by the id of the redirect
+	 * @param complete true if every page in the database is indexed, otherwise false.
+	 * @return the index
+	 */
+	protected static TitleIndex build(PageTable pages, TIntObjectHashMap<String> redirectTitles, TIntIntHashMap redirectTargets, boolean complete) {
+
+		TIntArrayList pageRows = new TIntArrayList(pages.size()) ;
+		for (int row=0 ; row<pages.size() ; row++) {
+			if (pages.getTypeAt(row) != 0)
+				pageRows.add(row) ;
+		}
+		int pageCount = pageRows.size() ;
+
+		int[] extraIds = redirectTitles.keys() ;
+		int extraCount = 0 ;
+		for (int i=0 ; i<extraIds.length ; i++) {
+			if (!pages.contains(extraIds[i]))
+				extraIds[extraCount++] = extraIds[i] ;
+		}
+
+		int count = pageCount + extraCount ;
+
+		int[] allIds = new int[count] ;
+		byte[][] keys = new byte[count][] ;
+
+		for (int i=0 ; i<pageCount ; i++) {
+			int row = pageRows.get(i) ;
+			allIds[i] = pages.getIdAt(row) ;
+			keys[i] = encode(pages.getTitleAt(row), pages.getTypeAt(row)) ;
+		}
+
+		for (int i=0 ; i<extraCount ; i++) {
+			allIds[pageCount + i] = extraIds[i] ;
+			keys[pageCount + i] = encode(redirectTitles.get(extraIds[i]), Page.REDIRECT) ;
+		}
+
+		MinimalPerfectHash hash = MinimalPerfectHash.build(keys) ;
+
+		int[] ids = new int[count] ;
+		int[] targets = new int[count] ;
+
+		for (int i=0 ; i<count ; i++) {
+			int slot = hash.lookup(keys[i]) ;
+
+			ids[slot] = allIds[i] ;
+
+			if (redirectTargets.containsKey(allIds[i]))
+				targets[slot] = redirectTargets.get(allIds[i]) ;
+			else
+				targets[slot] = -1 ;
+		}
+
+		return new TitleIndex(hash, IntBuffer.wrap(ids), IntBuffer.wrap(targets), complete) ;
+	}
+
+	/**
+	 * @return the number of pages in this index
+	 */
+	public int size() {
+		return hash.size() ;
+	}
+
+	/**
+	 * @return true if every page in the database is indexed, so that any title that is not found here does not exist, otherwise false.
+	 */
+	public boolean isComplete() {
+		return complete ;
+	}
+
+	/**
+	 * @param title the (case sensitive) title of a page
+	 * @param type the type of the page
+	 * @return the id of the page, or -1 if it is not in this index.
+	 */
+	public int getId(String title, int type) {
+		int slot = hash.lookup(encode(title, type)) ;
+
+		if (slot < 0)
+			return -1 ;
+
+		return ids.get(slot) ;
+	}
+
+	/**
+	 * @param title the (case sensitive) title of a redirect
+	 * @return the id of the article that the redirect ultimately points to, or -1 if the redirect is not in this index or its target could not be resolved.
+	 */
+	public int getRedirectTarget(String title) {
+		int slot = hash.lookup(encode(title, Page.REDIRECT)) ;
+
+		if (slot < 0)
+			return -1 ;
+
+		return targets.get(slot) ;
+	}
+
+	/**
+	 * @return the hash that indexes this index
+	 */
+	protected MinimalPerfectHash getHash() {
+		return hash ;
+	}
+
+	/**
+	 * @param slot a slot of the hash
+	 * @return the id of the page in the given slot
+	 */
+	protected int getIdForSlot(int slot) {
+		return ids.get(slot) ;
+	}
+
+	/**
+	 * @param slot a slot of the hash
+	 * @return the resolved redirect target of the page in the given slot (or -1)
+	 */
+	protected int getTargetForSlot(int slot) {
+		return targets.get(slot) ;
+	}
+
+	private static byte[] encode(String title, int type) {
+		try {
+			byte[] t = title.getBytes("UTF-8") ;
+
+			byte[] key = new byte[t.length + 1] ;
+			key[0] = (byte)type ;
+			System.arraycopy(t, 0, key, 1, t.length) ;
+
+			return key ;
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e) ;
+		}
+	}
+}
@@ -53,6 +53,32 @@ public class Wikipedia {
 	public Wikipedia(String databaseServer, String databaseName, String userName, String password) throws Exception{
 		database = new WikipediaDatabase(databaseServer, databaseName, userName, password) ;
 	}
+	
+	/**
+	 * Initializes a newly created Wikipedia and attempts to make a connection to the mysql
+	 * database defined by the arguments given. In addition, it will check
+	 * that the Wikipedia database is complete; that all necessary tables and indexes exist.
+	 * 
+	 * @param databaseServer	the connection string for the server (e.g 130.232.231.053:8080 or bob:8080)
+	 * @param databaseName	the name of the database (e.g <em>enwiki</em>)
+	 * @param userName	the user for the SQL database (null if anonymous)
+	 * @param password	the users password (null if anonymous)
+	 * @param poolSize	the maximum number of database connections to hold open at once
+	 * @throws Exception if there is a problem connecting to the database, or if the database is not complete.
+	 */
+	public Wikipedia(String databaseServer, String databaseName, String userName, String password, int poolSize) throws Exception{
+		database = new WikipediaDatabase(databaseServer, databaseName, userName, password, poolSize) ;
+	}
+
+	/**
+	 * Initializes a newly created Wikipedia around a database that has already been created, such as one
+	 * that is served from a {@link FileStore} rather than a mysql server.
+	 *
+	 * @param database	the Wikipedia database to make lookups from
+	 */
+	public Wikipedia(WikipediaDatabase database) {
+		this.database = database ;
+	}
 
 	/**
 	 * @return the Wikipedia database that this is connected to
@@ -86,20 +112,13 @@ public class Wikipedia {
 		String title = null ;
 		int type = 0 ;
 
-		Statement stmt = database.createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_title, page_type FROM page WHERE page_id=" + id) ;
+		WikipediaStore.PageRecord record = database.getStore().getPage(id) ;
 
-		if (rs.first()) {
-			try {
-				title = new String(rs.getBytes(1), "UTF-8") ;
-			} catch (Exception e) {} ;	
-
-			type = rs.getInt(2) ;
+		if (record != null) {
+			title = record.title ;
+			type = record.type ;
 		}
 
-		rs.close() ;
-		stmt.close();
-
 		switch (type) {
 		case Page.ARTICLE: 
 			return new Article(database, id, title) ;
@@ -128,6 +147,22 @@ public class Wikipedia {
 		
 		title = title.substring(0,1).toUpperCase() + title.substring(1) ;
 		
+		if (database.areTitlesCached() && database.arePagesCached()) {
+			//resolve this in memory, without constructing (and throwing away) pages and exceptions for each possibility
+			TitleIndex titles = database.getCaches().cachedTitles ;
+			
+			int id = titles.getId(title, Page.ARTICLE) ;
+			if (id >= 0) 
+				return new Article(database, id, title) ;
+			
+			id = titles.getRedirectTarget(title) ;
+			if (id >= 0)
+				return (Article)Page.createCachedPage(database, id) ;
+			
+			if (titles.isComplete())
+				return null ;
+		}
+		
 		try {
 			return new Article(database, title) ;			
 		} catch (Exception e) {};
@@ -336,17 +371,18 @@ public class Wikipedia {
 	public boolean isAnchor(String text, TextProcessor tp) throws SQLException {
 		
 		if (database.areAnchorsCached(tp)) {
-			return database.cachedAnchors.containsKey(tp.processText(text)) ;
+			return database.getCaches().cachedAnchors.contains(tp.processText(text)) ;
 		} else {
-			Statement stmt = database.createStatement() ;
-			ResultSet rs ;
+			PreparedStatement stmt = database.prepareAnchorStatement("anchor_exists", tp) ;
 			
 			boolean isAnchor = false ;
 			
 			if (tp==null)
-				rs = stmt.executeQuery("SELECT an_to FROM anchor WHERE an_text=\"" + text + "\" LIMIT 1") ;
+				stmt.setString(1, text) ;
 			else 
-				rs = stmt.executeQuery("SELECT an_to FROM anchor_" + tp.getName() + " WHERE an_text=\"" + tp.processText(text) + "\" LIMIT 1") ;
+				stmt.setString(1, tp.processText(text)) ;
+			
+			ResultSet rs = stmt.executeQuery() ;
 			
 			if (rs.first()) 
 				isAnchor = true ;
@@ -375,6 +411,17 @@ public class Wikipedia {
 		return new PageIterator(database, pageType) ;		
 	}
 	
+	/**
+	 * @param pageType the type of page of interest (ARTICLE, CATEGORY, REDIRECT or DISAMBIGUATION_PAGE), or -1 for all pages
+	 * @param details any combination of PageIterator.CONTENT, PageIterator.LINK_COUNTS and PageIterator.DEFINITIONS, to be retrieved along with each page
+	 * @return an iterator that streams through all pages in the database of the given type, in order of ascending ids. 
+	 * It must be closed if it is not iterated to the end.
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	public PageIterator getPageIterator(int pageType, int details) throws SQLException{
+		return new PageIterator(database, pageType, details) ;		
+	}
+	
 	/**
 	 * A convenience method that returns an instance of Wikipedia, initialized according to the given 
 	 * array of String arguments. 
@@ -20,8 +20,10 @@
 package org.wikipedia.miner.model;
 
 import java.io.* ;
+import java.nio.IntBuffer;
 import java.sql.*;
 import java.util.* ;
+import java.util.concurrent.* ;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -42,25 +44,62 @@ import org.wikipedia.miner.util.text.*;
 public class WikipediaDatabase extends MySqlDatabase {
 	
 	private HashMap<String,String> createStatements  ;
+	private HashMap<String,String> anchorStatements ;
+	
+	/**
+	 * The number of rows that are read (or written) at a time, when tables are prepared for a text processor.
+	 */
+	private static final int SCAN_CHUNK_SIZE = 100000 ;
+	
+	/**
+	 * The number of processed rows that are held in memory (and sorted) before they are spilled to disk, when tables 
+	 * are prepared for a text processor.
+	 */
+	private static final int SORT_BUFFER_SIZE = 1000000 ;
+	
+	/**
+	 * The maximum number of ids that are listed in a single query, when pages (or their details) are retrieved in bulk.
+	 */
+	public static final int MAX_IN_LIST_SIZE = 500 ;
+	
+	/**
+	 * The number of pages (and definitions) that are queued between the reader, workers and writer of 
+	 * summarizeDefinitions(), so that memory is bound no matter how far one gets ahead of another.
+	 */
+	private static final int DEFINITION_QUEUE_SIZE = 1000 ;
+	
+	/**
+	 * The number of definitions that are written to the database in a single batch. 
+	 */
+	private static final int DEFINITION_BATCH_SIZE = 1000 ;
 	
 	private boolean contentImported = true ;
 	private boolean anchorOccurancesSummarized = true ;
 	private boolean definitionsSummarized = true ;
+	private boolean linksPacked = false ;
+	
+	// compresses and decompresses page content (see loadData())
+	private ContentCodec contentCodec = new ContentCodec() ;
+	private int definitionPrefixLength = 0 ;
 	
 	private int article_count = 0 ;
 	private int category_count = 0 ;
 	private int redirect_count = 0 ;
 	private int disambig_count = 0 ;
+	
+	// the maximum depth in the generality table, for when generality is not cached
 	private int maxPageDepth = 0 ;
 	
-	protected THashMap<String,CachedAnchor> cachedAnchors = null ;
-	protected TIntObjectHashMap<CachedPage> cachedPages = null ;
-	protected TIntObjectHashMap<int[]> cachedInLinks = null ;
-	protected TIntObjectHashMap<int[][]> cachedOutLinks = null ;
-	protected TIntIntHashMap cachedGenerality = null ; 
-	protected TIntObjectHashMap<int[]> cachedParentIds = null ;
+	// the live caches, which are replaced atomically when a new generation is committed
+	private volatile CacheGeneration liveCaches = new CacheGeneration() ;
+	
+	// the caches that are currently being built (see beginCacheGeneration()), if any 
+	private volatile CacheGeneration building = null ;
 	
-	private TextProcessor cachedProcessor = null ;
+	private ThreadLocal<CacheGeneration> pinnedCaches = new ThreadLocal<CacheGeneration>() ;
+	
+	// answers lookups that the caches cannot
+	private volatile WikipediaStore store ;
 		
 	/**
 	 * Initializes a newly created WikipediaDatabase and attempts to make a connection to the mysql
@@ -74,8 +113,26 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @throws	Exception	if a connection cannot be made.
 	 */
 	public WikipediaDatabase(String server, String databaseName, String userName, String password) throws Exception{
+		this(server, databaseName, userName, password, DEFAULT_POOL_SIZE) ;
+	}
+	
+	/**
+	 * Initializes a newly created WikipediaDatabase and attempts to make a connection to the mysql
+	 * database defined by the arguments given, as defined by MySqlDatabase. In addition, it will check
+	 * that the wikipedia database is complete; that all necessary tables and indexes exist.
+	 *
+	 * @param	server	the connection string for the server (e.g 130.232.231.053:8080 or bob:8080)
+	 * @param	databaseName	the name of the database (e.g <em>enwiki</em>)
+	 * @param	userName		the user for the sql database (null if anonymous)
+	 * @param	password	the users password (null if anonymous)
+	 * @param	poolSize	the maximum number of connections to hold open at once (i.e. the number of threads that can query the database at once)
+	 * @throws	Exception	if a connection cannot be made.
+	 */
+	public WikipediaDatabase(String server, String databaseName, String userName, String password, int poolSize) throws Exception{
 		
-		super(server, databaseName, userName, password, "utf8") ;
+		super(server, databaseName, userName, password, "utf8", poolSize) ;
+		
+		store = new MySqlStore(this) ;
 		
 		createStatements = new HashMap<String,String>() ;
 		
@@ -132,6 +189,17 @@ public class WikipediaDatabase extends MySqlDatabase {
 				+ "lo_id int(8) unsigned NOT NULL, "
 				+ "lo_data mediumblob NOT NULL, "
 				+ "PRIMARY KEY (lo_id)) ENGINE=MyISAM DEFAULT CHARSET=utf8;") ;
+		
+		// alternatives to pagelink_in and pagelink_out, where links are stored in binary (see LinkList.pack()) rather than as text
+		createStatements.put("pagelink_in_packed", "CREATE TABLE pagelink_in_packed (" 
+				+ "li_id int(8) unsigned NOT NULL, "
+				+ "li_data mediumblob NOT NULL, "
+				+ "PRIMARY KEY (li_id)) ENGINE=MyISAM DEFAULT CHARSET=utf8;") ;
+		
+		createStatements.put("pagelink_out_packed", "CREATE TABLE pagelink_out_packed (" 
+				+ "lo_id int(8) unsigned NOT NULL, "
+				+ "lo_data mediumblob NOT NULL, "
+				+ "PRIMARY KEY (lo_id)) ENGINE=MyISAM DEFAULT CHARSET=utf8;") ;
 				
 		createStatements.put("equivalence", "CREATE TABLE equivalence (" 
 				+ "eq_cat int(8) unsigned NOT NULL, "
@@ -164,6 +232,59 @@ public class WikipediaDatabase extends MySqlDatabase {
 				+ "gn_depth int(2) unsigned NOT NULL, "
 				+ "PRIMARY KEY (gn_id)) ENGINE=MyISAM DEFAULT CHARSET=utf8;") ; 
 		
+		// lookups that are made by pages, articles, categories etc. These are prepared once per connection, rather than built and parsed for every call. 
+		registerStatement("page_by_id", "SELECT page_title, page_type FROM page WHERE page_id=?") ;
+		registerStatement("page_by_title", "SELECT page_id FROM page WHERE page_title=? AND page_type=?") ;
+		registerStatement("generality_by_id", "SELECT gn_depth FROM generality WHERE gn_id=?") ;
+		registerStatement("content_by_id", "SELECT co_content FROM content WHERE co_id=?") ;
+		registerStatement("first_sentence_by_id", "SELECT df_firstSentence FROM definition WHERE df_id=?") ;
+		registerStatement("first_paragraph_by_id", "SELECT df_firstParagraph FROM definition WHERE df_id=?") ;
+		registerStatement("insert_definition", "INSERT IGNORE INTO definition VALUES (?,?,?)") ;
+		registerStatement("insert_content", "INSERT IGNORE INTO content VALUES (?,?)") ;
+		
+		registerStatement("redirect_target", "SELECT page_id, page_title, page_type FROM redirect, page WHERE rd_to=page_id AND rd_from=?") ;
+		registerStatement("redirects_to", "SELECT DISTINCT page_id, page_title, page_type FROM redirect, page WHERE page_id=rd_from AND rd_to=?") ;
+		
+		registerStatement("parent_categories", "SELECT DISTINCT page_id, page_title, page_type FROM categorylink, page WHERE cl_parent=page_id AND cl_child=? ORDER BY page_id") ;
+		registerStatement("parent_category_ids", "SELECT DISTINCT page_id FROM categorylink, page WHERE cl_parent=page_id AND cl_child=? ORDER BY page_id") ;
+		registerStatement("child_categories", "SELECT DISTINCT page_id, page_title, page_type FROM categorylink, page WHERE cl_child=page_id AND page_type=" + Page.CATEGORY + " AND cl_parent=?") ;
+		registerStatement("child_category_ids", "SELECT DISTINCT page_id FROM categorylink, page WHERE cl_child=page_id AND page_type=" + Page.CATEGORY + " AND cl_parent=? ORDER BY cl_child") ;
+		registerStatement("child_articles", "SELECT page_id, page_title, page_type FROM categorylink, page WHERE cl_child=page_id AND page_type=" + Page.ARTICLE + " AND cl_parent=? ORDER BY page_id") ;
+		registerStatement("child_article_ids", "SELECT page_id FROM categorylink, page WHERE cl_child=page_id AND page_type=" + Page.ARTICLE + " AND cl_parent=? ORDER BY page_id") ;
+		registerStatement("category_link", "SELECT * FROM categorylink WHERE cl_parent=? AND cl_child=?") ;
+		registerStatement("equivalent_category", "SELECT page_id, page_title FROM equivalence, page WHERE page_id=eq_cat AND eq_art=?") ;
+		registerStatement("equivalent_article", "SELECT page_id, page_title FROM equivalence, page WHERE page_id=eq_art AND eq_cat=?") ;
+		
+		registerStatement("translation_languages", "SELECT tl_lang FROM translation WHERE tl_id=?") ;
+		registerStatement("translation", "SELECT tl_text FROM translation WHERE tl_id=? AND tl_lang=?") ;
+		registerStatement("translations", "SELECT tl_lang, tl_text FROM translation WHERE tl_id=?") ;
+		
+		registerStatement("links_in", "SELECT li_data FROM pagelink_in WHERE li_id=?") ;
+		registerStatement("links_out", "SELECT lo_data FROM pagelink_out WHERE lo_id=?") ;
+		registerStatement("packed_links_in", "SELECT li_data FROM pagelink_in_packed WHERE li_id=?") ;
+		registerStatement("packed_links_out", "SELECT lo_data FROM pagelink_out_packed WHERE lo_id=?") ;
+		registerStatement("insert_packed_links_in", "INSERT IGNORE INTO pagelink_in_packed VALUES (?,?)") ;
+		registerStatement("insert_packed_links_out", "INSERT IGNORE INTO pagelink_out_packed VALUES (?,?)") ;
+		registerStatement("link_count_in", "SELECT lc_in FROM linkcount WHERE lc_id=?") ;
+		registerStatement("link_count_out", "SELECT lc_out FROM linkcount WHERE lc_id=?") ;
+		registerStatement("anchors_to", "SELECT an_text, an_count FROM anchor WHERE an_to=? ORDER BY an_count DESC") ;
+		
+		registerStatement("disambiguation_first_sense", "SELECT page_id, page_title, page_type, da_index, da_scope FROM disambiguation, page WHERE da_to=page_id AND da_from=? AND da_index=1") ;
+		registerStatement("disambiguation_senses_by_id", "SELECT page_id, page_title, page_type, da_index, da_scope FROM disambiguation, page WHERE da_to=page_id AND da_from=? ORDER BY page_id") ;
+		registerStatement("disambiguation_senses", "SELECT page_id, page_title, page_type, da_index, da_scope FROM disambiguation, page WHERE da_to=page_id AND da_from=? ORDER BY da_index") ;
+		
+		// scans through the anchor tables, in chunks of rows that begin after the last key of the previous chunk
+		registerStatement("anchor_scan_first", "SELECT an_text, an_to, an_count, an_type FROM anchor ORDER BY an_text, an_to LIMIT " + SCAN_CHUNK_SIZE) ;
+		registerStatement("anchor_scan_next", "SELECT an_text, an_to, an_count, an_type FROM anchor WHERE an_text >= ? AND (an_text > ? OR an_to > ?) ORDER BY an_text, an_to LIMIT " + SCAN_CHUNK_SIZE) ;
+		registerStatement("anchor_occurance_scan_first", "SELECT ao_text, ao_linkCount, ao_occCount FROM anchor_occurance ORDER BY ao_text LIMIT " + SCAN_CHUNK_SIZE) ;
+		registerStatement("anchor_occurance_scan_next", "SELECT ao_text, ao_linkCount, ao_occCount FROM anchor_occurance WHERE ao_text > ? ORDER BY ao_text LIMIT " + SCAN_CHUNK_SIZE) ;
+		
+		// lookups by anchor text, which are made against a different table for each text processor (see prepareAnchorStatement())
+		anchorStatements = new HashMap<String,String>() ;
+		anchorStatements.put("anchor_senses", "SELECT an_to, an_count, an_type FROM anchor%s WHERE an_text=? ORDER BY an_count DESC, an_to") ;
+		anchorStatements.put("anchor_exists", "SELECT an_to FROM anchor%s WHERE an_text=? LIMIT 1") ;
+		anchorStatements.put("anchor_occurance", "SELECT ao_linkCount, ao_occCount FROM anchor_occurance%s WHERE ao_text=?") ;
+		
 		try {
 			checkDatabase() ;	
 			setStats() ;
@@ -173,6 +294,125 @@ public class WikipediaDatabase extends MySqlDatabase {
 		}
 	}
 	
+	/**
+	 * Initializes a newly created WikipediaDatabase that is served entirely by the given store, without connecting 
+	 * to a mysql server. Pages, links, categories, anchors, content and definitions can all be retrieved (and cached) 
+	 * as usual, but anything the store does not cover (e.g. translations, equivalent categories and disambiguation 
+	 * senses), and anything that would modify the database, will fail.
+	 * 
+	 * @param store the store from which all lookups will be answered (e.g. a {@link FileStore})
+	 * @throws SQLException if the store cannot provide statistics about its pages
+	 */
+	public WikipediaDatabase(WikipediaStore store) throws SQLException {
+		super() ;
+		
+		this.store = store ;
+		
+		contentImported = store.isContentAvailable() ;
+		definitionsSummarized = store.areDefinitionsAvailable() ;
+		anchorOccurancesSummarized = store.areAnchorOccurrencesAvailable() ;
+		
+		article_count = store.getPageCount(Page.ARTICLE) ;
+		category_count = store.getPageCount(Page.CATEGORY) ;
+		redirect_count = store.getPageCount(Page.REDIRECT) ;
+		disambig_count = store.getPageCount(Page.DISAMBIGUATION) ;
+	}
+	
+	/**
+	 * @return the codec that page content is compressed with when it is imported (see loadData()), and decompressed with when it is read.
+	 */
+	public ContentCodec getContentCodec() {
+		return contentCodec ;
+	}
+	
+	/**
+	 * Replaces the codec that page content is compressed and decompressed with. This is only needed if content was 
+	 * (or is to be) compressed with a dictionary other than the default one.
+	 * 
+	 * @param codec the new codec
+	 */
+	public void setContentCodec(ContentCodec codec) {
+		this.contentCodec = codec ;
+	}
+	
+	/**
+	 * @return the number of bytes of content that first paragraphs (and sentences) are looked for in, when definitions have not been summarized, or 0 if all content is used.
+	 */
+	public int getDefinitionPrefixLength() {
+		return definitionPrefixLength ;
+	}
+	
+	/**
+	 * When definitions have not been summarized, first paragraphs and sentences are extracted from the content of 
+	 * each page. If a length is given here, then only that many bytes of content are retrieved (and, if content 
+	 * is compressed, decompressed) at first. All of the content is only used if the paragraph cannot be found in them.
+	 * <p>
+	 * Paragraphs can only be found reliably once everything that precedes them (templates, tables, comments) is
+	 * closed, so the prefix is cut back to the last blank line at which that is the case. The paragraph found there is 
+	 * only used if it ends where it would in the full content (at a blank line, more than 150 characters in), so the 
+	 * result does not depend on the length given here. A few thousand bytes is enough for most pages.
+	 * 
+	 * @param length the number of bytes of content to look for definitions in, or 0 if all content should be used
+	 */
+	public void setDefinitionPrefixLength(int length) {
+		this.definitionPrefixLength = length ;
+	}
+	
+	/**
+	 * @return the store that answers lookups which cannot be answered from the caches
+	 */
+	public WikipediaStore getStore() {
+		return store ;
+	}
+	
+	/**
+	 * Replaces the store that answers lookups which cannot be answered from the caches, e.g. to measure the model 
+	 * classes against an in-process fake. Whether content, definitions and anchor occurrences are available is 
+	 * taken from the new store.
+	 * 
+	 * @param store the new store
+	 */
+	public void setStore(WikipediaStore store) {
+		this.store = store ;
+		
+		contentImported = store.isContentAvailable() ;
+		definitionsSummarized = store.areDefinitionsAvailable() ;
+		anchorOccurancesSummarized = store.areAnchorOccurrencesAvailable() ;
+	}
+	
+	/**
+	 * Serves page content and definitions from a directory of sorted tables (see SortedTableStore.build()), 
+	 * rather than from the content and definition tables of this database. All other lookups are made as before.
+	 * 
+	 * @param dir a directory of tables
+	 * @param cachedBlocks the maximum number of decompressed blocks to hold in memory for each table, or 0 if blocks should not be cached
+	 * @throws IOException if the tables cannot be read
+	 */
+	public void useSortedTables(File dir, int cachedBlocks) throws IOException {
+		setStore(new SortedTableStore(store, dir, cachedBlocks)) ;
+	}
+	
+	/**
+	 * Returns a lookup by anchor text (see MySqlDatabase.prepareStatement()), prepared against the anchor table for the 
+	 * given text processor. The text must be processed before it is given to the statement.
+	 * 
+	 * @param name the name of the lookup: anchor_senses, anchor_exists or anchor_occurance
+	 * @param tp the text processor that anchors are indexed by, or null if they are not processed
+	 * @return the prepared statement
+	 * @throws SQLException if there is a problem with the Wikipedia database
+	 */
+	protected PreparedStatement prepareAnchorStatement(String name, TextProcessor tp) throws SQLException {
+		
+		String suffix = "" ;
+		if (tp != null) 
+			suffix = "_" + tp.getName() ;
+		
+		if (!isStatementRegistered(name + suffix)) 
+			registerStatement(name + suffix, String.format(anchorStatements.get(name), suffix)) ;
+		
+		return prepareStatement(name + suffix) ;
+	}
+	
 	private void setStats() throws SQLException {
 		Statement stmt = createStatement() ;
 		ResultSet rs = stmt.executeQuery("SELECT * FROM stats") ;
@@ -224,102 +464,89 @@ public class WikipediaDatabase extends MySqlDatabase {
 						+ "KEY (an_to)) ENGINE=MyISAM DEFAULT CHARSET=utf8;") ;
 		stmt.close() ;
 		
-		HashMap<String, int[]> senseDetails = new HashMap<String, int[]>() ;
-		
+		// senses of the same processed text and destination are summed (and the strongest type is kept) as they are sorted
+		ExternalSorter<ProcessedRow> sorter = new ExternalSorter<ProcessedRow>(ProcessedRow.comparator, ProcessedRow.serializer, new ExternalSorter.Combiner<ProcessedRow>() {
+			public ProcessedRow combine(ProcessedRow a, ProcessedRow b) {
+				a.value1 = a.value1 + b.value1 ;
+				a.value2 = Math.max(a.value2, b.value2) ;
+				return a ;
+			}
+		}, SORT_BUFFER_SIZE, null) ;
 		
-			
 		int currRow = 0 ;
 		
-		int chunkIndex = 0 ;
-		int chunkSize = 100000 ;
-						
-		while (chunkIndex * chunkSize < rows) {
-			
-			//if (chunkIndex > 10) break ;
-			stmt = createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT * FROM anchor LIMIT " + chunkIndex * chunkSize + ", " + chunkSize ) ;
-			
-			while (rs.next()) {
-				try {
-					
-					String an_text = new String(rs.getBytes(1), "UTF-8") ;
-					long an_to = rs.getLong(2) ;
-					int an_count = rs.getInt(3) ;
-					int an_type = rs.getInt(4) ;
-					
-					an_text = tp.processText(an_text) ;
-					
-					//System.out.println(an_text + "," + an_to + "," + an_count) ;
-					
-					int[] countAndType = senseDetails.get(an_text + ":" + an_to) ;
-					
-					if (countAndType == null) {
-						countAndType = new int[2] ;
-						countAndType[0] = an_count ;
-						countAndType[1] = an_type ;
-					} else {
-						countAndType[0] = countAndType[0] + an_count ;
-						countAndType[1] = Math.max(countAndType[1], an_type) ;
-					}
+		// rows are read in order of the primary key, continuing from the last key seen, so each chunk is a cheap range scan 
+		byte[] lastText = null ;
+		int lastTo = 0 ;
+		int chunkRows ;
+		
+		try {
+			do {
+				PreparedStatement pstmt ;
+				if (lastText == null) {
+					pstmt = prepareStatement("anchor_scan_first") ;
+				} else {
+					pstmt = prepareStatement("anchor_scan_next") ;
+					pstmt.setBytes(1, lastText) ;
+					pstmt.setBytes(2, lastText) ;
+					pstmt.setInt(3, lastTo) ;
+				}
+				ResultSet rs = pstmt.executeQuery() ;
+				
+				chunkRows = 0 ;
+				while (rs.next()) {
+					lastText = rs.getBytes(1) ;
+					lastTo = rs.getInt(2) ;
+					chunkRows++ ;
+					currRow++ ;
 					
-					senseDetails.put(an_text + ":" + an_to, countAndType) ;
+					String an_text = null ;
+					try {
+						an_text = tp.processText(new String(lastText, "UTF-8")) ;
+					} catch (Exception e) {e.printStackTrace() ;} ;
 					
-				} catch (Exception e) {e.printStackTrace() ;} ;
+					if (an_text != null && !an_text.equals(""))
+						sorter.add(new ProcessedRow(an_text, lastTo, rs.getInt(3), rs.getInt(4))) ;
+				}
 				
-				currRow++ ;
-			}
-			
-			rs.close() ;
-			stmt.close() ;
-			
-			chunkIndex++ ;
-			pn.update(currRow) ;
+				rs.close() ;
+				pstmt.close() ;
+				
+				pn.update(currRow) ;
+			} while (chunkRows == SCAN_CHUNK_SIZE) ;
+		} catch (IOException e) {
+			throw new SQLException("could not sort anchors: " + e.getMessage()) ;
 		}
 		
-		rows = senseDetails.size() ;
-		pn.startTask(rows, "Saving processed anchors") ;
-		
-		chunkIndex = 0 ;
+		pn.startTask(sorter.getItemsAdded(), "Saving processed anchors") ;
 		
 		currRow = 0 ;
+		StringBuffer insertQuery = new StringBuffer() ;
 		
-		StringBuffer insertQuery = new StringBuffer() ; ;
-		
-		for(String key:senseDetails.keySet()) {
-			currRow ++ ;
-			
-			int pos = key.lastIndexOf(':') ;
-			
-			String an_text = key.substring(0, pos) ;
-			long an_to = new Long(key.substring(pos+1)).longValue() ;
-			int[] countAndType = senseDetails.get(key) ;
-			
-			if (an_text != "") 
-				insertQuery.append(" (\"" + addEscapes(an_text) + "\"," + an_to + "," + countAndType[0] + "," + countAndType[1] + "),") ;
-			
-			if (currRow%chunkSize == 0) {
-				if (insertQuery.length() > 0) {
-					insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
+		try {
+			ExternalSorter.Reader<ProcessedRow> reader = sorter.sort() ;
+			try {
+				ProcessedRow row ;
+				while ((row = reader.next()) != null) {
+					currRow ++ ;
 					
-					stmt = createStatement() ;
-					stmt.setEscapeProcessing(false) ;
-					stmt.executeUpdate("INSERT IGNORE INTO " + tableName + " VALUES" + insertQuery.toString() ) ;
-					stmt.close() ;
+					insertQuery.append(" (\"" + addEscapes(row.text) + "\"," + row.id + "," + row.value1 + "," + row.value2 + "),") ;
 					
-					insertQuery = new StringBuffer() ;
+					if (currRow%SCAN_CHUNK_SIZE == 0) {
+						insertRows(tableName, insertQuery) ;
+						insertQuery = new StringBuffer() ;
+						pn.update(currRow) ;
+					}
 				}
-				pn.update(currRow) ;
+			} finally {
+				reader.close() ;
 			}
+		} catch (IOException e) {
+			throw new SQLException("could not sort anchors: " + e.getMessage()) ;
 		}
 		
-		if (insertQuery.length() > 0) {
-			insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
-						
-			stmt = createStatement() ;
-			stmt.setEscapeProcessing(false) ;
-			stmt.executeUpdate("INSERT IGNORE INTO " + tableName + " VALUES" + insertQuery.toString() ) ;
-			stmt.close() ;
-		}
+		insertRows(tableName, insertQuery) ;
+		pn.update(sorter.getItemsAdded()) ;
 	}
 	
 	private void prepareAnchorOccurancesForTextProcessor(TextProcessor tp) throws SQLException {
@@ -327,7 +554,7 @@ public class WikipediaDatabase extends MySqlDatabase {
 		System.out.println("Preparing anchor occurances for " + tp.getName()) ;
 		String tableName = "anchor_occurance_" + tp.getName() ;
 		
-		int rows = this.getRowCountExact("anchor") ;
+		int rows = this.getRowCountExact("anchor_occurance") ;
 		ProgressNotifier pn = new ProgressNotifier(2) ;
 		pn.startTask(rows, "Gathering and processing anchor occurances") ;
 		
@@ -344,95 +571,146 @@ public class WikipediaDatabase extends MySqlDatabase {
 					
 		stmt.close() ;
 		
-		HashMap<String, Integer[]> occuranceStats = new HashMap<String, Integer[]>() ;
+		// link and occurance counts of the same processed text are summed as they are sorted
+		ExternalSorter<ProcessedRow> sorter = new ExternalSorter<ProcessedRow>(ProcessedRow.comparator, ProcessedRow.serializer, new ExternalSorter.Combiner<ProcessedRow>() {
+			public ProcessedRow combine(ProcessedRow a, ProcessedRow b) {
+				a.value1 = a.value1 + b.value1 ;
+				a.value2 = a.value2 + b.value2 ;
+				return a ;
+			}
+		}, SORT_BUFFER_SIZE, null) ;
 		
 		int currRow = 0 ;
 		
-		int chunkIndex = 0 ;
-		int chunkSize = 100000 ;
-						
-		while (chunkIndex * chunkSize < rows) {
-			
-			//if (chunkIndex > 10) break ;
-			stmt = createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT * FROM anchor_occurance LIMIT " + chunkIndex * chunkSize + ", " + chunkSize ) ;
-			
-			while (rs.next()) {
-				try {
-					
-					String ao_text = new String(rs.getBytes(1), "UTF-8") ;
-					int ao_linkCount = rs.getInt(2) ;
-					int ao_occCount = rs.getInt(3) ;
-					
-					ao_text = tp.processText(ao_text) ;					
-					Integer[] stats = occuranceStats.get(ao_text) ;
+		byte[] lastText = null ;
+		int chunkRows ;
+		
+		try {
+			do {
+				PreparedStatement pstmt ;
+				if (lastText == null) {
+					pstmt = prepareStatement("anchor_occurance_scan_first") ;
+				} else {
+					pstmt = prepareStatement("anchor_occurance_scan_next") ;
+					pstmt.setBytes(1, lastText) ;
+				}
+				ResultSet rs = pstmt.executeQuery() ;
+				
+				chunkRows = 0 ;
+				while (rs.next()) {
+					lastText = rs.getBytes(1) ;
+					chunkRows++ ;
+					currRow++ ;
 					
-					if (stats != null) {
-						stats[0] = stats[0] + ao_linkCount ;
-						stats[1] = stats[1] + ao_occCount ;
-					} else {
-						stats = new Integer[2] ;
-						stats[0] = ao_linkCount ;
-						stats[1] = ao_occCount ;
-					}
+					String ao_text = null ;
+					try {
+						ao_text = tp.processText(new String(lastText, "UTF-8")) ;
+					} catch (Exception e) {e.printStackTrace() ;} ;
 					
-					occuranceStats.put(ao_text, stats) ;
+					if (ao_text != null && !ao_text.equals(""))
+						sorter.add(new ProcessedRow(ao_text, 0, rs.getInt(2), rs.getInt(3))) ;
+				}
 				
-				} catch (Exception e) {e.printStackTrace() ;} ;
+				rs.close() ;
+				pstmt.close() ;
 				
-				currRow++ ;
-			}
-			
-			rs.close() ;
-			stmt.close() ;
-			
-			chunkIndex++ ;
-			pn.update(currRow) ;
+				pn.update(currRow) ;
+			} while (chunkRows == SCAN_CHUNK_SIZE) ;
+		} catch (IOException e) {
+			throw new SQLException("could not sort anchor occurances: " + e.getMessage()) ;
 		}
 		
-		rows = occuranceStats.size() ;
-		pn.startTask(rows, "Saving processed anchor occurances") ;
-		
-		chunkIndex = 0 ;
+		pn.startTask(sorter.getItemsAdded(), "Saving processed anchor occurances") ;
 		
 		currRow = 0 ;
+		StringBuffer insertQuery = new StringBuffer() ;
 		
-		StringBuffer insertQuery = new StringBuffer() ; ;
-		
-		for(String anchor:occuranceStats.keySet()) {
-			currRow ++ ;
-			
-			Integer[] stats = occuranceStats.get(anchor) ;
-						
-			if (anchor != "") 
-				insertQuery.append(" (\"" + addEscapes(anchor) + "\"," + stats[0] + "," + stats[1] + "),") ;
-			
-			if (currRow%chunkSize == 0) {
-				if (insertQuery.length() > 0) {
-					insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
+		try {
+			ExternalSorter.Reader<ProcessedRow> reader = sorter.sort() ;
+			try {
+				ProcessedRow row ;
+				while ((row = reader.next()) != null) {
+					currRow ++ ;
 					
-					stmt = createStatement() ;
-					stmt.setEscapeProcessing(false) ;
-					stmt.executeUpdate("INSERT IGNORE INTO " + tableName + " VALUES" + insertQuery.toString() ) ;
-					stmt.close() ;
+					insertQuery.append(" (\"" + addEscapes(row.text) + "\"," + row.value1 + "," + row.value2 + "),") ;
 					
-					insertQuery = new StringBuffer() ;
+					if (currRow%SCAN_CHUNK_SIZE == 0) {
+						insertRows(tableName, insertQuery) ;
+						insertQuery = new StringBuffer() ;
+						pn.update(currRow) ;
+					}
 				}
-				
-				pn.update(currRow) ;
+			} finally {
+				reader.close() ;
 			}
+		} catch (IOException e) {
+			throw new SQLException("could not sort anchor occurances: " + e.getMessage()) ;
 		}
 		
-		if (insertQuery.length() > 0) {
-			insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
-						
-			stmt = createStatement() ;
-			stmt.setEscapeProcessing(false) ;
-			stmt.executeUpdate("INSERT IGNORE INTO " + tableName + " VALUES" + insertQuery.toString() ) ;
-			stmt.close() ;
-		}
+		insertRows(tableName, insertQuery) ;
+		pn.update(sorter.getItemsAdded()) ;
 	}	
 	
+	/**
+	 * Inserts a comma separated list of rows (as built up by the methods above) in a single statement. 
+	 */
+	private void insertRows(String tableName, StringBuffer insertQuery) throws SQLException {
+		
+		if (insertQuery.length() == 0) 
+			return ;
+		
+		insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
+		
+		Statement stmt = createStatement() ;
+		stmt.setEscapeProcessing(false) ;
+		stmt.executeUpdate("INSERT IGNORE INTO " + tableName + " VALUES" + insertQuery.toString() ) ;
+		stmt.close() ;
+	}
+	
+	/**
+	 * An anchor (or anchor occurance) whose text has been processed, and which is being sorted so that it can be merged 
+	 * with other anchors that have the same processed text. For anchors, the values are the count and type of the sense 
+	 * given by id. For anchor occurances, the id is unused and the values are the link and occurance counts. 
+	 */
+	private static class ProcessedRow {
+		String text ;
+		int id ;
+		int value1 ;
+		int value2 ;
+		
+		ProcessedRow(String text, int id, int value1, int value2) {
+			this.text = text ;
+			this.id = id ;
+			this.value1 = value1 ;
+			this.value2 = value2 ;
+		}
+		
+		static final Comparator<ProcessedRow> comparator = new Comparator<ProcessedRow>() {
+			public int compare(ProcessedRow a, ProcessedRow b) {
+				int c = a.text.compareTo(b.text) ;
+				if (c != 0)
+					return c ;
+				
+				if (a.id < b.id) return -1 ;
+				if (a.id > b.id) return 1 ;
+				return 0 ;
+			}
+		} ;
+		
+		static final ExternalSorter.Serializer<ProcessedRow> serializer = new ExternalSorter.Serializer<ProcessedRow>() {
+			public void write(ProcessedRow row, DataOutputStream out) throws IOException {
+				out.writeUTF(row.text) ;
+				out.writeInt(row.id) ;
+				out.writeInt(row.value1) ;
+				out.writeInt(row.value2) ;
+			}
+			
+			public ProcessedRow read(DataInputStream in) throws IOException {
+				return new ProcessedRow(in.readUTF(), in.readInt(), in.readInt(), in.readInt()) ;
+			}
+		} ;
+	}
+	
 	/**
 	 * Loads a directory of summarized csv tables into the database. If overwrite is set to true, then 
 	 * all previously stored data is overwritten. 
@@ -448,6 +726,57 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @throws IOException if there is a problem with the files to be loaded.
 	 */
 	public void loadData(File directory, boolean overwrite) throws SQLException, IOException {
+		loadData(directory, overwrite, false) ;
+	}
+	
+	/**
+	 * Loads a directory of summarized csv tables into the database, as above. If packLinks is set to true, then 
+	 * links in to and out from pages are stored in binary (see LinkList.pack()) rather than as text, so that 
+	 * they take up less space and can be read without any parsing. 
+	 * 
+	 * @param directory the directory in which the data files are located
+	 * @param overwrite true if existing tables are to be overwritten
+	 * @param packLinks true if links should be stored in binary, otherwise false.
+	 * @throws SQLException if there is a problem with the database
+	 * @throws IOException if there is a problem with the files to be loaded.
+	 */
+	public void loadData(File directory, boolean overwrite, boolean packLinks) throws SQLException, IOException {
+		loadData(directory, overwrite, packLinks, 0) ;
+	}
+	
+	/**
+	 * Loads a directory of summarized csv tables into the database, as above. 
+	 * <p>
+	 * If threads is greater than 0, then tables are bulk loaded: each file is handed to the server with 
+	 * LOAD DATA LOCAL INFILE (rather than parsed into INSERT statements), the indexes of each table are disabled 
+	 * until it has been loaded, and up to <em>threads</em> tables are loaded at once, each on its own connection. The 
+	 * server must allow local infiles (local_infile=1).   
+	 * 
+	 * @param directory the directory in which the data files are located
+	 * @param overwrite true if existing tables are to be overwritten
+	 * @param packLinks true if links should be stored in binary, otherwise false.
+	 * @param threads the number of tables to bulk load at once, or 0 if tables should be loaded one at a time with INSERT statements.
+	 * @throws SQLException if there is a problem with the database
+	 * @throws IOException if there is a problem with the files to be loaded.
+	 */
+	public void loadData(File directory, boolean overwrite, boolean packLinks, int threads) throws SQLException, IOException {
+		loadData(directory, overwrite, packLinks, false, threads) ;
+	}
+	
+	/**
+	 * Loads a directory of summarized csv tables into the database, as above. If compressContent is set to true, 
+	 * then the content of each page is compressed (see getContentCodec()) before it is stored. Compressed content is 
+	 * recognized (and decompressed) automatically when it is read, so nothing else needs to be done to use it.
+	 * 
+	 * @param directory the directory in which the data files are located
+	 * @param overwrite true if existing tables are to be overwritten
+	 * @param packLinks true if links should be stored in binary, otherwise false.
+	 * @param compressContent true if page content should be compressed, otherwise false.
+	 * @param threads the number of tables to bulk load at once, or 0 if tables should be loaded one at a time with INSERT statements.
+	 * @throws SQLException if there is a problem with the database
+	 * @throws IOException if there is a problem with the files to be loaded.
+	 */
+	public void loadData(File directory, boolean overwrite, boolean packLinks, boolean compressContent, int threads) throws SQLException, IOException {
 		
 		//check that all manditory files exist
 		
@@ -495,81 +824,80 @@ public class WikipediaDatabase extends MySqlDatabase {
 		
 		
 		
+		// gather the tables that need to be loaded (in the order they would be loaded one at a time)
+		LinkedHashMap<String,File> tablesToLoad = new LinkedHashMap<String,File>() ;
+		
 		// load manditory tables 
 		
 		if (overwrite || !tableExists("page")) {
-			initializeTable("page") ;
-			loadFile(page, "page") ;
+			tablesToLoad.put("page", page) ;
 		}
 		
 		if (overwrite || !tableExists("redirect")) {
-			initializeTable("redirect") ;
-			loadFile(redirect, "redirect") ;
+			tablesToLoad.put("redirect", redirect) ;
 		}
 		
 		if (overwrite || !tableExists("disambiguation")) {
-			initializeTable("disambiguation") ;
-			loadFile(disambig, "disambiguation") ;
+			tablesToLoad.put("disambiguation", disambig) ;
 		}
 		
 		if (overwrite || !tableExists("translation")) {
-			initializeTable("translation") ;
-			loadFile(translation, "translation") ;
+			tablesToLoad.put("translation", translation) ;
 		}
 		
 		if (overwrite || !tableExists("categorylink")) {
-			initializeTable("categorylink") ;
-			loadFile(catlink, "categorylink") ;
+			tablesToLoad.put("categorylink", catlink) ;
 		}
 		
 		/*
 		if (overwrite || !tableExists("pagelink")) {
-			initializeTable("pagelink") ;
-			loadFile(pagelinkFile, "pagelink") ;
+			tablesToLoad.put("pagelink", pagelinkFile) ;
 		}
 		*/
 		 
 		if (overwrite || !tableExists("linkcount")) {
-			initializeTable("linkcount") ;
-			loadFile(linkcount, "linkcount") ;
+			tablesToLoad.put("linkcount", linkcount) ;
 		}
 		
 		if (overwrite || !tableExists("anchor") || !fieldExists("an_type", "anchor")) {
-			initializeTable("anchor") ;
-			loadFile(anchor, "anchor") ;
+			tablesToLoad.put("anchor", anchor) ;
 		}
 		
 		if (overwrite || !tableExists("stats")) {
-			initializeTable("stats") ;
-			loadFile(stats, "stats") ;
+			tablesToLoad.put("stats", stats) ;
 		}
 		
 		if (overwrite || !tableExists("generality")) {
-			initializeTable("generality") ;
-			loadFile(generality, "generality") ;
+			tablesToLoad.put("generality", generality) ;
 		}
 		
 		if (overwrite || !tableExists("equivalence")) {
-			initializeTable("equivalence") ;
-			loadFile(equivalence, "equivalence") ;
-		}
-		
-		if (overwrite || !tableExists("pagelink_in")) {
-			initializeTable("pagelink_in") ;
-			loadFile(pagelink_in, "pagelink_in") ;
+			tablesToLoad.put("equivalence", equivalence) ;
 		}
 		
-		if (overwrite || !tableExists("pagelink_out")) {
-			initializeTable("pagelink_out") ;
-			loadFile(pagelink_out, "pagelink_out") ;
+		if (packLinks) {
+			if (overwrite || !tableExists("pagelink_in_packed")) {
+				tablesToLoad.put("pagelink_in_packed", pagelink_in) ;
+			}
+			
+			if (overwrite || !tableExists("pagelink_out_packed")) {
+				tablesToLoad.put("pagelink_out_packed", pagelink_out) ;
+			}
+		} else {
+			if (overwrite || !tableExists("pagelink_in")) {
+				tablesToLoad.put("pagelink_in", pagelink_in) ;
+			}
+			
+			if (overwrite || !tableExists("pagelink_out")) {
+				tablesToLoad.put("pagelink_out", pagelink_out) ;
+			}
 		}
 				
 		if (overwrite || !tableExists("content")) {
 			File contentFile = new File(directory.getPath() + File.separatorChar + "content.csv") ;
 			
 			if (contentFile.canRead()) {
-				initializeTable("content") ;
-				loadFile(contentFile, "content") ;
+				tablesToLoad.put("content", contentFile) ;
 			}
 		}
 		
@@ -577,21 +905,116 @@ public class WikipediaDatabase extends MySqlDatabase {
 			File occFile = new File(directory.getPath() + File.separatorChar + "anchor_occurance.csv") ;
 			
 			if (occFile.canRead()) {
-				initializeTable("anchor_occurance") ;
-				loadFile(occFile, "anchor_occurance") ;
+				tablesToLoad.put("anchor_occurance", occFile) ;
 			}
 		}	
+		
+		if (threads > 0) {
+			bulkLoadTables(tablesToLoad, compressContent, threads) ;
+		} else {
+			for (Map.Entry<String,File> e:tablesToLoad.entrySet()) {
+				initializeTable(e.getKey()) ;
+				
+				if (e.getKey().endsWith("_packed"))
+					loadPackedLinkFile(e.getValue(), e.getKey(), e.getKey().equals("pagelink_out_packed")) ;
+				else if (compressContent && e.getKey().equals("content"))
+					loadCompressedContentFile(e.getValue()) ;
+				else
+					loadFile(e.getValue(), e.getKey()) ;
+			}
+		}
+		
+		if (packLinks)
+			linksPacked = true ;
 	}
 	
-	private void checkFile(File file) throws IOException {
-		if (!file.canRead())
-			throw new IOException(file.getPath() + " cannot be read") ;
+	private void bulkLoadTables(Map<String,File> tablesToLoad, final boolean compressContent, int threads) throws SQLException, IOException {
 		
-		if (file.getName().equals("anchor.csv")) {
-			//an extra check to see that this file is not obsolete.
-			boolean ok = false ;
+		// each table is loaded on its own thread, and therefore on its own leased connection
+		TaskScheduler scheduler = new TaskScheduler(Math.min(threads, getConnectionPool().getSize())) ;
+		
+		for (Map.Entry<String,File> e:tablesToLoad.entrySet()) {
+			final String tableName = e.getKey() ;
+			final File file = e.getValue() ;
 			
-			BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")) ;
+			scheduler.add(tableName, file.length(), new TaskScheduler.Job() {
+				public void run(ProgressNotifier pn) throws Exception {
+					try {
+						initializeTable(tableName) ;
+						
+						if (tableName.endsWith("_packed"))
+							loadPackedLinkFile(file, tableName, tableName.equals("pagelink_out_packed")) ;
+						else if (compressContent && tableName.equals("content"))
+							loadCompressedContentFile(file) ;
+						else
+							bulkLoadFile(file, tableName, pn) ;
+					} finally {
+						releaseConnection() ;
+					}
+				}
+			}) ;
+		}
+		
+		try {
+			scheduler.run() ;
+		} catch (Exception e) {
+			Throwable cause = e.getCause() ;
+			
+			if (cause instanceof SQLException)
+				throw (SQLException)cause ;
+			if (cause instanceof IOException)
+				throw (IOException)cause ;
+			
+			throw new SQLException(e.getMessage() + ": " + cause) ;
+		}
+	}
+	
+	/**
+	 * Hands a csv file directly to the server with LOAD DATA LOCAL INFILE. Each line of the file is a row of values 
+	 * that could be placed within an INSERT statement, so strings are quoted, and special characters within them are 
+	 * escaped with backslashes. Non-unique indexes are disabled while the file is loaded, and rebuilt in one pass afterwards.
+	 */
+	private void bulkLoadFile(File file, String tableName, ProgressNotifier pn) throws SQLException {
+		
+		if (pn == null) pn = new ProgressNotifier(1) ;
+		pn.startTask(1, "Bulk loading " + tableName) ;
+		
+		String path = file.getAbsolutePath().replace("\\", "\\\\").replace("'", "\\'") ;
+		
+		Statement stmt = createStatement() ;
+		stmt.executeUpdate("ALTER TABLE " + tableName + " DISABLE KEYS") ;
+		stmt.close() ;
+		
+		try {
+			// local files can only be loaded on a connection that is opened for the purpose
+			Connection connection = openBulkLoadConnection() ;
+			try {
+				stmt = connection.createStatement() ;
+				stmt.setEscapeProcessing(false) ;
+				stmt.executeUpdate("LOAD DATA LOCAL INFILE '" + path + "' IGNORE INTO TABLE " + tableName 
+						+ " CHARACTER SET utf8 FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n'") ;
+				stmt.close() ;
+			} finally {
+				connection.close() ;
+			}
+		} finally {
+			stmt = createStatement() ;
+			stmt.executeUpdate("ALTER TABLE " + tableName + " ENABLE KEYS") ;
+			stmt.close() ;
+		}
+		
+		pn.update() ;
+	}
+	
+	private void checkFile(File file) throws IOException {
+		if (!file.canRead())
+			throw new IOException(file.getPath() + " cannot be read") ;
+		
+		if (file.getName().equals("anchor.csv")) {
+			//an extra check to see that this file is not obsolete.
+			boolean ok = false ;
+			
+			BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")) ;
 			String line = input.readLine();
 			
 			if (line.matches("\"(.+?)\",(\\d+),(\\d+),(\\d+)"))
@@ -656,17 +1079,134 @@ public class WikipediaDatabase extends MySqlDatabase {
 		pn.update(bytes) ;
 	}
 	
-	private int getLineCount(File file) throws IOException{
-		int count = 0 ;
+	/**
+	 * Loads a csv file of links in to (id,"id:id:...") or out from (id,"id:count;id:count;...") pages into a packed 
+	 * link table, where each list of links is stored as a binary blob (see LinkList.pack()).
+	 */
+	private void loadPackedLinkFile(File file, String tableName, final boolean withCounts) throws IOException, SQLException{
 		
-		BufferedReader input = new BufferedReader(new FileReader(file)) ;
-
-		while (input.readLine() != null) 
-			count ++ ;
+		final String insertName = withCounts ? "insert_packed_links_out" : "insert_packed_links_in" ;
+		final int batchSize = 1000 ;
 		
-		input.close();
+		ProgressNotifier pn = new ProgressNotifier(1) ;
+		pn.startTask(file.length(), "Loading " + tableName) ;
+		
+		new ChunkedCsvReader(file).read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+					
+					TIntArrayList ids = new TIntArrayList() ;
+					Vector<byte[]> data = new Vector<byte[]>() ;
+					
+					TIntArrayList links = new TIntArrayList() ;
+					TIntArrayList counts = new TIntArrayList() ;
+					
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						int id = row.readInt() ;
+						
+						row.expect(',') ;
+						row.expect('"') ;
+						
+						links.resetQuick() ;
+						counts.resetQuick() ;
+						
+						while (!row.skip('"')) {
+							if (row.skip(':') || row.skip(';')) 
+								continue ;
+							
+							links.add(row.readInt()) ;
+							
+							if (withCounts) {
+								row.expect(':') ;
+								counts.add(row.readInt()) ;
+							}
+						}
+						
+						LinkList l ;
+						if (withCounts)
+							l = new LinkList(links.toNativeArray(), counts.toNativeArray()) ;
+						else
+							l = new LinkList(links.toNativeArray()) ;
+						
+						ids.add(id) ;
+						data.add(l.pack()) ;
+					}
+					
+					// rows are inserted on the calling thread, in batches
+					public void merge() throws IOException {
+						try {
+							PreparedStatement stmt = prepareStatement(insertName) ;
+							try {
+								for (int r=0 ; r<ids.size() ; r++) {
+									stmt.setInt(1, ids.get(r)) ;
+									stmt.setBytes(2, data.get(r)) ;
+									stmt.addBatch() ;
+									
+									if ((r+1) % batchSize == 0) 
+										stmt.executeBatch() ;
+								}
+								stmt.executeBatch() ;
+							} finally {
+								stmt.close() ;
+							}
+						} catch (SQLException e) {
+							throw new IOException(e.getMessage()) ;
+						}
+					}
+				} ;
+			}
+		}, pn, 0) ;
+	}
+	
+	/**
+	 * Loads a csv file of page content (id,"escaped content") into the content table, compressing the content 
+	 * of each page as it goes (see getContentCodec()).
+	 */
+	private void loadCompressedContentFile(File file) throws IOException, SQLException{
+		
+		final int batchSize = 100 ;
+		
+		ProgressNotifier pn = new ProgressNotifier(1) ;
+		pn.startTask(file.length(), "Loading compressed content") ;
 		
-		return count ;		
+		new ChunkedCsvReader(file).read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+					
+					TIntArrayList ids = new TIntArrayList() ;
+					Vector<byte[]> data = new Vector<byte[]>() ;
+					
+					// content is compressed as it is parsed, so this is spread across all of the reader's threads 
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						ids.add(row.readInt()) ;
+						row.expect(',') ;
+						data.add(contentCodec.compress(row.readString())) ;
+					}
+					
+					// rows are inserted on the calling thread, in batches
+					public void merge() throws IOException {
+						try {
+							PreparedStatement stmt = prepareStatement("insert_content") ;
+							try {
+								for (int r=0 ; r<ids.size() ; r++) {
+									stmt.setInt(1, ids.get(r)) ;
+									stmt.setBytes(2, data.get(r)) ;
+									stmt.addBatch() ;
+									
+									if ((r+1) % batchSize == 0) 
+										stmt.executeBatch() ;
+								}
+								stmt.executeBatch() ;
+							} finally {
+								stmt.close() ;
+							}
+						} catch (SQLException e) {
+							throw new IOException(e.getMessage()) ;
+						}
+					}
+				} ;
+			}
+		}, pn, 0) ;
 	}
 	
 	private void initializeTable(String tableName) throws SQLException {
@@ -714,11 +1254,16 @@ public class WikipediaDatabase extends MySqlDatabase {
 		if (!tableExists("stats"))
 			throw new SQLException("mysql table 'stats' does not exist and must be imported.") ;
 		
-		if (!tableExists("pagelink_in"))
-			throw new SQLException("mysql table 'pagelink_in' does not exist and must be imported.") ;
+		// links can be stored either as text or packed in binary. The packed tables are used if they are available.
+		linksPacked = tableExists("pagelink_in_packed") && tableExists("pagelink_out_packed") ;
 		
-		if (!tableExists("pagelink_out"))
-			throw new SQLException("mysql table 'pagelink_out' does not exist and must be imported.") ;
+		if (!linksPacked) {
+			if (!tableExists("pagelink_in"))
+				throw new SQLException("mysql table 'pagelink_in' does not exist and must be imported.") ;
+			
+			if (!tableExists("pagelink_out"))
+				throw new SQLException("mysql table 'pagelink_out' does not exist and must be imported.") ;
+		}
 		
 		if (!tableExists("equivalence"))
 			throw new SQLException("mysql table 'equivalence' does not exist and must be imported.") ;
@@ -788,6 +1333,13 @@ public class WikipediaDatabase extends MySqlDatabase {
 		return definitionsSummarized;
 	}
 	
+	/**
+	 * @return true if links in to and out from pages are stored in binary (in the pagelink_in_packed and pagelink_out_packed tables), or false if they are stored as text.
+	 */
+	public boolean areLinksPacked() {
+		return linksPacked ;
+	}
+	
 	/**
 	 * @return the exact number of articles (not redirects or disambiguations) stored in the database.
 	 */
@@ -828,21 +1380,22 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @throws SQLException if there is a problem with the Wikipedia database.
 	 */
 	public int getMaxPageDepth() throws SQLException{
+		return getMaxPageDepth(getCaches()) ;
+	}
+	
+	/**
+	 * @param caches the generation of caches that generality is being read from
+	 * @return the maximum depth of the pages whose generality is cached in the given generation or, if none are cached, of the pages in the store.
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	protected int getMaxPageDepth(CacheGeneration caches) throws SQLException{
+		if (caches.maxPageDepth > 0)
+			return caches.maxPageDepth ;
+		
 		if (maxPageDepth > 0)
 			return maxPageDepth ;
-			
-		Statement stmt = createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT MAX(gn_depth) FROM generality") ;
-		
-		if (rs.first()) {
-			try {
-				maxPageDepth = rs.getInt(1) ; 
-			} catch (Exception e) {} ;
-		}
-		
-		rs.close() ;
-		stmt.close() ;
 		
+		maxPageDepth = store.getMaxDepth() ;
 		return maxPageDepth ;
 	}
 	
@@ -857,106 +1410,138 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @param pn an optional progress notifier
 	 * @throws IOException if the relevant files cannot be read.
 	 */
-	public void cacheAnchors(File dir, TextProcessor tp, TIntHashSet validIds, int minLinkCount, ProgressNotifier pn) throws IOException{
+	public void cacheAnchors(File dir, final TextProcessor tp, final TIntHashSet validIds, final int minLinkCount, ProgressNotifier pn) throws IOException{
+		CacheGeneration caches = getCacheTarget() ;
 	
 		File anchorFile = new File(dir.getPath() + File.separatorChar + "anchor_summary.csv") ;
 		File occuranceFile = new File(dir.getPath() + File.separatorChar + "anchor_occurance.csv") ;
 		
 		boolean cachingOccurances = occuranceFile.canRead() ;
 		
-		cachedAnchors = new THashMap<String,CachedAnchor>() ;
-		
-		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(anchorFile), "UTF-8")) ;
+		final THashMap<String,CachedAnchor> anchors = new THashMap<String,CachedAnchor>() ;
 		
 		if (pn == null) pn = new ProgressNotifier(1) ;
 		if (cachingOccurances)
 			pn.startTask(anchorFile.length() + occuranceFile.length(), "caching anchors") ;
 		else
 			pn.startTask(anchorFile.length(), "caching anchors") ;
-				
 		
-		long bytesRead = 0 ;
-		String line ;
+		// senses are parsed and filtered concurrently, but anchor texts are processed and merged in the order they 
+		// occur, because text processors are not thread-safe.
+		new ChunkedCsvReader(anchorFile).read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+					
+					Vector<String> texts = new Vector<String>() ;
+					
+					// the senses of all texts in this chunk, in parallel lists. Those of text t start at senseOffsets[t].
+					TIntArrayList senseOffsets = new TIntArrayList() ;
+					TIntArrayList senseIds = new TIntArrayList() ;
+					TIntArrayList senseCounts = new TIntArrayList() ;
+					TIntArrayList senseTypes = new TIntArrayList() ;
+					
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						String anchor = row.readString() ;
+						row.expect(',') ;
+						row.expect('"') ;
 						
-		while ((line=input.readLine()) != null) {
-			bytesRead = bytesRead + line.length() ;
+						int start = senseIds.size() ;
 						
-			int sep = line.lastIndexOf(',') ;
-			String anchor = line.substring(1, sep-1) ;
-			String data = line.substring(sep+2, line.length()-1) ;
-			
-			//System.out.println(anchor + " -> " + data) ;
-			
-			String[] temp = data.split(";") ;
-			
-			Vector<int[]> senses = new Vector<int[]>() ;
-
-			for (String t:temp) {
-				String[] values = t.split(":") ;
-				
-				if (values.length != 3)
-					throw new IOException("data files are obsolete. Please run the 'patchWikipediaData.pl' script (in the extraction directory).") ;
-				
-				int[] sense = new int[3] ;
-								
-				sense[0] = new Integer(values[0]) ;
-				sense[1] = new Integer(values[1]) ;
-				sense[2] = new Integer(values[2]) ;
-				
-				// cache this if every id is valid, or if this id is valid and anchor is referred to enough times or mirrored by a title or redirect.
-				if ((validIds == null || validIds.contains(sense[0])) && (sense[1] > minLinkCount || sense[2] != 0)) {
-					senses.add(sense) ;
-				}
-			}
-			
-			if (senses.size() > 0) {
-				if (tp != null) 
-					anchor = tp.processText(anchor) ;
-				
-				CachedAnchor ca = cachedAnchors.get(anchor) ;
-				if (ca == null) {
-					ca = new CachedAnchor(senses) ;
-					cachedAnchors.put(anchor, ca) ;
-				} else {			
-					ca.addSenses(senses) ;
-				}
+						while (!row.skip('"')) {
+							int id = row.readInt() ;
+							if (!row.skip(':'))
+								throw new IOException("data files are obsolete. Please run the 'patchWikipediaData.pl' script (in the extraction directory).") ;
+							int count = row.readInt() ;
+							if (!row.skip(':'))
+								throw new IOException("data files are obsolete. Please run the 'patchWikipediaData.pl' script (in the extraction directory).") ;
+							int type = row.readInt() ;
+							
+							if (!row.skip(';') && row.peek() != '"')
+								throw new IOException("data files are obsolete. Please run the 'patchWikipediaData.pl' script (in the extraction directory).") ;
+							
+							// cache this if every id is valid, or if this id is valid and anchor is referred to enough times or mirrored by a title or redirect.
+							if ((validIds == null || validIds.contains(id)) && (count > minLinkCount || type != 0)) {
+								senseIds.add(id) ;
+								senseCounts.add(count) ;
+								senseTypes.add(type) ;
+							}
+						}
+						
+						if (senseIds.size() > start) {
+							texts.add(anchor) ;
+							senseOffsets.add(start) ;
+						}
+					}
+					
+					public void merge() {
+						int[] ids = senseIds.toNativeArray() ;
+						int[] counts = senseCounts.toNativeArray() ;
+						int[] types = senseTypes.toNativeArray() ;
+						
+						for (int i=0 ; i<texts.size() ; i++) {
+							String anchor = texts.get(i) ;
+							if (tp != null) 
+								anchor = tp.processText(anchor) ;
+							
+							int start = senseOffsets.get(i) ;
+							int end = (i+1 < senseOffsets.size()) ? senseOffsets.get(i+1) : ids.length ;
+							
+							CachedAnchor ca = anchors.get(anchor) ;
+							if (ca == null) {
+								ca = new CachedAnchor(ids, counts, types, start, end-start) ;
+								anchors.put(anchor, ca) ;
+							} else {			
+								ca.addSenses(ids, counts, types, start, end-start) ;
+							}
+						}
+					}
+				} ;
 			}
-			pn.update(bytesRead) ;
-		}
-		
-		input.close() ;
+		}, pn, 0) ;
 		
-		if (occuranceFile.canRead()) {
-			input = new BufferedReader(new InputStreamReader(new FileInputStream(occuranceFile), "UTF-8")) ;
+		if (cachingOccurances) {
+			new ChunkedCsvReader(occuranceFile).read(new ChunkedCsvReader.HandlerFactory() {
+				public ChunkedCsvReader.Handler createHandler() {
+					return new ChunkedCsvReader.Handler() {
+						
+						Vector<String> ngrams = new Vector<String>() ;
+						TIntArrayList occCounts = new TIntArrayList() ;
+						
+						public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+							ngrams.add(row.readString()) ;
 							
-			while ((line=input.readLine()) != null) {
-				bytesRead = bytesRead + line.length() ;
-				
-				int sep2 = line.lastIndexOf(',') ;
-				int sep1 = line.lastIndexOf(',', sep2-1) ;
-				
-				String ngram = line.substring(1, sep1-1) ;
-				//int linkCount = new Integer(line.substring(sep1+1, sep2)) ;
-				int occCount = new Integer(line.substring(sep2+1)) ;
-				
-				if (tp != null) 
-					ngram = tp.processText(ngram) ;
-				
-				// if we are doing morphological processing, then we need to resolve collisions
-				CachedAnchor ca = cachedAnchors.get(ngram) ;
-				if (ca != null) 
-					ca.addOccCount(occCount) ;
-				
-				pn.update(bytesRead) ;
-			}
-			input.close();
+							//the link count (which precedes the occurrence count) is not needed
+							row.skipToLast(',') ;
+							occCounts.add(row.readInt()) ;
+						}
+						
+						public void merge() {
+							for (int i=0 ; i<ngrams.size() ; i++) {
+								String ngram = ngrams.get(i) ;
+								if (tp != null) 
+									ngram = tp.processText(ngram) ;
+								
+								// if we are doing morphological processing, then we need to resolve collisions
+								CachedAnchor ca = anchors.get(ngram) ;
+								if (ca != null) 
+									ca.addOccCount(occCounts.get(i)) ;
+							}
+						}
+					} ;
+				}
+			}, pn, anchorFile.length()) ;
 		}
-		this.cachedProcessor = tp ;
+		
+		// pack everything into a compact lexicon, so the strings and arrays gathered above can be discarded 
+		caches.cachedAnchors = AnchorLexicon.build(anchors) ;
+		caches.cachedProcessor = tp ;
 	}
 
 	/**
 	 * Caches pages, so that titles and types can be retrieved 
-	 * very quickly without consulting the database.
+	 * very quickly without consulting the database. Titles are held as UTF-8 bytes in a single {@link PageTable}, 
+	 * and are only decoded when they are asked for. An index of titles is also built, so that pages (and
+	 * the targets of redirects) can be located by title without consulting the database.
 	 * 
 	 * @param dir	the directory containing csv files extracted from a Wikipedia dump.
 	 * @param validIds an optional set of ids. Only anchors that point to these ids, and only destinations within this list will be cached. 
@@ -964,18 +1549,23 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @throws IOException if the relevant files cannot be read.
 	 */
 	public void cachePages(File dir, TIntHashSet validIds, ProgressNotifier pn) throws IOException {
+		CacheGeneration caches = getCacheTarget() ;
 		
 		File pageFile = new File(dir.getPath() + File.separatorChar + "page.csv") ;
+		File redirectFile = new File(dir.getPath() + File.separatorChar + "redirect.csv") ;
 		
+		PageTable.Builder builder ;
 		if (validIds == null)
-			cachedPages = new TIntObjectHashMap<CachedPage>(getPageCount(), 1) ;
+			builder = new PageTable.Builder(getPageCount(), caches.cachedOrdinals) ;
 		else
-			cachedPages = new TIntObjectHashMap<CachedPage>(validIds.size(), 1) ;
+			builder = new PageTable.Builder(validIds.size(), caches.cachedOrdinals) ;
+		
+		TIntObjectHashMap<String> redirectTitles = new TIntObjectHashMap<String>() ;
 		
 		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(pageFile), "UTF-8")) ;
 		
 		if (pn == null) pn = new ProgressNotifier(1) ;
-		pn.startTask(pageFile.length(), "caching pages") ;
+		pn.startTask(pageFile.length() + redirectFile.length(), "caching pages") ;
 		
 		long bytesRead = 0 ;
 		String line ;
@@ -987,17 +1577,106 @@ public class WikipediaDatabase extends MySqlDatabase {
 			int sep2 = line.lastIndexOf(',') ;
 			
 			int id = new Integer(line.substring(0, sep1)) ;
+			int type = new Integer(line.substring(sep2+1)) ;
 			
 			if (validIds == null || validIds.contains(id)) {
-				String title = line.substring(sep1+2, sep2-1) ;
-				int type = new Integer(line.substring(sep2+1)) ;
-						
-				CachedPage p = new CachedPage(title, type) ;
-				cachedPages.put(id, p) ;
+				builder.add(id, unescape(line.substring(sep1+2, sep2-1)), type) ;
+			} else if (type == Page.REDIRECT) {
+				// not cached, but still indexed by title if it turns out to point to a cached page 
+				redirectTitles.put(id, unescape(line.substring(sep1+2, sep2-1))) ;
 			}
 			pn.update(bytesRead) ;
 		}
 		input.close();
+		
+		PageTable pages = builder.build() ;
+		builder = null ;
+		
+		// gather redirects, so they can be resolved to their final targets
+		TIntIntHashMap redirects = new TIntIntHashMap() ;
+		
+		if (redirectFile.canRead()) {
+			input = new BufferedReader(new InputStreamReader(new FileInputStream(redirectFile), "UTF-8")) ;
+			
+			while ((line=input.readLine()) != null) {
+				bytesRead = bytesRead + line.length() ;
+				
+				int sep = line.indexOf(',') ;
+				redirects.put(new Integer(line.substring(0, sep)), new Integer(line.substring(sep+1).trim())) ;
+				
+				pn.update(bytesRead) ;
+			}
+			input.close();
+		}
+		
+		TIntIntHashMap redirectTargets = new TIntIntHashMap() ;
+		for (int id:redirects.keys()) {
+			int target = resolveRedirect(id, redirects, pages) ;
+			
+			if (target >= 0) 
+				redirectTargets.put(id, target) ;
+			else if (validIds != null) 
+				redirectTitles.remove(id) ;
+		}
+		
+		// redirects that were never mentioned in redirect.csv cannot be resolved  
+		if (validIds != null) {
+			for (int id:redirectTitles.keys()) {
+				if (!redirectTargets.containsKey(id))
+					redirectTitles.remove(id) ;
+			}
+		}
+		
+		caches.cachedTitles = TitleIndex.build(pages, redirectTitles, redirectTargets, validIds == null) ;
+		caches.cachedPages = pages ;
+		caches.tieredPages = null ;
+	}
+	
+	/**
+	 * Follows a chain of redirects to the article (or disambiguation page) it ends at.
+	 * 
+	 * @return the id of the cached article that the given redirect ends at, or -1 if it does not end at one.
+	 */
+	private int resolveRedirect(int id, TIntIntHashMap redirects, PageTable pages) {
+		
+		int currId = id ;
+		
+		// give up on chains that are suspiciously long, because they are probably loops
+		for (int hops=0 ; hops<16 ; hops++) {
+			
+			if (!redirects.containsKey(currId))
+				return -1 ;
+			
+			currId = redirects.get(currId) ;
+			
+			int type = pages.getType(currId) ;
+			if (type == Page.ARTICLE || type == Page.DISAMBIGUATION)
+				return currId ;
+		}
+		return -1 ;
+	}
+	
+	/**
+	 * Removes the escape characters that were added to quoted strings in the csv files extracted from a Wikipedia dump.
+	 */
+	private String unescape(String text) {
+		
+		if (text.indexOf('\\') < 0)
+			return text ;
+		
+		StringBuffer sb = new StringBuffer() ;
+		for (int i=0 ; i<text.length() ; i++) {
+			char c = text.charAt(i) ;
+			
+			if (c == '\\' && i+1 < text.length()) {
+				i++ ;
+				c = text.charAt(i) ;
+				if (c == 'n') 
+					c = '\n' ;
+			}
+			sb.append(c) ;
+		}
+		return sb.toString() ;
 	}
 	
 	/**
@@ -1009,49 +1688,81 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @param pn an optional progress notifier
 	 * @throws IOException if the relevant files cannot be read.
 	 */
-	public void cacheInLinks(File dir, TIntHashSet validIds, ProgressNotifier pn) throws IOException {
+	public void cacheInLinks(File dir, final TIntHashSet validIds, ProgressNotifier pn) throws IOException {
+		CacheGeneration caches = getCacheTarget() ;
 		
 		File file = new File(dir.getPath() + File.separatorChar + "pagelink_in.csv") ;		
 		
-		if (validIds == null)
-			cachedInLinks = new TIntObjectHashMap<int[]>(getLineCount(file), 1) ;
-		else
-			cachedInLinks = new TIntObjectHashMap<int[]>(validIds.size(), 1) ;
-		
-		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")) ;
+		final LinkStore.Builder builder = new LinkStore.Builder(false, getExpectedPageCount(file, validIds), getExpectedLinkCount(file)) ;
 		
 		if (pn == null) pn = new ProgressNotifier(1) ;
 		pn.startTask(file.length(), "caching links into pages") ;
 		
-		long bytesRead = 0 ;
-		String line ;
-		
-		while ((line=input.readLine()) != null) {
-			bytesRead = bytesRead + line.length() ;
+		new ChunkedCsvReader(file).read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+					
+					TIntArrayList ids = new TIntArrayList() ;
+					TIntArrayList offsets = new TIntArrayList() ;
+					TIntArrayList links = new TIntArrayList() ;
+					
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						int id = row.readInt() ;
 						
-			int pos = line.indexOf(',') ;
-			int id = new Integer(line.substring(0, pos)) ;
-			
-			if (validIds == null || validIds.contains(id)) {
-				String data = line.substring(pos+2, line.length()-1) ;
-				
-				String[] temp = data.split(":") ;
-				int[] links = new int[temp.length] ;
-				
-				int i = 0 ;
-				for (String t:temp) {
-					if (!t.equals("")) {
-						links[i] = new Integer(t) ;
-						i++ ;
+						if (validIds != null && !validIds.contains(id)) 
+							return ;
+						
+						row.expect(',') ;
+						row.expect('"') ;
+						
+						offsets.add(links.size()) ;
+						while (!row.skip('"')) {
+							if (!row.skip(':'))
+								links.add(row.readInt()) ;
+						}
+						ids.add(id) ;
 					}
-				}
-				
-				cachedInLinks.put(id, links) ;
+					
+					public void merge() {
+						int[] l = links.toNativeArray() ;
+						links = null ;
+						
+						for (int r=0 ; r<ids.size() ; r++) {
+							int start = offsets.get(r) ;
+							int end = (r+1 < offsets.size()) ? offsets.get(r+1) : l.length ;
+							
+							builder.add(ids.get(r), l, null, start, end-start) ;
+						}
+					}
+				} ;
 			}
-
-			pn.update(bytesRead) ;
+		}, pn, 0) ;
+		
+		caches.cachedInLinks = builder.build() ;
+		caches.cachedInLinks.setOrdinals(caches.cachedOrdinals) ;
+		caches.cachedCompressedInLinks = null ;
+	}
+	
+	/**
+	 * Compresses the links in to pages that have already been cached (see cacheInLinks), so they take up 
+	 * less memory and can be intersected more quickly when calculating relatedness measures. The 
+	 * uncompressed links are discarded once this is done. Nothing is done if the links have already been compressed. 
+	 * 
+	 * @param pn an optional progress notifier
+	 * @throws SQLException if links in to pages have not been cached.
+	 */
+	public void compressInLinks(ProgressNotifier pn) throws SQLException {
+		CacheGeneration caches = getCacheTarget() ;
+		
+		if (caches.cachedInLinks == null) {
+			if (caches.cachedCompressedInLinks != null)
+				return ;
+			
+			throw new SQLException("links in to pages must be cached before they can be compressed") ;
 		}
-		input.close();
+		
+		caches.cachedCompressedInLinks = CompressedLinkStore.compress(caches.cachedInLinks, pn) ;
+		caches.cachedInLinks = null ;
 	}
 	
 	/**
@@ -1064,13 +1775,11 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @throws IOException if the relevant files cannot be read.
 	 */
 	public void cacheOutLinks(File dir, TIntHashSet validIds, ProgressNotifier pn) throws IOException{
+		CacheGeneration caches = getCacheTarget() ;
 		
 		File file = new File(dir.getPath() + File.separatorChar + "pagelink_out.csv") ;
 		
-		if (validIds == null)
-			cachedOutLinks = new TIntObjectHashMap<int[][]>(getLineCount(file), 1) ;
-		else
-			cachedOutLinks = new TIntObjectHashMap<int[][]>(validIds.size(), 1) ;
+		LinkStore.Builder builder = new LinkStore.Builder(true, getExpectedPageCount(file, validIds), getExpectedLinkCount(file)) ;
 			
 		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")) ;
 		
@@ -1079,6 +1788,8 @@ public class WikipediaDatabase extends MySqlDatabase {
 		
 		long bytesRead = 0 ;
 		String line ;
+		int[] links = new int[1024] ;
+		int[] counts = new int[1024] ;
 		
 		while ((line=input.readLine()) != null) {
 			bytesRead = bytesRead + line.length() ;
@@ -1089,22 +1800,40 @@ public class WikipediaDatabase extends MySqlDatabase {
 			if (validIds == null || validIds.contains(id)) {
 				String data = line.substring(pos+2, line.length()-1) ;
 				String[] temp = data.split(";") ;
-	
-				int[][] links = new int[temp.length][2] ;
+				if (temp.length > links.length) {
+					links = new int[temp.length] ;
+					counts = new int[temp.length] ;
+				}
 	
 				int i = 0 ;
 				for (String t:temp) {
 					String[] values = t.split(":") ;
-					links[i][0] = new Integer(values[0]) ;
-					links[i][1] = new Integer(values[1]) ;
+					links[i] = new Integer(values[0]) ;
+					counts[i] = new Integer(values[1]) ;
 	
 					i++ ;
 				}
-				cachedOutLinks.put(id, links) ;
+				builder.add(id, links, counts, i) ;
 			}
 			
 			pn.update(bytesRead) ;
 		}
+		input.close();
+		
+		caches.cachedOutLinks = builder.build() ;
+		caches.cachedOutLinks.setOrdinals(caches.cachedOrdinals) ;
+	}
+	
+	private int getExpectedPageCount(File file, TIntHashSet validIds) throws IOException {
+		if (validIds == null)
+			return new ChunkedCsvReader(file).estimateLineCount() ;
+		else
+			return validIds.size() ;
+	}
+	
+	private int getExpectedLinkCount(File file) {
+		//assume each link takes up about 8 characters. This is just an initial capacity, so it doesn't need to be exact.
+		return (int)Math.min(file.length()/8, Integer.MAX_VALUE/4) ;
 	}
 	
 	
@@ -1118,14 +1847,23 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @throws IOException if the relevant files cannot be read.
 	 */
 	public void cacheGenerality(File dir, TIntHashSet validIds, ProgressNotifier pn) throws IOException {
+		CacheGeneration caches = getCacheTarget() ;
 		
 
 		File pageFile = new File(dir.getPath() + File.separatorChar + "generality.csv") ;		
 
-		if (validIds == null)
-			cachedGenerality = new TIntIntHashMap(getPageCount() , 1) ;
-		else
-			cachedGenerality = new TIntIntHashMap(validIds.size(), 1) ;
+		PageOrdinals ordinals = caches.cachedOrdinals ;
+		TIntIntHashMap generality = null ;
+		int[] generalityByOrdinal = null ;
+		
+		if (ordinals != null) {
+			generalityByOrdinal = new int[ordinals.size()] ;
+			Arrays.fill(generalityByOrdinal, -1) ;
+		} else if (validIds == null) {
+			generality = new TIntIntHashMap(getPageCount() , 1) ;
+		} else {
+			generality = new TIntIntHashMap(validIds.size(), 1) ;
+		}
 
 		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(pageFile), "UTF-8")) ;
 		
@@ -1145,14 +1883,25 @@ public class WikipediaDatabase extends MySqlDatabase {
 			
 			if (validIds==null || validIds.contains(id)){
 				int depth = new Integer(line.substring(sep+1).trim()) ;
-				cachedGenerality.put(id, depth) ;
-				if (depth > maxDepth) maxDepth = depth ;	
-			}
+				
+				if (ordinals == null) {
+					generality.put(id, depth) ;
+				} else {
+					int ordinal = ordinals.getOrdinal(id) ;
+					if (ordinal >= 0)
+						generalityByOrdinal[ordinal] = depth ;
+				}
+				
+				if (depth > maxDepth) maxDepth = depth ;	
+			}
 
 			pn.update(bytesRead) ;
 		}
 		
-		this.maxPageDepth = maxDepth ;
+		caches.cachedGenerality = generality ;
+		caches.cachedOrdinalGenerality = (generalityByOrdinal == null) ? null : IntBuffer.wrap(generalityByOrdinal) ;
+		caches.maxPageDepth = maxDepth ;
+		
 		input.close();
 	}
 	
@@ -1165,8 +1914,10 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @throws IOException if the relevant files cannot be read.
 	 */
 	public void cacheParentIds(File dataDirectory, ProgressNotifier pn) throws IOException{
+		CacheGeneration caches = getCacheTarget() ;
+		
 		//TODO: make this work for a set of article ids
-		cachedParentIds = new TIntObjectHashMap<int[]> () ;
+		LinkStore.Builder builder = new LinkStore.Builder(false, 16, 16) ;
 		
 		File categoryFile = new File(dataDirectory.getPath() + File.separatorChar + "categorylink.csv") ;	
 		
@@ -1202,7 +1953,8 @@ public class WikipediaDatabase extends MySqlDatabase {
 							i++ ;
 						}
 						
-						cachedParentIds.put(lastChild, pArray) ;
+						Arrays.sort(pArray) ;
+						builder.add(lastChild, pArray) ;
 					}
 
 					lastChild = childId ;
@@ -1223,25 +1975,497 @@ public class WikipediaDatabase extends MySqlDatabase {
 				i++ ;				
 			}
 			
-			cachedParentIds.put(lastChild, pArray) ;
+			Arrays.sort(pArray) ;
+			builder.add(lastChild, pArray) ;
 		}
 		
+		caches.cachedParentIds = builder.build() ;
+		caches.cachedParentIds.setOrdinals(caches.cachedOrdinals) ;
+		
 		input.close();
 	}
 	
 	
+	/**
+	 * Indexes every ancestor category of every page (up to the given depth), so that questions such as whether an 
+	 * article is filed (directly or indirectly) under a category can be answered in microseconds, without walking 
+	 * the category graph. See {@link AncestorIndex}.
+	 * 
+	 * @param maxDepth the maximum number of category links to follow up from each page
+	 * @param pn an optional progress notifier
+	 * @throws SQLException if parent ids have not been cached.
+	 */
+	public void cacheAncestors(int maxDepth, ProgressNotifier pn) throws SQLException {
+		CacheGeneration caches = getCacheTarget() ;
+		
+		if (caches.cachedParentIds == null) 
+			throw new SQLException("parent ids must be cached before ancestors can be indexed") ;
+		
+		AncestorIndex ancestors = AncestorIndex.build(caches.cachedParentIds, maxDepth, pn) ;
+		ancestors.setOrdinals(caches.cachedOrdinals) ;
+		
+		caches.cachedAncestors = ancestors ;
+	}
+	
+	/**
+	 * @return true if ancestor categories are indexed (see cacheAncestors()), otherwise false.
+	 */
+	public boolean areAncestorsCached() {
+		return !(getCaches().cachedAncestors == null) ;
+	}
+	
+	/**
+	 * @return the index of ancestor categories, or null if ancestors have not been cached.
+	 */
+	public AncestorIndex getAncestorIndex() {
+		return getCaches().cachedAncestors ;
+	}
+	
+	/**
+	 * Caches the ids of the child categories and child articles of every category, so that categories can be browsed 
+	 * without consulting the database. Children are held in {@link LinkStore}s (one for categories, one for articles, and 
+	 * one for children of any other type, such as disambiguation pages), each of which packs the children of all categories 
+	 * into a single sorted array, with an offset for where each category's children begin.
+	 * <p>
+	 * Children are split by type using the cached pages if they are available, otherwise page.csv is read as well.
+	 * 
+	 * @param dir	the directory containing csv files extracted from a Wikipedia dump.
+	 * @param validIds an optional set of ids. Only categories and children within this set will be cached. 
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the relevant files cannot be read.
+	 */
+	public void cacheChildIds(File dir, final TIntHashSet validIds, ProgressNotifier pn) throws IOException {
+		CacheGeneration caches = getCacheTarget() ;
+		
+		File categoryFile = new File(dir.getPath() + File.separatorChar + "categorylink.csv") ;
+		File pageFile = new File(dir.getPath() + File.separatorChar + "page.csv") ;
+		
+		final PageTable pages = caches.cachedPages ;
+		final TIntByteHashMap pageTypes = new TIntByteHashMap() ;
+		
+		if (pn == null) pn = new ProgressNotifier(1) ;
+		
+		long progressOffset = 0 ;
+		if (pages == null) {
+			pn.startTask(pageFile.length() + categoryFile.length(), "caching child ids") ;
+			
+			new ChunkedCsvReader(pageFile).read(new ChunkedCsvReader.HandlerFactory() {
+				public ChunkedCsvReader.Handler createHandler() {
+					return new ChunkedCsvReader.Handler() {
+						
+						TIntArrayList ids = new TIntArrayList() ;
+						TByteArrayList types = new TByteArrayList() ;
+						
+						public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+							int id = row.readInt() ;
+							row.skipToLast(',') ;
+							int type = row.readInt() ;
+							
+							if (type != Page.CATEGORY && type != Page.ARTICLE) 
+								return ;
+							
+							if (validIds != null && !validIds.contains(id))
+								return ;
+							
+							ids.add(id) ;
+							types.add((byte)type) ;
+						}
+						
+						public void merge() {
+							for (int i=0 ; i<ids.size() ; i++)
+								pageTypes.put(ids.get(i), types.get(i)) ;
+						}
+					} ;
+				}
+			}, pn, 0) ;
+			
+			progressOffset = pageFile.length() ;
+		} else {
+			pn.startTask(categoryFile.length(), "caching child ids") ;
+		}
+		
+		// links are packed as (parent << 32 | child), so that sorting groups children by parent, in ascending order
+		final TLongArrayList links = new TLongArrayList(getExpectedLinkCount(categoryFile)) ;
+		
+		new ChunkedCsvReader(categoryFile).read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+					
+					TLongArrayList chunkLinks = new TLongArrayList() ;
+					
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						int parentId = row.readInt() ;
+						row.expect(',') ;
+						int childId = row.readInt() ;
+						
+						if (validIds != null && (!validIds.contains(parentId) || !validIds.contains(childId)))
+							return ;
+						
+						chunkLinks.add(((long)parentId << 32) | childId) ;
+					}
+					
+					public void merge() {
+						links.add(chunkLinks.toNativeArray()) ;
+					}
+				} ;
+			}
+		}, pn, progressOffset) ;
+		
+		long[] sortedLinks = links.toNativeArray() ;
+		links.clear() ;
+		Arrays.sort(sortedLinks) ;
+		
+		LinkStore.Builder categories = new LinkStore.Builder(false, 16, sortedLinks.length/4) ;
+		LinkStore.Builder articles = new LinkStore.Builder(false, 16, sortedLinks.length) ;
+		LinkStore.Builder others = new LinkStore.Builder(false, 16, sortedLinks.length/16) ;
+		
+		TIntArrayList childCategories = new TIntArrayList() ;
+		TIntArrayList childArticles = new TIntArrayList() ;
+		TIntArrayList childOthers = new TIntArrayList() ;
+		
+		int index = 0 ;
+		while (index < sortedLinks.length) {
+			int parentId = (int)(sortedLinks[index] >>> 32) ;
+			
+			childCategories.resetQuick() ;
+			childArticles.resetQuick() ;
+			childOthers.resetQuick() ;
+			
+			int lastChild = -1 ;
+			for (; index < sortedLinks.length && (int)(sortedLinks[index] >>> 32) == parentId ; index++) {
+				int childId = (int)sortedLinks[index] ;
+				
+				if (childId == lastChild)
+					continue ;
+				lastChild = childId ;
+				
+				int type = (pages == null) ? (pageTypes.containsKey(childId) ? pageTypes.get(childId) : -1) : pages.getType(childId) ;
+				
+				if (type == Page.CATEGORY)
+					childCategories.add(childId) ;
+				else if (type == Page.ARTICLE)
+					childArticles.add(childId) ;
+				else
+					childOthers.add(childId) ;
+			}
+			
+			if (childCategories.size() > 0)
+				categories.add(parentId, childCategories.toNativeArray()) ;
+			
+			if (childArticles.size() > 0)
+				articles.add(parentId, childArticles.toNativeArray()) ;
+			
+			// these are never listed as children, but membership of them can still be checked (see Category.contains())
+			if (childOthers.size() > 0)
+				others.add(parentId, childOthers.toNativeArray()) ;
+		}
+		
+		caches.cachedChildCategoryIds = categories.build() ;
+		caches.cachedChildCategoryIds.setOrdinals(caches.cachedOrdinals) ;
+		
+		caches.cachedChildArticleIds = articles.build() ;
+		caches.cachedChildArticleIds.setOrdinals(caches.cachedOrdinals) ;
+		
+		caches.cachedChildOtherIds = others.build() ;
+		caches.cachedChildOtherIds.setOrdinals(caches.cachedOrdinals) ;
+	}
+	
+	/**
+	 * @return true if the ids of child categories and articles are cached, otherwise false
+	 */
+	public boolean areChildIdsCached() {
+		CacheGeneration caches = getCaches() ;
+		return !(caches.cachedChildCategoryIds == null || caches.cachedChildArticleIds == null || caches.cachedChildOtherIds == null) ;
+	}
+	
 	/**
 	 * @return true if parent category ids are cached, otherwise false
 	 */
 	public boolean areParentIdsCached() {
-		return !(cachedParentIds == null) ;
+		return !(getCaches().cachedParentIds == null) ;
 	}
 	
 	/**
 	 * @return true if page titles and types are cached, otherwise false
 	 */
 	public boolean arePagesCached() {
-		return !(cachedPages == null) ;
+		CacheGeneration caches = getCaches() ;
+		return !(caches.cachedPages == null && caches.tieredPages == null) ;
+	}
+	
+	/**
+	 * @return true if pages are cached in tiers (see loadTieredCache()), so that pages which are not cached must still be 
+	 * looked up in the database, otherwise false.
+	 */
+	public boolean arePagesTiered() {
+		return !(getCaches().tieredPages == null) ;
+	}
+	
+	/**
+	 * @return the tiered page cache (which provides hit and miss counts for each tier), or null if pages are not cached in tiers.
+	 */
+	public TieredPageCache getTieredPageCache() {
+		return getCaches().tieredPages ;
+	}
+	
+	/**
+	 * @param id the id of a page
+	 * @return the cached details of the page, or null if they are not cached.
+	 */
+	protected CachedPage getCachedPage(int id) {
+		CacheGeneration caches = getCaches() ;
+		
+		if (caches.cachedPages != null) {
+			int row = caches.cachedPages.indexOf(id) ;
+			
+			if (row < 0)
+				return null ;
+			
+			return new CachedPage(caches.cachedPages.getTitleAt(row), caches.cachedPages.getTypeAt(row)) ;
+		}
+		
+		if (caches.tieredPages != null)
+			return caches.tieredPages.get(id) ;
+		
+		return null ;
+	}
+	
+	/**
+	 * @param id the id of a page
+	 * @return the cached title of the page, or null if it is not cached.
+	 */
+	protected String getCachedTitle(int id) {
+		CacheGeneration caches = getCaches() ;
+		
+		if (caches.cachedPages != null)
+			return caches.cachedPages.getTitle(id) ;
+		
+		if (caches.tieredPages != null) {
+			CachedPage p = caches.tieredPages.get(id) ;
+			if (p != null)
+				return p.title ;
+		}
+		
+		return null ;
+	}
+	
+	/**
+	 * Retrieves many pages at once. Pages are taken from the caches where possible, and the rest are fetched from 
+	 * the store all at once (in batches of up to MAX_IN_LIST_SIZE ids, for a MySqlStore), rather than with one query per page.
+	 * 
+	 * @param ids the ids of the pages to retrieve, in any order
+	 * @return an array of pages, parallel to ids. Where no page is defined for an id, the array holds null.
+	 * @throws SQLException if there is a problem with the Wikipedia database
+	 */
+	public Page[] getPages(int[] ids) throws SQLException {
+		final CacheGeneration caches = getCaches() ;
+		
+		Page[] pages = new Page[ids.length] ;
+		TIntArrayList missingIds = new TIntArrayList() ;
+		
+		for (int i=0 ; i<ids.length ; i++) {
+			if (caches.cachedPages != null || caches.tieredPages != null)
+				pages[i] = Page.createCachedPage(this, ids[i]) ;
+			
+			// if every page is cached, then those that are not cached do not exist
+			if (pages[i] == null && caches.cachedPages == null)
+				missingIds.add(ids[i]) ;
+		}
+		
+		if (missingIds.isEmpty())
+			return pages ;
+		
+		TIntObjectHashMap<Page> fetchedPages = new TIntObjectHashMap<Page>() ;
+		
+		for (WikipediaStore.PageRecord r:store.getPages(missingIds.toNativeArray())) {
+			if (r == null)
+				continue ;
+			
+			Page p = Page.createPage(this, r.id, r.title, r.type) ;
+			if (p != null)
+				fetchedPages.put(r.id, p) ;
+			
+			if (caches.tieredPages != null)
+				caches.tieredPages.put(r.id, new CachedPage(r.title, r.type)) ;
+		}
+		
+		for (int i=0 ; i<ids.length ; i++) {
+			if (pages[i] == null) {
+				pages[i] = fetchedPages.get(ids[i]) ;
+				
+				if (caches.tieredPages != null)
+					caches.tieredPages.recordDatabaseLookup(pages[i] != null) ;
+			}
+		}
+		
+		return pages ;
+	}
+	
+	/**
+	 * Retrieves the number of links into, or out from, many pages at once. Counts are taken from the link caches 
+	 * if they are available, and are otherwise fetched from the store all at once. 
+	 * 
+	 * @param ids the ids of the pages of interest, in any order
+	 * @param linksIn true if links into the pages should be counted, or false if links out from them should be counted
+	 * @return an array of counts, parallel to ids. Pages that are not linked (or do not exist) have a count of 0.
+	 * @throws SQLException if there is a problem with the Wikipedia database
+	 */
+	public int[] getLinkCounts(int[] ids, boolean linksIn) throws SQLException {
+		CacheGeneration caches = getCaches() ;
+		
+		int[] counts = new int[ids.length] ;
+		
+		if (linksIn && caches.cachedCompressedInLinks != null) {
+			for (int i=0 ; i<ids.length ; i++) {
+				CompressedLinkList l = caches.cachedCompressedInLinks.getLinks(ids[i]) ;
+				if (l != null)
+					counts[i] = l.size() ;
+			}
+			return counts ;
+		}
+		
+		LinkStore store = linksIn ? caches.cachedInLinks : caches.cachedOutLinks ;
+		if (store != null) {
+			for (int i=0 ; i<ids.length ; i++) {
+				LinkList l = store.getLinks(ids[i]) ;
+				if (l != null)
+					counts[i] = l.size() ;
+			}
+			return counts ;
+		}
+		
+		return this.store.getLinkCounts(ids, linksIn) ;
+	}
+	
+	/**
+	 * Retrieves the generality (see Page.getGenerality()) of many pages at once. Measures are taken from the 
+	 * cache if it is available, and are otherwise fetched from the store all at once. 
+	 * 
+	 * @param ids the ids of the pages of interest, in any order
+	 * @return an array of generality measures, parallel to ids. Pages whose generality is not known have a measure of -1.
+	 * @throws SQLException if there is a problem with the Wikipedia database
+	 */
+	public double[] getGenerality(int[] ids) throws SQLException {
+		CacheGeneration caches = getCaches() ;
+		
+		int[] depths = new int[ids.length] ;
+		Arrays.fill(depths, -1) ;
+		
+		if (caches.cachedOrdinalGenerality != null) {
+			for (int i=0 ; i<ids.length ; i++) {
+				int ordinal = caches.cachedOrdinals.getOrdinal(ids[i]) ;
+				if (ordinal >= 0)
+					depths[i] = caches.cachedOrdinalGenerality.get(ordinal) ;
+			}
+		} else if (caches.cachedGenerality != null) {
+			for (int i=0 ; i<ids.length ; i++) {
+				if (caches.cachedGenerality.containsKey(ids[i]))
+					depths[i] = caches.cachedGenerality.get(ids[i]) ;
+			}
+		} else {
+			depths = store.getDepths(ids) ;
+		}
+		
+		double[] generality = new double[ids.length] ;
+		int maxDepth = getMaxPageDepth(caches) ;
+		
+		for (int i=0 ; i<ids.length ; i++) {
+			if (depths[i] < 0) 
+				generality[i] = -1 ;
+			else
+				generality[i] = 1-((double)depths[i]/maxDepth) ;
+		}
+		
+		return generality ;
+	}
+	
+	/**
+	 * Loads the links into and out from many articles at once, so that relatedness can then be measured between 
+	 * them (and others) without a query for each article. Nothing is done if links are cached, as they can already be 
+	 * obtained without consulting the database. Otherwise the links of all the articles are fetched from the store at once. 
+	 * 
+	 * @param articles the articles whose links should be loaded. Any of these may be null.
+	 * @throws SQLException if there is a problem with the Wikipedia database
+	 */
+	public void loadLinks(Article[] articles) throws SQLException {
+		
+		if (!areInLinksCached()) {
+			TIntObjectHashMap<Vector<Article>> articlesById = getUnloadedArticles(articles, true) ;
+			
+			if (!articlesById.isEmpty()) {
+				int[] ids = articlesById.keys() ;
+				LinkList[] links = store.getLinksIn(ids) ;
+				
+				for (int i=0 ; i<ids.length ; i++) {
+					for (Article art:articlesById.get(ids[i]))
+						art.setLinksInList(links[i]) ;
+				}
+			}
+		}
+		
+		if (!areOutLinksCached()) {
+			TIntObjectHashMap<Vector<Article>> articlesById = getUnloadedArticles(articles, false) ;
+			
+			if (!articlesById.isEmpty()) {
+				int[] ids = articlesById.keys() ;
+				LinkList[] links = store.getLinksOut(ids) ;
+				
+				for (int i=0 ; i<ids.length ; i++) {
+					for (Article art:articlesById.get(ids[i]))
+						art.setLinksOutList(links[i]) ;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reads a list of links in to (or out from) a page from a column of the pagelink_in (or pagelink_out) table, 
+	 * or their packed equivalents if links are packed. 
+	 * 
+	 * @param rs a result set, positioned at the row of interest
+	 * @param column the index of the column that holds the links
+	 * @param linksOut true if the links are out from a page (and have counts), or false if they are in to a page.
+	 * @return the links
+	 * @throws SQLException if there is a problem with the result set
+	 */
+	protected LinkList readLinks(ResultSet rs, int column, boolean linksOut) throws SQLException {
+		
+		if (linksPacked) 
+			return LinkList.unpack(rs.getBytes(column), linksOut) ;
+		
+		if (linksOut)
+			return Article.parseLinksOut(rs.getString(column)) ;
+		else
+			return Article.parseLinksIn(rs.getString(column)) ;
+	}
+	
+	private TIntObjectHashMap<Vector<Article>> getUnloadedArticles(Article[] articles, boolean linksIn) {
+		
+		TIntObjectHashMap<Vector<Article>> articlesById = new TIntObjectHashMap<Vector<Article>>() ;
+		
+		for (Article art:articles) {
+			if (art == null)
+				continue ;
+			
+			if (linksIn ? art.isLinksInListLoaded() : art.isLinksOutListLoaded())
+				continue ;
+			
+			Vector<Article> arts = articlesById.get(art.getId()) ;
+			if (arts == null) {
+				arts = new Vector<Article>() ;
+				articlesById.put(art.getId(), arts) ;
+			}
+			arts.add(art) ;
+		}
+		
+		return articlesById ;
+	}
+	
+	/**
+	 * @return true if page titles are indexed, so that pages can be located by title without consulting the database, otherwise false.
+	 */
+	public boolean areTitlesCached() {
+		return !(getCaches().cachedTitles == null) ;
 	}
 	
 	/**
@@ -1249,12 +2473,13 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @return true if anchors and their destinations are cached according to the given textProcessor, otherwise false
 	 */
 	public boolean areAnchorsCached(TextProcessor tp) {
+		CacheGeneration caches = getCaches() ;
 		
-		if (cachedAnchors == null)
+		if (caches.cachedAnchors == null)
 			return false ;
 		
 		String nameA = "null" ;
-		if (cachedProcessor != null) nameA = cachedProcessor.getName() ;
+		if (caches.cachedProcessor != null) nameA = caches.cachedProcessor.getName() ;
 		
 		String nameB = "null" ;
 		if (tp != null) nameB = tp.getName() ;
@@ -1265,6 +2490,143 @@ public class WikipediaDatabase extends MySqlDatabase {
 		return true ;
 	}
 	
+	/**
+	 * Saves all of the caches that are currently populated to a binary snapshot file, so that they can 
+	 * later be restored with loadCacheSnapshot() much faster than they can be rebuilt from csv files.
+	 * 
+	 * @param file the file to save the snapshot to. Any existing file will be overwritten.
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void saveCacheSnapshot(File file, ProgressNotifier pn) throws IOException {
+		CacheSnapshot.write(getCaches(), file, pn) ;
+	}
+	
+	/**
+	 * Populates caches from a binary snapshot file that was saved with saveCacheSnapshot(). Once this is done, 
+	 * the caches behave exactly as if they had been built from csv files; areAnchorsCached(), arePagesCached() etc. 
+	 * will return true for every cache that was contained in the snapshot.
+	 * 
+	 * @param file the snapshot file 
+	 * @param tp the text processor that anchors were cached with when the snapshot was saved (may be null)
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the file cannot be read, or was saved by an incompatible version of this toolkit.
+	 */
+	public void loadCacheSnapshot(File file, TextProcessor tp, ProgressNotifier pn) throws IOException {
+		CacheSnapshot.read(getCacheTarget(), file, tp, pn) ;
+	}
+	
+	/**
+	 * Populates caches from a binary snapshot file that was saved with saveCacheSnapshot(), without loading every page 
+	 * onto the heap. Pages are instead found in three tiers; a bounded set of recently used pages held on the heap, 
+	 * then the memory-mapped snapshot, and finally (for pages that were not saved in the snapshot) the database itself. 
+	 * Anchors, links and titles are used directly from the memory-mapped snapshot, as they are by loadCacheSnapshot().
+	 * 
+	 * @param file the snapshot file 
+	 * @param tp the text processor that anchors were cached with when the snapshot was saved (may be null)
+	 * @param pageHeapCapacity the maximum number of pages to hold on the heap
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the file cannot be read, or was saved by an incompatible version of this toolkit.
+	 */
+	public void loadTieredCache(File file, TextProcessor tp, int pageHeapCapacity, ProgressNotifier pn) throws IOException {
+		CacheSnapshot.read(getCacheTarget(), file, tp, Math.max(0, pageHeapCapacity), pn) ;
+	}
+	
+	/**
+	 * Starts building a new generation of caches in the background. Until commitCacheGeneration() or 
+	 * abortCacheGeneration() is called, every caching method (cachePages(), loadCacheSnapshot() etc.) populates 
+	 * the new generation, while pages, articles and anchors continue to use the live one. 
+	 * 
+	 * @throws SQLException if a new generation is already being built
+	 */
+	public synchronized void beginCacheGeneration() throws SQLException {
+		if (building != null)
+			throw new SQLException("a new generation of caches is already being built") ;
+		
+		building = new CacheGeneration() ;
+	}
+	
+	/**
+	 * Atomically replaces the live caches with the generation that has been built since beginCacheGeneration() was called. 
+	 * Threads that have pinned the old generation (see pinCaches()) continue to use it until they unpin it, after which it 
+	 * is released.
+	 * 
+	 * @return the generation that was replaced
+	 * @throws SQLException if no new generation is being built
+	 */
+	public synchronized CacheGeneration commitCacheGeneration() throws SQLException {
+		if (building == null)
+			throw new SQLException("no new generation of caches is being built") ;
+		
+		CacheGeneration old = liveCaches ;
+		liveCaches = building ;
+		building = null ;
+		
+		return old ;
+	}
+	
+	/**
+	 * Discards the generation that has been built since beginCacheGeneration() was called, leaving the live caches untouched.
+	 */
+	public synchronized void abortCacheGeneration() {
+		building = null ;
+	}
+	
+	/**
+	 * @return true if a new generation of caches is being built (see beginCacheGeneration()), otherwise false.
+	 */
+	public boolean isBuildingCacheGeneration() {
+		return building != null ;
+	}
+	
+	/**
+	 * Pins the live generation of caches to the calling thread, so that every page, article or anchor the thread 
+	 * consults sees the same caches, even if a new generation is committed in the meantime. This should be called 
+	 * at the start of each request, and must be followed by unpinCaches() when the request is finished.
+	 * 
+	 * @return the generation that has been pinned
+	 */
+	public CacheGeneration pinCaches() {
+		CacheGeneration caches = pinnedCaches.get() ;
+		
+		if (caches == null) {
+			caches = liveCaches ;
+			pinnedCaches.set(caches) ;
+		}
+		return caches ;
+	}
+	
+	/**
+	 * Releases the generation of caches that was pinned to the calling thread by pinCaches().
+	 */
+	public void unpinCaches() {
+		pinnedCaches.remove() ;
+	}
+	
+	/**
+	 * @return the caches that are pinned to the calling thread or, if there are none, the live caches.
+	 */
+	protected CacheGeneration getCaches() {
+		CacheGeneration caches = pinnedCaches.get() ;
+		
+		if (caches != null)
+			return caches ;
+		
+		return liveCaches ;
+	}
+	
+	/**
+	 * @return the caches that should be populated by caching methods; the generation that is being built, or (if there is none) the live caches.
+	 */
+	private CacheGeneration getCacheTarget() {
+		CacheGeneration caches = building ;
+		
+		if (caches != null)
+			return caches ;
+		
+		return liveCaches ;
+	}
+	
 	/**
 	 * Identifies the set of valid article ids which fit the given constrains. 
 	 * 
@@ -1274,70 +2636,139 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @return the set of valid ids which fit the given constrains. 
 	 * @throws IOException if the relevant files cannot be read.
 	 */
-	public TIntHashSet getValidPageIds(File dir, int minLinkCount, ProgressNotifier pn) throws IOException{
+	public TIntHashSet getValidPageIds(File dir, final int minLinkCount, ProgressNotifier pn) throws IOException{
 		
 		File linkCountFile = new File(dir.getPath() + File.separatorChar + "linkcount.csv") ;		
 		File pageFile = new File(dir.getPath() + File.separatorChar + "page.csv") ;
 		
-		TIntHashSet pageIds = new TIntHashSet() ;
-				
-		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(linkCountFile), "UTF-8")) ;
+		ChunkedCsvReader linkCountReader = new ChunkedCsvReader(linkCountFile) ;
+		
+		final TIntHashSet pageIds = new TIntHashSet(linkCountReader.estimateLineCount()) ;
+		
 		if (pn == null) pn = new ProgressNotifier(1) ;
 		pn.startTask(linkCountFile.length() + pageFile.length(), "gathering valid page ids") ;
 		
-		long bytesRead = 0 ;
-		String line ;
+		linkCountReader.read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+					
+					TIntArrayList ids = new TIntArrayList() ;
+					
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						int id = row.readInt() ;
+						row.expect(',') ;
+						int lc_in = row.readInt() ;
+						row.expect(',') ;
+						int lc_out = row.readInt() ;
+						
+						if (lc_in >= minLinkCount && lc_out >= minLinkCount)
+							ids.add(id) ;
+					}
+					
+					public void merge() {
+						pageIds.addAll(ids.toNativeArray()) ;
+					}
+				} ;
+			}
+		}, pn, 0) ;
 		
-		while ((line=input.readLine()) != null) {
-			bytesRead = bytesRead + line.length() ;
-			
-			String[] vals = line.split(",") ;
+		new ChunkedCsvReader(pageFile).read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+					
+					TIntArrayList ids = new TIntArrayList() ;
+					
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						int id = row.readInt() ;
 						
-			int id = new Integer(vals[0]) ;
-			int lc_in = new Integer(vals[1]) ;
-			int lc_out = new Integer(vals[2]) ;
-			
-			if (lc_in >= minLinkCount && lc_out >= minLinkCount)
-				pageIds.add(id) ;
-			
-			pn.update(bytesRead) ;
-		}
+						//the title does not need to be decoded
+						row.skipToLast(',') ;
+						int type = row.readInt() ;
+						
+						if (type == Page.CATEGORY)
+							ids.add(id) ;
+					}
+					
+					public void merge() {
+						pageIds.addAll(ids.toNativeArray()) ;
+					}
+				} ;
+			}
+		}, pn, linkCountFile.length()) ;
 		
-		input.close();
+		return pageIds ;
+	}
+	
+	/**
+	 * Assigns dense ordinals (0 to N-1) to pages, so that generality, and the rows of page and link caches, 
+	 * can be held in plain arrays indexed by ordinal, rather than in hash maps keyed by (sparse) page id. This removes hashing 
+	 * from the most frequent lookups, and saves a good deal of memory. 
+	 * <p>
+	 * This must be called before the other caches are built; only caches built afterwards will use the ordinals, 
+	 * and pages that do not have an ordinal will not be cached by cachePages() or cacheGenerality().
+	 * 
+	 * @param dir the directory containing csv files extracted from a Wikipedia dump.
+	 * @param validIds an optional set of ids, which are the only pages to assign ordinals to. If this is null, ordinals are assigned to every page. 
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the relevant files cannot be read.
+	 */
+	public void cacheOrdinals(File dir, TIntHashSet validIds, ProgressNotifier pn) throws IOException {
+		CacheGeneration caches = getCacheTarget() ;
 		
+		if (pn == null) pn = new ProgressNotifier(1) ;
 		
-		input = new BufferedReader(new InputStreamReader(new FileInputStream(pageFile), "UTF-8")) ;
-		Pattern p = Pattern.compile("(\\d*),.*?,(\\d*)");	
-		while ((line=input.readLine()) != null) {
-			bytesRead = bytesRead + line.length() ;
-			
-			Matcher m = p.matcher(line) ;
-			if (m.matches()) {
-				int id = Integer.parseInt(m.group(1)) ;
-				int type = Integer.parseInt(m.group(2)) ;
-
-				if (type == Page.CATEGORY)
-					pageIds.add(id) ;
-			}	
-			pn.update(bytesRead) ;
+		if (validIds != null) {
+			pn.startTask(1, "assigning page ordinals") ;
+			caches.cachedOrdinals = PageOrdinals.build(validIds.toArray()) ;
+			pn.update(1) ;
+			return ;
 		}
-		input.close();
 		
-		return pageIds ;
+		File pageFile = new File(dir.getPath() + File.separatorChar + "page.csv") ;
+		pn.startTask(pageFile.length(), "assigning page ordinals") ;
+		
+		final TIntArrayList pageIds = new TIntArrayList(getPageCount()) ;
+		
+		new ChunkedCsvReader(pageFile).read(new ChunkedCsvReader.HandlerFactory() {
+			public ChunkedCsvReader.Handler createHandler() {
+				return new ChunkedCsvReader.Handler() {
+					
+					TIntArrayList ids = new TIntArrayList() ;
+					
+					public void handleRow(ChunkedCsvReader.Row row) throws IOException {
+						ids.add(row.readInt()) ;
+					}
+					
+					public void merge() {
+						pageIds.add(ids.toNativeArray()) ;
+					}
+				} ;
+			}
+		}, pn, 0) ;
+		
+		caches.cachedOrdinals = PageOrdinals.build(pageIds.toNativeArray()) ;
 	}
 	
 	/**
 	 * @return true if links out from pages are cached, otherwise false.
 	 */
 	public boolean areOutLinksCached() {
-		return !(cachedOutLinks == null) ;
+		return !(getCaches().cachedOutLinks == null) ;
 	}
 	
 	/**
 	 * @return true if links in from pages are cached, otherwise false.
 	 */
 	public boolean areInLinksCached() {
-		return !(cachedInLinks == null) ;
+		CacheGeneration caches = getCaches() ;
+		return !(caches.cachedInLinks == null && caches.cachedCompressedInLinks == null) ;
+	}
+	
+	/**
+	 * @return true if links in to pages are cached and have been compressed, otherwise false.
+	 */
+	public boolean areInLinksCompressed() {
+		return !(getCaches().cachedCompressedInLinks == null) ;
 	}
 	
 	
@@ -1345,10 +2776,25 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @return true if generality measures are cached, otherwise false.
 	 */
 	public boolean isGeneralityCached() {
-		return !(cachedGenerality == null) ;
+		CacheGeneration caches = getCaches() ;
+		return !(caches.cachedGenerality == null && caches.cachedOrdinalGenerality == null) ;
+	}
+	
+	/**
+	 * @return true if pages have been assigned dense ordinals (see cacheOrdinals()), otherwise false.
+	 */
+	public boolean areOrdinalsCached() {
+		return !(getCaches().cachedOrdinals == null) ;
+	}
+	
+	/**
+	 * @return the dense ordinals that have been assigned to pages, or null if there are none.
+	 */
+	public PageOrdinals getPageOrdinals() {
+		return getCaches().cachedOrdinals ;
 	}
 	
-	protected class CachedPage {
+	protected static class CachedPage {
 		String title ;
 		int type ;
 		
@@ -1358,23 +2804,33 @@ public class WikipediaDatabase extends MySqlDatabase {
 		}		
 	}
 	
-	protected class CachedAnchor {
+	protected static class CachedAnchor {
 		int linkCount ;
 		int occCount ;
-		int[][] senses ;
+		
+		// senses are held in parallel arrays, ordered by count (descending) and then by id
+		int[] senseIds ;
+		int[] senseCounts ;
+		int[] senseTypes ;
 				
-		protected CachedAnchor(Vector<int[]> senses) {
+		protected CachedAnchor(int[] ids, int[] counts, int[] types, int start, int length) {
 			this.occCount = -1 ;  //flag this as unavailable for now
 			this.linkCount = 0 ;
 			
-			this.senses = new int[senses.size()][3] ;
+			senseIds = new int[length] ;
+			senseCounts = new int[length] ;
+			senseTypes = new int[length] ;
 			
-			int i = 0 ;
-			for (int[] sense:senses) {
-				this.senses[i] = sense ;
-				linkCount = linkCount + sense[1] ;
-				i++ ;
-			}
+			System.arraycopy(ids, start, senseIds, 0, length) ;
+			System.arraycopy(counts, start, senseCounts, 0, length) ;
+			System.arraycopy(types, start, senseTypes, 0, length) ;
+			
+			for (int i=0 ; i<length ; i++) 
+				linkCount = linkCount + senseCounts[i] ;
+		}
+		
+		protected int getSenseCount() {
+			return senseIds.length ;
 		}
 		
 		protected void addOccCount(int occCount) {
@@ -1385,99 +2841,103 @@ public class WikipediaDatabase extends MySqlDatabase {
 				this.occCount += occCount ;
 		}
 		
-		protected void addSenses(Vector<int[]> senses) {
+		protected void addSenses(int[] ids, int[] counts, int[] types, int start, int length) {
 			
-			if (this.senses == null) {
-				this.linkCount = 0 ;
-				this.senses = new int[senses.size()][2] ;
-				
-				int i = 0 ;
-				for (int[] sense:senses) {
-					this.senses[i] = sense ;
-					linkCount = linkCount + sense[1] ;
-					i++ ;
-				}
-				return ;
-			}
-						
-			// merge the senses
-			HashMap<Integer,int[]> senseData = new HashMap<Integer,int[]>() ;
+			int total = senseIds.length + length ;
 			
+			int[] allIds = new int[total] ;
+			int[] allCounts = new int[total] ;
+			int[] allTypes = new int[total] ;
 			
-			for (int[] sense: this.senses) {
-				int[] sd = {sense[1], sense[2]} ;
-				
-				senseData.put(sense[0], sd) ;			
-			}
+			System.arraycopy(senseIds, 0, allIds, 0, senseIds.length) ;
+			System.arraycopy(senseCounts, 0, allCounts, 0, senseIds.length) ;
+			System.arraycopy(senseTypes, 0, allTypes, 0, senseIds.length) ;
+			
+			System.arraycopy(ids, start, allIds, senseIds.length, length) ;
+			System.arraycopy(counts, start, allCounts, senseIds.length, length) ;
+			System.arraycopy(types, start, allTypes, senseIds.length, length) ;
+			
+			for (int i=start ; i<start+length ; i++) 
+				linkCount = linkCount + counts[i] ;
+			
+			// order by id (ids are never negative, so they sort correctly in the upper half of a long), so that duplicates are adjacent
+			long[] byId = new long[total] ;
+			for (int i=0 ; i<total ; i++) 
+				byId[i] = ((long)allIds[i] << 32) | i ;
+			Arrays.sort(byId) ;
 			
-			for (int[] sense: senses) {
-				int[] sd = senseData.get(sense[0]) ;
+			// merge duplicates, summing counts and keeping the strongest type
+			int[] mergedIds = new int[total] ;
+			int[] mergedCounts = new int[total] ;
+			int[] mergedTypes = new int[total] ;
+			int mergedCount = 0 ;
+			
+			for (int i=0 ; i<total ; i++) {
+				int index = (int)byId[i] ;
 				
-				if (sd == null) {
-					sd = new int[2] ;
-					sd[0] = sense[1] ;
-					sd[1] = sense[2] ;
+				if (mergedCount > 0 && mergedIds[mergedCount-1] == allIds[index]) {
+					mergedCounts[mergedCount-1] += allCounts[index] ;
+					mergedTypes[mergedCount-1] = Math.max(mergedTypes[mergedCount-1], allTypes[index]) ;
 				} else {
-					sd[0] = sd[0] + sense[1] ;
-					sd[1] = Math.max(sd[1], sense[2]) ;
+					mergedIds[mergedCount] = allIds[index] ;
+					mergedCounts[mergedCount] = allCounts[index] ;
+					mergedTypes[mergedCount] = allTypes[index] ;
+					mergedCount++ ;
 				}
-				senseData.put(sense[0], sd) ;	
-				
-				linkCount = linkCount + sense[1] ;
-			}
-			
-			// sort the merged senses
-			TreeSet<Sense> orderedSenses = new TreeSet<Sense>() ;
-			for (Integer senseId: senseData.keySet()) {
-				int[] sd = senseData.get(senseId) ;
-				orderedSenses.add(new Sense(senseId, sd[0], sd[1])) ;
 			}
 			
-			// store 
-			this.senses = new int[orderedSenses.size()][3] ;
+			// order by count (descending) and then by id
+			long[] byCount = new long[mergedCount] ;
+			for (int i=0 ; i<mergedCount ; i++) 
+				byCount[i] = ((long)(Integer.MAX_VALUE - mergedCounts[i]) << 32) | i ;
+			Arrays.sort(byCount) ;
 			
-			int index = 0 ;
-			for (Sense sense: orderedSenses) {
-				int[] s = {sense.id, sense.count, sense.type} ;
-				this.senses[index] = s ;		
-				index++ ;
-			}
-		}
-		
-		private class Sense implements Comparable<Sense> {
-			Integer id ;
-			Integer count ;
-			Integer type ;
+			senseIds = new int[mergedCount] ;
+			senseCounts = new int[mergedCount] ;
+			senseTypes = new int[mergedCount] ;
 			
-			protected Sense(Integer id, Integer count, Integer type) {
-				this.id = id ;
-				this.count = count ;
-				this.type = type ;
-			}
-			
-			public int compareTo(Sense s) {
-				int cmp = s.count.compareTo(count) ;
-				if (cmp == 0) 
-					cmp = id.compareTo(s.id) ;
-				return cmp ;
+			for (int i=0 ; i<mergedCount ; i++) {
+				int index = (int)byCount[i] ;
+				
+				senseIds[i] = mergedIds[index] ;
+				senseCounts[i] = mergedCounts[index] ;
+				senseTypes[i] = mergedTypes[index] ;
 			}
 		}
 	}
 	
 	/**
 	 * Summarizes first paragraphs and first sentences so short definitions can be obtained efficiently. 
+	 * Pages are summarized by one worker thread for each available processor.
 	 * 
 	 * @throws SQLException 
 	 */
 	public void summarizeDefinitions() throws SQLException {
+		summarizeDefinitions(Runtime.getRuntime().availableProcessors()) ;
+	}
+	
+	/**
+	 * Summarizes the first sentence and first paragraph of every page, and stores them in the definition table.
+	 * <p>
+	 * Pages (and their content) are streamed by the calling thread, cleaned of markup and split into sentences 
+	 * by the given number of worker threads, and written to the database in batches by one more thread. 
+	 * 
+	 * @param threads the number of threads that will summarize pages concurrently
+	 * @throws SQLException if content has not been imported, or if there is a problem with the Wikipedia database
+	 */
+	public void summarizeDefinitions(int threads) throws SQLException {
 		
 		if (!isContentImported())
 			throw new SQLException("You must import article content first!") ;
 		
+		if (threads < 1)
+			threads = 1 ;
+		
 		int rows = this.getPageCount() ;
 		
-		ProgressNotifier pn = new ProgressNotifier(1) ;
+		final ProgressNotifier pn = new ProgressNotifier(1) ;
 		pn.startTask(rows, "Summarizing definitions") ;
+		pn.setShowThroughput(true) ;
 		
 		Statement stmt = createStatement() ;
 		stmt.executeUpdate("DROP TABLE IF EXISTS definition") ;
@@ -1492,55 +2952,200 @@ public class WikipediaDatabase extends MySqlDatabase {
 					
 		stmt.close() ;
 		
-		int currRow = 0 ;
+		final BlockingQueue<Definition> pages = new ArrayBlockingQueue<Definition>(DEFINITION_QUEUE_SIZE) ;
+		final BlockingQueue<Definition> definitions = new ArrayBlockingQueue<Definition>(DEFINITION_QUEUE_SIZE) ;
 		
-		int chunkSize = 100 ;
-			
-		StringBuffer insertQuery = new StringBuffer() ;
-		SentenceSplitter ss = new SentenceSplitter() ;
+		ExecutorService executor = Executors.newFixedThreadPool(threads + 1) ;
 		
-		PageIterator i = new PageIterator(this) ;
-		while (i.hasNext()) {
-			Page p = i.next() ;
-			currRow ++ ;
+		try {
+			Vector<Future<Object>> workers = new Vector<Future<Object>>() ;
+			for (int w=0 ; w<threads ; w++) {
+				workers.add(executor.submit(new Callable<Object>() {
+					public Object call() throws InterruptedException {
+						summarizeQueuedDefinitions(pages, definitions) ;
+						return null ;
+					}
+				})) ;
+			}
 			
-			String paragraph = "" ;
-			String sentence = "" ;
+			Future<Object> writer = executor.submit(new Callable<Object>() {
+				public Object call() throws SQLException, InterruptedException {
+					writeQueuedDefinitions(definitions, pn) ;
+					return null ;
+				}
+			}) ;
+			
+			// content is streamed along with each page. The writer needs a connection of its own while the stream is 
+			// open, so this can only be done if the pool has room for both
+			PageIterator i ;
+			if (getConnectionPool().getSize() > 1)
+				i = new PageIterator(this, -1, PageIterator.CONTENT) ;
+			else
+				i = new PageIterator(this) ;
 			
 			try {
-				paragraph = p.getFirstParagraph() ;
-				sentence = p.getFirstSentence(paragraph, ss) ;
-			} catch (Exception e) {
-				System.err.println(p + " " + e.getMessage()) ;
+				while (i.hasNext()) {
+					Page p = i.next() ;
+					
+					String content = null ;
+					try {
+						content = p.getContent() ;
+					} catch (SQLException e) {
+						System.err.println(p + " " + e.getMessage()) ;
+					}
+					
+					queue(pages, new Definition(p.getId(), content), workers, writer) ;
+				}
+			} finally {
+				i.close() ;
 			}
 			
-			insertQuery.append(" (" + p.getId() + ",\"" + addEscapes(sentence) + "\",\"" + addEscapes(paragraph) + "\"),") ;
+			// one end marker for each worker, and then one for the writer once all of the workers have finished
+			for (int w=0 ; w<threads ; w++)
+				queue(pages, Definition.END, workers, writer) ;
 			
-			if (currRow%chunkSize == 0) {
-				if (insertQuery.length() > 0) {
-					insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
-					
-					stmt = createStatement() ;
-					stmt.setEscapeProcessing(false) ;
-					stmt.executeUpdate("INSERT IGNORE INTO definition VALUES" + insertQuery.toString() ) ;
+			for (Future<Object> worker:workers)
+				waitFor(worker) ;
+			
+			queue(definitions, Definition.END, workers, writer) ;
+			waitFor(writer) ;
+			
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt() ;
+			throw new SQLException("interrupted while summarizing definitions") ;
+		} finally {
+			executor.shutdownNow() ;
+		}
+	}	
+	
+	/**
+	 * Queues the given item, unless a worker has failed or the writer has stopped, in which case the queues might 
+	 * never be drained and the failure is thrown instead. Workers only stop without failing once they are given 
+	 * an end marker.
+	 */
+	private void queue(BlockingQueue<Definition> queue, Definition item, Vector<Future<Object>> workers, Future<Object> writer) throws SQLException, InterruptedException {
+		while (!queue.offer(item, 1, TimeUnit.SECONDS)) {
+			for (Future<Object> worker:workers) {
+				if (worker.isDone())
+					waitFor(worker) ;
+			}
+			
+			if (writer.isDone()) {
+				waitFor(writer) ;
+				throw new SQLException("definition writer stopped unexpectedly") ;
+			}
+		}
+	}
+	
+	private void summarizeQueuedDefinitions(BlockingQueue<Definition> pages, BlockingQueue<Definition> definitions) throws InterruptedException {
+		
+		SentenceSplitter ss = new SentenceSplitter() ;
+		
+		Definition d ;
+		while ((d = pages.take()) != Definition.END) {
+			
+			d.firstParagraph = "" ;
+			d.firstSentence = "" ;
+			
+			if (d.content != null) {
+				try {
+					d.firstParagraph = Page.extractFirstParagraph(d.content) ;
+					d.firstSentence = Page.extractFirstSentence(d.firstParagraph, ss) ;
+				} catch (Exception e) {
+					System.err.println("page " + d.id + " " + e.getMessage()) ;
+				} catch (StackOverflowError e) {
+					// deeply nested markup can exhaust the stack of the markup stripper. This only costs the one page
+					System.err.println("page " + d.id + " is nested too deeply to summarize") ;
+				}
+			}
+			
+			// the content is no longer needed, and may be large
+			d.content = null ;
+			definitions.put(d) ;
+		}
+	}
+	
+	private void writeQueuedDefinitions(BlockingQueue<Definition> definitions, ProgressNotifier pn) throws SQLException, InterruptedException {
+		
+		PreparedStatement stmt = null ;
+		int written = 0 ;
+		
+		try {
+			Definition d ;
+			while ((d = definitions.take()) != Definition.END) {
+				
+				if (stmt == null)
+					stmt = prepareStatement("insert_definition") ;
+				
+				try {
+					stmt.setInt(1, d.id) ;
+					stmt.setBytes(2, d.firstSentence.getBytes("UTF-8")) ;
+					stmt.setBytes(3, d.firstParagraph.getBytes("UTF-8")) ;
+				} catch (UnsupportedEncodingException e) {
+					throw new SQLException(e.getMessage()) ;
+				}
+				stmt.addBatch() ;
+				written++ ;
+				
+				if (written%DEFINITION_BATCH_SIZE == 0) {
+					// the statement is closed after every batch, so that the connection is not held while waiting for workers
+					stmt.executeBatch() ;
 					stmt.close() ;
+					stmt = null ;
 					
-					insertQuery = new StringBuffer() ;
+					pn.update(written) ;
 				}
-				
-				pn.update(currRow) ;
 			}
+			
+			if (stmt != null) 
+				stmt.executeBatch() ;
+			
+			pn.update(written) ;
+		} finally {
+			if (stmt != null)
+				stmt.close() ;
 		}
+	}
+	
+	private static void waitFor(Future<Object> future) throws SQLException, InterruptedException {
+		try {
+			future.get() ;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause() ;
+			
+			if (cause instanceof SQLException)
+				throw (SQLException)cause ;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause ;
+			if (cause instanceof Error)
+				throw (Error)cause ;
+			if (cause instanceof InterruptedException)
+				throw (InterruptedException)cause ;
+			
+			SQLException sqle = new SQLException(cause.getMessage()) ;
+			sqle.initCause(cause) ;
+			throw sqle ;
+		}
+	}
+	
+	/**
+	 * A page that is passed between the threads of summarizeDefinitions(), first with its content and then with its
+	 * summarized definition. 
+	 */
+	private static class Definition {
 		
-		if (insertQuery.length() > 0) {
-			insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
-						
-			stmt = createStatement() ;
-			stmt.setEscapeProcessing(false) ;
-			stmt.executeUpdate("INSERT IGNORE INTO definition VALUES" + insertQuery.toString() ) ;
-			stmt.close() ;
+		static final Definition END = new Definition(-1, null) ;
+		
+		int id ;
+		String content ;
+		String firstSentence ;
+		String firstParagraph ;
+		
+		Definition(int id, String content) {
+			this.id = id ;
+			this.content = content ;
 		}
-	}	
+	}
 	
 	
 	/**
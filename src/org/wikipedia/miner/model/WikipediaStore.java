@@ -0,0 +1,309 @@
+/*
+ *    WikipediaStore.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import java.sql.SQLException;
+import java.util.Vector;
+
+import org.wikipedia.miner.util.LinkList;
+import org.wikipedia.miner.util.text.TextProcessor;
+
+/**
+ * The lookups that pages, articles, categories, redirects and anchors make when the answer is not already held
+ * in a {@link WikipediaDatabase}'s caches.
+ * <p>
+ * By default these are answered by a {@link MySqlStore}, but a database can be given any other store instead
+ * (see WikipediaDatabase(WikipediaStore)), such as a {@link FileStore} that serves a read-only copy of Wikipedia
+ * straight from the csv files extracted from a dump, with no database server at all. Anything that is not covered
+ * here (translations, equivalences, disambiguation senses, etc.) still requires a mysql database.
+ * <p>
+ * Lookups that take an array of ids answer them all at once, so that stores which can batch them (such as a 
+ * MySqlStore) do not need a query for each id.
+ * <p>
+ * Stores must be safe to use from many threads at once.
+ *
+ * @author David Milne
+ */
+public interface WikipediaStore {
+
+	/**
+	 * The id, title and type of a single page.
+	 */
+	public static class PageRecord {
+
+		public int id ;
+		public String title ;
+		public int type ;
+
+		public PageRecord(int id, String title, int type) {
+			this.id = id ;
+			this.title = title ;
+			this.type = type ;
+		}
+	}
+
+	/**
+	 * A single use of an anchor text to link to a page.
+	 */
+	public static class AnchorRecord {
+
+		public String text ;
+		public int id ;
+		public int count ;
+		public int type ;
+
+		public AnchorRecord(String text, int id, int count, int type) {
+			this.text = text ;
+			this.id = id ;
+			this.count = count ;
+			this.type = type ;
+		}
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the page with the given id, or null if there is no such page.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public PageRecord getPage(int id) throws SQLException ;
+
+	/**
+	 * @param ids the ids of many pages, in any order
+	 * @return an array of pages, parallel to ids. Where there is no page with an id, the array holds null.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public PageRecord[] getPages(int[] ids) throws SQLException ;
+
+	/**
+	 * @param title the (case sensitive) title of a page
+	 * @param type the type of the page (ARTICLE, CATEGORY, REDIRECT or DISAMBIGUATION)
+	 * @return the id of the page, or -1 if there is no such page.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int getPageId(String title, int type) throws SQLException ;
+
+	/**
+	 * @param id the id of a redirect
+	 * @return the page that the redirect points to directly (which may be another redirect), or null if it does not point anywhere.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public PageRecord getRedirectTarget(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @return the redirects that point directly to the given page, which may be empty but never null.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public Vector<PageRecord> getRedirectsTo(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of an article
+	 * @return an ordered list of the ids of articles that link to the given one, which may be empty but never null.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public LinkList getLinksIn(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of an article
+	 * @return an ordered list of the ids (and counts) of articles that the given one links to, which may be empty but never null.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public LinkList getLinksOut(int id) throws SQLException ;
+
+	/**
+	 * @param ids the ids of many articles, in any order
+	 * @return an array of link lists (as returned by getLinksIn()), parallel to ids. None of these are null.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public LinkList[] getLinksIn(int[] ids) throws SQLException ;
+
+	/**
+	 * @param ids the ids of many articles, in any order
+	 * @return an array of link lists (as returned by getLinksOut()), parallel to ids. None of these are null.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public LinkList[] getLinksOut(int[] ids) throws SQLException ;
+
+	/**
+	 * @param id the id of an article
+	 * @param linksIn true if links into the article should be counted, or false if links out from it should be counted
+	 * @return the number of articles that link to (or are linked from) the given one
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int getLinkCount(int id, boolean linksIn) throws SQLException ;
+
+	/**
+	 * @param ids the ids of many articles, in any order
+	 * @param linksIn true if links into the articles should be counted, or false if links out from them should be counted
+	 * @return an array of counts, parallel to ids. Articles that are not linked (or do not exist) have a count of 0.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int[] getLinkCounts(int[] ids, boolean linksIn) throws SQLException ;
+
+	/**
+	 * @param id the id of an article or category
+	 * @return a sorted array of the ids of the categories that the given page belongs to.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int[] getParentCategoryIds(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of a category
+	 * @return a sorted array of the ids of the categories that the given one contains.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int[] getChildCategoryIds(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of a category
+	 * @return a sorted array of the ids of the articles that the given category contains.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int[] getChildArticleIds(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of an article or category
+	 * @return the categories that the given page belongs to, in ascending order of id.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public Vector<PageRecord> getParentCategories(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of a category
+	 * @return the categories that the given one contains.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public Vector<PageRecord> getChildCategories(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of a category
+	 * @return the articles that the given category contains, in ascending order of id.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public Vector<PageRecord> getChildArticles(int id) throws SQLException ;
+
+	/**
+	 * @param categoryId the id of a category
+	 * @param id the id of a page of any type
+	 * @return true if the given page is a direct child of the given category, otherwise false.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public boolean isCategoryMember(int categoryId, int id) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @return the length of the shortest path from the root category to the given page, or -1 if it is not known.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int getDepth(int id) throws SQLException ;
+
+	/**
+	 * @param ids the ids of many pages, in any order
+	 * @return an array of depths (as returned by getDepth()), parallel to ids.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int[] getDepths(int[] ids) throws SQLException ;
+
+	/**
+	 * @return the greatest depth of any page, or 0 if depths are not known.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int getMaxDepth() throws SQLException ;
+
+	/**
+	 * @param text an anchor text, which has already been processed by the given text processor
+	 * @param tp the text processor that anchors are indexed by, or null if they are not processed
+	 * @return the pages that the text is used to link to, in descending order of the number of times it is used for each.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public Vector<AnchorRecord> getAnchorSenses(String text, TextProcessor tp) throws SQLException ;
+
+	/**
+	 * @param text an anchor text, which has already been processed by the given text processor
+	 * @param tp the text processor that anchors are indexed by, or null if they are not processed
+	 * @return the number of times the text is used as a link and the number of times it occurs at all (in that order),
+	 * or null if the text is never used as a link.
+	 * @throws SQLException if there is a problem with the store, or if occurrences are not available (see areAnchorOccurrencesAvailable())
+	 */
+	public int[] getAnchorOccurrences(String text, TextProcessor tp) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @return the texts that are used to link to the given page, in descending order of use.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public Vector<AnchorRecord> getAnchorsTo(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @return the content of the page in raw media wiki format, or null if there is none.
+	 * @throws SQLException if there is a problem with the store, or if content is not available (see isContentAvailable())
+	 */
+	public String getContent(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @param length the number of bytes of content that are needed
+	 * @return at least the first <em>length</em> bytes of the content of the page (possibly with the last character cut short), or null if there is none.
+	 * @throws SQLException if there is a problem with the store, or if content is not available (see isContentAvailable())
+	 */
+	public String getContentPrefix(int id, int length) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @return the first sentence of the page, cleaned of markup, or null if there is none.
+	 * @throws SQLException if there is a problem with the store, or if definitions are not available (see areDefinitionsAvailable())
+	 */
+	public String getFirstSentence(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @return the first paragraph of the page, cleaned of markup, or null if there is none.
+	 * @throws SQLException if there is a problem with the store, or if definitions are not available (see areDefinitionsAvailable())
+	 */
+	public String getFirstParagraph(int id) throws SQLException ;
+
+	/**
+	 * @param type a type of page (ARTICLE, CATEGORY, REDIRECT or DISAMBIGUATION)
+	 * @return the number of pages of the given type
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int getPageCount(int type) throws SQLException ;
+
+	/**
+	 * @return true if the content of pages can be retrieved, otherwise false.
+	 */
+	public boolean isContentAvailable() ;
+
+	/**
+	 * @return true if the first sentences and paragraphs of pages can be retrieved, otherwise false.
+	 */
+	public boolean areDefinitionsAvailable() ;
+
+	/**
+	 * @return true if the number of times anchor texts occur can be retrieved, otherwise false.
+	 */
+	public boolean areAnchorOccurrencesAvailable() ;
+
+	/**
+	 * Releases any resources (files, connections) held by this store.
+	 */
+	public void close() ;
+}
@@ -19,6 +19,7 @@
 
 package org.wikipedia.miner.service;
 
+import java.sql.SQLException;
 import java.util.*;
 
 import org.w3c.dom.*;
@@ -310,14 +311,26 @@ public class Comparer {
 		Element xmlLinks = wms.doc.createElement(tag + "List") ;
 		xmlLinks.setAttribute("size", String.valueOf(links.size())) ;
 		
+		int[] ids = new int[Math.min(links.size(), linkLimit)] ;
+		
 		int count = 0 ;
 		for (Integer link: links) {
+			if (count == ids.length) break ;
+			ids[count++] = link ;
+		}
+		
+		Page[] pages ;
+		try {
+			pages = wms.wikipedia.getDatabase().getPages(ids) ;
+		} catch (SQLException e) {
+			return xmlLinks ;
+		}
+		
+		for (Page art: pages) {
 			
-			if (count++ >= linkLimit) break ;
+			if (art == null) continue ;
 			
 			try {
-				Article art = new Article(wms.wikipedia.getDatabase(), link) ;
-				
 				Element xmlLink = wms.doc.createElement(tag) ;
 				xmlLink.setAttribute("id", String.valueOf(art.getId())) ;
 				xmlLink.setAttribute("title", art.getTitle()) ;
@@ -308,61 +308,63 @@ public class Searcher {
 		}
 		
 		int[] linksOut = article.getLinksOutIds() ;
+		int[] linksIn = article.getLinksInIds() ;
 		
-		if (linksOut.length > 0) {
-			
-			Element xmlLinks = wms.doc.createElement("LinkOutList") ;
-			xmlLinks.setAttribute("size", String.valueOf(linksOut.length)) ;
-			int count = 0 ;
+		// retrieve the linked articles (and their own links, for measuring relatedness) in bulk, rather than one at a time
+		Article[] linksOutArts = getArticles(linksOut, linkLimit) ;
+		Article[] linksInArts = getArticles(linksIn, linkLimit) ;
+		
+		Article[] allArts = new Article[linksOutArts.length + linksInArts.length] ;
+		System.arraycopy(linksOutArts, 0, allArts, 0, linksOutArts.length) ;
+		System.arraycopy(linksInArts, 0, allArts, linksOutArts.length, linksInArts.length) ;
+		wms.wikipedia.getDatabase().loadLinks(allArts) ;
+		
+		if (linksOut.length > 0) 
+			xmlArt.appendChild(getLinkListXml(linksOutArts, linksOut.length, "LinkOut", article)) ;
+		
+		if (linksIn.length > 0) 
+			xmlArt.appendChild(getLinkListXml(linksInArts, linksIn.length, "LinkIn", article)) ;
 			
-			for (int id: linksOut) {
-				if (count++ == linkLimit) break ;
-				
-				try {
-					Article link = new Article(wms.wikipedia.getDatabase(), id) ;	
-				
-					Element xmlLink = wms.doc.createElement("LinkOut") ;
-				
-					xmlLink.setAttribute("id", String.valueOf(link.getId())) ;
-					xmlLink.setAttribute("title", link.getTitle()) ;
-					xmlLink.setAttribute("relatedness", wms.df.format(link.getRelatednessTo(article))) ;
-										
-					xmlLinks.appendChild(xmlLink) ;
-				} catch (Exception e) {} ;
-			}
-			xmlArt.appendChild(xmlLinks) ;
+		return xmlArt ;
+	}
+	
+	
+	private Article[] getArticles(int[] ids, int linkLimit) throws SQLException {
+		
+		if (ids.length > linkLimit)
+			ids = Arrays.copyOf(ids, linkLimit) ;
+		
+		Page[] pages = wms.wikipedia.getDatabase().getPages(ids) ;
+		
+		Article[] articles = new Article[pages.length] ;
+		for (int i=0 ; i<pages.length ; i++) {
+			if (pages[i] instanceof Article)
+				articles[i] = (Article)pages[i] ;
 		}
+		return articles ;
+	}
+	
+	private Element getLinkListXml(Article[] links, int size, String tag, Article article) {
 		
-		int[] linksIn = article.getLinksInIds() ;
+		Element xmlLinks = wms.doc.createElement(tag + "List") ;
+		xmlLinks.setAttribute("size", String.valueOf(size)) ;
 		
-		if (linksIn.length > 0) {
+		for (Article link: links) {
+			if (link == null) continue ;
 			
-			Element xmlLinks = wms.doc.createElement("LinkInList") ;
-			xmlLinks.setAttribute("size", String.valueOf(linksIn.length)) ;
-			int count = 0 ;
+			try {
+				Element xmlLink = wms.doc.createElement(tag) ;
 			
-			for (int id: linksIn) {
-				if (count++ == linkLimit) break ;
-				
-				try {
-					Article link = new Article(wms.wikipedia.getDatabase(), id) ;	
-				
-					Element xmlLink = wms.doc.createElement("LinkIn") ;
-				
-					xmlLink.setAttribute("id", String.valueOf(link.getId())) ;
-					xmlLink.setAttribute("title", link.getTitle()) ;
-					xmlLink.setAttribute("relatedness", wms.df.format(link.getRelatednessTo(article))) ;
-										
-					xmlLinks.appendChild(xmlLink) ;
-				} catch (Exception e) {} ;
-			}
-			xmlArt.appendChild(xmlLinks) ;
+				xmlLink.setAttribute("id", String.valueOf(link.getId())) ;
+				xmlLink.setAttribute("title", link.getTitle()) ;
+				xmlLink.setAttribute("relatedness", wms.df.format(link.getRelatednessTo(article))) ;
+									
+				xmlLinks.appendChild(xmlLink) ;
+			} catch (Exception e) {} ;
 		}
-			
-		return xmlArt ;
+		return xmlLinks ;
 	}
 	
-	
 	private Element getCategoryDetails(Page page, int linkLimit) throws SQLException{
 		
 		Category category = (Category)page ;
@@ -475,13 +477,23 @@ public class Searcher {
 
 		Element xmlPages = wms.doc.createElement(tag + "List") ;
 		
-		int count = 0 ;
-		for (Integer id: categories) {
+		if (categories.length > linkLimit+1)
+			categories = Arrays.copyOf(categories, linkLimit+1) ;
+		
+		Page[] pages ;
+		try {
+			pages = wms.wikipedia.getDatabase().getPages(categories) ;
+		} catch (SQLException e) {
+			return xmlPages ;
+		}
+		
+		for (Page p: pages) {
 			
-			if (count++ > linkLimit) break ;
+			if (!(p instanceof Category)) 
+				continue ;
 			
 			try {
-				Category c = (Category) wms.wikipedia.getPageById(id) ;
+				Category c = (Category) p ;
 			
 				Element xmlPage = wms.doc.createElement(tag) ;
 
@@ -498,13 +510,23 @@ public class Searcher {
 
 		Element xmlPages = wms.doc.createElement(tag + "List") ;
 		
-		int count = 0 ;
-		for (Integer id: articles) {
+		if (articles.length > linkLimit+1)
+			articles = Arrays.copyOf(articles, linkLimit+1) ;
+		
+		Page[] pages ;
+		try {
+			pages = wms.wikipedia.getDatabase().getPages(articles) ;
+		} catch (SQLException e) {
+			return xmlPages ;
+		}
+		
+		for (Page p: pages) {
 			
-			if (count++ > linkLimit) break ;
+			if (!(p instanceof Article)) 
+				continue ;
 			
 			try {
-				Article a = (Article) wms.wikipedia.getPageById(id) ;
+				Article a = (Article) p ;
 			
 				Element xmlPage = wms.doc.createElement(tag) ;
 
@@ -512,7 +534,6 @@ public class Searcher {
 				xmlPage.setAttribute("title", a.getTitle()) ;
 
 				xmlPages.appendChild(xmlPage) ;
-				
 			} catch (Exception e) {}
 		}
 		return xmlPages ;
@@ -56,6 +56,7 @@ public class WikipediaMinerServlet extends HttpServlet {
 
 	protected Wikipedia wikipedia ;
 	private CacherThread cachingThread ;
+	private CacherThread reloadingThread ;
 
 	protected Comparer comparer ;
 	protected Searcher searcher ;
@@ -75,11 +76,24 @@ public class WikipediaMinerServlet extends HttpServlet {
 		TextProcessor tp = new CaseFolder() ; 
 
 		try {
-			wikipedia = new Wikipedia(context.getInitParameter("mysql_server"), context.getInitParameter("mysql_database"), context.getInitParameter("mysql_user"), context.getInitParameter("mysql_password")) ;
+			int poolSize = resolveIntegerArg(context.getInitParameter("mysql_pool_size"), WikipediaDatabase.DEFAULT_POOL_SIZE) ;
+			wikipedia = new Wikipedia(context.getInitParameter("mysql_server"), context.getInitParameter("mysql_database"), context.getInitParameter("mysql_user"), context.getInitParameter("mysql_password"), poolSize) ;
 		} catch (Exception e) {
 			throw new ServletException("Could not connect to wikipedia database.") ;
 		}
 
+		wikipedia.getDatabase().setDefinitionPrefixLength(resolveIntegerArg(context.getInitParameter("definition_prefix_length"), 0)) ;
+
+		String tablePath = context.getInitParameter("content_tables") ;
+		if (tablePath != null && !tablePath.equals("")) {
+			try {
+				int cachedBlocks = resolveIntegerArg(context.getInitParameter("content_table_cache"), 0) ;
+				wikipedia.getDatabase().useSortedTables(new File(tablePath), cachedBlocks) ;
+			} catch (Exception e) {
+				throw new ServletException("Could not open content tables (" + tablePath + ")") ;
+			}
+		}
+
 		//Escaper escaper = new Escaper() ;
 
 		definer = new Definer(this) ;
@@ -100,7 +114,18 @@ public class WikipediaMinerServlet extends HttpServlet {
 				throw new Exception() ;
 			}
 
-			cachingThread = new CacherThread(dataDirectory, tp) ;
+			File snapshotFile = null ;
+			String snapshotPath = context.getInitParameter("cache_snapshot") ;
+			if (snapshotPath != null && !snapshotPath.equals("")) 
+				snapshotFile = new File(snapshotPath) ;
+			
+			boolean compressLinks = "true".equalsIgnoreCase(context.getInitParameter("compress_links")) ;
+			boolean denseOrdinals = "true".equalsIgnoreCase(context.getInitParameter("dense_ordinals")) ;
+			int cacheThreads = resolveIntegerArg(context.getInitParameter("cache_threads"), Runtime.getRuntime().availableProcessors()) ;
+			int pageCacheSize = resolveIntegerArg(context.getInitParameter("page_cache_size"), -1) ;
+			int ancestorDepth = resolveIntegerArg(context.getInitParameter("ancestor_depth"), 0) ;
+
+			cachingThread = new CacherThread(dataDirectory, snapshotFile, tp, compressLinks, denseOrdinals, cacheThreads, pageCacheSize, ancestorDepth, false) ;
 			cachingThread.start() ;
 		} catch (Exception e) {
 			throw new ServletException("Could not locate wikipedia data directory.") ;
@@ -151,8 +176,12 @@ public class WikipediaMinerServlet extends HttpServlet {
 
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
 
-		try {
+		// every part of this request should see the same caches, even if a new generation is swapped in part way through
+		wikipedia.getDatabase().pinCaches() ;
 
+		try {
+			// and every lookup should share one connection, which is only borrowed if the request issues a statement 
+			wikipedia.getDatabase().holdConnection() ;
 
 			response.setHeader("Cache-Control", "no-cache"); 
 			response.setCharacterEncoding("UTF-8") ;
@@ -200,9 +229,59 @@ public class WikipediaMinerServlet extends HttpServlet {
 
 				data = doc.createElement("loading") ;
 				data.setAttribute("progress", df.format(progress)) ;
+				
+				ConnectionPool pool = wikipedia.getDatabase().getConnectionPool() ;
+				if (pool != null) {
+					data.setAttribute("connectionsActive", String.valueOf(pool.getActiveCount())) ;
+					data.setAttribute("connectionsPeak", String.valueOf(pool.getPeakActiveCount())) ;
+					data.setAttribute("connectionPoolSize", String.valueOf(pool.getSize())) ;
+					data.setAttribute("connectionWaitAvg", df.format(pool.getAverageWaitTime())) ;
+					data.setAttribute("connectionWaitMax", String.valueOf(pool.getMaxWaitTime())) ;
+				}
 				task = "loading" ;
 			}
 			
+			//process reload request, which rebuilds caches in the background and then swaps them in. Caches can be rebuilt 
+			//from a new data directory or snapshot (e.g. a newer dump), otherwise they are rebuilt from the same files as before
+			if (data==null && task.equals("reload")) {
+				if (!isLocal(request))
+					throw new ServletException("Caches can only be reloaded from the local machine") ;
+				
+				String dataDirectoryPath = request.getParameter("dataDirectory") ;
+				String snapshotPath = request.getParameter("snapshot") ;
+				
+				File dataDirectory = null ;
+				if (dataDirectoryPath != null && !dataDirectoryPath.equals("")) {
+					dataDirectory = new File(dataDirectoryPath) ;
+					if (!dataDirectory.isDirectory())
+						throw new ServletException(dataDirectoryPath + " is not a directory") ;
+				}
+				
+				File snapshotFile = null ;
+				if (snapshotPath != null && !snapshotPath.equals("")) {
+					snapshotFile = new File(snapshotPath) ;
+					if (!snapshotFile.isFile() || !snapshotFile.canRead())
+						throw new ServletException(snapshotPath + " cannot be read") ;
+				}
+				
+				synchronized(this) {
+					if (reloadingThread == null || reloadingThread.getProgress() >= 1) {
+						// later reloads start from wherever the last successful one was loaded from
+						CacherThread previous = (reloadingThread != null && reloadingThread.isOk()) ? reloadingThread : cachingThread ;
+						
+						reloadingThread = previous.createReloader(dataDirectory, snapshotFile) ;
+						reloadingThread.start() ;
+					}
+				}
+				
+				data = doc.createElement("reload") ;
+				data.setAttribute("progress", df.format(reloadingThread.getProgress())) ;
+				data.setAttribute("ok", String.valueOf(reloadingThread.isOk())) ;
+				data.setAttribute("dataDirectory", reloadingThread.dataDirectory.getPath()) ;
+				if (reloadingThread.snapshotFile != null)
+					data.setAttribute("snapshot", reloadingThread.snapshotFile.getPath()) ;
+			}
+			
 			//process search request
 			if (data==null && task.equals("search")) {
 				String term = request.getParameter("term") ;
@@ -314,6 +393,9 @@ public class WikipediaMinerServlet extends HttpServlet {
 				//TODO: something for when an error is thrown processing an error????
 
 			} ;
+		} finally {
+			wikipedia.getDatabase().unpinCaches() ;
+			wikipedia.getDatabase().releaseConnection() ;
 		}
 	}
 
@@ -353,6 +435,11 @@ public class WikipediaMinerServlet extends HttpServlet {
 		return description ;
 	}
 
+	private boolean isLocal(HttpServletRequest request) {
+		String address = request.getRemoteAddr() ;
+		return address.equals("127.0.0.1") || address.equals("0:0:0:0:0:0:0:1") || address.equals("::1") ;
+	}
+
 	private int resolveIntegerArg(String arg, int defaultValue) {
 		try {
 			return Integer.parseInt(arg) ;			
@@ -382,16 +469,55 @@ public class WikipediaMinerServlet extends HttpServlet {
 
 	private class CacherThread extends Thread {
 		private ProgressNotifier pn ;
+		private TaskScheduler scheduler ;
 		private TextProcessor tp ;
 		private boolean completed ;
 		File dataDirectory ;
+		File snapshotFile ;
+		boolean compressLinks ;
+		boolean denseOrdinals ;
+		int threads ;
+		int pageCacheSize ;
+		int ancestorDepth ;
+		boolean reload ;
 		boolean ok = true ;
 
-		CacherThread(File dataDirectory, TextProcessor tp) {
+		private TIntHashSet ids ;
+
+		CacherThread(File dataDirectory, File snapshotFile, TextProcessor tp, boolean compressLinks, boolean denseOrdinals, int threads, int pageCacheSize, int ancestorDepth, boolean reload) {
 			this.pn = null ;
+			this.scheduler = null ;
 			this.tp = tp ;
 			this.completed = false ;
 			this.dataDirectory = dataDirectory ;
+			this.snapshotFile = snapshotFile ;
+			this.compressLinks = compressLinks ;
+			this.denseOrdinals = denseOrdinals ;
+			this.threads = threads ;
+			this.pageCacheSize = pageCacheSize ;
+			this.ancestorDepth = ancestorDepth ;
+			this.reload = reload ;
+		}
+
+		/**
+		 * @param newDataDirectory a directory to build caches from instead of this thread's one, or null if the same directory should be used
+		 * @param newSnapshotFile a snapshot to load caches from instead of this thread's one, or null. If a new data directory is given 
+		 * without a snapshot, then caches are built from the directory rather than from any snapshot.
+		 * @return a thread that builds a new generation of caches with the same settings as this one, and swaps it in once it is complete.
+		 */
+		public CacherThread createReloader(File newDataDirectory, File newSnapshotFile) {
+			File d = dataDirectory ;
+			File s = snapshotFile ;
+			
+			if (newDataDirectory != null) {
+				d = newDataDirectory ;
+				s = null ;
+			}
+			
+			if (newSnapshotFile != null) 
+				s = newSnapshotFile ;
+			
+			return new CacherThread(d, s, tp, compressLinks, denseOrdinals, threads, pageCacheSize, ancestorDepth, true) ;
 		}
 
 		public boolean isOk() {
@@ -403,6 +529,9 @@ public class WikipediaMinerServlet extends HttpServlet {
 			if (completed)
 				return 1 ;
 
+			if (scheduler != null)
+				return scheduler.getProgress() ;
+
 			if (pn == null) 
 				return 0 ;
 
@@ -410,23 +539,142 @@ public class WikipediaMinerServlet extends HttpServlet {
 		}
 
 		public void run() {
-			pn = new ProgressNotifier(5) ;
+			
+			WikipediaDatabase db = wikipedia.getDatabase() ;
+			
+			if (reload) {
+				try {
+					db.beginCacheGeneration() ;
+				} catch (Exception e) {
+					ok = false ;
+					completed = true ;
+					return ;
+				}
+			}
+			
+			cache() ;
+			
+			if (reload) {
+				try {
+					// requests that are already under way finish with the old generation
+					if (ok) 
+						db.commitCacheGeneration() ;
+					else
+						db.abortCacheGeneration() ;
+				} catch (Exception e) {
+					ok = false ;
+				}
+			}
+			
+			completed = true ;
+		}
+		
+		private void cache() {
+			
+			if (snapshotFile != null && snapshotFile.canRead()) {
+				pn = new ProgressNotifier(compressLinks ? 2 : 1) ;
+				
+				try {
+					if (pageCacheSize >= 0)
+						wikipedia.getDatabase().loadTieredCache(snapshotFile, tp, pageCacheSize, pn) ;
+					else
+						wikipedia.getDatabase().loadCacheSnapshot(snapshotFile, tp, pn) ;
+					
+					if (compressLinks)
+						wikipedia.getDatabase().compressInLinks(pn) ;
+				} catch (Exception e) {
+					ok = false ;
+				}
+				
+				return ;
+			}
+			
+			// every file is read by its own job, so the time taken is bound by the largest file rather than the sum of all of them.
+			// Jobs are weighted by the size of the files they read, so that progress is reported evenly.
+			final WikipediaDatabase db = wikipedia.getDatabase() ;
+			scheduler = new TaskScheduler(threads) ;
+
+			TaskScheduler.Task validIds = scheduler.add("valid page ids", getSize("page.csv") + getSize("linkcount.csv"), new TaskScheduler.Job() {
+				public void run(ProgressNotifier pn) throws Exception {
+					ids = db.getValidPageIds(dataDirectory, 3, pn) ;
+				}
+			}) ;
+
+			// ordinals (if used) must be assigned before the caches that are indexed by them are built
+			TaskScheduler.Task idsReady = validIds ;
+			if (denseOrdinals) {
+				idsReady = scheduler.add("page ordinals", 0, new TaskScheduler.Job() {
+					public void run(ProgressNotifier pn) throws Exception {
+						db.cacheOrdinals(dataDirectory, ids, pn) ;
+					}
+				}, validIds) ;
+			}
+
+			TaskScheduler.Task parentIds = scheduler.add("parent ids", getSize("categorylink.csv"), new TaskScheduler.Job() {
+				public void run(ProgressNotifier pn) throws Exception {
+					db.cacheParentIds(dataDirectory, pn) ;
+				}
+			}) ;
+
+			if (ancestorDepth > 0) {
+				scheduler.add("ancestors", getSize("categorylink.csv"), new TaskScheduler.Job() {
+					public void run(ProgressNotifier pn) throws Exception {
+						db.cacheAncestors(ancestorDepth, pn) ;
+					}
+				}, parentIds, idsReady) ;
+			}
+
+			scheduler.add("generality", getSize("generality.csv"), new TaskScheduler.Job() {
+				public void run(ProgressNotifier pn) throws Exception {
+					db.cacheGenerality(dataDirectory, ids, pn) ;
+				}
+			}, idsReady) ;
+
+			TaskScheduler.Task pages = scheduler.add("pages", getSize("page.csv") + getSize("redirect.csv"), new TaskScheduler.Job() {
+				public void run(ProgressNotifier pn) throws Exception {
+					db.cachePages(dataDirectory, ids, pn) ;
+				}
+			}, idsReady) ;
+
+			// children are split into categories and articles using the cached page types
+			scheduler.add("child ids", getSize("categorylink.csv"), new TaskScheduler.Job() {
+				public void run(ProgressNotifier pn) throws Exception {
+					db.cacheChildIds(dataDirectory, ids, pn) ;
+				}
+			}, pages) ;
+
+			scheduler.add("anchors", getSize("anchor_summary.csv") + getSize("anchor_occurance.csv"), new TaskScheduler.Job() {
+				public void run(ProgressNotifier pn) throws Exception {
+					db.cacheAnchors(dataDirectory, tp, ids, 3, pn) ;
+				}
+			}, validIds) ;
+
+			TaskScheduler.Task inLinks = scheduler.add("links in", getSize("pagelink_in.csv"), new TaskScheduler.Job() {
+				public void run(ProgressNotifier pn) throws Exception {
+					db.cacheInLinks(dataDirectory, ids, pn) ;
+				}
+			}, idsReady) ;
+
+			if (compressLinks) {
+				// compression takes roughly as long again as loading the links 
+				scheduler.add("compressed links in", getSize("pagelink_in.csv"), new TaskScheduler.Job() {
+					public void run(ProgressNotifier pn) throws Exception {
+						db.compressInLinks(pn) ;
+					}
+				}, inLinks) ;
+			}
 
 			try {
-				TIntHashSet ids = wikipedia.getDatabase().getValidPageIds(dataDirectory, 3, pn) ;
-				wikipedia.getDatabase().cacheParentIds(dataDirectory, pn) ;
-				wikipedia.getDatabase().cacheGenerality(dataDirectory, ids, null) ;
-				wikipedia.getDatabase().cachePages(dataDirectory, ids, pn) ;
-				wikipedia.getDatabase().cacheAnchors(dataDirectory, tp, ids, 3, pn) ;
-				wikipedia.getDatabase().cacheInLinks(dataDirectory, ids, pn) ;
-
-				ids = null ;
+				scheduler.run() ;
 			} catch (Exception e) {
 				ok = false ;
-
 			} ;
 
-			completed = true ;
+			ids = null ;
+		}
+
+		private double getSize(String fileName) {
+			return new File(dataDirectory.getPath() + File.separatorChar + fileName).length() ;
 		}
 	}
 
@@ -156,7 +156,8 @@ public class ArticleSet {
 		Vector<Article> articles = new Vector<Article>() ;
 		ProgressNotifier pn = new ProgressNotifier(wikipedia.getDatabase().getArticleCount(), "Gathering rough candidates") ;
 		
-		Iterator<Page> i = wikipedia.getPageIterator(Page.ARTICLE) ;
+		// link counts are streamed along with each article, so nothing else needs to be queried while iterating
+		PageIterator i = wikipedia.getPageIterator(Page.ARTICLE, PageIterator.LINK_COUNTS) ;
 		
 		while (i.hasNext()) {
 			Article art = (Article)i.next() ;
@@ -0,0 +1,464 @@
+/*
+ *    ChunkedCsvReader.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.io.* ;
+import java.nio.* ;
+import java.nio.channels.FileChannel ;
+import java.util.* ;
+import java.util.concurrent.* ;
+
+/**
+ * @author David Milne
+ *
+ * Reads the csv files extracted from a Wikipedia dump, without going through BufferedReader, String.split() or
+ * new Integer() for every line.
+ * <p>
+ * The file is split into chunks that end on line boundaries, and each chunk is memory-mapped and parsed on a
+ * pool of threads. Numbers and quoted strings are parsed directly from the mapped bytes by a {@link Row}. Every
+ * chunk is given its own {@link Handler}, which gathers whatever it needs from the rows of the chunk. Once a chunk
+ * has been parsed, its handler is merged (on the calling thread, in the order the chunks appear in the file), so
+ * handlers do not need to be thread-safe when merging their results into a shared structure.
+ */
+public class ChunkedCsvReader {
+
+	/**
+	 * The default number of bytes in each chunk.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 16*1024*1024 ;
+
+	/**
+	 * Gathers data from the rows of a single chunk.
+	 */
+	public interface Handler {
+
+		/**
+		 * Called (on a worker thread) for every non-empty line in the chunk, in order.
+		 *
+		 * @param row the line to handle. This is only valid until the method returns.
+		 * @throws IOException if the line is malformed
+		 */
+		public void handleRow(Row row) throws IOException ;
+
+		/**
+		 * Called (on the thread that called {@link ChunkedCsvReader#read(HandlerFactory, ProgressNotifier, long)}) once
+		 * every line in the chunk has been handled, and every earlier chunk has been merged.
+		 *
+		 * @throws IOException if the gathered data cannot be merged
+		 */
+		public void merge() throws IOException ;
+	}
+
+	/**
+	 * Creates a new {@link Handler} for each chunk.
+	 */
+	public interface HandlerFactory {
+
+		/**
+		 * @return a new handler
+		 */
+		public Handler createHandler() ;
+	}
+
+	private File file ;
+	private int threads ;
+	private int chunkSize ;
+
+	/**
+	 * Creates a reader that uses one thread for each available processor.
+	 *
+	 * @param file the file to read
+	 */
+	public ChunkedCsvReader(File file) {
+		this(file, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE) ;
+	}
+
+	/**
+	 * @param file the file to read
+	 * @param threads the number of threads that will parse chunks concurrently
+	 * @param chunkSize the approximate number of bytes in each chunk (chunks are extended to the end of the line they finish in)
+	 */
+	public ChunkedCsvReader(File file, int threads, int chunkSize) {
+		this.file = file ;
+		this.threads = Math.max(1, threads) ;
+		this.chunkSize = Math.max(1024, chunkSize) ;
+	}
+
+	/**
+	 * Estimates the number of lines in the file from the average length of the lines in its first chunk, without
+	 * reading the whole file.
+	 *
+	 * @return an estimate of the number of lines in the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public int estimateLineCount() throws IOException {
+
+		FileChannel channel = new FileInputStream(file).getChannel() ;
+		try {
+			long length = channel.size() ;
+			if (length == 0)
+				return 0 ;
+
+			ByteBuffer sample = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, 1024*1024)) ;
+
+			int lines = 0 ;
+			for (int i=0 ; i<sample.limit() ; i++) {
+				if (sample.get(i) == '\n')
+					lines++ ;
+			}
+
+			if (lines == 0)
+				return 1 ;
+
+			return (int)Math.min(Integer.MAX_VALUE, (length * lines) / sample.limit()) ;
+		} finally {
+			channel.close() ;
+		}
+	}
+
+	/**
+	 * Reads every line of the file.
+	 *
+	 * @param factory creates a handler for each chunk
+	 * @param pn an optional progress notifier, which is updated with the number of bytes read
+	 * @param progressOffset an amount added to the number of bytes read before updating pn (for when a task spans several files)
+	 * @throws IOException if the file cannot be read, or any handler fails
+	 */
+	public void read(HandlerFactory factory, ProgressNotifier pn, long progressOffset) throws IOException {
+
+		FileChannel channel = new FileInputStream(file).getChannel() ;
+		ExecutorService executor = Executors.newFixedThreadPool(threads) ;
+
+		try {
+			long length = channel.size() ;
+
+			// limit the chunks in flight, so that memory is bound by the number of threads rather than the size of the file
+			LinkedList<Future<Handler>> pending = new LinkedList<Future<Handler>>() ;
+			LinkedList<Long> pendingEnds = new LinkedList<Long>() ;
+
+			long start = 0 ;
+			while (start < length || !pending.isEmpty()) {
+
+				while (start < length && pending.size() < threads*2) {
+					long end = findLineEnd(channel, Math.min(length, start + chunkSize), length) ;
+
+					final ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end-start) ;
+					final Handler handler = factory.createHandler() ;
+
+					pending.add(executor.submit(new Callable<Handler>() {
+						public Handler call() throws IOException {
+							parse(chunk, handler) ;
+							return handler ;
+						}
+					})) ;
+					pendingEnds.add(end) ;
+
+					start = end ;
+				}
+
+				Handler handler = waitFor(pending.removeFirst()) ;
+				handler.merge() ;
+
+				long bytesRead = pendingEnds.removeFirst() ;
+				if (pn != null)
+					pn.update(progressOffset + bytesRead) ;
+			}
+		} finally {
+			executor.shutdownNow() ;
+			channel.close() ;
+		}
+	}
+
+	private static Handler waitFor(Future<Handler> future) throws IOException {
+		try {
+			return future.get() ;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException() ;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause() ;
+
+			if (cause instanceof IOException)
+				throw (IOException)cause ;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause ;
+			if (cause instanceof Error)
+				throw (Error)cause ;
+
+			IOException ioe = new IOException(cause.getMessage()) ;
+			ioe.initCause(cause) ;
+			throw ioe ;
+		}
+	}
+
+	/**
+	 * @return the position just after the first newline at or after pos (or the end of the file, if there is none)
+	 */
+	private static long findLineEnd(FileChannel channel, long pos, long length) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(8192) ;
+
+		while (pos < length) {
+			buffer.clear() ;
+			int read = channel.read(buffer, pos) ;
+			if (read <= 0)
+				break ;
+
+			for (int i=0 ; i<read ; i++) {
+				if (buffer.get(i) == '\n')
+					return pos + i + 1 ;
+			}
+			pos = pos + read ;
+		}
+		return length ;
+	}
+
+	private static void parse(ByteBuffer chunk, Handler handler) throws IOException {
+
+		Row row = new Row(chunk) ;
+
+		int lineStart = 0 ;
+		int limit = chunk.limit() ;
+
+		while (lineStart < limit) {
+			int lineEnd = lineStart ;
+			while (lineEnd < limit && chunk.get(lineEnd) != '\n')
+				lineEnd++ ;
+
+			int next = lineEnd + 1 ;
+
+			if (lineEnd > lineStart && chunk.get(lineEnd-1) == '\r')
+				lineEnd-- ;
+
+			if (lineEnd > lineStart) {
+				row.reset(lineStart, lineEnd) ;
+				handler.handleRow(row) ;
+			}
+
+			lineStart = next ;
+		}
+	}
+
+	/**
+	 * A cursor over a single line of a csv file, which parses values directly from the bytes of the line.
+	 * Values are read in order, and separators must be consumed explicitly (see {@link #expect(char)} and
+	 * {@link #skip(char)}), so that lines with nested separators (such as <em>"1:2:3"</em>) can be read
+	 * without splitting them.
+	 */
+	public static class Row {
+
+		private ByteBuffer bytes ;
+		private int start ;
+		private int pos ;
+		private int end ;
+
+		private byte[] scratch = new byte[256] ;
+
+		private Row(ByteBuffer bytes) {
+			this.bytes = bytes ;
+		}
+
+		private void reset(int start, int end) {
+			this.start = start ;
+			this.pos = start ;
+			this.end = end ;
+		}
+
+		/**
+		 * @return true if every byte in this line has been consumed, otherwise false.
+		 */
+		public boolean atEnd() {
+			return pos >= end ;
+		}
+
+		/**
+		 * @return the next byte, without consuming it, or -1 if the line has been consumed.
+		 */
+		public int peek() {
+			if (pos >= end)
+				return -1 ;
+			return bytes.get(pos) ;
+		}
+
+		/**
+		 * Consumes the given character, if it is next in the line.
+		 *
+		 * @param c the character to skip
+		 * @return true if the character was consumed, otherwise false.
+		 */
+		public boolean skip(char c) {
+			if (pos < end && bytes.get(pos) == c) {
+				pos++ ;
+				return true ;
+			}
+			return false ;
+		}
+
+		/**
+		 * Consumes the given character, which must be next in the line.
+		 *
+		 * @param c the character to consume
+		 * @throws IOException if the given character is not next in the line.
+		 */
+		public void expect(char c) throws IOException {
+			if (!skip(c))
+				throw malformed("expected '" + c + "'") ;
+		}
+
+		/**
+		 * Consumes and parses an integer (an optional minus sign followed by digits).
+		 *
+		 * @return the integer
+		 * @throws IOException if there is no integer at the current position
+		 */
+		public int readInt() throws IOException {
+			long value = readLong() ;
+
+			if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE)
+				throw malformed("integer out of range") ;
+
+			return (int)value ;
+		}
+
+		/**
+		 * Consumes and parses a long integer (an optional minus sign followed by digits).
+		 *
+		 * @return the integer
+		 * @throws IOException if there is no integer at the current position
+		 */
+		public long readLong() throws IOException {
+
+			boolean negative = skip('-') ;
+
+			long value = 0 ;
+			int digits = 0 ;
+			while (pos < end) {
+				int b = bytes.get(pos) ;
+				if (b < '0' || b > '9')
+					break ;
+
+				value = (value * 10) + (b - '0') ;
+				digits++ ;
+				pos++ ;
+			}
+
+			if (digits == 0)
+				throw malformed("expected an integer") ;
+
+			return negative ? -value : value ;
+		}
+
+		/**
+		 * Consumes a quoted string, and decodes it as UTF-8. Backslash escapes within the string are resolved.
+		 *
+		 * @return the string, without quotes
+		 * @throws IOException if there is no quoted string at the current position
+		 */
+		public String readString() throws IOException {
+
+			expect('"') ;
+
+			int length = 0 ;
+			while (true) {
+				if (pos >= end)
+					throw malformed("unterminated string") ;
+
+				byte b = bytes.get(pos++) ;
+
+				if (b == '"')
+					break ;
+
+				if (b == '\\' && pos < end) {
+					b = bytes.get(pos++) ;
+					if (b == 'n')
+						b = '\n' ;
+				}
+
+				if (length == scratch.length) {
+					byte[] grown = new byte[length*2] ;
+					System.arraycopy(scratch, 0, grown, 0, length) ;
+					scratch = grown ;
+				}
+
+				scratch[length++] = b ;
+			}
+
+			return new String(scratch, 0, length, "UTF-8") ;
+		}
+
+		/**
+		 * Consumes a quoted string, without decoding it.
+		 *
+		 * @throws IOException if there is no quoted string at the current position
+		 */
+		public void skipString() throws IOException {
+
+			expect('"') ;
+
+			while (true) {
+				if (pos >= end)
+					throw malformed("unterminated string") ;
+
+				byte b = bytes.get(pos++) ;
+
+				if (b == '"')
+					return ;
+
+				if (b == '\\')
+					pos++ ;
+			}
+		}
+
+		/**
+		 * Moves to just after the last occurrence of the given character in the line, so that trailing values can be
+		 * read without parsing (or decoding) the ones before them.
+		 *
+		 * @param c the character to search for
+		 * @throws IOException if the character does not occur after the current position
+		 */
+		public void skipToLast(char c) throws IOException {
+			for (int i=end-1 ; i>=pos ; i--) {
+				if (bytes.get(i) == c) {
+					pos = i+1 ;
+					return ;
+				}
+			}
+			throw malformed("expected '" + c + "'") ;
+		}
+
+		/**
+		 * @return the entire line (decoded as UTF-8), for error reporting
+		 */
+		public String toString() {
+			byte[] line = new byte[end-start] ;
+			for (int i=start ; i<end ; i++)
+				line[i-start] = bytes.get(i) ;
+
+			try {
+				return new String(line, "UTF-8") ;
+			} catch (UnsupportedEncodingException e) {
+				return "" ;
+			}
+		}
+
+		private IOException malformed(String problem) {
+			return new IOException("malformed line (" + problem + " at column " + (pos-start) + "): " + toString()) ;
+		}
+	}
+}
@@ -0,0 +1,241 @@
+/*
+ *    CompressedLinkList.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author David Milne
+ *
+ * A read-only view of an ordered list of page ids that has been compressed by a {@link CompressedLinkStore}.
+ * <p>
+ * Ids are split into blocks of {@link CompressedLinkStore#BLOCK_SIZE}. The first id of each block is stored in a skip
+ * table (along with the position of the block), and the remaining ids are stored as variable-length gaps from the id
+ * before them. Because the skip table can be searched without decoding anything, lists can be intersected by decoding
+ * only those blocks that might contain a common id (see {@link #countCommon(CompressedLinkList)}).
+ */
+public class CompressedLinkList {
+
+	private ByteBuffer data ;
+	private int skipStart ;
+	private int blockStart ;
+	private int size ;
+	private int blockCount ;
+
+	/**
+	 * Creates a view of the compressed list that begins at the given position of the given buffer.
+	 *
+	 * @param data the buffer containing the compressed list
+	 * @param position the position of the first byte of the list
+	 */
+	CompressedLinkList(ByteBuffer data, int position) {
+		this.data = data ;
+
+		//read variable-length size
+		int value = 0 ;
+		int shift = 0 ;
+		byte b ;
+		do {
+			b = data.get(position++) ;
+			value |= (b & 0x7F) << shift ;
+			shift += 7 ;
+		} while ((b & 0x80) != 0) ;
+
+		this.size = value ;
+		this.blockCount = (size + CompressedLinkStore.BLOCK_SIZE - 1) / CompressedLinkStore.BLOCK_SIZE ;
+		this.skipStart = position ;
+		this.blockStart = position + (blockCount*8) ;
+	}
+
+	/**
+	 * @return the number of ids in this list
+	 */
+	public int size() {
+		return size ;
+	}
+
+	/**
+	 * Returns true if the given id is contained in this list. At most one block is decoded.
+	 *
+	 * @param id the id to search for
+	 * @return true if the list contains the given id, otherwise false.
+	 */
+	public boolean contains(int id) {
+
+		int block = findBlock(id, 0) ;
+		if (block < 0)
+			return false ;
+
+		int[] ids = new int[CompressedLinkStore.BLOCK_SIZE] ;
+		int length = decodeBlock(block, ids) ;
+
+		for (int i=0 ; i<length ; i++) {
+			if (ids[i] == id)
+				return true ;
+			if (ids[i] > id)
+				return false ;
+		}
+		return false ;
+	}
+
+	/**
+	 * Counts the ids that are found in both this list and the given one.
+	 * <p>
+	 * The shorter list is decoded in full, and each of its ids is located within the longer list by searching the
+	 * longer list's skip table. Only the blocks of the longer list that could contain one of these ids are decoded,
+	 * so intersecting a very long list with a short one costs roughly as much as decoding the short one.
+	 *
+	 * @param list the list to intersect with this one
+	 * @return the number of ids that are common to both lists
+	 */
+	public int countCommon(CompressedLinkList list) {
+
+		CompressedLinkList small = this ;
+		CompressedLinkList large = list ;
+
+		if (small.size > large.size) {
+			small = list ;
+			large = this ;
+		}
+
+		if (small.size == 0)
+			return 0 ;
+
+		int[] smallIds = new int[CompressedLinkStore.BLOCK_SIZE] ;
+		int[] largeIds = new int[CompressedLinkStore.BLOCK_SIZE] ;
+
+		int largeBlock = -1 ;
+		int largeLength = 0 ;
+		int largeIndex = 0 ;
+
+		int common = 0 ;
+
+		for (int smallBlock=0 ; smallBlock<small.blockCount ; smallBlock++) {
+			int smallLength = small.decodeBlock(smallBlock, smallIds) ;
+
+			for (int i=0 ; i<smallLength ; i++) {
+				int id = smallIds[i] ;
+
+				int block = large.findBlock(id, Math.max(largeBlock, 0)) ;
+				if (block < 0)
+					continue ;
+
+				if (block != largeBlock) {
+					largeLength = large.decodeBlock(block, largeIds) ;
+					largeBlock = block ;
+					largeIndex = 0 ;
+				}
+
+				while (largeIndex < largeLength && largeIds[largeIndex] < id)
+					largeIndex++ ;
+
+				if (largeIndex < largeLength && largeIds[largeIndex] == id) {
+					common++ ;
+					largeIndex++ ;
+				}
+
+				//if we have passed the last id of the large list, then nothing else can match
+				if (largeIndex == largeLength && largeBlock == large.blockCount-1)
+					return common ;
+			}
+		}
+
+		return common ;
+	}
+
+	/**
+	 * @return all of the ids in this list, decoded into an array
+	 */
+	public int[] getIds() {
+
+		int[] ids = new int[size] ;
+		int[] block = new int[CompressedLinkStore.BLOCK_SIZE] ;
+
+		int index = 0 ;
+		for (int b=0 ; b<blockCount ; b++) {
+			int length = decodeBlock(b, block) ;
+			System.arraycopy(block, 0, ids, index, length) ;
+			index = index + length ;
+		}
+
+		return ids ;
+	}
+
+	private int getFirstId(int block) {
+		return data.getInt(skipStart + (block*8)) ;
+	}
+
+	/**
+	 * Finds the last block (no earlier than <em>from</em>) whose first id is less than or equal to the given id,
+	 * by galloping forward through the skip table and then searching the range that was overshot.
+	 *
+	 * @return the index of the block that would contain the given id, or -1 if the id precedes block <em>from</em>.
+	 */
+	private int findBlock(int id, int from) {
+
+		if (from >= blockCount || getFirstId(from) > id)
+			return -1 ;
+
+		int low = from ;
+		int step = 1 ;
+		while (low + step < blockCount && getFirstId(low + step) <= id) {
+			low = low + step ;
+			step = step * 2 ;
+		}
+
+		int high = Math.min(low + step, blockCount) - 1 ;
+
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1 ;
+
+			if (getFirstId(mid) <= id)
+				low = mid ;
+			else
+				high = mid - 1 ;
+		}
+
+		return low ;
+	}
+
+	private int decodeBlock(int block, int[] ids) {
+
+		int length = Math.min(CompressedLinkStore.BLOCK_SIZE, size - (block*CompressedLinkStore.BLOCK_SIZE)) ;
+		int position = blockStart + data.getInt(skipStart + (block*8) + 4) ;
+
+		int id = getFirstId(block) ;
+		ids[0] = id ;
+
+		for (int i=1 ; i<length ; i++) {
+			int gap = 0 ;
+			int shift = 0 ;
+			byte b ;
+			do {
+				b = data.get(position++) ;
+				gap |= (b & 0x7F) << shift ;
+				shift += 7 ;
+			} while ((b & 0x80) != 0) ;
+
+			id = id + gap ;
+			ids[i] = id ;
+		}
+
+		return length ;
+	}
+}
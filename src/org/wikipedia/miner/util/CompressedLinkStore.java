@@ -0,0 +1,267 @@
+/*
+ *    CompressedLinkStore.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * @author David Milne
+ *
+ * A read-only store of ordered link lists (typically the links in to pages), compressed so that they take up
+ * a fraction of the space of a {@link LinkStore} and can be intersected quickly. See {@link CompressedLinkList}
+ * for a description of how each list is encoded.
+ * <p>
+ * The lists of all pages are concatenated into a single direct (or memory-mapped) buffer, and an offset buffer
+ * records where the list of each page begins.
+ */
+public class CompressedLinkStore {
+
+	/**
+	 * The number of ids in each block of a compressed list (except the last, which may be shorter).
+	 */
+	public static final int BLOCK_SIZE = 128 ;
+
+	private int[] ids ;
+	private RowIndex rows ;
+
+	private IntBuffer offsets ;
+	private ByteBuffer data ;
+
+	/**
+	 * Creates a store over existing buffers. This is used to wrap buffers that have been memory-mapped from a file,
+	 * and is not needed otherwise; use {@link #compress(LinkStore, ProgressNotifier)} instead.
+	 *
+	 * @param ids the id of the page for each row
+	 * @param offsets ids.length+1 byte offsets, such that the compressed list of row r begins at offsets[r]
+	 * @param data the compressed lists of all rows
+	 */
+	public CompressedLinkStore(int[] ids, IntBuffer offsets, ByteBuffer data) {
+		this.ids = ids ;
+		this.offsets = offsets ;
+		this.data = data ;
+
+		rows = new RowIndex(ids) ;
+	}
+
+	/**
+	 * Compresses all of the lists in the given store. Rows are ordered by page id.
+	 *
+	 * @param links the links to compress
+	 * @param pn an optional progress notifier
+	 * @return a compressed copy of the given links
+	 */
+	public static CompressedLinkStore compress(LinkStore links, ProgressNotifier pn) {
+
+		int pageCount = links.getPageCount() ;
+
+		if (pn == null) pn = new ProgressNotifier(1) ;
+		pn.startTask(pageCount, "compressing links") ;
+
+		int[] rows = new int[pageCount] ;
+		long[] idsAndRows = new long[pageCount] ;
+		for (int row=0 ; row<pageCount ; row++)
+			idsAndRows[row] = ((long)links.getIdForRow(row) << 32) | row ;
+		Arrays.sort(idsAndRows) ;
+
+		int[] ids = new int[pageCount] ;
+		for (int i=0 ; i<pageCount ; i++) {
+			ids[i] = (int)(idsAndRows[i] >> 32) ;
+			rows[i] = (int)idsAndRows[i] ;
+		}
+		idsAndRows = null ;
+
+		IntBuffer offsets = ByteBuffer.allocateDirect((pageCount+1)*4).asIntBuffer() ;
+
+		//start by assuming that each link will take up about two bytes
+		ByteBuffer data = ByteBuffer.allocateDirect(Math.max(1024, (int)Math.min((long)links.getLinkCount()*2, Integer.MAX_VALUE))) ;
+		byte[] scratch = new byte[1024] ;
+
+		for (int i=0 ; i<pageCount ; i++) {
+			offsets.put(data.position()) ;
+
+			LinkList list = links.getLinksForRow(rows[i]) ;
+
+			int size = list.size() ;
+			int blockCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE ;
+
+			//gaps are written to scratch, so that the skip table can be written in front of them
+			if (scratch.length < (size*5) + 5)
+				scratch = new byte[(size*5) + 5] ;
+
+			int[] firstIds = new int[blockCount] ;
+			int[] blockOffsets = new int[blockCount] ;
+
+			int length = 0 ;
+			for (int j=0 ; j<size ; j++) {
+				int id = list.getId(j) ;
+
+				if (j % BLOCK_SIZE == 0) {
+					firstIds[j/BLOCK_SIZE] = id ;
+					blockOffsets[j/BLOCK_SIZE] = length ;
+				} else {
+					length = writeVarInt(id - list.getId(j-1), scratch, length) ;
+				}
+			}
+
+			data = ensureCapacity(data, 5 + (blockCount*8) + length) ;
+
+			int sizeLength = writeVarInt(size, scratch, length) - length ;
+			data.put(scratch, length, sizeLength) ;
+
+			for (int b=0 ; b<blockCount ; b++) {
+				data.putInt(firstIds[b]) ;
+				data.putInt(blockOffsets[b]) ;
+			}
+			data.put(scratch, 0, length) ;
+
+			pn.update() ;
+		}
+		offsets.put(data.position()) ;
+		offsets.flip() ;
+
+		//trim data to size
+		ByteBuffer trimmed = ByteBuffer.allocateDirect(data.position()) ;
+		data.flip() ;
+		trimmed.put(data) ;
+		trimmed.flip() ;
+
+		CompressedLinkStore compressed = new CompressedLinkStore(ids, offsets, trimmed) ;
+		if (links.getOrdinals() != null)
+			compressed.setOrdinals(links.getOrdinals()) ;
+
+		return compressed ;
+	}
+
+	/**
+	 * @return the number of pages that links are stored for
+	 */
+	public int getPageCount() {
+		return ids.length ;
+	}
+
+	/**
+	 * @return the number of bytes taken up by the compressed lists
+	 */
+	public int getByteCount() {
+		return offsets.get(ids.length) ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return true if links are stored for the given page, otherwise false.
+	 */
+	public boolean contains(int id) {
+		return rows.getRow(id) >= 0 ;
+	}
+
+	/**
+	 * Returns the compressed links stored for the given page, as a view into this store.
+	 *
+	 * @param id the id of a page
+	 * @return the links of the given page, or null if no links are stored for it.
+	 */
+	public CompressedLinkList getLinks(int id) {
+
+		int row = rows.getRow(id) ;
+		if (row < 0)
+			return null ;
+
+		return getLinksForRow(row) ;
+	}
+
+	/**
+	 * Indexes the rows of this store by the given ordinals, so that the links of pages that have ordinals can be
+	 * found without hashing. This should be done before the store is shared between threads.
+	 *
+	 * @param ordinals the ordinals of (typically) all pages that links are stored for
+	 */
+	public void setOrdinals(PageOrdinals ordinals) {
+		if (ordinals == null)
+			rows = new RowIndex(ids) ;
+		else
+			rows = new RowIndex(ids, ordinals) ;
+	}
+
+	/**
+	 * @return the ordinals that the rows of this store are indexed by, or null if they are indexed by id alone.
+	 */
+	public PageOrdinals getOrdinals() {
+		return rows.getOrdinals() ;
+	}
+
+	/**
+	 * @param row the index of a row, between 0 and getPageCount()
+	 * @return the id of the page stored in the given row
+	 */
+	public int getIdForRow(int row) {
+		return ids[row] ;
+	}
+
+	/**
+	 * @param row the index of a row, between 0 and getPageCount()
+	 * @return the links of the page stored in the given row, as a view into this store.
+	 */
+	public CompressedLinkList getLinksForRow(int row) {
+		return new CompressedLinkList(data, offsets.get(row)) ;
+	}
+
+	/**
+	 * @param row the index of a row, between 0 and getPageCount()+1
+	 * @return the position at which the compressed list of the given row begins (or, for the last row, where the lists end)
+	 */
+	public int getOffsetForRow(int row) {
+		return offsets.get(row) ;
+	}
+
+	/**
+	 * @return a read-only view of the buffer containing all compressed lists
+	 */
+	public ByteBuffer getData() {
+		ByteBuffer view = data.asReadOnlyBuffer() ;
+		view.clear() ;
+		return view ;
+	}
+
+	private static int writeVarInt(int value, byte[] bytes, int position) {
+		while ((value & ~0x7F) != 0) {
+			bytes[position++] = (byte)((value & 0x7F) | 0x80) ;
+			value = value >>> 7 ;
+		}
+		bytes[position++] = (byte)value ;
+		return position ;
+	}
+
+	private static ByteBuffer ensureCapacity(ByteBuffer buffer, int additional) {
+
+		if (buffer.remaining() >= additional)
+			return buffer ;
+
+		long newCapacity = Math.max((long)buffer.capacity() * 2, (long)buffer.position() + additional) ;
+		if (newCapacity > Integer.MAX_VALUE)
+			throw new IllegalStateException("too many links to compress into a single buffer") ;
+
+		ByteBuffer grown = ByteBuffer.allocateDirect((int)newCapacity) ;
+		buffer.flip() ;
+		grown.put(buffer) ;
+		return grown ;
+	}
+}
@@ -0,0 +1,376 @@
+/*
+ *    ConnectionPool.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Vector;
+
+/**
+ * @author David Milne
+ *
+ * A fixed-size pool of connections to a single database. Connections are opened lazily (up to the size of the pool),
+ * handed out by borrow() and handed back by release(). If every connection is in use, borrow() waits until one is released.
+ * <p>
+ * Connections that have been idle for a while (see setValidationInterval()) are validated before they are handed out,
+ * and are silently replaced if they have gone stale (as mysql connections do after wait_timeout seconds of inactivity).
+ * Connections that were released more recently are handed out as they are, so that busy threads do not pay for an
+ * extra round trip to the server each time they borrow one.
+ * <p>
+ * Each connection also has a cache of prepared statements, which lives (and is closed) with the connection, so that
+ * frequently issued queries only need to be parsed once per connection.
+ * <p>
+ * The pool keeps track of how many connections are in use, and how long threads have had to wait for them, so that
+ * its size can be tuned.
+ */
+public class ConnectionPool {
+
+	/**
+	 * The default time (in milliseconds) that a connection can be idle before it is validated again.
+	 */
+	public static final long DEFAULT_VALIDATION_INTERVAL = 30000 ;
+
+	private String url ;
+	private int size ;
+	private long maxWait ;
+	private long validationInterval = DEFAULT_VALIDATION_INTERVAL ;
+
+	private LinkedList<IdleConnection> idle = new LinkedList<IdleConnection>() ;
+	private IdentityHashMap<Connection, HashMap<String,PreparedStatement>> statementCaches = new IdentityHashMap<Connection, HashMap<String,PreparedStatement>>() ;
+	private int activeCount = 0 ;
+	private boolean closed = false ;
+
+	private int peakActiveCount = 0 ;
+	private long borrowCount = 0 ;
+	private long waitCount = 0 ;
+	private long totalWaitTime = 0 ;
+	private long maxWaitTime = 0 ;
+
+	/**
+	 * Creates a new, empty pool. No connections are opened until they are borrowed.
+	 *
+	 * @param url the jdbc url of the database
+	 * @param size the maximum number of connections that can be open at once
+	 * @param maxWait the maximum time (in milliseconds) to wait for a connection to be released, or 0 to wait indefinitely
+	 */
+	public ConnectionPool(String url, int size, long maxWait) {
+
+		if (size < 1)
+			throw new IllegalArgumentException("a pool must hold at least one connection") ;
+
+		this.url = url ;
+		this.size = size ;
+		this.maxWait = maxWait ;
+	}
+
+	/**
+	 * Hands out a valid connection, opening a new one if none are idle and the pool is not yet full, or otherwise
+	 * waiting until one is released.
+	 *
+	 * @return a valid connection, which must be handed back via release() or discard() once it is no longer needed.
+	 * @throws SQLException if a connection cannot be opened, or if none is released within the maximum wait time.
+	 */
+	public Connection borrow() throws SQLException {
+
+		Connection connection = null ;
+		boolean stale = false ;
+
+		synchronized(this) {
+			long start = System.currentTimeMillis() ;
+
+			while (!closed && idle.isEmpty() && activeCount >= size) {
+				long waited = System.currentTimeMillis() - start ;
+
+				if (maxWait > 0 && waited >= maxWait)
+					throw new SQLException("timed out after " + waited + "ms waiting for one of " + size + " database connections") ;
+
+				try {
+					wait(maxWait > 0 ? maxWait - waited : 0) ;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt() ;
+					throw new SQLException("interrupted while waiting for a database connection") ;
+				}
+			}
+
+			if (closed)
+				throw new SQLException("connection pool has been closed") ;
+
+			long waited = System.currentTimeMillis() - start ;
+			borrowCount++ ;
+			if (waited > 0) {
+				waitCount++ ;
+				totalWaitTime = totalWaitTime + waited ;
+				maxWaitTime = Math.max(maxWaitTime, waited) ;
+			}
+
+			if (!idle.isEmpty()) {
+				IdleConnection ic = idle.removeFirst() ;
+				connection = ic.connection ;
+				stale = System.currentTimeMillis() - ic.since > validationInterval ;
+			}
+
+			activeCount++ ;
+			peakActiveCount = Math.max(peakActiveCount, activeCount) ;
+		}
+
+		// connections are validated and opened outside of the lock, so that other threads are not held up
+		try {
+			if (connection != null && stale && !isValid(connection)) {
+				closeQuietly(connection) ;
+				connection = null ;
+			}
+
+			if (connection == null)
+				connection = DriverManager.getConnection(url) ;
+
+			return connection ;
+		} catch (SQLException e) {
+			synchronized(this) {
+				activeCount-- ;
+				notifyAll() ;
+			}
+			throw e ;
+		}
+	}
+
+	/**
+	 * Hands a borrowed connection back to the pool, so that it can be reused.
+	 *
+	 * @param connection a connection that was obtained from borrow()
+	 */
+	public void release(Connection connection) {
+
+		boolean reusable ;
+		try {
+			reusable = !connection.isClosed() ;
+
+			// every connection is handed out in the same state
+			if (reusable && !connection.getAutoCommit()) {
+				connection.rollback() ;
+				connection.setAutoCommit(true) ;
+			}
+		} catch (SQLException e) {
+			reusable = false ;
+		}
+
+		synchronized(this) {
+			activeCount-- ;
+
+			if (reusable && !closed) 
+				idle.addFirst(new IdleConnection(connection)) ;
+			else
+				reusable = false ;
+
+			notifyAll() ;
+		}
+
+		// closing can take a while if the network is slow, so other threads are not held up
+		if (!reusable)
+			closeQuietly(connection) ;
+	}
+
+	/**
+	 * Closes a borrowed connection that is known to be broken, rather than handing it back to the pool.
+	 *
+	 * @param connection a connection that was obtained from borrow()
+	 */
+	public void discard(Connection connection) {
+		closeQuietly(connection) ;
+
+		synchronized(this) {
+			activeCount-- ;
+			notifyAll() ;
+		}
+	}
+
+	/**
+	 * Closes all idle connections, and any that are released from now on. Threads that are waiting for a connection
+	 * will fail.
+	 */
+	public void close() {
+
+		Vector<IdleConnection> closing ;
+		synchronized(this) {
+			closed = true ;
+
+			closing = new Vector<IdleConnection>(idle) ;
+			idle.clear() ;
+			notifyAll() ;
+		}
+
+		for (IdleConnection ic:closing)
+			closeQuietly(ic.connection) ;
+	}
+
+	/**
+	 * Returns the prepared statements that have been cached for the given connection, indexed by name. The cache 
+	 * should only be used by the thread that has borrowed the connection, and is discarded when the connection is closed.
+	 * 
+	 * @param connection a connection that was obtained from borrow()
+	 * @return the prepared statements cached for the connection
+	 */
+	public synchronized HashMap<String,PreparedStatement> getStatementCache(Connection connection) {
+		HashMap<String,PreparedStatement> cache = statementCaches.get(connection) ;
+
+		if (cache == null) {
+			cache = new HashMap<String,PreparedStatement>() ;
+			statementCaches.put(connection, cache) ;
+		}
+		return cache ;
+	}
+
+	/**
+	 * @return the maximum number of connections that can be open at once
+	 */
+	public int getSize() {
+		return size ;
+	}
+
+	/**
+	 * @return the time (in milliseconds) that a connection can be idle before it is validated again
+	 */
+	public long getValidationInterval() {
+		return validationInterval ;
+	}
+
+	/**
+	 * Sets the time that a connection can be idle before it is validated again. This should be well under the
+	 * server's wait_timeout.
+	 *
+	 * @param validationInterval the time (in milliseconds) that a connection can be idle before it is validated again, or 0 if connections should be validated every time they are borrowed
+	 */
+	public synchronized void setValidationInterval(long validationInterval) {
+		this.validationInterval = validationInterval ;
+	}
+
+	/**
+	 * @return the number of connections that are currently borrowed
+	 */
+	public synchronized int getActiveCount() {
+		return activeCount ;
+	}
+
+	/**
+	 * @return the number of open connections that are waiting to be borrowed
+	 */
+	public synchronized int getIdleCount() {
+		return idle.size() ;
+	}
+
+	/**
+	 * @return the largest number of connections that have been borrowed at once
+	 */
+	public synchronized int getPeakActiveCount() {
+		return peakActiveCount ;
+	}
+
+	/**
+	 * @return the number of times a connection has been borrowed
+	 */
+	public synchronized long getBorrowCount() {
+		return borrowCount ;
+	}
+
+	/**
+	 * @return the number of times a thread has had to wait for a connection to be released
+	 */
+	public synchronized long getWaitCount() {
+		return waitCount ;
+	}
+
+	/**
+	 * @return the total time (in milliseconds) that threads have spent waiting for connections to be released
+	 */
+	public synchronized long getTotalWaitTime() {
+		return totalWaitTime ;
+	}
+
+	/**
+	 * @return the longest time (in milliseconds) that any thread has waited for a connection to be released
+	 */
+	public synchronized long getMaxWaitTime() {
+		return maxWaitTime ;
+	}
+
+	/**
+	 * @return the average time (in milliseconds) spent waiting for a connection, over all borrows
+	 */
+	public synchronized double getAverageWaitTime() {
+		if (borrowCount == 0)
+			return 0 ;
+
+		return (double)totalWaitTime / borrowCount ;
+	}
+
+	public synchronized String toString() {
+		return activeCount + " of " + size + " connections active (" + idle.size() + " idle, peak " + peakActiveCount + "), "
+			+ borrowCount + " borrowed, " + waitCount + " waited (avg " + getAverageWaitTime() + "ms, max " + maxWaitTime + "ms)" ;
+	}
+
+	private boolean isValid(Connection connection) {
+		try {
+			if (connection.isClosed())
+				return false ;
+
+			Statement stmt = connection.createStatement() ;
+			try {
+				ResultSet rs = stmt.executeQuery("SELECT 1") ;
+				rs.close() ;
+			} finally {
+				stmt.close() ;
+			}
+			return true ;
+		} catch (SQLException e) {
+			return false ;
+		}
+	}
+
+	private void closeQuietly(Connection connection) {
+
+		// closing the connection closes its statements too
+		synchronized(this) {
+			statementCaches.remove(connection) ;
+		}
+
+		try {
+			connection.close() ;
+		} catch (SQLException e) {} ;
+	}
+
+	/**
+	 * An idle connection, and the time (in milliseconds) at which it was released.
+	 */
+	private static class IdleConnection {
+		Connection connection ;
+		long since ;
+
+		IdleConnection(Connection connection) {
+			this.connection = connection ;
+			this.since = System.currentTimeMillis() ;
+		}
+	}
+}
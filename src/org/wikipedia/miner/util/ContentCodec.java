@@ -0,0 +1,197 @@
+/*
+ *    ContentCodec.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * @author David Milne
+ *
+ * Compresses and decompresses the content (raw media wiki markup) of pages, as stored in the content table of a
+ * Wikipedia database or in a content table of a SortedTableStore.
+ * <p>
+ * Compressed content starts with a marker byte (0xFF, which never occurs in UTF-8) and the length of the uncompressed
+ * markup, followed by a deflate stream. Content that does not start with the marker is plain UTF-8, so compressed and
+ * uncompressed content can be read in the same way, and tables that were imported before compression was available
+ * still work.
+ * <p>
+ * Pages are compressed one at a time, so that each can be retrieved alone. Individual pages are too short to build up
+ * much of a history for deflate to refer back to, so a preset dictionary of markup that is common to most pages
+ * (see DEFAULT_DICTIONARY) is used to start each one off. Content must be decompressed with the same dictionary that it
+ * was compressed with. Decompression can also stop after the first few bytes of markup (e.g. when only the first
+ * paragraph is needed), so that the rest of the page never has to be inflated at all.
+ */
+public class ContentCodec {
+
+	/**
+	 * Markup that is common to most pages. Deflate prefers matches that are near the end of the dictionary, so the
+	 * most common fragments come last.
+	 */
+	public static final String DEFAULT_DICTIONARY =
+		"{{Coord|display=title}} {{DEFAULTSORT:}} {{Commons category|}} {{stub}} {{Reflist}} {{reflist|2}} "
+		+ "<gallery></gallery> <br /> &nbsp; <small></small> <sup></sup> {{Main|}} {{See also|}} "
+		+ "{| class=\"wikitable\"\n|-\n! \n|}\n"
+		+ "[[File:|thumb|right|]] [[Image:|thumb|]] "
+		+ "{{Infobox\n| name = \n| image = \n| caption = \n| birth_date = {{birth date|df=yes}}\n| birth_place = \n| death_date = \n| location = \n| website = \n}}\n"
+		+ "{{cite book | last = | first = | title = | publisher = | year = | isbn = | pages = }} "
+		+ "{{cite news |title= |url=http://www. |newspaper= |date= |accessdate= }} "
+		+ "{{cite web|url=http://www.|title=|publisher=|date=|accessdate=}} "
+		+ "<ref name=\"\"/> <ref>{{cite web |url=http://www. |title= |accessdate= }}</ref> "
+		+ "\n\n== See also ==\n* [[]]\n\n== Notes ==\n\n== References ==\n{{reflist}}\n\n== Further reading ==\n"
+		+ "\n\n== External links ==\n* [http://www. ]\n\n"
+		+ "[[Category:]]\n[[Category:]]\n[[Category:]]\n"
+		+ " the of and in a to was is for as on by with from that at his an which were are also has been its first "
+		+ "'''''' is a in the [[]] [[|]] " ;
+
+	private static final byte MARKER = (byte)0xFF ;
+	private static final int HEADER_SIZE = 5 ;
+
+	private byte[] dictionary ;
+
+	/**
+	 * Creates a codec that uses the default dictionary.
+	 */
+	public ContentCodec() {
+		this(toBytes(DEFAULT_DICTIONARY)) ;
+	}
+
+	/**
+	 * Creates a codec that uses the given dictionary.
+	 *
+	 * @param dictionary markup that is common to most pages, or null if no dictionary should be used.
+	 */
+	public ContentCodec(byte[] dictionary) {
+		this.dictionary = dictionary ;
+	}
+
+	/**
+	 * @param markup the content of a page
+	 * @return the compressed content
+	 */
+	public byte[] compress(String markup) {
+
+		byte[] raw = toBytes(markup) ;
+
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION) ;
+		try {
+			if (dictionary != null)
+				deflater.setDictionary(dictionary) ;
+
+			deflater.setInput(raw) ;
+			deflater.finish() ;
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_SIZE + (raw.length/3) + 64) ;
+			out.write(MARKER) ;
+			out.write(raw.length >>> 24) ;
+			out.write(raw.length >>> 16) ;
+			out.write(raw.length >>> 8) ;
+			out.write(raw.length) ;
+
+			byte[] buffer = new byte[8192] ;
+			while (!deflater.finished()) {
+				int length = deflater.deflate(buffer) ;
+				out.write(buffer, 0, length) ;
+			}
+
+			return out.toByteArray() ;
+		} finally {
+			deflater.end() ;
+		}
+	}
+
+	/**
+	 * @param data content, as stored
+	 * @return true if the given content is compressed, otherwise false.
+	 */
+	public static boolean isCompressed(byte[] data) {
+		return data != null && data.length >= HEADER_SIZE && data[0] == MARKER ;
+	}
+
+	/**
+	 * @param data content, as stored (either compressed or plain UTF-8)
+	 * @return the full content
+	 * @throws IOException if the content is corrupt, or was compressed with a different dictionary
+	 */
+	public String decompress(byte[] data) throws IOException {
+		return decompress(data, Integer.MAX_VALUE) ;
+	}
+
+	/**
+	 * Decompresses no more than the given number of bytes of content. Note that the last character may be cut short,
+	 * if it takes up more than one byte.
+	 *
+	 * @param data content, as stored (either compressed or plain UTF-8)
+	 * @param maxBytes the maximum number of bytes of (uncompressed) content to decompress
+	 * @return the start of the content
+	 * @throws IOException if the content is corrupt, or was compressed with a different dictionary
+	 */
+	public String decompress(byte[] data, int maxBytes) throws IOException {
+
+		if (data == null)
+			return null ;
+
+		if (!isCompressed(data))
+			return new String(data, 0, Math.min(data.length, maxBytes), "UTF-8") ;
+
+		int rawLength = ((data[1] & 0xff) << 24) | ((data[2] & 0xff) << 16) | ((data[3] & 0xff) << 8) | (data[4] & 0xff) ;
+		byte[] raw = new byte[Math.min(rawLength, maxBytes)] ;
+
+		Inflater inflater = new Inflater() ;
+		try {
+			inflater.setInput(data, HEADER_SIZE, data.length - HEADER_SIZE) ;
+
+			int length = 0 ;
+			while (length < raw.length && !inflater.finished()) {
+				int inflated = inflater.inflate(raw, length, raw.length - length) ;
+				length = length + inflated ;
+
+				if (inflated == 0) {
+					if (inflater.needsDictionary()) {
+						if (dictionary == null)
+							throw new IOException("content was compressed with a dictionary, but none was given") ;
+
+						try {
+							inflater.setDictionary(dictionary) ;
+						} catch (IllegalArgumentException e) {
+							throw new IOException("content was compressed with a different dictionary") ;
+						}
+					} else if (inflater.needsInput()) {
+						throw new IOException("compressed content is truncated") ;
+					}
+				}
+			}
+
+			return new String(raw, 0, length, "UTF-8") ;
+		} catch (DataFormatException e) {
+			throw new IOException("compressed content is corrupt: " + e.getMessage()) ;
+		} finally {
+			inflater.end() ;
+		}
+	}
+
+	private static byte[] toBytes(String s) {
+		try {
+			return s.getBytes("UTF-8") ;
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e) ;
+		}
+	}
+}
@@ -0,0 +1,358 @@
+/*
+ *    ExternalSorter.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * @author David Milne
+ *
+ * Sorts more items than can be held in memory at once. Items are gathered into a buffer of fixed size, and whenever
+ * the buffer fills it is sorted and spilled to a temporary file as a run. Once all items have been added, the runs
+ * are merged into a single sorted sequence, reading only one item from each run at a time.
+ * <p>
+ * An optional {@link Combiner} can be given to merge items that are equal (according to the comparator). It is
+ * applied before each run is spilled and again while runs are merged, so the items that are read back are unique,
+ * and items that are frequently repeated take up little space on disk.
+ */
+public class ExternalSorter<T> {
+
+	/**
+	 * The maximum number of runs that are merged at once. If more runs than this are spilled, they are merged in
+	 * several passes, so that the number of files that are open at once is bounded.
+	 */
+	public static final int MAX_MERGE_FAN_IN = 64 ;
+
+	private Comparator<T> comparator ;
+	private Serializer<T> serializer ;
+	private Combiner<T> combiner ;
+	private int bufferSize ;
+	private File tempDir ;
+
+	private ArrayList<T> buffer ;
+	private Vector<File> runs = new Vector<File>() ;
+	private long itemsAdded = 0 ;
+
+	/**
+	 * Writes items to, and reads them from, the temporary files that runs are spilled to.
+	 */
+	public interface Serializer<T> {
+
+		/**
+		 * @param item the item to write
+		 * @param out the stream to write it to
+		 * @throws IOException if the item cannot be written
+		 */
+		public void write(T item, DataOutputStream out) throws IOException ;
+
+		/**
+		 * @param in the stream to read from
+		 * @return the next item in the stream
+		 * @throws IOException if the item cannot be read
+		 */
+		public T read(DataInputStream in) throws IOException ;
+	}
+
+	/**
+	 * Merges items that are equal, such as two counts for the same key.
+	 */
+	public interface Combiner<T> {
+
+		/**
+		 * @param a an item
+		 * @param b another item, which the comparator considers equal to the first
+		 * @return the merged item (which may simply be <em>a</em>, modified)
+		 */
+		public T combine(T a, T b) ;
+	}
+
+	/**
+	 * Creates a new, empty sorter.
+	 *
+	 * @param comparator the order in which items should be returned
+	 * @param serializer a serializer for spilling items to disk
+	 * @param combiner an optional combiner for merging equal items (if this is null, equal items are all returned)
+	 * @param bufferSize the number of items to hold in memory before spilling them to disk
+	 * @param tempDir the directory in which to create temporary files, or null to use the default temporary directory
+	 */
+	public ExternalSorter(Comparator<T> comparator, Serializer<T> serializer, Combiner<T> combiner, int bufferSize, File tempDir) {
+
+		if (bufferSize < 1)
+			throw new IllegalArgumentException("the buffer must hold at least one item") ;
+
+		this.comparator = comparator ;
+		this.serializer = serializer ;
+		this.combiner = combiner ;
+		this.bufferSize = bufferSize ;
+		this.tempDir = tempDir ;
+
+		buffer = new ArrayList<T>(Math.min(bufferSize, 65536)) ;
+	}
+
+	/**
+	 * Adds an item to be sorted. This may spill a run to disk.
+	 *
+	 * @param item the item to add
+	 * @throws IOException if a run cannot be written
+	 */
+	public void add(T item) throws IOException {
+		buffer.add(item) ;
+		itemsAdded++ ;
+
+		if (buffer.size() >= bufferSize)
+			spill() ;
+	}
+
+	/**
+	 * @return the number of items that have been added
+	 */
+	public long getItemsAdded() {
+		return itemsAdded ;
+	}
+
+	/**
+	 * @return the number of runs that have been spilled to disk so far
+	 */
+	public int getRunCount() {
+		return runs.size() ;
+	}
+
+	/**
+	 * Finishes sorting, and returns a reader over all items in order. No more items can be added after this is called,
+	 * and the reader must be closed once it is finished with, so that temporary files are deleted.
+	 *
+	 * @return a reader over all items that have been added, in order
+	 * @throws IOException if the runs cannot be read
+	 */
+	public Reader<T> sort() throws IOException {
+
+		// if nothing has been spilled, there is no need to touch the disk at all
+		if (runs.isEmpty()) {
+			List<T> sorted = sortBuffer() ;
+			buffer = null ;
+			return new Reader<T>(sorted.iterator(), null, null, null, null) ;
+		}
+
+		if (!buffer.isEmpty())
+			spill() ;
+		buffer = null ;
+
+		while (runs.size() > MAX_MERGE_FAN_IN) {
+			Vector<File> group = new Vector<File>(runs.subList(0, MAX_MERGE_FAN_IN)) ;
+			runs.subList(0, MAX_MERGE_FAN_IN).clear() ;
+			runs.add(mergeRuns(group)) ;
+		}
+
+		return new Reader<T>(null, runs, comparator, serializer, combiner) ;
+	}
+
+	private List<T> sortBuffer() {
+
+		Collections.sort(buffer, comparator) ;
+
+		if (combiner == null || buffer.isEmpty())
+			return buffer ;
+
+		ArrayList<T> combined = new ArrayList<T>(buffer.size()) ;
+
+		T last = buffer.get(0) ;
+		for (int i=1 ; i<buffer.size() ; i++) {
+			T item = buffer.get(i) ;
+
+			if (comparator.compare(last, item) == 0) {
+				last = combiner.combine(last, item) ;
+			} else {
+				combined.add(last) ;
+				last = item ;
+			}
+		}
+		combined.add(last) ;
+
+		return combined ;
+	}
+
+	private void spill() throws IOException {
+
+		List<T> sorted = sortBuffer() ;
+
+		File run = File.createTempFile("wm_sort", ".run", tempDir) ;
+		run.deleteOnExit() ;
+		runs.add(run) ;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 65536)) ;
+		try {
+			out.writeInt(sorted.size()) ;
+			for (T item:sorted)
+				serializer.write(item, out) ;
+		} finally {
+			out.close() ;
+		}
+
+		buffer.clear() ;
+	}
+
+	private File mergeRuns(Vector<File> group) throws IOException {
+
+		File run = File.createTempFile("wm_sort", ".run", tempDir) ;
+		run.deleteOnExit() ;
+
+		// the number of items is not known until they have been merged, so it is written over a placeholder afterwards
+		RandomAccessFile file = new RandomAccessFile(run, "rw") ;
+		Reader<T> reader = new Reader<T>(null, group, comparator, serializer, combiner) ;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.getFD()), 65536)) ;
+			out.writeInt(0) ;
+
+			int count = 0 ;
+			T item ;
+			while ((item = reader.next()) != null) {
+				serializer.write(item, out) ;
+				count++ ;
+			}
+			out.flush() ;
+
+			file.seek(0) ;
+			file.writeInt(count) ;
+		} finally {
+			reader.close() ;
+			file.close() ;
+		}
+
+		return run ;
+	}
+
+	/**
+	 * Reads the items of an {@link ExternalSorter} in order, merging its runs as it goes.
+	 */
+	public static class Reader<T> {
+
+		private Iterator<T> inMemory ;
+
+		private Vector<File> runs ;
+		private Comparator<T> comparator ;
+		private Serializer<T> serializer ;
+		private Combiner<T> combiner ;
+
+		private DataInputStream[] inputs ;
+		private int[] remaining ;
+		private PriorityQueue<Head<T>> heads ;
+
+		private Reader(Iterator<T> inMemory, Vector<File> runs, final Comparator<T> comparator, Serializer<T> serializer, Combiner<T> combiner) throws IOException {
+			this.inMemory = inMemory ;
+
+			if (runs == null)
+				return ;
+
+			this.runs = runs ;
+			this.comparator = comparator ;
+			this.serializer = serializer ;
+			this.combiner = combiner ;
+
+			inputs = new DataInputStream[runs.size()] ;
+			remaining = new int[runs.size()] ;
+
+			// ties are broken by run, so that equal items are returned in the order they were added
+			heads = new PriorityQueue<Head<T>>(Math.max(1, runs.size()), new Comparator<Head<T>>() {
+				public int compare(Head<T> a, Head<T> b) {
+					int c = comparator.compare(a.item, b.item) ;
+					if (c != 0)
+						return c ;
+					return a.run - b.run ;
+				}
+			}) ;
+
+			try {
+				for (int r=0 ; r<runs.size() ; r++) {
+					inputs[r] = new DataInputStream(new BufferedInputStream(new FileInputStream(runs.get(r)), 65536)) ;
+					remaining[r] = inputs[r].readInt() ;
+					advance(r) ;
+				}
+			} catch (IOException e) {
+				close() ;
+				throw e ;
+			}
+		}
+
+		/**
+		 * @return the next item, or null if all items have been read.
+		 * @throws IOException if the runs cannot be read
+		 */
+		public T next() throws IOException {
+
+			if (inMemory != null)
+				return inMemory.hasNext() ? inMemory.next() : null ;
+
+			Head<T> head = heads.poll() ;
+			if (head == null)
+				return null ;
+
+			T item = head.item ;
+			advance(head.run) ;
+
+			if (combiner != null) {
+				while (!heads.isEmpty() && comparator.compare(item, heads.peek().item) == 0) {
+					Head<T> equal = heads.poll() ;
+					item = combiner.combine(item, equal.item) ;
+					advance(equal.run) ;
+				}
+			}
+
+			return item ;
+		}
+
+		/**
+		 * Closes and deletes all temporary files.
+		 */
+		public void close() {
+
+			if (runs == null)
+				return ;
+
+			for (int r=0 ; r<runs.size() ; r++) {
+				if (inputs[r] != null) {
+					try {
+						inputs[r].close() ;
+					} catch (IOException e) {} ;
+				}
+				runs.get(r).delete() ;
+			}
+			runs = null ;
+		}
+
+		private void advance(int run) throws IOException {
+			if (remaining[run] == 0)
+				return ;
+
+			remaining[run]-- ;
+			heads.add(new Head<T>(serializer.read(inputs[run]), run)) ;
+		}
+	}
+
+	private static class Head<T> {
+		T item ;
+		int run ;
+
+		Head(T item, int run) {
+			this.item = item ;
+			this.run = run ;
+		}
+	}
+}
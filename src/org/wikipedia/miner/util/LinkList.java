@@ -0,0 +1,240 @@
+/*
+ *    LinkList.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.nio.IntBuffer;
+
+/**
+ * @author David Milne
+ *
+ * A read-only view of an ordered list of page ids (and optionally a count for each id), such as the links in to
+ * or out from a page. The view does not copy anything; it simply points into the buffers it was created from,
+ * which may be ordinary arrays, direct buffers, or memory-mapped files.
+ */
+public class LinkList {
+
+	private IntBuffer ids ;
+	private IntBuffer counts ;
+	private int start ;
+	private int length ;
+
+	/**
+	 * Creates a view of <em>length</em> ids (and counts) starting at index <em>start</em> of the given buffers.
+	 * Absolute gets are used throughout, so the positions and limits of the buffers are ignored.
+	 *
+	 * @param ids the buffer containing ids
+	 * @param counts the buffer containing counts (may be null, if there are no counts)
+	 * @param start the index of the first id in this list
+	 * @param length the number of ids in this list
+	 */
+	public LinkList(IntBuffer ids, IntBuffer counts, int start, int length) {
+		this.ids = ids ;
+		this.counts = counts ;
+		this.start = start ;
+		this.length = length ;
+	}
+
+	/**
+	 * Creates a view of an ordered array of ids, without counts.
+	 *
+	 * @param ids an ordered array of ids
+	 */
+	public LinkList(int[] ids) {
+		this(IntBuffer.wrap(ids), null, 0, ids.length) ;
+	}
+
+	/**
+	 * Creates a view of parallel arrays of ordered ids and counts.
+	 *
+	 * @param ids an ordered array of ids
+	 * @param counts an array of counts, one for each id
+	 */
+	public LinkList(int[] ids, int[] counts) {
+		this(IntBuffer.wrap(ids), IntBuffer.wrap(counts), 0, ids.length) ;
+	}
+
+	/**
+	 * @return the number of ids in this list
+	 */
+	public int size() {
+		return length ;
+	}
+
+	/**
+	 * @param index the index of the id of interest
+	 * @return the id found at the given index
+	 */
+	public int getId(int index) {
+		return ids.get(start + index) ;
+	}
+
+	/**
+	 * @return true if this list stores a count alongside each id, otherwise false.
+	 */
+	public boolean hasCounts() {
+		return counts != null ;
+	}
+
+	/**
+	 * @param index the index of the count of interest
+	 * @return the count found at the given index
+	 * @throws UnsupportedOperationException if this list does not store counts
+	 */
+	public int getCount(int index) {
+		if (counts == null)
+			throw new UnsupportedOperationException("this list does not store counts") ;
+
+		return counts.get(start + index) ;
+	}
+
+	/**
+	 * Returns true if the given id is contained in this list. The list must be ordered by ascending id
+	 * (as all link lists are), because a binary search is used.
+	 *
+	 * @param id the id to search for
+	 * @return true if the list contains the given id, otherwise false.
+	 */
+	public boolean contains(int id) {
+		return indexOf(id) >= 0 ;
+	}
+
+	/**
+	 * Locates the given id in this list. The list must be ordered by ascending id
+	 * (as all link lists are), because a binary search is used.
+	 *
+	 * @param id the id to search for
+	 * @return the index of the given id, or -1 if the list does not contain it.
+	 */
+	public int indexOf(int id) {
+
+		int low = 0 ;
+		int high = length-1 ;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1 ;
+			int midId = getId(mid) ;
+
+			if (midId < id)
+				low = mid + 1 ;
+			else if (midId > id)
+				high = mid - 1 ;
+			else
+				return mid ;
+		}
+		return -1 ;
+	}
+
+	/**
+	 * Encodes this list as a compact array of bytes, as stored in the packed link tables of a Wikipedia database.
+	 * <p>
+	 * The size of the list is written first, followed by each id as the gap from the id before it (the first id is
+	 * written as is), and then (if the list has counts) each count. All values are written as variable-length integers,
+	 * 7 bits to a byte, so a typical link list takes one or two bytes per id.
+	 *
+	 * @return the encoded list
+	 */
+	public byte[] pack() {
+
+		byte[] bytes = new byte[5 + (length * (counts == null ? 5 : 10))] ;
+
+		int position = writeVarInt(length, bytes, 0) ;
+
+		int lastId = 0 ;
+		for (int i=0 ; i<length ; i++) {
+			int id = getId(i) ;
+			position = writeVarInt(id - lastId, bytes, position) ;
+			lastId = id ;
+		}
+
+		if (counts != null) {
+			for (int i=0 ; i<length ; i++)
+				position = writeVarInt(getCount(i), bytes, position) ;
+		}
+
+		byte[] packed = new byte[position] ;
+		System.arraycopy(bytes, 0, packed, 0, position) ;
+		return packed ;
+	}
+
+	/**
+	 * Decodes a list that was encoded by {@link #pack()}.
+	 *
+	 * @param packed the encoded list
+	 * @param withCounts true if the list was encoded with counts, otherwise false.
+	 * @return the decoded list
+	 */
+	public static LinkList unpack(byte[] packed, boolean withCounts) {
+
+		if (packed == null || packed.length == 0)
+			return withCounts ? new LinkList(new int[0], new int[0]) : new LinkList(new int[0]) ;
+
+		int[] position = {0} ;
+		int size = readVarInt(packed, position) ;
+
+		int[] ids = new int[size] ;
+		int lastId = 0 ;
+		for (int i=0 ; i<size ; i++) {
+			lastId = lastId + readVarInt(packed, position) ;
+			ids[i] = lastId ;
+		}
+
+		if (!withCounts)
+			return new LinkList(ids) ;
+
+		int[] counts = new int[size] ;
+		for (int i=0 ; i<size ; i++)
+			counts[i] = readVarInt(packed, position) ;
+
+		return new LinkList(ids, counts) ;
+	}
+
+	private static int writeVarInt(int value, byte[] bytes, int position) {
+		while ((value & ~0x7F) != 0) {
+			bytes[position++] = (byte)((value & 0x7F) | 0x80) ;
+			value = value >>> 7 ;
+		}
+		bytes[position++] = (byte)value ;
+		return position ;
+	}
+
+	private static int readVarInt(byte[] bytes, int[] position) {
+		int value = 0 ;
+		int shift = 0 ;
+		byte b ;
+		do {
+			b = bytes[position[0]++] ;
+			value |= (b & 0x7F) << shift ;
+			shift += 7 ;
+		} while ((b & 0x80) != 0) ;
+
+		return value ;
+	}
+
+	/**
+	 * @return a copy of the ids in this list, as an array
+	 */
+	public int[] getIds() {
+		int[] copy = new int[length] ;
+		for (int i=0 ; i<length ; i++)
+			copy[i] = ids.get(start + i) ;
+
+		return copy ;
+	}
+}
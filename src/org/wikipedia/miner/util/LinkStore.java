@@ -0,0 +1,283 @@
+/*
+ *    LinkStore.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import gnu.trove.TIntArrayList;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * @author David Milne
+ *
+ * A compact, read-only store of the links in to or out from a set of pages, held in compressed sparse row (CSR) form.
+ * Rather than keeping a separate array for every page, all link targets are concatenated into a single flat buffer
+ * (and optionally a parallel buffer of counts), and an offset buffer records where each page's links begin and end.
+ * <p>
+ * The buffers are allocated outside of the java heap (or are memory-mapped from a file), so the store does not
+ * contribute to garbage collection pauses, and links are handed out as zero-copy {@link LinkList} views. Note that
+ * the amount of direct memory available to the JVM may need to be raised (via -XX:MaxDirectMemorySize) when caching
+ * the links of a large wikipedia.
+ */
+public class LinkStore {
+
+	private int[] ids ;
+	private RowIndex rows ;
+
+	private IntBuffer offsets ;
+	private IntBuffer targets ;
+	private IntBuffer counts ;
+
+	/**
+	 * Creates a store over existing buffers. This is used to wrap buffers that have been memory-mapped from a file,
+	 * and is not needed otherwise; use a {@link Builder} instead.
+	 *
+	 * @param ids the id of the page for each row
+	 * @param offsets ids.length+1 offsets, such that the links of row r are found from offsets[r] (inclusive) to offsets[r+1] (exclusive)
+	 * @param targets the ids of all link targets, ordered by row and then by target id
+	 * @param counts the count for each link target (may be null, if no counts are stored)
+	 */
+	public LinkStore(int[] ids, IntBuffer offsets, IntBuffer targets, IntBuffer counts) {
+		this.ids = ids ;
+		this.offsets = offsets ;
+		this.targets = targets ;
+		this.counts = counts ;
+
+		rows = new RowIndex(ids) ;
+	}
+
+	/**
+	 * @return the number of pages that links are stored for
+	 */
+	public int getPageCount() {
+		return ids.length ;
+	}
+
+	/**
+	 * @return the total number of links stored
+	 */
+	public int getLinkCount() {
+		return offsets.get(ids.length) ;
+	}
+
+	/**
+	 * @return true if a count is stored alongside each link, otherwise false.
+	 */
+	public boolean hasCounts() {
+		return counts != null ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return true if links are stored for the given page, otherwise false.
+	 */
+	public boolean contains(int id) {
+		return rows.getRow(id) >= 0 ;
+	}
+
+	/**
+	 * Returns the links stored for the given page, as a view into this store.
+	 *
+	 * @param id the id of a page
+	 * @return the links of the given page, or null if no links are stored for it.
+	 */
+	public LinkList getLinks(int id) {
+
+		int row = rows.getRow(id) ;
+		if (row < 0)
+			return null ;
+
+		return getLinksForRow(row) ;
+	}
+
+	/**
+	 * Indexes the rows of this store by the given ordinals, so that the links of pages that have ordinals can be
+	 * found without hashing. This should be done before the store is shared between threads.
+	 *
+	 * @param ordinals the ordinals of (typically) all pages that links are stored for
+	 */
+	public void setOrdinals(PageOrdinals ordinals) {
+		if (ordinals == null)
+			rows = new RowIndex(ids) ;
+		else
+			rows = new RowIndex(ids, ordinals) ;
+	}
+
+	/**
+	 * @return the ordinals that the rows of this store are indexed by, or null if they are indexed by id alone.
+	 */
+	public PageOrdinals getOrdinals() {
+		return rows.getOrdinals() ;
+	}
+
+	/**
+	 * @param row the index of a row, between 0 and getPageCount()
+	 * @return the id of the page stored in the given row
+	 */
+	public int getIdForRow(int row) {
+		return ids[row] ;
+	}
+
+	/**
+	 * @param row the index of a row, between 0 and getPageCount()
+	 * @return the links of the page stored in the given row, as a view into this store.
+	 */
+	public LinkList getLinksForRow(int row) {
+		int start = offsets.get(row) ;
+		int end = offsets.get(row+1) ;
+
+		return new LinkList(targets, counts, start, end-start) ;
+	}
+
+	private static IntBuffer allocate(int capacity) {
+		return ByteBuffer.allocateDirect(capacity*4).order(ByteOrder.nativeOrder()).asIntBuffer() ;
+	}
+
+	private static IntBuffer ensureCapacity(IntBuffer buffer, int required) {
+
+		if (buffer.capacity() >= required)
+			return buffer ;
+
+		long newCapacity = Math.max((long)buffer.capacity() * 2, required) ;
+		if (newCapacity > Integer.MAX_VALUE/4)
+			newCapacity = Integer.MAX_VALUE/4 ;
+
+		if (newCapacity < required)
+			throw new IllegalStateException("too many links to store in a single buffer") ;
+
+		IntBuffer grown = allocate((int)newCapacity) ;
+		buffer.flip() ;
+		grown.put(buffer) ;
+		return grown ;
+	}
+
+	private static IntBuffer trim(IntBuffer buffer) {
+		if (buffer.position() == buffer.capacity()) {
+			buffer.flip() ;
+			return buffer ;
+		}
+
+		IntBuffer trimmed = allocate(buffer.position()) ;
+		buffer.flip() ;
+		trimmed.put(buffer) ;
+		trimmed.flip() ;
+		return trimmed ;
+	}
+
+	/**
+	 * Incrementally builds a {@link LinkStore}, one page at a time. Links are written straight into direct
+	 * buffers as they are added, so no intermediate per-page arrays need to be retained.
+	 */
+	public static class Builder {
+
+		private boolean withCounts ;
+
+		private TIntArrayList ids ;
+		private IntBuffer offsets ;
+		private IntBuffer targets ;
+		private IntBuffer counts ;
+
+		private int linkCount = 0 ;
+
+		/**
+		 * @param withCounts true if a count should be stored alongside each link, otherwise false.
+		 * @param expectedPages an estimate of the number of pages that will be added
+		 * @param expectedLinks an estimate of the number of links that will be added
+		 */
+		public Builder(boolean withCounts, int expectedPages, int expectedLinks) {
+			this.withCounts = withCounts ;
+
+			ids = new TIntArrayList(Math.max(16, expectedPages)) ;
+			offsets = allocate(Math.max(16, expectedPages+1)) ;
+			targets = allocate(Math.max(16, expectedLinks)) ;
+			if (withCounts)
+				counts = allocate(Math.max(16, expectedLinks)) ;
+
+			offsets.put(0) ;
+		}
+
+		/**
+		 * Adds a new row to the store, containing the links of a single page. Pages must not be added more than once.
+		 *
+		 * @param id the id of the page
+		 * @param linkIds the ids of the pages that it links to (or is linked from), in ascending order
+		 */
+		public void add(int id, int[] linkIds) {
+			if (withCounts)
+				throw new IllegalStateException("this store requires a count for each link") ;
+
+			add(id, linkIds, null, linkIds.length) ;
+		}
+
+		/**
+		 * Adds a new row to the store, containing the links of a single page. Pages must not be added more than once.
+		 *
+		 * @param id the id of the page
+		 * @param linkIds the ids of the pages that it links to (or is linked from), in ascending order
+		 * @param linkCounts the count for each of the given link ids
+		 * @param length the number of links to take from the given arrays
+		 */
+		public void add(int id, int[] linkIds, int[] linkCounts, int length) {
+			add(id, linkIds, linkCounts, 0, length) ;
+		}
+
+		/**
+		 * Adds a new row to the store, containing the links of a single page. Pages must not be added more than once.
+		 *
+		 * @param id the id of the page
+		 * @param linkIds the ids of the pages that it links to (or is linked from), in ascending order
+		 * @param linkCounts the count for each of the given link ids
+		 * @param start the index of the first link to take from the given arrays
+		 * @param length the number of links to take from the given arrays
+		 */
+		public void add(int id, int[] linkIds, int[] linkCounts, int start, int length) {
+
+			if (withCounts && linkCounts == null)
+				throw new IllegalStateException("this store requires a count for each link") ;
+
+			ids.add(id) ;
+
+			targets = ensureCapacity(targets, linkCount + length) ;
+			targets.put(linkIds, start, length) ;
+
+			if (withCounts) {
+				counts = ensureCapacity(counts, linkCount + length) ;
+				counts.put(linkCounts, start, length) ;
+			}
+
+			linkCount += length ;
+
+			offsets = ensureCapacity(offsets, ids.size() + 1) ;
+			offsets.put(linkCount) ;
+		}
+
+		/**
+		 * @return the completed store. The builder should not be used after this is called.
+		 */
+		public LinkStore build() {
+			IntBuffer c = null ;
+			if (withCounts)
+				c = trim(counts) ;
+
+			return new LinkStore(ids.toNativeArray(), trim(offsets), trim(targets), c) ;
+		}
+	}
+}
@@ -0,0 +1,387 @@
+/*
+ *    MinimalPerfectHash.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * @author David Milne
+ *
+ * A minimal perfect hash over a fixed set of byte strings (typically UTF-8 encoded text), which maps each of
+ * the <em>n</em> strings to a distinct slot between 0 and <em>n</em>-1. The strings themselves are stored in a single
+ * byte arena, in slot order, so that lookups of strings outside of the set can be detected and rejected.
+ * <p>
+ * This uses the hash-and-displace approach: strings are hashed into small buckets, and each bucket is given a
+ * displacement that moves all of its strings into free slots. Only the displacements, the arena and an offset for
+ * each string need to be stored, so the whole structure takes up a few bytes per string plus the strings themselves,
+ * and can be held in direct or memory-mapped buffers.
+ */
+public class MinimalPerfectHash {
+
+	private static final int KEYS_PER_BUCKET = 4 ;
+	private static final int MAX_ATTEMPTS = 32 ;
+	private static final int MAX_D0 = 64 ;
+
+	private long seed ;
+	private int keyCount ;
+	private int bucketCount ;
+
+	private LongBuffer displacements ;
+	private IntBuffer keyOffsets ;
+	private ByteBuffer keys ;
+
+	/**
+	 * Creates a hash over existing buffers. This is used to wrap buffers that have been memory-mapped from a file,
+	 * and is not needed otherwise; use {@link #build(byte[][])} instead.
+	 *
+	 * @param seed the seed that the hash was built with
+	 * @param displacements the displacement of each bucket
+	 * @param keyOffsets keyCount+1 offsets, such that the key in slot s is found from keyOffsets[s] (inclusive) to keyOffsets[s+1] (exclusive)
+	 * @param keys the arena of keys, in slot order
+	 */
+	public MinimalPerfectHash(long seed, LongBuffer displacements, IntBuffer keyOffsets, ByteBuffer keys) {
+		this.seed = seed ;
+		this.displacements = displacements ;
+		this.keyOffsets = keyOffsets ;
+		this.keys = keys ;
+
+		this.bucketCount = displacements.limit() ;
+		this.keyCount = keyOffsets.limit() - 1 ;
+	}
+
+	/**
+	 * Builds a minimal perfect hash over the given keys.
+	 *
+	 * @param keys a set of distinct keys
+	 * @return a hash that maps each key to a distinct slot
+	 * @throws IllegalArgumentException if any key occurs more than once, or (very unlikely) if no hash function can be found that separates the keys
+	 */
+	public static MinimalPerfectHash build(byte[][] keys) {
+
+		int n = keys.length ;
+		int m = Math.max(1, (n + KEYS_PER_BUCKET - 1) / KEYS_PER_BUCKET) ;
+
+		for (int attempt=0 ; attempt<MAX_ATTEMPTS ; attempt++) {
+			long seed = 0x9E3779B97F4A7C15L * (attempt+1) ;
+
+			long[] disp = new long[m] ;
+			int[] slots = place(keys, seed, disp) ;
+			if (slots == null)
+				continue ;
+
+			// lay the keys out in slot order
+			int[] keysBySlot = new int[n] ;
+			for (int k=0 ; k<n ; k++)
+				keysBySlot[slots[k]] = k ;
+
+			int[] offsets = new int[n+1] ;
+			long length = 0 ;
+			for (int s=0 ; s<n ; s++) {
+				offsets[s] = (int)length ;
+				length = length + keys[keysBySlot[s]].length ;
+
+				if (length > Integer.MAX_VALUE)
+					throw new IllegalArgumentException("keys are too large to store in a single arena") ;
+			}
+			offsets[n] = (int)length ;
+
+			byte[] arena = new byte[(int)length] ;
+			for (int s=0 ; s<n ; s++) {
+				byte[] key = keys[keysBySlot[s]] ;
+				System.arraycopy(key, 0, arena, offsets[s], key.length) ;
+			}
+
+			return new MinimalPerfectHash(seed, LongBuffer.wrap(disp), IntBuffer.wrap(offsets), ByteBuffer.wrap(arena)) ;
+		}
+
+		throw new IllegalArgumentException("could not find a perfect hash for the given keys") ;
+	}
+
+	/**
+	 * Assigns every key to a slot, by finding a displacement for each bucket.
+	 *
+	 * @param disp an array to store the displacement of each bucket in. Its length determines the number of buckets.
+	 * @return the slot of each key, or null if this seed could not separate the keys.
+	 */
+	private static int[] place(byte[][] keys, long seed, long[] disp) {
+
+		int n = keys.length ;
+		int m = disp.length ;
+
+		long[] hashes = new long[n] ;
+		int[] bucketSizes = new int[m] ;
+		for (int k=0 ; k<n ; k++) {
+			hashes[k] = hash(keys[k], seed) ;
+			bucketSizes[getBucket(hashes[k], m)]++ ;
+		}
+
+		// group keys by bucket
+		int[] bucketStarts = new int[m+1] ;
+		int maxBucketSize = 0 ;
+		for (int b=0 ; b<m ; b++) {
+			bucketStarts[b+1] = bucketStarts[b] + bucketSizes[b] ;
+			maxBucketSize = Math.max(maxBucketSize, bucketSizes[b]) ;
+		}
+
+		int[] bucketKeys = new int[n] ;
+		int[] fill = new int[m] ;
+		for (int k=0 ; k<n ; k++) {
+			int b = getBucket(hashes[k], m) ;
+			bucketKeys[bucketStarts[b] + fill[b]] = k ;
+			fill[b]++ ;
+		}
+		fill = null ;
+
+		// order buckets by descending size, so the hardest ones are placed while the table is still empty
+		int[] sizeStarts = new int[maxBucketSize+2] ;
+		for (int b=0 ; b<m ; b++)
+			sizeStarts[maxBucketSize - bucketSizes[b] + 1]++ ;
+		for (int s=1 ; s<sizeStarts.length ; s++)
+			sizeStarts[s] = sizeStarts[s] + sizeStarts[s-1] ;
+
+		int[] orderedBuckets = new int[m] ;
+		for (int b=0 ; b<m ; b++)
+			orderedBuckets[sizeStarts[maxBucketSize - bucketSizes[b]]++] = b ;
+
+		boolean[] taken = new boolean[n] ;
+		int[] slots = new int[n] ;
+
+		int[] f1 = new int[maxBucketSize] ;
+		int[] f2 = new int[maxBucketSize] ;
+		int[] candidates = new int[maxBucketSize] ;
+
+		int nextFree = 0 ;
+
+		for (int b:orderedBuckets) {
+			int size = bucketSizes[b] ;
+			int start = bucketStarts[b] ;
+
+			if (size == 0)
+				break ;
+
+			for (int i=0 ; i<size ; i++) {
+				long g = mix(hashes[bucketKeys[start+i]]) ;
+				f1[i] = getF1(g, n) ;
+				f2[i] = getF2(g, n) ;
+			}
+
+			if (size == 1) {
+				// a single key can be moved straight into the next free slot
+				while (taken[nextFree])
+					nextFree++ ;
+
+				int d1 = (nextFree - f1[0]) % n ;
+				if (d1 < 0) d1 = d1 + n ;
+
+				disp[b] = d1 ;
+				taken[nextFree] = true ;
+				slots[bucketKeys[start]] = nextFree ;
+				continue ;
+			}
+
+			// keys that are indistinguishable under this seed can never be separated by any displacement
+			for (int i=0 ; i<size ; i++) {
+				for (int j=i+1 ; j<size ; j++) {
+					if (f1[i] == f1[j] && f2[i] == f2[j]) {
+						if (Arrays.equals(keys[bucketKeys[start+i]], keys[bucketKeys[start+j]]))
+							throw new IllegalArgumentException("duplicate key: " + toString(keys[bucketKeys[start+i]])) ;
+						return null ;
+					}
+				}
+			}
+
+			boolean placed = false ;
+			for (int d0=0 ; d0<MAX_D0 && !placed ; d0++) {
+				for (int d1=0 ; d1<n && !placed ; d1++) {
+
+					boolean ok = true ;
+					for (int i=0 ; i<size && ok ; i++) {
+						int slot = getSlot(f1[i], f2[i], d0, d1, n) ;
+
+						if (taken[slot]) {
+							ok = false ;
+						} else {
+							for (int j=0 ; j<i ; j++) {
+								if (candidates[j] == slot) {
+									ok = false ;
+									break ;
+								}
+							}
+						}
+						candidates[i] = slot ;
+					}
+
+					if (ok) {
+						for (int i=0 ; i<size ; i++) {
+							taken[candidates[i]] = true ;
+							slots[bucketKeys[start+i]] = candidates[i] ;
+						}
+						disp[b] = ((long)d0 << 32) | d1 ;
+						placed = true ;
+					}
+				}
+			}
+
+			if (!placed)
+				return null ;
+		}
+
+		return slots ;
+	}
+
+	/**
+	 * @return the number of keys in this hash
+	 */
+	public int size() {
+		return keyCount ;
+	}
+
+	/**
+	 * Returns the slot of the given key.
+	 *
+	 * @param key the key to search for
+	 * @return the slot of the given key, or -1 if it is not one of the keys this hash was built from.
+	 */
+	public int lookup(byte[] key) {
+
+		if (keyCount == 0)
+			return -1 ;
+
+		long h = hash(key, seed) ;
+		long d = displacements.get(getBucket(h, bucketCount)) ;
+
+		long g = mix(h) ;
+		int slot = getSlot(getF1(g, keyCount), getF2(g, keyCount), (int)(d >>> 32), (int)d, keyCount) ;
+
+		int start = keyOffsets.get(slot) ;
+		int end = keyOffsets.get(slot+1) ;
+
+		if (end - start != key.length)
+			return -1 ;
+
+		for (int i=0 ; i<key.length ; i++) {
+			if (keys.get(start+i) != key[i])
+				return -1 ;
+		}
+
+		return slot ;
+	}
+
+	/**
+	 * @param slot a slot between 0 and size()
+	 * @return a copy of the key stored in the given slot
+	 */
+	public byte[] getKey(int slot) {
+		int start = keyOffsets.get(slot) ;
+		byte[] key = new byte[keyOffsets.get(slot+1) - start] ;
+
+		for (int i=0 ; i<key.length ; i++)
+			key[i] = keys.get(start+i) ;
+
+		return key ;
+	}
+
+	/**
+	 * @return the seed this hash was built with
+	 */
+	public long getSeed() {
+		return seed ;
+	}
+
+	/**
+	 * @return the number of buckets (and therefore displacements) in this hash
+	 */
+	public int getBucketCount() {
+		return bucketCount ;
+	}
+
+	/**
+	 * @param bucket the index of a bucket, between 0 and getBucketCount()
+	 * @return the displacement of the given bucket
+	 */
+	public long getDisplacement(int bucket) {
+		return displacements.get(bucket) ;
+	}
+
+	/**
+	 * @param slot the index of a slot, between 0 and size()+1
+	 * @return the position in the key arena at which the key of the given slot begins (or, for the last slot, where the keys end)
+	 */
+	public int getKeyOffset(int slot) {
+		return keyOffsets.get(slot) ;
+	}
+
+	/**
+	 * @return a read-only view of the arena containing all keys, in slot order
+	 */
+	public ByteBuffer getKeys() {
+		ByteBuffer view = keys.asReadOnlyBuffer() ;
+		view.clear() ;
+		return view ;
+	}
+
+	private static int getBucket(long hash, int bucketCount) {
+		return (int)((hash >>> 1) % bucketCount) ;
+	}
+
+	private static int getF1(long g, int n) {
+		return (int)((g >>> 33) % n) ;
+	}
+
+	private static int getF2(long g, int n) {
+		return (int)((g & 0x7FFFFFFFL) % n) ;
+	}
+
+	private static int getSlot(int f1, int f2, int d0, int d1, int n) {
+		return (int)((f1 + ((long)d0 * f2) + d1) % n) ;
+	}
+
+	private static long hash(byte[] key, long seed) {
+		long h = seed ^ (key.length * 0xC6A4A7935BD1E995L) ;
+
+		for (byte b:key) {
+			h ^= (b & 0xFF) ;
+			h *= 0x100000001B3L ;
+		}
+
+		return mix(h) ;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33 ;
+		h *= 0xFF51AFD7ED558CCDL ;
+		h ^= h >>> 33 ;
+		h *= 0xC4CEB9FE1A85EC53L ;
+		h ^= h >>> 33 ;
+		return h ;
+	}
+
+	private static String toString(byte[] key) {
+		try {
+			return new String(key, "UTF-8") ;
+		} catch (UnsupportedEncodingException e) {
+			return new String(key) ;
+		}
+	}
+}
@@ -19,28 +19,59 @@
 
 package org.wikipedia.miner.util;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This convenience class provides access to a MySql database via the MySqlConnector-J toolkit. 
+ * <p>
+ * Connections are drawn from a {@link ConnectionPool}, so that several threads can query the database at once. Each thread 
+ * leases a connection from the pool when it creates its first statement, and hands it back once all of its statements 
+ * have been closed (or when releaseConnection() is called), so statements created by the same thread always share a 
+ * connection.
+ * <p>
+ * Queries that are issued frequently can be registered by name (see registerStatement()), and are then prepared once 
+ * per connection and reused (see prepareStatement()), rather than being built up and parsed again for every call.
  * 
  * @author David Milne
  */
 public class MySqlDatabase {
 	
-	private Connection connection ;
+	/**
+	 * The number of pooled connections that are used if no pool size is specified.
+	 */
+	public static final int DEFAULT_POOL_SIZE = 4 ;
+	
+	/**
+	 * The maximum time (in milliseconds) that a thread will wait for a pooled connection to become free.
+	 */
+	public static final long MAX_CONNECTION_WAIT = 60000 ;
+	
+	private ConnectionPool pool ;
+	private String url ;
+	private ThreadLocal<Lease> leases = new ThreadLocal<Lease>() ;
+	private ThreadLocal<Boolean> holding = new ThreadLocal<Boolean>() ;
+	private HashMap<String,String> registeredStatements = new HashMap<String,String>() ;
 	
 	private String server ;
 	private String databaseName ;
 	private String userName ;
 	private String password ;
 	private String encoding ;
+	private int poolSize ;
 	
-	private int statementsIssued ;
+	private AtomicInteger statementsIssued ;
 	
 	/**
 	 * Initializes a newly created MySqlDatabase and attempts to make a connection to the 
@@ -54,16 +85,41 @@ public class MySqlDatabase {
 	 * @throws Exception if there is a problem connecting to the database defined by given arguments.
 	 */
 	public MySqlDatabase(String server, String databaseName, String userName, String password, String encoding) throws Exception{
+		this(server, databaseName, userName, password, encoding, DEFAULT_POOL_SIZE) ;
+	}
+	
+	/**
+	 * Initializes a newly created MySqlDatabase and attempts to make a connection to the 
+	 * database defined by the arguments given.
+	 *
+	 * @param server the connection string for the server (e.g 130.232.231.053:8080 or bob:8080)
+	 * @param databaseName the name of the database (e.g <em>enwiki</em>)
+	 * @param userName the user for the sql database (null if anonymous)
+	 * @param password the users password (null if anonymous)
+	 * @param encoding the character encoding (e.g. utf8) in which data is stored (null if using database default)
+	 * @param poolSize the maximum number of connections to hold open at once (i.e. the number of threads that can query the database at once)
+	 * @throws Exception if there is a problem connecting to the database defined by given arguments.
+	 */
+	public MySqlDatabase(String server, String databaseName, String userName, String password, String encoding, int poolSize) throws Exception{
 		
 		this.server = server ;
 		this.databaseName = databaseName ;
 		this.userName = userName ;
 		this.password = password ;
 		this.encoding = encoding ;
-		this.statementsIssued = 0 ;
+		this.poolSize = poolSize ;
+		this.statementsIssued = new AtomicInteger(0) ;
 		connect() ;
 	}
 	
+	/**
+	 * Initializes a MySqlDatabase that is not connected to any server (e.g. for subclasses that are served from 
+	 * somewhere else). Every attempt to create a statement will fail. 
+	 */
+	protected MySqlDatabase() {
+		this.statementsIssued = new AtomicInteger(0) ;
+	}
+	
 	/**
 	 * @return true if the connection to the database is active, otherwise false.
 	 */
@@ -83,7 +139,9 @@ public class MySqlDatabase {
 	}
 	
 	/**
-	 * attempts to make a connection to the mysql database.
+	 * attempts to make a connection to the mysql database. Any existing pool of connections is replaced; connections that 
+	 * are currently leased from it are closed once they are released.
+	 * 
 	 * @throws	SQLException	if a connection cannot be made.
 	 * @throws InstantiationException	if the mysql driver class cannot be instantiated
 	 * @throws IllegalAccessException	if the mysql driver class cannot be instantiated
@@ -118,9 +176,150 @@ public class MySqlDatabase {
 				url = url + "&characterEncoding=" + encoding ;
 			else
 				url = url + "?characterEncoding=" + encoding ;	
+			
+			argsStarted = true ;
+		}
+		
+		// have the server parse registered statements once, rather than having the driver substitute parameters into the text of every query
+		if (argsStarted)
+			url = url + "&useServerPrepStmts=true" ;
+		else
+			url = url + "?useServerPrepStmts=true" ;
+		
+		// send batches of inserts as single statements 
+		url = url + "&rewriteBatchedStatements=true" ;
+		
+		ConnectionPool newPool = new ConnectionPool(url, poolSize, MAX_CONNECTION_WAIT) ;
+		
+		// open one connection straight away, so that bad connection details are reported here 
+		newPool.release(newPool.borrow()) ;
+		
+		ConnectionPool oldPool = pool ;
+		pool = newPool ;
+		this.url = url ;
+		
+		if (oldPool != null)
+			oldPool.close() ;
+	}
+	
+	/**
+	 * Opens a connection of its own, outside of the pool, on which csv files can be handed straight to the server with 
+	 * LOAD DATA LOCAL INFILE. Pooled connections do not allow this, so that only bulk loads can have the server ask for 
+	 * local files. The caller must close the connection once the load is done.
+	 * <p>
+	 * Subclasses may override this to load files some other way (or to observe what is loaded).
+	 * 
+	 * @return a new connection on which local files can be loaded
+	 * @throws SQLException if the connection cannot be made
+	 */
+	protected Connection openBulkLoadConnection() throws SQLException {
+		
+		if (url == null)
+			throw new SQLException("This database is not connected to a server") ;
+		
+		return DriverManager.getConnection(url + "&allowLoadLocalInfile=true") ;
+	}
+	
+	/**
+	 * @return the pool from which connections are drawn, which can be consulted to see how many connections are in use and how long threads have waited for them.
+	 */
+	public ConnectionPool getConnectionPool() {
+		return pool ;
+	}
+	
+	/**
+	 * Leases a connection to the calling thread (if it does not hold one already) and keeps it until releaseConnection() is 
+	 * called, even if all statements created from it are closed in the meantime. This is only needed when a thread must 
+	 * issue a sequence of statements on the same connection, such as within a transaction.
+	 * 
+	 * @return the connection that is leased to the calling thread
+	 * @throws SQLException if no connection could be obtained
+	 */
+	public Connection leaseConnection() throws SQLException {
+		Lease lease = getLease() ;
+		lease.held = true ;
+		return lease.connection ;
+	}
+	
+	/**
+	 * Asks that the next connection leased to the calling thread be kept until releaseConnection() is called, rather than 
+	 * handed back as soon as its statements are closed. No connection is borrowed until the thread creates its first 
+	 * statement, so servers can call this at the start of each request: requests that issue many statements borrow a 
+	 * single connection, and requests that are answered from caches never borrow one at all.
+	 */
+	public void holdConnection() {
+		holding.set(Boolean.TRUE) ;
+	}
+	
+	/**
+	 * Hands the connection leased to the calling thread (if any) back to the pool, even if statements created from it are 
+	 * still open. Servers should call this at the end of each request, so that statements which were never closed do not 
+	 * keep a connection out of the pool.
+	 */
+	public void releaseConnection() {
+		holding.remove() ;
+		
+		Lease lease = leases.get() ;
+		
+		if (lease == null)
+			return ;
+		
+		leases.remove() ;
+		lease.pool.release(lease.connection) ;
+	}
+	
+	private Lease getLease() throws SQLException {
+		Lease lease = leases.get() ;
+		
+		if (lease == null) {
+			ConnectionPool p = getPool() ;
+			lease = new Lease(p, p.borrow()) ;
+			lease.untilReleased = holding.get() != null ;
+			leases.set(lease) ;
+		}
+		
+		return lease ;
+	}
+	
+	/**
+	 * Replaces a connection that has dropped since it was last validated, if nothing else depends on it (no statements are 
+	 * open on it, and it is not held for a transaction). 
+	 * 
+	 * @return the lease of the replacement connection
+	 * @throws SQLException the given exception, if the connection cannot be replaced, or the exception thrown while obtaining a replacement
+	 */
+	private Lease replaceLease(Lease lease, SQLException e) throws SQLException {
+		if (lease.openStatements > 0 || lease.held)
+			throw e ;
+		
+		leases.remove() ;
+		lease.pool.discard(lease.connection) ;
+		
+		return getLease() ;
+	}
+	
+	private ConnectionPool getPool() throws SQLException {
+		ConnectionPool p = pool ;
+		
+		if (p == null)
+			throw new SQLException("not connected to a database server") ;
+		
+		return p ;
+	}
+	
+	private void statementClosed(Lease lease) {
+		lease.openStatements-- ;
+		
+		if (lease.dedicated) {
+			if (lease.openStatements <= 0)
+				lease.pool.release(lease.connection) ;
+			return ;
 		}
 		
-		connection = DriverManager.getConnection(url) ; 
+		if (lease.openStatements <= 0 && !lease.held && !lease.untilReleased && leases.get() == lease) {
+			leases.remove() ;
+			lease.pool.release(lease.connection) ;
+		}
 	}
 	
 	/**
@@ -132,7 +331,21 @@ public class MySqlDatabase {
 	 * @throws SQLException if there is a problem with the database connection
 	 */
 	public void setAutoCommit(boolean autocommit) throws SQLException {
-		this.connection.setAutoCommit(autocommit) ;
+		
+		if (autocommit) {
+			Lease lease = leases.get() ;
+			if (lease == null)
+				return ;
+			
+			lease.connection.setAutoCommit(true) ;
+			lease.held = false ;
+			
+			if (lease.openStatements <= 0)
+				releaseConnection() ;
+		} else {
+			// pending updates live on a single connection, so it stays leased to this thread until autocommit is restored 
+			leaseConnection().setAutoCommit(false) ;
+		}
 	}
 	
 	/**
@@ -141,7 +354,10 @@ public class MySqlDatabase {
 	 * @throws SQLException if there is a problem with the database connection
 	 */
 	public void commit() throws SQLException {
-		this.connection.commit() ;
+		Lease lease = leases.get() ;
+		
+		if (lease != null)
+			lease.connection.commit() ;
 	}
 		
 	/**
@@ -151,18 +367,138 @@ public class MySqlDatabase {
 	 * @throws SQLException if there is a problem with the database connection
 	 */
 	public Statement createStatement() throws SQLException {
-		statementsIssued ++ ;
+		statementsIssued.incrementAndGet() ;
+		
+		Lease lease = getLease() ;
 		
+		Statement stmt ;
 		try {
-			return connection.createStatement() ;
+			stmt = lease.connection.createStatement() ;
 		} catch (SQLException e) {
-			try {
-				this.connect() ;
-				return connection.createStatement() ;
-			} catch (Exception e2) {
-				throw new SQLException() ;
-			}
+			// the connection may have dropped since it was validated, so replace it
+			lease = replaceLease(lease, e) ;
+			stmt = lease.connection.createStatement() ;
+		}
+		
+		lease.openStatements++ ;
+		
+		return (Statement)Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] {Statement.class}, new LeasedStatement(stmt, lease)) ;
+	}
+	
+	/**
+	 * Creates a Statement whose results are streamed from the server one row at a time, rather than read into memory 
+	 * all at once, so that whole tables can be scanned without holding them in memory. 
+	 * <p>
+	 * While a streamed result set is open, nothing else can be issued on its connection. So the statement is given a 
+	 * connection of its own (rather than the one leased to the calling thread), which is handed back to the pool when 
+	 * the statement is closed. The statement must therefore always be closed, and the pool must hold more than one
+	 * connection if the calling thread is to issue other statements while it reads the results.  
+	 *  
+	 * @return the statement object
+	 * @throws SQLException if there is a problem with the database connection
+	 */
+	public Statement createStreamingStatement() throws SQLException {
+		statementsIssued.incrementAndGet() ;
+		
+		ConnectionPool p = getPool() ;
+		Lease lease = new Lease(p, p.borrow()) ;
+		lease.dedicated = true ;
+		
+		Statement stmt ;
+		try {
+			stmt = lease.connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY) ;
+			
+			// this is how the mysql driver is told to stream results
+			stmt.setFetchSize(Integer.MIN_VALUE) ;
+		} catch (SQLException e) {
+			p.discard(lease.connection) ;
+			throw e ;
+		}
+		
+		lease.openStatements++ ;
+		
+		return (Statement)Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] {Statement.class}, new LeasedStatement(stmt, lease)) ;
+	}
+	
+	/**
+	 * Registers a query under the given name, so that it can be prepared via prepareStatement(). 
+	 * Registering the same name again replaces the query, for connections that have not yet prepared it.
+	 * 
+	 * @param name a name for the query 
+	 * @param sql the sql of the query, with a ? in place of each parameter
+	 */
+	public void registerStatement(String name, String sql) {
+		synchronized(registeredStatements) {
+			registeredStatements.put(name, sql) ;
+		}
+	}
+	
+	/**
+	 * @param name the name of a query
+	 * @return true if a query has been registered under the given name, otherwise false.
+	 */
+	public boolean isStatementRegistered(String name) {
+		synchronized(registeredStatements) {
+			return registeredStatements.containsKey(name) ;
+		}
+	}
+	
+	/**
+	 * Returns the query registered under the given name, prepared for the connection that is leased to the calling thread. 
+	 * Each query is only prepared once per connection; later calls reuse the same statement (with its parameters cleared), 
+	 * unless the calling thread is still using it, in which case a new one is prepared. 
+	 * <p>
+	 * The statement must be closed once it (and its results) are no longer needed, just like one obtained from createStatement().
+	 *  
+	 * @param name the name under which the query was registered (see registerStatement())
+	 * @return the prepared statement, which is ready to have its parameters set
+	 * @throws SQLException if no query is registered under the name, or if there is a problem with the database connection
+	 */
+	public PreparedStatement prepareStatement(String name) throws SQLException {
+		
+		String sql ;
+		synchronized(registeredStatements) {
+			sql = registeredStatements.get(name) ;
 		}
+		
+		if (sql == null) 
+			throw new SQLException("no statement has been registered as '" + name + "'") ;
+		
+		statementsIssued.incrementAndGet() ;
+		
+		Lease lease = getLease() ;
+		boolean cached = !lease.statementsInUse.contains(name) ;
+		
+		PreparedStatement stmt ;
+		try {
+			stmt = prepareStatement(lease, name, sql, cached) ;
+		} catch (SQLException e) {
+			// the connection may have dropped since it was validated, so replace it
+			lease = replaceLease(lease, e) ;
+			cached = true ;
+			stmt = prepareStatement(lease, name, sql, cached) ;
+		}
+		
+		lease.openStatements++ ;
+		
+		return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, new LeasedStatement(stmt, lease, cached ? name : null)) ;
+	}
+	
+	private PreparedStatement prepareStatement(Lease lease, String name, String sql, boolean cached) throws SQLException {
+		
+		if (!cached)
+			return lease.connection.prepareStatement(sql) ;
+		
+		HashMap<String,PreparedStatement> cache = lease.pool.getStatementCache(lease.connection) ;
+		PreparedStatement stmt = cache.get(name) ;
+		
+		if (stmt == null) {
+			stmt = lease.connection.prepareStatement(sql) ;
+			cache.put(name, stmt) ;
+		} 
+		
+		lease.statementsInUse.add(name) ;
+		return stmt ;
 	}
 	
 	/**
@@ -172,7 +508,7 @@ public class MySqlDatabase {
 	 * @return as above
 	 */
 	public int getStatementsIssuedSinceStartup() {
-		return statementsIssued ;
+		return statementsIssued.get() ;
 	}
 	
 	
@@ -331,5 +667,73 @@ public class MySqlDatabase {
 
 	  return( sb.toString());
 	 }
+	
+	/**
+	 * A connection that has been leased to a single thread, and the number of statements that are open on it.
+	 */
+	private static class Lease {
+		ConnectionPool pool ;
+		Connection connection ;
+		int openStatements = 0 ;
+		boolean held = false ;
+		boolean untilReleased = false ;
+		boolean dedicated = false ;
+		HashSet<String> statementsInUse = new HashSet<String>() ;
+		
+		Lease(ConnectionPool pool, Connection connection) {
+			this.pool = pool ;
+			this.connection = connection ;
+		}
+	}
+	
+	/**
+	 * Passes every call through to a statement, and hands its connection back to the pool once it (and every other 
+	 * statement on the same connection) has been closed. Statements that are cached for reuse are cleared rather 
+	 * than closed.
+	 */
+	private class LeasedStatement implements InvocationHandler {
+		
+		private Statement stmt ;
+		private Lease lease ;
+		private String cachedName ;
+		private boolean closed = false ;
+		
+		LeasedStatement(Statement stmt, Lease lease) {
+			this(stmt, lease, null) ;
+		}
+		
+		LeasedStatement(Statement stmt, Lease lease, String cachedName) {
+			this.stmt = stmt ;
+			this.lease = lease ;
+			this.cachedName = cachedName ;
+		}
+		
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			
+			if (method.getName().equals("close") && method.getParameterTypes().length == 0) {
+				if (closed)
+					return null ;
+				
+				closed = true ;
+				try {
+					if (cachedName == null) {
+						stmt.close() ;
+					} else {
+						lease.statementsInUse.remove(cachedName) ;
+						((PreparedStatement)stmt).clearParameters() ;
+						stmt.clearBatch() ;
+					}
+				} finally {
+					statementClosed(lease) ;
+				}
+				return null ;
+			}
+			
+			try {
+				return method.invoke(stmt, args) ;
+			} catch (InvocationTargetException e) {
+				throw e.getCause() ;
+			}
+		}
+	}
 }
-
@@ -27,8 +27,29 @@ import org.wikipedia.miner.model.* ;
  * @author David Milne
  * 
  * Provides efficient iteration over the pages in Wikipedia
+ * <p>
+ * By default pages are retrieved in buffers of 100000 at a time. An iterator can instead be created in streaming 
+ * mode (see PageIterator(WikipediaDatabase, int, int)), in which pages are read one at a time from a single forward-only 
+ * cursor, and content, link counts and definitions can be joined in so that they do not need to be queried page by page. 
+ * Streaming iterators hold a connection of their own until they are exhausted, so they must be closed if they are 
+ * abandoned part way through.
  */
 public class PageIterator implements Iterator<Page> {
+	
+	/**
+	 * Indicates that the content of each page should be retrieved along with it (if content has been imported)
+	 */
+	public static final int CONTENT = 1 ;
+	
+	/**
+	 * Indicates that the link counts of each article should be retrieved along with it
+	 */
+	public static final int LINK_COUNTS = 2 ;
+	
+	/**
+	 * Indicates that the definition of each page should be retrieved along with it (if definitions have been summarized)
+	 */
+	public static final int DEFINITIONS = 4 ;
 
 	WikipediaDatabase database ;
 
@@ -37,6 +58,15 @@ public class PageIterator implements Iterator<Page> {
 
 	int lastId = 0 ;
 	int bufferSize = 100000 ;
+	
+	// used only when streaming
+	boolean streaming = false ;
+	Statement streamStmt ;
+	ResultSet streamRs ;
+	Page nextPage ;
+	int contentCol = -1 ;
+	int linkCountCol = -1 ;
+	int definitionCol = -1 ;
 
 	/**
 	 * Creates an iterator that will loop through all pages in Wikipedia.
@@ -65,16 +95,113 @@ public class PageIterator implements Iterator<Page> {
 
 		fillBuffer() ;
 	}
+	
+	/**
+	 * Creates an iterator that will stream through all pages of the given type in Wikipedia, from a single 
+	 * forward-only cursor. Any of CONTENT, LINK_COUNTS and DEFINITIONS can be combined (e.g. CONTENT|LINK_COUNTS) 
+	 * to retrieve those details with each page. 
+	 * 
+	 * @param database an active (connected) Wikipedia database.
+	 * @param pageType the type of page to restrict the iterator to (ARTICLE, CATEGORY, REDIRECT or DISAMBIGUATION_PAGE), or -1 for all pages
+	 * @param details the details to retrieve along with each page, or 0 for none.
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	public PageIterator(WikipediaDatabase database, int pageType, int details) throws SQLException {
+		this.database = database ;
+		this.pageType = pageType ;
+		this.streaming = true ;
+		
+		StringBuffer select = new StringBuffer("SELECT page_id, page_title, page_type") ;
+		StringBuffer from = new StringBuffer(" FROM page") ;
+		int col = 4 ;
+		
+		if ((details & CONTENT) != 0 && database.isContentImported()) {
+			select.append(", co_content") ;
+			from.append(" LEFT JOIN content ON co_id=page_id") ;
+			contentCol = col ;
+			col++ ;
+		}
+		
+		if ((details & LINK_COUNTS) != 0) {
+			select.append(", lc_in, lc_out") ;
+			from.append(" LEFT JOIN linkcount ON lc_id=page_id") ;
+			linkCountCol = col ;
+			col = col + 2 ;
+		}
+		
+		if ((details & DEFINITIONS) != 0 && database.areDefinitionsSummarized()) {
+			select.append(", df_firstSentence, df_firstParagraph") ;
+			from.append(" LEFT JOIN definition ON df_id=page_id") ;
+			definitionCol = col ;
+			col = col + 2 ;
+		}
+		
+		if (pageType >= 0)
+			from.append(" WHERE page_type=" + pageType) ;
+		
+		streamStmt = database.createStreamingStatement() ;
+		try {
+			streamRs = streamStmt.executeQuery(select.toString() + from.toString() + " ORDER BY page_id") ;
+		} catch (SQLException e) {
+			streamStmt.close() ;
+			throw e ;
+		}
+		
+		pageBuffer = new Vector<Page>() ;
+		
+		readStreamedPage() ;
+	}
 
 	public boolean hasNext() {
+		if (streaming)
+			return nextPage != null ;
+		
 		return !pageBuffer.isEmpty() ;
 	}
+	
+	/**
+	 * Releases the resources held by this iterator. This happens automatically once the last page has been 
+	 * retrieved, so it only needs to be called if iteration is abandoned early.
+	 */
+	public void close() {
+		nextPage = null ;
+		pageBuffer.clear() ;
+		
+		if (streamRs != null) {
+			try {
+				streamRs.close() ;
+			} catch (SQLException e) {} ;
+			streamRs = null ;
+		}
+		
+		if (streamStmt != null) {
+			try {
+				streamStmt.close() ;
+			} catch (SQLException e) {} ;
+			streamStmt = null ;
+		}
+	}
 
 	public void remove() {
 		throw new UnsupportedOperationException() ;
 	}
 
 	public Page next() {
+		
+		if (streaming) {
+			if (nextPage == null)
+				throw new NoSuchElementException() ;
+			
+			Page p = nextPage ;
+			
+			try {
+				readStreamedPage() ;
+			} catch (SQLException e) {
+				e.printStackTrace() ;
+				close() ;
+			}
+			return p ;
+		}
 
 		if (pageBuffer.isEmpty())
 			throw new NoSuchElementException() ;
@@ -95,15 +222,10 @@ public class PageIterator implements Iterator<Page> {
 		Statement stmt = database.createStatement() ;
 		ResultSet rs = stmt.executeQuery("SELECT page_id, page_title, page_type FROM page WHERE page_id>" + lastId + " ORDER BY page_id LIMIT " + bufferSize) ;
 
-		if (!rs.first()) {
-			// there is nothing left to retrieve
-			rs.close() ;
-			stmt.close() ;
-			
-			throw new SQLException("No pages left to retrieve") ;
-		}
+		boolean retrieved = false ;
 
 		while (rs.next()) {
+			retrieved = true ;
 
 			try {
 				int id = rs.getInt(1) ;
@@ -126,6 +248,58 @@ public class PageIterator implements Iterator<Page> {
 		
 		rs.close() ;
 		stmt.close() ;
+		
+		if (!retrieved) 
+			throw new SQLException("No pages left to retrieve") ;
+	}
+	
+	private void readStreamedPage() throws SQLException {
+		
+		nextPage = null ;
+		
+		while (streamRs != null && nextPage == null) {
+			
+			if (!streamRs.next()) {
+				// there is nothing left to retrieve, so hand back the connection straight away
+				close() ;
+				return ;
+			}
+			
+			try {
+				int id = streamRs.getInt(1) ;
+				String title = new String(streamRs.getBytes(2), "UTF-8") ;
+				int type = streamRs.getInt(3) ;
+
+				Page p = Page.createPage(database, id, title, type) ;
+				if (p == null)
+					continue ;
+				
+				if (contentCol > 0) {
+					// content may be compressed, so it is left as it is until it is asked for
+					byte[] content = streamRs.getBytes(contentCol) ;
+					if (content != null)
+						p.prefetchContent(content) ;
+				}
+				
+				if (linkCountCol > 0 && p instanceof Article) {
+					// counts are null (and so read as 0) for articles that have no links at all
+					((Article)p).prefetchLinkCounts(streamRs.getInt(linkCountCol), streamRs.getInt(linkCountCol+1)) ;
+				}
+				
+				if (definitionCol > 0) {
+					byte[] fs = streamRs.getBytes(definitionCol) ;
+					byte[] fp = streamRs.getBytes(definitionCol+1) ;
+					if (fs != null && fp != null)
+						p.prefetchDefinition(new String(fs, "UTF-8"), new String(fp, "UTF-8")) ;
+				}
+				
+				nextPage = p ;
+				lastId = id ;
+				
+			} catch (java.io.UnsupportedEncodingException e) {
+				e.printStackTrace() ;
+			}
+		}
 	}
 }
 
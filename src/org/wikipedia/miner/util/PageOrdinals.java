@@ -0,0 +1,196 @@
+/*
+ *    PageOrdinals.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * @author David Milne
+ *
+ * Maps a set of sparse page ids to dense ordinals (0 to size()-1, in ascending order of id), so that data about
+ * pages can be held in plain arrays indexed by ordinal, rather than in hash maps indexed by id.
+ * <p>
+ * The set is stored as a bitmap with one bit for every possible id, and the ordinal of an id is the number of bits
+ * that are set before it (its rank). Ranks are precomputed at the start of every block of 512 bits, so finding an
+ * ordinal takes at most eight population counts, and never involves hashing. The sorted ids themselves are also
+ * kept, so that ordinals can be mapped back to ids.
+ */
+public class PageOrdinals {
+
+	/**
+	 * The number of 64 bit words covered by each precomputed rank.
+	 */
+	public static final int WORDS_PER_RANK = 8 ;
+
+	private LongBuffer bits ;
+	private IntBuffer ranks ;
+	private IntBuffer ids ;
+
+	/**
+	 * Creates ordinals over existing buffers. This is used to wrap buffers that have been memory-mapped from a file,
+	 * and is not needed otherwise; use {@link #build(int[])} instead.
+	 *
+	 * @param bits a bitmap, in which bit i (of word i/64) is set if id i is in the set
+	 * @param ranks the number of bits set before each block of WORDS_PER_RANK words
+	 * @param ids the ids in the set, in ascending order
+	 */
+	public PageOrdinals(LongBuffer bits, IntBuffer ranks, IntBuffer ids) {
+		this.bits = bits ;
+		this.ranks = ranks ;
+		this.ids = ids ;
+	}
+
+	/**
+	 * Builds ordinals for the given ids.
+	 *
+	 * @param pageIds the ids to assign ordinals to (in any order). Ids must not be negative, and duplicates are ignored.
+	 * @return the ordinals
+	 */
+	public static PageOrdinals build(int[] pageIds) {
+
+		int[] sorted = pageIds.clone() ;
+		Arrays.sort(sorted) ;
+
+		int count = 0 ;
+		for (int i=0 ; i<sorted.length ; i++) {
+			if (sorted[i] < 0)
+				throw new IllegalArgumentException("page ids cannot be negative: " + sorted[i]) ;
+
+			if (i == 0 || sorted[i] != sorted[i-1])
+				sorted[count++] = sorted[i] ;
+		}
+
+		int maxId = count > 0 ? sorted[count-1] : -1 ;
+		int wordCount = count == 0 ? 0 : (maxId >>> 6) + 1 ;
+		int rankCount = (wordCount + WORDS_PER_RANK - 1) / WORDS_PER_RANK ;
+
+		LongBuffer bits = ByteBuffer.allocateDirect(wordCount*8).asLongBuffer() ;
+		IntBuffer ranks = ByteBuffer.allocateDirect(rankCount*4).asIntBuffer() ;
+		IntBuffer ids = ByteBuffer.allocateDirect(count*4).asIntBuffer() ;
+
+		for (int i=0 ; i<count ; i++) {
+			int id = sorted[i] ;
+			int word = id >>> 6 ;
+			bits.put(word, bits.get(word) | (1L << (id & 63))) ;
+			ids.put(id) ;
+		}
+		ids.flip() ;
+
+		int rank = 0 ;
+		for (int r=0 ; r<rankCount ; r++) {
+			ranks.put(rank) ;
+
+			int end = Math.min(wordCount, (r+1)*WORDS_PER_RANK) ;
+			for (int w=r*WORDS_PER_RANK ; w<end ; w++)
+				rank = rank + Long.bitCount(bits.get(w)) ;
+		}
+		ranks.flip() ;
+
+		return new PageOrdinals(bits, ranks, ids) ;
+	}
+
+	/**
+	 * @return the number of ids that have ordinals
+	 */
+	public int size() {
+		return ids.limit() ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the ordinal of the given id, or -1 if it is not in the set.
+	 */
+	public int getOrdinal(int id) {
+
+		if (id < 0)
+			return -1 ;
+
+		int word = id >>> 6 ;
+		if (word >= bits.limit())
+			return -1 ;
+
+		long w = bits.get(word) ;
+		long mask = 1L << (id & 63) ;
+		if ((w & mask) == 0)
+			return -1 ;
+
+		int block = word / WORDS_PER_RANK ;
+		int rank = ranks.get(block) ;
+
+		for (int i=block*WORDS_PER_RANK ; i<word ; i++)
+			rank = rank + Long.bitCount(bits.get(i)) ;
+
+		return rank + Long.bitCount(w & (mask-1)) ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return true if the given id has an ordinal, otherwise false.
+	 */
+	public boolean contains(int id) {
+
+		if (id < 0)
+			return false ;
+
+		int word = id >>> 6 ;
+		if (word >= bits.limit())
+			return false ;
+
+		return (bits.get(word) & (1L << (id & 63))) != 0 ;
+	}
+
+	/**
+	 * @param ordinal an ordinal, between 0 and size()
+	 * @return the id that has the given ordinal
+	 */
+	public int getId(int ordinal) {
+		return ids.get(ordinal) ;
+	}
+
+	/**
+	 * @return the bitmap of ids, as a read-only view
+	 */
+	public LongBuffer getBits() {
+		LongBuffer view = bits.asReadOnlyBuffer() ;
+		view.position(0) ;
+		return view ;
+	}
+
+	/**
+	 * @return the precomputed ranks, as a read-only view
+	 */
+	public IntBuffer getRanks() {
+		IntBuffer view = ranks.asReadOnlyBuffer() ;
+		view.position(0) ;
+		return view ;
+	}
+
+	/**
+	 * @return the sorted ids, as a read-only view
+	 */
+	public IntBuffer getIds() {
+		IntBuffer view = ids.asReadOnlyBuffer() ;
+		view.position(0) ;
+		return view ;
+	}
+}
@@ -48,6 +48,8 @@ public class ProgressNotifier {
 	
 	private boolean clearPrevMessage = false ;
 	
+	private boolean showThroughput = false ;
+	
 	DecimalFormat percentFormat = new DecimalFormat("#0.00 %") ;
 	DecimalFormat digitFormat = new DecimalFormat("00") ;
 	
@@ -93,6 +95,16 @@ public class ProgressNotifier {
 		clearPrevMessage = val ;
 	}
 	
+	/**
+	 * Specifies whether the rate at which parts are completed is displayed along with progress. 
+	 * This is disabled by default.
+	 * 
+	 * @param val true if throughput is to be displayed, otherwise false.
+	 */
+	public void setShowThroughput(boolean val) {
+		showThroughput = val ;
+	}
+	
 	/**
 	 * Starts an unnamed task. Previous tasks are assumed to be completed. 
 	 * 
@@ -190,6 +202,9 @@ public class ProgressNotifier {
 		output = output + percentFormat.format(progress) 
 		+ " in " + formatTime(timeElapsed) 
 		+ ", ETA " + formatTime(timeLeft) ;	
+		
+		if (showThroughput && timeElapsed > 0) 
+			output = output + ", " + Math.round((currTask_partsDone * 1000.0) / timeElapsed) + " per second" ;
 
 		if (clearPrevMessage && lastMessageLength > 0) {
 			StringBuffer sb = new StringBuffer() ;
@@ -0,0 +1,93 @@
+/*
+ *    RowIndex.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import gnu.trove.TIntIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * @author David Milne
+ *
+ * Finds the row in which a page is stored, within a {@link LinkStore} or {@link CompressedLinkStore}. Rows are
+ * found through a hash map of page ids, or (if {@link PageOrdinals} are available) through a plain array indexed
+ * by ordinal. In the latter case the hash map only holds the few pages that have no ordinal.
+ */
+class RowIndex {
+
+	private PageOrdinals ordinals ;
+	private int[] rowsByOrdinal ;
+	private TIntIntHashMap rowsById ;
+
+	/**
+	 * @param ids the id of the page for each row
+	 */
+	public RowIndex(int[] ids) {
+		rowsById = new TIntIntHashMap(ids.length) ;
+		for (int row=0 ; row<ids.length ; row++)
+			rowsById.put(ids[row], row) ;
+	}
+
+	/**
+	 * @param ids the id of the page for each row
+	 * @param ordinals the ordinals to index rows by
+	 */
+	public RowIndex(int[] ids, PageOrdinals ordinals) {
+		this.ordinals = ordinals ;
+
+		rowsByOrdinal = new int[ordinals.size()] ;
+		Arrays.fill(rowsByOrdinal, -1) ;
+
+		rowsById = new TIntIntHashMap() ;
+		for (int row=0 ; row<ids.length ; row++) {
+			int ordinal = ordinals.getOrdinal(ids[row]) ;
+
+			if (ordinal >= 0)
+				rowsByOrdinal[ordinal] = row ;
+			else
+				rowsById.put(ids[row], row) ;
+		}
+	}
+
+	/**
+	 * @return the ordinals that rows are indexed by, or null if they are indexed by id alone.
+	 */
+	public PageOrdinals getOrdinals() {
+		return ordinals ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the row in which the given page is stored, or -1 if it is not stored.
+	 */
+	public int getRow(int id) {
+
+		if (ordinals != null) {
+			int ordinal = ordinals.getOrdinal(id) ;
+			if (ordinal >= 0)
+				return rowsByOrdinal[ordinal] ;
+		}
+
+		if (!rowsById.containsKey(id))
+			return -1 ;
+
+		return rowsById.get(id) ;
+	}
+}
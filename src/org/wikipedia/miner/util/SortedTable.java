@@ -0,0 +1,465 @@
+/*
+ *    SortedTable.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * @author David Milne
+ *
+ * A read-only file of values (byte arrays) keyed by integer ids, such as page ids. Tables are written once, in
+ * ascending order of key, by a {@link Builder}, and can then be opened by many threads at once.
+ * <p>
+ * Entries are gathered into blocks of roughly equal size, which are compressed separately. Only a sparse index (the
+ * first key and location of each block) is held in memory, so retrieving a value costs a binary search of the index,
+ * a single positional read of one block, and a scan through that block. Recently used blocks can optionally be kept
+ * (already decompressed) in a cache of fixed size, so that neighbouring or repeated lookups do not touch the disk.
+ * <p>
+ * A table starts with a header (magic number, format version, compression, entry and block counts, and the location
+ * of the index), followed by the blocks, followed by the index.
+ */
+public class SortedTable {
+
+	/**
+	 * The version of the table format written by this class. Tables of any other version must be rebuilt.
+	 */
+	public static final int VERSION = 1 ;
+
+	/**
+	 * The default number of (uncompressed) bytes gathered into each block.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 65536 ;
+
+	private static final long MAGIC = 0x574d535441424c45L ; // "WMSTABLE"
+	private static final int HEADER_SIZE = 32 ;
+
+	private File file ;
+	private FileChannel channel ;
+
+	private boolean compressed ;
+	private int entryCount ;
+
+	// the sparse index; one entry per block
+	private int[] firstKeys ;
+	private long[] blockOffsets ;
+	private int[] blockLengths ;
+	private int[] rawLengths ;
+
+	private LinkedHashMap<Integer,byte[]> blockCache ;
+	private long cacheHits = 0 ;
+	private long cacheMisses = 0 ;
+
+	/**
+	 * Opens an existing table, without caching any blocks.
+	 *
+	 * @param file the table file
+	 * @throws IOException if the file cannot be read, is not a table, or was written by an incompatible version
+	 */
+	public SortedTable(File file) throws IOException {
+		this(file, 0) ;
+	}
+
+	/**
+	 * Opens an existing table.
+	 *
+	 * @param file the table file
+	 * @param cachedBlocks the maximum number of decompressed blocks to hold in memory, or 0 if blocks should not be cached
+	 * @throws IOException if the file cannot be read, is not a table, or was written by an incompatible version
+	 */
+	public SortedTable(File file, final int cachedBlocks) throws IOException {
+
+		this.file = file ;
+		channel = new FileInputStream(file).getChannel() ;
+
+		try {
+			ByteBuffer header = read(0, HEADER_SIZE) ;
+
+			if (header.getLong() != MAGIC)
+				throw new IOException(file.getPath() + " is not a sorted table") ;
+
+			int version = header.getInt() ;
+			if (version != VERSION)
+				throw new IOException(file.getPath() + " was written with table format " + version + ", but format " + VERSION + " is required. Please build it again.") ;
+
+			compressed = header.getInt() != 0 ;
+			entryCount = header.getInt() ;
+			int blockCount = header.getInt() ;
+			long indexOffset = header.getLong() ;
+
+			firstKeys = new int[blockCount] ;
+			blockOffsets = new long[blockCount] ;
+			blockLengths = new int[blockCount] ;
+			rawLengths = new int[blockCount] ;
+
+			ByteBuffer index = read(indexOffset, blockCount*20) ;
+			for (int b=0 ; b<blockCount ; b++) {
+				firstKeys[b] = index.getInt() ;
+				blockOffsets[b] = index.getLong() ;
+				blockLengths[b] = index.getInt() ;
+				rawLengths[b] = index.getInt() ;
+			}
+		} catch (IOException e) {
+			channel.close() ;
+			throw e ;
+		}
+
+		if (cachedBlocks > 0) {
+			blockCache = new LinkedHashMap<Integer,byte[]>(16, 0.75f, true) {
+				protected boolean removeEldestEntry(Map.Entry<Integer,byte[]> eldest) {
+					return size() > cachedBlocks ;
+				}
+			} ;
+		}
+	}
+
+	/**
+	 * @param key the key of an entry
+	 * @return the value stored against the given key, or null if there is no such entry.
+	 * @throws IOException if the table cannot be read
+	 */
+	public byte[] get(int key) throws IOException {
+
+		int block = findBlock(key) ;
+		if (block < 0)
+			return null ;
+
+		ByteBuffer entries = ByteBuffer.wrap(getBlock(block)) ;
+
+		while (entries.hasRemaining()) {
+			int k = entries.getInt() ;
+			int length = entries.getInt() ;
+
+			if (k == key) {
+				byte[] value = new byte[length] ;
+				entries.get(value) ;
+				return value ;
+			}
+
+			// entries are sorted, so we have gone past where it would be
+			if (k > key)
+				return null ;
+
+			entries.position(entries.position() + length) ;
+		}
+
+		return null ;
+	}
+
+	/**
+	 * @return the number of entries in the table
+	 */
+	public int size() {
+		return entryCount ;
+	}
+
+	/**
+	 * @return the number of blocks that entries are gathered into
+	 */
+	public int getBlockCount() {
+		return firstKeys.length ;
+	}
+
+	/**
+	 * @return true if blocks are compressed, otherwise false.
+	 */
+	public boolean isCompressed() {
+		return compressed ;
+	}
+
+	/**
+	 * @return the number of lookups that were answered from the block cache.
+	 */
+	public long getCacheHits() {
+		return cacheHits ;
+	}
+
+	/**
+	 * @return the number of lookups that had to read a block from disk.
+	 */
+	public long getCacheMisses() {
+		return cacheMisses ;
+	}
+
+	/**
+	 * Releases the file held by this table. No further lookups can be made.
+	 *
+	 * @throws IOException if the file cannot be closed
+	 */
+	public void close() throws IOException {
+		channel.close() ;
+	}
+
+	public String toString() {
+		return file.getName() + ": " + entryCount + " entries in " + firstKeys.length + " blocks" ;
+	}
+
+	/**
+	 * Returns the only block that could contain the given key (the last one that starts at or before it), or -1 if
+	 * the key comes before every block.
+	 */
+	private int findBlock(int key) {
+		int index = Arrays.binarySearch(firstKeys, key) ;
+
+		if (index >= 0)
+			return index ;
+
+		return (-index - 1) - 1 ;
+	}
+
+	private byte[] getBlock(int block) throws IOException {
+
+		if (blockCache != null) {
+			synchronized (blockCache) {
+				byte[] entries = blockCache.get(block) ;
+				if (entries != null) {
+					cacheHits++ ;
+					return entries ;
+				}
+				cacheMisses++ ;
+			}
+		}
+
+		byte[] stored = read(blockOffsets[block], blockLengths[block]).array() ;
+		byte[] entries = stored ;
+
+		if (compressed) {
+			entries = new byte[rawLengths[block]] ;
+
+			Inflater inflater = new Inflater() ;
+			try {
+				inflater.setInput(stored) ;
+				int length = 0 ;
+				while (length < entries.length && !inflater.finished()) {
+					int inflated = inflater.inflate(entries, length, entries.length - length) ;
+					length = length + inflated ;
+
+					if (inflated == 0) {
+						// blocks are never compressed with a dictionary
+						if (inflater.needsDictionary())
+							throw new IOException("block " + block + " of " + file.getPath() + " is corrupt") ;
+
+						if (inflater.needsInput())
+							throw new IOException("block " + block + " of " + file.getPath() + " is truncated") ;
+					}
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("block " + block + " of " + file.getPath() + " is corrupt") ;
+			} finally {
+				inflater.end() ;
+			}
+		}
+
+		if (blockCache != null) {
+			synchronized (blockCache) {
+				blockCache.put(block, entries) ;
+			}
+		}
+
+		return entries ;
+	}
+
+	/**
+	 * Reads the given range of the file. Positional reads are used, so that many threads can read from the file at once.
+	 */
+	private ByteBuffer read(long offset, int length) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(length) ;
+
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, offset + buffer.position()) ;
+			if (read < 0)
+				throw new EOFException(file.getPath() + " is truncated") ;
+		}
+
+		buffer.flip() ;
+		return buffer ;
+	}
+
+	/**
+	 * Writes a new table. Entries must be added in ascending order of key, and the builder must be closed once the
+	 * last entry has been added, or the table will not be readable.
+	 */
+	public static class Builder {
+
+		private File file ;
+		private DataOutputStream out ;
+		private long position = 0 ;
+
+		private int blockSize ;
+		private boolean compress ;
+		private Deflater deflater ;
+
+		private ByteArrayOutputStream block ;
+		private DataOutputStream blockOut ;
+		private int blockFirstKey ;
+
+		private int lastKey = Integer.MIN_VALUE ;
+		private int entryCount = 0 ;
+
+		private TIntArrayList firstKeys = new TIntArrayList() ;
+		private TLongArrayList blockOffsets = new TLongArrayList() ;
+		private TIntArrayList blockLengths = new TIntArrayList() ;
+		private TIntArrayList rawLengths = new TIntArrayList() ;
+
+		/**
+		 * Creates a builder for a table with compressed blocks of the default size. Any existing file will be overwritten.
+		 *
+		 * @param file the file to write the table to
+		 * @throws IOException if the file cannot be written
+		 */
+		public Builder(File file) throws IOException {
+			this(file, DEFAULT_BLOCK_SIZE, true) ;
+		}
+
+		/**
+		 * Creates a builder for a table. Any existing file will be overwritten.
+		 *
+		 * @param file the file to write the table to
+		 * @param blockSize the number of (uncompressed) bytes to gather into each block. Larger blocks compress better, but take longer to retrieve a single value from.
+		 * @param compress true if blocks should be compressed, otherwise false.
+		 * @throws IOException if the file cannot be written
+		 */
+		public Builder(File file, int blockSize, boolean compress) throws IOException {
+			this.file = file ;
+			this.blockSize = blockSize ;
+			this.compress = compress ;
+
+			if (compress)
+				deflater = new Deflater(Deflater.BEST_COMPRESSION) ;
+
+			block = new ByteArrayOutputStream(blockSize + (blockSize/4)) ;
+			blockOut = new DataOutputStream(block) ;
+
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20)) ;
+
+			// header, which is filled in once we know where the index ends up
+			out.write(new byte[HEADER_SIZE]) ;
+			position = HEADER_SIZE ;
+		}
+
+		/**
+		 * Adds a new entry to the table.
+		 *
+		 * @param key the key of the entry, which must be greater than that of any entry already added
+		 * @param value the value of the entry
+		 * @throws IOException if the table cannot be written
+		 */
+		public void add(int key, byte[] value) throws IOException {
+
+			if (entryCount > 0 && key <= lastKey)
+				throw new IllegalArgumentException("entries must be added in ascending order of key (" + key + " follows " + lastKey + ")") ;
+
+			if (block.size() == 0)
+				blockFirstKey = key ;
+
+			blockOut.writeInt(key) ;
+			blockOut.writeInt(value.length) ;
+			blockOut.write(value) ;
+
+			lastKey = key ;
+			entryCount++ ;
+
+			if (block.size() >= blockSize)
+				writeBlock() ;
+		}
+
+		/**
+		 * @return the number of entries added so far
+		 */
+		public int size() {
+			return entryCount ;
+		}
+
+		/**
+		 * Writes the last block and the index, and closes the file.
+		 *
+		 * @throws IOException if the table cannot be written
+		 */
+		public void close() throws IOException {
+
+			if (block.size() > 0)
+				writeBlock() ;
+
+			long indexOffset = position ;
+			for (int b=0 ; b<firstKeys.size() ; b++) {
+				out.writeInt(firstKeys.get(b)) ;
+				out.writeLong(blockOffsets.get(b)) ;
+				out.writeInt(blockLengths.get(b)) ;
+				out.writeInt(rawLengths.get(b)) ;
+			}
+			out.close() ;
+
+			if (deflater != null)
+				deflater.end() ;
+
+			RandomAccessFile raf = new RandomAccessFile(file, "rw") ;
+			try {
+				raf.writeLong(MAGIC) ;
+				raf.writeInt(VERSION) ;
+				raf.writeInt(compress ? 1 : 0) ;
+				raf.writeInt(entryCount) ;
+				raf.writeInt(firstKeys.size()) ;
+				raf.writeLong(indexOffset) ;
+			} finally {
+				raf.close() ;
+			}
+		}
+
+		private void writeBlock() throws IOException {
+
+			byte[] entries = block.toByteArray() ;
+			block.reset() ;
+
+			byte[] stored = entries ;
+			int storedLength = entries.length ;
+
+			if (compress) {
+				deflater.reset() ;
+				deflater.setInput(entries) ;
+				deflater.finish() ;
+
+				stored = new byte[entries.length + (entries.length/1000) + 64] ;
+				storedLength = 0 ;
+				while (!deflater.finished()) {
+					if (storedLength == stored.length)
+						stored = Arrays.copyOf(stored, stored.length*2) ;
+
+					storedLength = storedLength + deflater.deflate(stored, storedLength, stored.length - storedLength) ;
+				}
+			}
+
+			out.write(stored, 0, storedLength) ;
+
+			firstKeys.add(blockFirstKey) ;
+			blockOffsets.add(position) ;
+			blockLengths.add(storedLength) ;
+			rawLengths.add(entries.length) ;
+
+			position = position + storedLength ;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ *    TaskScheduler.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.util.* ;
+import java.util.concurrent.* ;
+
+/**
+ * @author David Milne
+ *
+ * Runs a set of jobs on a bounded pool of threads, such that each job only starts once all of the jobs it depends on
+ * have completed. Jobs that do not depend on each other run concurrently.
+ * <p>
+ * Each job is given its own ProgressNotifier, and the progress of all jobs is combined (weighted by the expected
+ * cost of each job) by {@link #getProgress()}.
+ */
+public class TaskScheduler {
+
+	/**
+	 * A unit of work to be run by a TaskScheduler.
+	 */
+	public interface Job {
+
+		/**
+		 * Performs the work.
+		 *
+		 * @param pn a progress notifier that the job should report its progress to
+		 * @throws Exception if the job fails
+		 */
+		public void run(ProgressNotifier pn) throws Exception ;
+	}
+
+	/**
+	 * A job that has been added to a scheduler, which other jobs may depend upon.
+	 */
+	public class Task {
+
+		private String name ;
+		private Job job ;
+		private double weight ;
+		private Vector<Task> dependents = new Vector<Task>() ;
+		private int unfinishedDependencies = 0 ;
+
+		private ProgressNotifier pn ;
+		private boolean finished = false ;
+
+		private Task(String name, Job job, double weight) {
+			this.name = name ;
+			this.job = job ;
+			this.weight = weight ;
+			this.pn = new ProgressNotifier(1) ;
+		}
+
+		/**
+		 * @return the name of this task
+		 */
+		public String getName() {
+			return name ;
+		}
+
+		private double getProgress() {
+			if (finished)
+				return 1 ;
+
+			double progress = pn.getGlobalProgress() ;
+			if (Double.isNaN(progress) || progress < 0)
+				return 0 ;
+
+			return Math.min(progress, 1) ;
+		}
+	}
+
+	private int threads ;
+	private Vector<Task> tasks = new Vector<Task>() ;
+
+	private ExecutorService executor ;
+	private int unfinishedTasks ;
+	private Exception failure ;
+
+	/**
+	 * Creates a scheduler that will run at most the given number of jobs at a time.
+	 *
+	 * @param threads the maximum number of jobs to run concurrently
+	 */
+	public TaskScheduler(int threads) {
+		this.threads = Math.max(1, threads) ;
+	}
+
+	/**
+	 * Adds a job to this scheduler.
+	 *
+	 * @param name a name for the job, used when reporting failures
+	 * @param weight the expected cost of the job relative to others (e.g. the size of the file it reads), used to combine progress
+	 * @param job the job to run
+	 * @param dependencies the tasks that must complete before this job can start
+	 * @return the task that was created for the job, which other jobs may depend upon
+	 */
+	public synchronized Task add(String name, double weight, Job job, Task... dependencies) {
+
+		if (executor != null)
+			throw new IllegalStateException("jobs cannot be added once the scheduler has started") ;
+
+		Task task = new Task(name, job, weight) ;
+
+		for (Task dependency:dependencies) {
+			dependency.dependents.add(task) ;
+			task.unfinishedDependencies++ ;
+		}
+
+		tasks.add(task) ;
+		return task ;
+	}
+
+	/**
+	 * Runs all jobs, and blocks until they have all completed. If any job fails, then no further jobs are started,
+	 * and the failure is rethrown once the jobs that are already running have finished.
+	 *
+	 * @throws Exception the first exception thrown by any job
+	 */
+	public void run() throws Exception {
+
+		synchronized(this) {
+			if (executor != null)
+				throw new IllegalStateException("the scheduler has already been run") ;
+
+			executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, tasks.size()))) ;
+			unfinishedTasks = tasks.size() ;
+
+			for (Task task:tasks) {
+				if (task.unfinishedDependencies == 0)
+					submit(task) ;
+			}
+
+			try {
+				while (unfinishedTasks > 0 && failure == null)
+					wait() ;
+			} finally {
+				executor.shutdown() ;
+			}
+		}
+
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS) ;
+
+		if (failure != null)
+			throw failure ;
+	}
+
+	/**
+	 * @return the combined progress of all jobs, between 0 and 1.
+	 */
+	public synchronized double getProgress() {
+
+		double totalWeight = 0 ;
+		double progress = 0 ;
+
+		for (Task task:tasks) {
+			totalWeight = totalWeight + task.weight ;
+			progress = progress + (task.weight * task.getProgress()) ;
+		}
+
+		if (totalWeight == 0)
+			return 0 ;
+
+		return progress / totalWeight ;
+	}
+
+	private void submit(final Task task) {
+
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					task.job.run(task.pn) ;
+					finished(task, null) ;
+				} catch (Exception e) {
+					finished(task, new Exception("job \"" + task.name + "\" failed", e)) ;
+				} catch (Error e) {
+					finished(task, new Exception("job \"" + task.name + "\" failed", e)) ;
+					throw e ;
+				}
+			}
+		}) ;
+	}
+
+	private synchronized void finished(Task task, Exception e) {
+
+		unfinishedTasks-- ;
+
+		if (e != null) {
+			if (failure == null)
+				failure = e ;
+		} else {
+			task.finished = true ;
+
+			if (failure == null) {
+				for (Task dependent:task.dependents) {
+					dependent.unfinishedDependencies-- ;
+					if (dependent.unfinishedDependencies == 0)
+						submit(dependent) ;
+				}
+			}
+		}
+
+		notifyAll() ;
+	}
+}